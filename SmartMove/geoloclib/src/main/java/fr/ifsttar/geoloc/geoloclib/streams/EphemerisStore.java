@@ -0,0 +1,261 @@
+///=================================================================================================
+// Class EphemerisStore
+///=================================================================================================
+/*
+ * Copyright 2018(c) IFSTTAR - TeamGEOLOC
+ *
+ * This file is part of the GeolocPVT application.
+ *
+ * GeolocPVT is distributed as a free software in order to build a community of users, contributors,
+ * developers who will contribute to the project and ensure the necessary means for its evolution.
+ *
+ * GeolocPVT is a free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version. Any modification of source code in this
+ * LGPL software must also be published under the LGPL license.
+ *
+ * GeolocPVT is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with GeolocPVT.
+ * If not, see <https://www.gnu.org/licenses/lgpl.txt/>.
+ */
+package fr.ifsttar.geoloc.geoloclib.streams;
+
+import org.gogpsproject.ephemeris.GNSSEphemeris;
+import org.gogpsproject.ephemeris.GNSSEphemerisCorrections;
+import org.gogpsproject.ephemeris.GlonassEphemeris;
+import org.gogpsproject.ephemeris.KeplerianEphemeris;
+import org.gogpsproject.ephemeris.PreciseCorrection;
+import org.gogpsproject.ephemeris.SatelliteCodeBiases;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class EphemerisStore
+ *
+ * Latest ephemeris, orbit and clock corrections and code biases of each satellite, written by
+ * the stream thread and read by the positioning thread.
+ *
+ * Every update publishes a new immutable snapshot, readers get a consistent view of all the
+ * satellites with {@link #getSnapshot()} without locking. A broadcast with the same issue of
+ * data as the stored one is ignored, so snapshots and copies are only made on real updates.
+ */
+public class EphemerisStore
+{
+    /**
+     * Content of the store at one time. Never modified once published: the maps and the objects
+     * they hold must be treated as read-only.
+     */
+    public static class Snapshot
+    {
+        private final long version;
+        private final HashMap<String, GNSSEphemeris> ephemeris;
+        private final GNSSEphemerisCorrections corrections;
+        private final SatelliteCodeBiases codeBiases;
+
+        private Snapshot(long version, HashMap<String, GNSSEphemeris> ephemeris,
+                         GNSSEphemerisCorrections corrections, SatelliteCodeBiases codeBiases)
+        {
+            this.version = version;
+            this.ephemeris = ephemeris;
+            this.corrections = corrections;
+            this.codeBiases = codeBiases;
+        }
+
+        /**
+         * @return Number of updates published before this snapshot
+         */
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public HashMap<String, GNSSEphemeris> getEphemeris()
+        {
+            return ephemeris;
+        }
+
+        public GNSSEphemerisCorrections getCorrections()
+        {
+            return corrections;
+        }
+
+        public SatelliteCodeBiases getCodeBiases()
+        {
+            return codeBiases;
+        }
+    }
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(
+            new Snapshot(0, new HashMap<String, GNSSEphemeris>(), new GNSSEphemerisCorrections(),
+                    new SatelliteCodeBiases()));
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Current content of the store
+     */
+    public Snapshot getSnapshot()
+    {
+        return snapshot.get();
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Store the ephemeris of a satellite, the store keeps the instance.
+     * @param key Satellite index
+     * @param eph New ephemeris, not modified afterwards
+     * @return False if the same issue of data was already stored
+     */
+    public boolean putEphemeris(String key, GNSSEphemeris eph)
+    {
+        while (true)
+        {
+            Snapshot current = snapshot.get();
+            if (isSameIssue(current.ephemeris.get(key), eph))
+            {
+                return false;
+            }
+
+            HashMap<String, GNSSEphemeris> ephemeris = new HashMap<>(current.ephemeris);
+            ephemeris.put(key, eph);
+            Snapshot next = new Snapshot(current.version + 1, ephemeris, current.corrections,
+                    current.codeBiases);
+            if (snapshot.compareAndSet(current, next))
+            {
+                return true;
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Merge orbit and clock corrections, a correction identical to the stored one is ignored.
+     * @param corrections New corrections by satellite index
+     * @return False if nothing changed
+     */
+    public boolean putCorrections(Map<String, PreciseCorrection> corrections)
+    {
+        while (true)
+        {
+            Snapshot current = snapshot.get();
+            Map<String, PreciseCorrection> stored = current.corrections.getCorrections();
+            boolean changed = false;
+            for (Map.Entry<String, PreciseCorrection> entry : corrections.entrySet())
+            {
+                if (!isSameIssue(stored.get(entry.getKey()), entry.getValue()))
+                {
+                    changed = true;
+                    break;
+                }
+            }
+            if (!changed)
+            {
+                return false;
+            }
+
+            GNSSEphemerisCorrections merged = new GNSSEphemerisCorrections();
+            merged.getCorrections().putAll(stored);
+            merged.getCorrections().putAll(corrections);
+            Snapshot next = new Snapshot(current.version + 1, current.ephemeris, merged,
+                    current.codeBiases);
+            if (snapshot.compareAndSet(current, next))
+            {
+                return true;
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Merge code biases, a bias identical to the stored one is ignored.
+     * @param codeBiases New biases by satellite index
+     * @return False if nothing changed
+     */
+    public boolean putCodeBiases(Map<String, SatelliteCodeBiases.CodeBias> codeBiases)
+    {
+        while (true)
+        {
+            Snapshot current = snapshot.get();
+            Map<String, SatelliteCodeBiases.CodeBias> stored = current.codeBiases.getCb();
+            boolean changed = false;
+            for (Map.Entry<String, SatelliteCodeBiases.CodeBias> entry : codeBiases.entrySet())
+            {
+                if (!isSameIssue(stored.get(entry.getKey()), entry.getValue()))
+                {
+                    changed = true;
+                    break;
+                }
+            }
+            if (!changed)
+            {
+                return false;
+            }
+
+            HashMap<String, SatelliteCodeBiases.CodeBias> merged = new HashMap<>(stored);
+            merged.putAll(codeBiases);
+            SatelliteCodeBiases biases = new SatelliteCodeBiases();
+            biases.setCb(merged);
+            Snapshot next = new Snapshot(current.version + 1, current.ephemeris,
+                    current.corrections, biases);
+            if (snapshot.compareAndSet(current, next))
+            {
+                return true;
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Compare the issue of data of two ephemeris of a satellite: IODE, reference times and week
+     * for Keplerian ephemeris, reference time tb for GLONASS.
+     */
+    private static boolean isSameIssue(GNSSEphemeris stored, GNSSEphemeris eph)
+    {
+        if (stored == null || stored.getClass() != eph.getClass())
+        {
+            return false;
+        }
+        if (stored instanceof GlonassEphemeris)
+        {
+            return ((GlonassEphemeris) stored).getTb() == ((GlonassEphemeris) eph).getTb()
+                    && ((GlonassEphemeris) stored).getTk() == ((GlonassEphemeris) eph).getTk();
+        }
+        if (stored instanceof KeplerianEphemeris)
+        {
+            return stored.getIode() == eph.getIode()
+                    && stored.getIodc() == eph.getIodc()
+                    && stored.getWn() == eph.getWn()
+                    && ((KeplerianEphemeris) stored).getToe() == ((KeplerianEphemeris) eph).getToe()
+                    && ((KeplerianEphemeris) stored).getToc() == ((KeplerianEphemeris) eph).getToc();
+        }
+        return false;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static boolean isSameIssue(PreciseCorrection stored, PreciseCorrection corr)
+    {
+        return stored != null
+                && stored.getIode() == corr.getIode()
+                && stored.getTow() == corr.getTow()
+                && stored.getTod() == corr.getTod();
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static boolean isSameIssue(SatelliteCodeBiases.CodeBias stored, SatelliteCodeBiases.CodeBias cb)
+    {
+        return stored != null
+                && stored.getIod() == cb.getIod()
+                && stored.getTow() == cb.getTow()
+                && stored.getTod() == cb.getTod();
+    }
+}
@@ -47,9 +47,7 @@ import fr.ifsttar.geoloc.geoloclib.Utils;
  */
 public class StreamEphemerisHandler implements StreamEventListener
 {
-    private HashMap<String, GNSSEphemeris>  mEphemerisGNSS;
-    private SatelliteCodeBiases  scb;
-    private GNSSEphemerisCorrections mEphemerisGNSSCorr;
+    private final EphemerisStore mStore;
 
     //----------------------------------------------------------------------------------------------
 
@@ -58,9 +56,7 @@ public class StreamEphemerisHandler implements StreamEventListener
      */
     public StreamEphemerisHandler()
     {
-        this.mEphemerisGNSS = new HashMap<>();
-        this.mEphemerisGNSSCorr = new GNSSEphemerisCorrections();
-        this.scb = new SatelliteCodeBiases();
+        this.mStore = new EphemerisStore();
     }
 
     //----------------------------------------------------------------------------------------------
@@ -90,42 +86,61 @@ public class StreamEphemerisHandler implements StreamEventListener
     {
         // TODO fix problem with glonass constellation problem
         String str = Utils.getFormattedSatIndex(eph.getGnssSystem(), eph.getPrn());
-        mEphemerisGNSS.put(str , eph.copy());
+        mStore.putEphemeris(str, eph);
     }
 
     //----------------------------------------------------------------------------------------------
 
+    /**
+     * @return Latest ephemeris of each satellite, read-only
+     */
     public HashMap< String, GNSSEphemeris>  getCurrentEphemeris()
     {
-        return mEphemerisGNSS;
+        return mStore.getSnapshot().getEphemeris();
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Consistent view of the ephemeris, corrections and code biases
+     */
+    public EphemerisStore.Snapshot getSnapshot()
+    {
+        return mStore.getSnapshot();
     }
 
     //----------------------------------------------------------------------------------------------
 
     public void addEphemerisCorr(GNSSEphemerisCorrections ephCorr)
     {
-        this.mEphemerisGNSSCorr.getCorrections().putAll(ephCorr.getCorrections());
+        mStore.putCorrections(ephCorr.getCorrections());
     }
 
     //----------------------------------------------------------------------------------------------
 
+    /**
+     * @return Latest orbit and clock corrections, read-only
+     */
     public GNSSEphemerisCorrections getEphemerisCorrections()
     {
-        return this.mEphemerisGNSSCorr;
+        return mStore.getSnapshot().getCorrections();
     }
 
     //----------------------------------------------------------------------------------------------
 
     public void addSatelliteCodeBiases(SatelliteCodeBiases _scb)
     {
-        this.scb.getCb().putAll(_scb.getCb());
+        mStore.putCodeBiases(_scb.getCb());
     }
 
     //----------------------------------------------------------------------------------------------
 
+    /**
+     * @return Latest code biases, read-only
+     */
     public SatelliteCodeBiases getSatelliteCodeBiases()
     {
-        return scb;
+        return mStore.getSnapshot().getCodeBiases();
     }
 
     //----------------------------------------------------------------------------------------------
@@ -27,12 +27,24 @@ package fr.ifsttar.geoloc.geoloclib.streams;
 
 import android.util.Log;
 
+import org.gogpsproject.positioning.Coordinates;
 import org.gogpsproject.producer.parser.rtcm3.ConnectionSettings;
+import org.gogpsproject.producer.parser.rtcm3.NtripClientManager;
+import org.gogpsproject.producer.parser.rtcm3.RTCM3Client;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-public class Streams
+/**
+ * Class Streams
+ *
+ * Correction streams received on a single thread. The owner must call {@link #close()} when
+ * the streams are no longer needed, it is the only place the thread and sockets are released.
+ */
+public class Streams implements Closeable
 {
     public StreamEphemerisHandler corrSel;
     public StreamEphemerisHandler ephSel;
@@ -41,6 +53,12 @@ public class Streams
 
     private ConnectionParameters connectionParameters;
 
+    /** Receives all the mount points on a single thread */
+    private NtripClientManager ntripClientManager;
+
+    /** Client of each registered mount point, by handler */
+    private LinkedHashMap<StreamEphemerisHandler, RTCM3Client> clients;
+
     //----------------------------------------------------------------------------------------------
 
     /**
@@ -49,6 +67,7 @@ public class Streams
     public Streams(ConnectionParameters _connectionParameters)
     {
         listSEH = new ArrayList<>();
+        clients = new LinkedHashMap<>();
 
         connectionParameters = _connectionParameters;
 
@@ -58,40 +77,96 @@ public class Streams
 
     /**
      * Register a connection to a mount point for stream retrieval.
+     * The connection is opened in background and retried while it fails.
      * @param mountpoint Mount point name
-     * @return Listener of the stream
+     * @return False if the stream could not be registered
      */
     public boolean registerCorrectionStream(String mountpoint)
     {
         StreamEphemerisHandler rrtcm;
-        boolean success = false;
-
-        RTCMRunnable rtcmRunnable = new RTCMRunnable(
-                connectionParameters.getHost(),
-                connectionParameters.getPort(),
-                connectionParameters.getUser(),
-                connectionParameters.getPassword(),
-                mountpoint);
-
-        Thread thread = new Thread(rtcmRunnable);
-        thread.start();
-        try {
-            thread.join();
+        RTCM3Client mrtcmclient;
+
+        try
+        {
+            if(ntripClientManager == null || !ntripClientManager.isRunning())
+            {
+                ntripClientManager = new NtripClientManager();
+                ntripClientManager.start();
+            }
+
+            ConnectionSettings settings = new ConnectionSettings(
+                    connectionParameters.getHost(),
+                    connectionParameters.getPort(),
+                    connectionParameters.getUser(),
+                    connectionParameters.getPassword());
+            settings.setSource(mountpoint);
+
+            Coordinates coordinates = Coordinates.globalGeodInstance(48.56186, 1.48164, 500);
+
+            mrtcmclient = new RTCM3Client(settings);
+
+            mrtcmclient.setVirtualReferenceStationPosition(coordinates);
+            mrtcmclient.setMarkerName(mountpoint);
+            mrtcmclient.setReconnectionPolicy(RTCM3Client.CONNECTION_POLICY_RECONNECT);
+            mrtcmclient.setExitPolicy(RTCM3Client.EXIT_NEVER);
+            mrtcmclient.setReconnectionWaitingTime(10);
+            mrtcmclient.setDebug(false);
+
+            // the handler only swaps references in its store, it is called directly on the
+            // manager thread rather than through a queue and a thread of its own
+            rrtcm = new StreamEphemerisHandler();
+
+            mrtcmclient.addStreamEventListener(rrtcm);
+
+            if(!ntripClientManager.register(mrtcmclient))
+            {
+                mrtcmclient.removeStreamEventListener(rrtcm);
+                Log.e("STREAMS", "Cannot register the mount point " + mountpoint);
+                return false;
+            }
         }
-        catch(Exception e)
+        catch (IOException e)
         {
-            // do something
+            Log.e("STREAMS", "Cannot start the NTRIP client: " + e);
+            return false;
         }
 
-        rrtcm = rtcmRunnable.getSEL();
+        listSEH.add(rrtcm);
+        clients.put(rrtcm, mrtcmclient);
+
+        return true;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Close all the registered streams and stop the thread receiving them. Their handlers are
+     * removed, streams registered afterwards start on a new thread.
+     */
+    @Override
+    public void close()
+    {
+        if(ntripClientManager == null)
+        {
+            return;
+        }
 
-        if(rrtcm != null)
+        try
+        {
+            ntripClientManager.stop(true, 10 * 1000);
+        }
+        catch (InterruptedException e)
         {
-            listSEH.add(rtcmRunnable.getSEL());
-            success = true;
+            e.printStackTrace();
         }
+        ntripClientManager = null;
 
-        return success;
+        for(Map.Entry<StreamEphemerisHandler, RTCM3Client> entry : clients.entrySet())
+        {
+            entry.getValue().removeStreamEventListener(entry.getKey());
+        }
+        clients.clear();
+        listSEH.clear();
     }
 
     //----------------------------------------------------------------------------------------------
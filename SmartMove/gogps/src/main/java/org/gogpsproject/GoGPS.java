@@ -21,10 +21,12 @@
 package org.gogpsproject;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.gogpsproject.consumer.PositionConsumer;
 import org.gogpsproject.positioning.*;
 import org.gogpsproject.producer.*;
+import org.gogpsproject.util.LatencyHistogram;
 
 /**
  * The Class GoGPS.
@@ -111,7 +113,9 @@ public class GoGPS implements Runnable{
 	KALMAN_FILTER_CODE_PHASE_STANDALONE,
 	KALMAN_FILTER_CODE_PHASE_DOUBLE_DIFF,
 	CODE_STANDALONE_SNAPSHOT,
-	CODE_STANDALONE_COARSETIME
+	CODE_STANDALONE_COARSETIME,
+	CODE_STANDALONE_BATCH,
+	CODE_STANDALONE_PIPELINE
   }
 
   private RunMode runMode;
@@ -139,10 +143,17 @@ public class GoGPS implements Runnable{
   /** coarse time error */
   private long offsetms = 0;
 
-  private Vector<PositionConsumer> positionConsumers = new Vector<PositionConsumer>();
+  /** copied on write, notified without locking */
+  private List<PositionConsumer> positionConsumers = new CopyOnWriteArrayList<PositionConsumer>();
 
-//	private boolean debug = false;
-  private boolean debug = true;
+  /** no output */
+  public final static int LOG_OFF = 0;
+  /** output of each epoch */
+  public final static int LOG_DEBUG = 1;
+  /** output of each iteration and candidate of the solvers */
+  public final static int LOG_TRACE = 2;
+
+  private int logLevel = LOG_DEBUG;
 
   private boolean useDTM = false;
 
@@ -171,6 +182,24 @@ public class GoGPS implements Runnable{
   private double phaseResidThreshold = 0.05;
 
   private boolean searchForOutliers = false;
+
+  /** time window solved by each worker in batch mode (s) */
+  private int batchWindow = 600;
+
+  /** number of batch mode workers, 0 for the number of processors */
+  private int batchParallelism = 0;
+
+  /** number of workers trying the time offsets of a snapshot, 0 for the number of processors */
+  private int snapshotParallelism = 0;
+
+  /** observations searched for an a priori position in coarse time mode */
+  private int coarseTimeWindow = 100;
+
+  /** epochs queued between two stages of the pipeline mode */
+  private int pipelineCapacity = 16;
+
+  /** time spent by each epoch in each stage of the pipeline mode */
+  private LatencyHistogram[] pipelineLatency;
   
   /**
    * Instantiates a new GoGPS.
@@ -200,6 +229,42 @@ public class GoGPS implements Runnable{
     this( navigation, roverIn, null );
   }
   
+  /**
+   * Instance with the same settings and navigation, and its own rover, master
+   * and satellites, for the workers of the batch mode. Observation producers
+   * and position consumers are not shared.
+   *
+   * @return the new instance
+   */
+  public GoGPS fork() {
+    GoGPS goGPS = new GoGPS(navigation, null, null);
+    goGPS.freq = freq;
+    goGPS.dualFreq = dualFreq;
+    goGPS.weights = weights;
+    goGPS.dynamicModel = dynamicModel;
+    goGPS.cycleSlipThreshold = cycleSlipThreshold;
+    goGPS.cycleSlipDetectionStrategy = cycleSlipDetectionStrategy;
+    goGPS.ambiguityStrategy = ambiguityStrategy;
+    goGPS.cutoff = cutoff;
+    goGPS.offsetms = offsetms;
+    goGPS.logLevel = logLevel;
+    goGPS.useDTM = useDTM;
+    goGPS.useDoppler = useDoppler;
+    goGPS.truePos = truePos;
+    goGPS.posLimit = posLimit;
+    goGPS.maxHeight = maxHeight;
+    goGPS.hdopLimit = hdopLimit;
+    goGPS.codeResidThreshold = codeResidThreshold;
+    goGPS.phaseResidThreshold = phaseResidThreshold;
+    goGPS.searchForOutliers = searchForOutliers;
+    goGPS.batchWindow = batchWindow;
+    goGPS.batchParallelism = batchParallelism;
+    goGPS.snapshotParallelism = snapshotParallelism;
+    goGPS.coarseTimeWindow = coarseTimeWindow;
+    goGPS.pipelineCapacity = pipelineCapacity;
+    return goGPS;
+  }
+
   /**
    * Gets the navigation.
    *
@@ -411,18 +476,38 @@ public class GoGPS implements Runnable{
   }
 
   /**
-   * @return the debug
+   * @return true if the output of each epoch is printed
    */
   public boolean isDebug() {
-  	return debug;
+  	return logLevel >= LOG_DEBUG;
   }
 
   /**
-   * @param debug the debug to set
+   * @param debug true for at least the output of each epoch, false for no output
    * @return 
    */
   public GoGPS setDebug(boolean debug) {
-  	this.debug = debug;
+  	this.logLevel = debug ? Math.max(logLevel, LOG_DEBUG) : LOG_OFF;
+    return this;
+  }
+
+  /**
+   * @return true if the output of each solver iteration is printed
+   */
+  public boolean isTrace() {
+    return logLevel >= LOG_TRACE;
+  }
+
+  public int getLogLevel() {
+    return logLevel;
+  }
+
+  /**
+   * @param logLevel one of the LOG_ constants
+   * @return 
+   */
+  public GoGPS setLogLevel(int logLevel) {
+    this.logLevel = logLevel;
     return this;
   }
 
@@ -471,6 +556,81 @@ public class GoGPS implements Runnable{
 	return searchForOutliers ;
   }
 
+  public int getBatchWindow() {
+    return batchWindow;
+  }
+
+  /**
+   * @param batchWindow time window solved by each worker in batch mode (s)
+   */
+  public GoGPS setBatchWindow(int batchWindow) {
+    this.batchWindow = batchWindow;
+    return this;
+  }
+
+  public int getBatchParallelism() {
+    return batchParallelism;
+  }
+
+  /**
+   * @param batchParallelism number of batch mode workers, 0 for the number of processors
+   */
+  public GoGPS setBatchParallelism(int batchParallelism) {
+    this.batchParallelism = batchParallelism;
+    return this;
+  }
+
+  public int getSnapshotParallelism() {
+    return snapshotParallelism;
+  }
+
+  /**
+   * @param snapshotParallelism number of workers trying the time offsets of a snapshot
+   * concurrently, 1 to try them in turn, 0 for the number of processors
+   */
+  public GoGPS setSnapshotParallelism(int snapshotParallelism) {
+    this.snapshotParallelism = snapshotParallelism;
+    return this;
+  }
+
+  public int getCoarseTimeWindow() {
+    return coarseTimeWindow;
+  }
+
+  /**
+   * @param coarseTimeWindow observations searched for an a priori position in coarse time mode,
+   * the one with most satellites is used
+   */
+  public GoGPS setCoarseTimeWindow(int coarseTimeWindow) {
+    this.coarseTimeWindow = coarseTimeWindow;
+    return this;
+  }
+
+  public int getPipelineCapacity() {
+    return pipelineCapacity;
+  }
+
+  /**
+   * @param pipelineCapacity epochs queued between two stages of the pipeline mode
+   */
+  public GoGPS setPipelineCapacity(int pipelineCapacity) {
+    this.pipelineCapacity = pipelineCapacity;
+    return this;
+  }
+
+  /**
+   * @param stage LS_SA_code_pipeline.STAGE_INGEST to STAGE_PUBLISH, or LS_SA_code_pipeline.FIX
+   * @return latencies of the last pipeline mode run, in nanoseconds
+   */
+  public synchronized LatencyHistogram getPipelineLatency(int stage) {
+    if( pipelineLatency == null ) {
+      pipelineLatency = new LatencyHistogram[LS_SA_code_pipeline.FIX + 1];
+      for( int s = 0; s < pipelineLatency.length; s++ )
+        pipelineLatency[s] = new LatencyHistogram();
+    }
+    return pipelineLatency[stage];
+  }
+
   public double getHdopLimit(){
     return hdopLimit;
   }
@@ -520,7 +680,7 @@ public class GoGPS implements Runnable{
 		positionConsumers.remove(positionConsumer);
 	}
 	
-	public Vector<PositionConsumer> getPositionConsumers() {
+	public List<PositionConsumer> getPositionConsumers() {
     return positionConsumers;
   }
 
@@ -603,6 +763,12 @@ public class GoGPS implements Runnable{
         case CODE_STANDALONE_COARSETIME:
           runThread.setName("goGPS standalone coarse time");
           break;
+        case CODE_STANDALONE_BATCH:
+          runThread.setName("goGPS standalone batch");
+          break;
+        case CODE_STANDALONE_PIPELINE:
+          runThread.setName("goGPS standalone pipeline");
+          break;
       }
       
       runThread.start();
@@ -640,6 +806,12 @@ public class GoGPS implements Runnable{
       case CODE_STANDALONE_COARSETIME:
         LS_SA_code_coarse_time.run( this, MODULO20MS );
         break;
+      case CODE_STANDALONE_BATCH:
+        LS_SA_code_batch.run(this);
+        break;
+      case CODE_STANDALONE_PIPELINE:
+        LS_SA_code_pipeline.run(this);
+        break;
   	}
   
   	notifyPositionConsumerEvent(PositionConsumer.EVENT_GOGPS_THREAD_ENDED);
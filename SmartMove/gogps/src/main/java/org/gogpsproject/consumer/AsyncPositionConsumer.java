@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2011 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.consumer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gogpsproject.positioning.RoverPosition;
+import org.gogpsproject.util.LatencyHistogram;
+
+/**
+ * <p>
+ * Delivers coordinates and events to a position consumer from its own
+ * thread, so that the solver does not wait for the consumer output.
+ * </p>
+ * <p>
+ * Coordinates and events are queued in a bounded queue and delivered in
+ * order, the coordinates in batches of up to {@link #getMaxBatch()} (as a
+ * list to a {@link BatchPositionConsumer}). When the queue is full the
+ * solver waits, or a coordinate is dropped, depending on the overflow
+ * policy; events are never dropped. Coordinates can also be decimated
+ * before being queued. The thread ends after delivering the end of track,
+ * later events are delivered by the caller.
+ * </p>
+ * <p>
+ * Subclasses can be consumers themselves by overriding
+ * {@link #deliver(List)} and {@link #deliverEvent(int)}.
+ * </p>
+ */
+public class AsyncPositionConsumer extends Thread implements PositionConsumer {
+
+	/** the solver waits for space in the queue */
+	public final static int OVERFLOW_BLOCK = 0;
+	/** the new coordinate is dropped */
+	public final static int OVERFLOW_DROP_NEWEST = 1;
+	/** the oldest queued coordinate is dropped */
+	public final static int OVERFLOW_DROP_OLDEST = 2;
+
+	public final static int DEFAULT_CAPACITY = 1024;
+
+	/** Coordinate or event in the queue */
+	private static class Item {
+		final RoverPosition coord;
+		final int event;
+		final long queued = System.nanoTime();
+
+		Item(RoverPosition coord, int event) {
+			this.coord = coord;
+			this.event = event;
+		}
+	}
+
+	private final PositionConsumer consumer;
+	private final ArrayBlockingQueue<Item> queue;
+	private final int overflow;
+
+	private volatile int decimation = 1;
+	private volatile int maxBatch = 64;
+	private volatile boolean ended = false;
+	private long received = 0;
+
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong decimated = new AtomicLong();
+	private volatile int maxLag = 0;
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Starts delivering to the consumer, blocking when 1024 items are queued.
+	 */
+	public AsyncPositionConsumer(PositionConsumer consumer) {
+		this(consumer, DEFAULT_CAPACITY, OVERFLOW_BLOCK);
+	}
+
+	/**
+	 * Starts delivering to the consumer.
+	 *
+	 * @param capacity maximum number of queued coordinates and events
+	 * @param overflow OVERFLOW_BLOCK, OVERFLOW_DROP_NEWEST or OVERFLOW_DROP_OLDEST
+	 */
+	public AsyncPositionConsumer(PositionConsumer consumer, int capacity, int overflow) {
+		super("AsyncPositionConsumer");
+		this.consumer = consumer;
+		this.queue = new ArrayBlockingQueue<Item>(capacity);
+		this.overflow = overflow;
+		setDaemon(true);
+		start();
+	}
+
+	/**
+	 * For subclasses delivering to themselves, they start the thread.
+	 */
+	protected AsyncPositionConsumer(String name, int capacity, int overflow) {
+		super(name);
+		this.consumer = null;
+		this.queue = new ArrayBlockingQueue<Item>(capacity);
+		this.overflow = overflow;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.consumer.PositionConsumer#addCoordinate(org.gogpsproject.positioning.RoverPosition)
+	 */
+	@Override
+	public void addCoordinate(RoverPosition coord) {
+		if (received++ % decimation != 0) {
+			decimated.incrementAndGet();
+			return;
+		}
+		if (ended) {
+			afterEnd();
+			List<RoverPosition> coords = new ArrayList<RoverPosition>(1);
+			coords.add(coord);
+			deliver(coords);
+			return;
+		}
+		Item item = new Item(coord, -1);
+		if (!queue.offer(item)) {
+			if (overflow == OVERFLOW_DROP_NEWEST) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (overflow == OVERFLOW_DROP_OLDEST && dropOldest())
+				dropped.incrementAndGet();
+			enqueue(item);
+		}
+		queued.incrementAndGet();
+		int lag = queue.size();
+		if (lag > maxLag)
+			maxLag = lag;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.consumer.PositionConsumer#event(int)
+	 */
+	@Override
+	public void event(int event) {
+		if (ended) {
+			afterEnd();
+			deliverEvent(event);
+			return;
+		}
+		enqueue(new Item(null, event));
+		if (event == EVENT_END_OF_TRACK)
+			ended = true;
+	}
+
+	private void enqueue(Item item) {
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			// keep the interrupt for the solver loop
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Removes the oldest queued coordinate, events stay in the queue.
+	 */
+	private boolean dropOldest() {
+		for (Iterator<Item> i = queue.iterator(); i.hasNext();) {
+			if (i.next().coord != null) {
+				i.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Waits for the queued items to be delivered.
+	 */
+	private void afterEnd() {
+		if (Thread.currentThread() == this)
+			return;
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		List<Item> items = new ArrayList<Item>();
+		List<RoverPosition> coords = new ArrayList<RoverPosition>();
+		boolean endOfTrack = false;
+		started();
+		try {
+			while (!endOfTrack) {
+				try {
+					items.add(queue.take());
+				} catch (InterruptedException e) {
+					// stopped, deliver what is left
+					queue.drainTo(items);
+					deliverItems(items, coords);
+					break;
+				}
+				queue.drainTo(items, maxBatch - 1);
+				endOfTrack = deliverItems(items, coords);
+				items.clear();
+			}
+		} finally {
+			ended = true;
+			finished();
+		}
+	}
+
+	/**
+	 * @return true after the end of track
+	 */
+	private boolean deliverItems(List<Item> items, List<RoverPosition> coords) {
+		boolean endOfTrack = false;
+		int first = 0;
+		for (int i = 0; i <= items.size(); i++) {
+			Item item = i < items.size() ? items.get(i) : null;
+			if (item != null && item.coord != null) {
+				coords.add(item.coord);
+				continue;
+			}
+			// coordinates before the event, or the end
+			if (!coords.isEmpty()) {
+				try {
+					deliver(coords);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				delivered.addAndGet(coords.size());
+				coords.clear();
+			}
+			if (item != null) {
+				try {
+					deliverEvent(item.event);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				if (item.event == EVENT_END_OF_TRACK)
+					endOfTrack = true;
+			}
+			long now = System.nanoTime();
+			int next = item != null ? i + 1 : i;
+			for (; first < next; first++)
+				latency.record(now - items.get(first).queued);
+		}
+		return endOfTrack;
+	}
+
+	/**
+	 * Called from the delivery thread before the first item.
+	 */
+	protected void started() {
+	}
+
+	/**
+	 * Called from the delivery thread with consecutive coordinates.
+	 */
+	protected void deliver(List<RoverPosition> coords) {
+		if (consumer instanceof BatchPositionConsumer) {
+			((BatchPositionConsumer) consumer).addCoordinates(coords);
+		} else {
+			for (RoverPosition coord : coords)
+				consumer.addCoordinate(coord);
+		}
+	}
+
+	/**
+	 * Called from the delivery thread, in order with the coordinates.
+	 */
+	protected void deliverEvent(int event) {
+		consumer.event(event);
+	}
+
+	/**
+	 * Called from the delivery thread after the end of track, or when stopped.
+	 */
+	protected void finished() {
+	}
+
+	public void cleanStop() {
+		interrupt();
+	}
+
+	/**
+	 * @param decimation deliver one coordinate every decimation, 1 for all
+	 */
+	public void setDecimation(int decimation) {
+		this.decimation = Math.max(1, decimation);
+	}
+
+	public int getDecimation() {
+		return decimation;
+	}
+
+	/**
+	 * @param maxBatch maximum number of items taken from the queue at once
+	 */
+	public void setMaxBatch(int maxBatch) {
+		this.maxBatch = Math.max(1, maxBatch);
+	}
+
+	public int getMaxBatch() {
+		return maxBatch;
+	}
+
+	public PositionConsumer getConsumer() {
+		return consumer;
+	}
+
+	/**
+	 * @return coordinates queued for delivery
+	 */
+	public long getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * @return coordinates delivered
+	 */
+	public long getDelivered() {
+		return delivered.get();
+	}
+
+	/**
+	 * @return coordinates dropped because the queue was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return coordinates skipped by the decimation
+	 */
+	public long getDecimated() {
+		return decimated.get();
+	}
+
+	/**
+	 * @return items waiting in the queue
+	 */
+	public int getLag() {
+		return queue.size();
+	}
+
+	/**
+	 * @return maximum number of items seen waiting in the queue
+	 */
+	public int getMaxLag() {
+		return maxLag;
+	}
+
+	/**
+	 * @return time from queuing to delivery of coordinates and events, in
+	 *         nanoseconds
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2011 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.consumer;
+
+import java.util.List;
+
+import org.gogpsproject.positioning.RoverPosition;
+
+/**
+ * <p>
+ * Position consumer receiving the coordinates queued by an
+ * {@link AsyncPositionConsumer} a batch at a time.
+ * </p>
+ */
+public interface BatchPositionConsumer extends PositionConsumer {
+
+	/**
+	 * @param coords consecutive coordinates in time order, the list is reused
+	 *            after the call
+	 */
+	public void addCoordinates(List<RoverPosition> coords);
+
+}
@@ -19,13 +19,13 @@
  */
 package org.gogpsproject.consumer;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 
 import org.gogpsproject.Status;
@@ -35,11 +35,15 @@ import org.gogpsproject.positioning.RoverPosition;
  * <p>
  * Produces TXT file
  * </p>
+ * <p>
+ * Writes on the caller thread through a {@link TrackWriter}, wrap it in an
+ * {@link AsyncPositionConsumer} to write from another thread.
+ * </p>
  *
  * @author Eugenio Realini
  */
 
-public class CsvProducer implements PositionConsumer {
+public class CsvProducer implements BatchPositionConsumer {
 
   private static DecimalFormat latlonf = new DecimalFormat("0.000000");
   private static DecimalFormat dopf = new DecimalFormat("0.0");
@@ -53,7 +57,7 @@ public class CsvProducer implements PositionConsumer {
   private String filename = null;
   private boolean debug=false;
 
-  FileWriter out;
+  TrackWriter out;
   int index = 0;
 
   public CsvProducer(String filename) throws IOException{
@@ -62,7 +66,8 @@ public class CsvProducer implements PositionConsumer {
     timeTXT.setTimeZone( gmttz );
     this.filename = filename;
 
-    writeHeader();
+    Writer out = writeHeader();
+    if(out!=null) out.close();
   }
 
   /* (non-Javadoc)
@@ -79,12 +84,33 @@ public class CsvProducer implements PositionConsumer {
 
     writeCoordinate(index, coord, out);
     index++;
+    endBatch();
+  }
+
+  /* (non-Javadoc)
+   * @see org.gogpsproject.consumer.BatchPositionConsumer#addCoordinates(java.util.List)
+   */
+  @Override
+  public void addCoordinates(List<RoverPosition> coords) {
+    for( RoverPosition coord: coords ){
+      writeCoordinate(index, coord, out);
+      index++;
+    }
+    endBatch();
+  }
+
+  private void endBatch() {
+    try {
+      if( out!=null ) out.endBatch();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
   }
 
   /* (non-Javadoc)
    * @see org.gogpsproject.producer.PositionConsumer#addCoordinate(org.gogpsproject.Coordinates)
    */
-  public void writeCoordinate(int index, RoverPosition c, FileWriter out) {
+  public void writeCoordinate(int index, RoverPosition c, Writer out) {
     try {
 //      out.write( "Index,Status,Date,UTC,Latitude [DD], Longitude [DD],HDOP,SVs in Use,SVs in View,SNR Avg [dB],Residual Error,Clock Error,Clock Error Total,\r\n" );
       PrintWriter pw = new PrintWriter(out);
@@ -109,22 +135,17 @@ public class CsvProducer implements PositionConsumer {
       pw.printf("%d,%d,", c.satsInUse, c.obs.getNumSat() ); 
       pw.printf("%3.1f,%4.3f,\r\n", c.eRes, c.cErrMS/1000.0); 
 
-      out.flush();
-
     } catch (NullPointerException e) {
       e.printStackTrace();
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
     }
   }
 
   /* (non-Javadoc)
    * @see org.gogpsproject.producer.PositionConsumer#startOfTrack()
    */
-  public FileWriter writeHeader() {
+  public TrackWriter writeHeader() {
     try {
-      FileWriter out = new FileWriter(filename);
+      TrackWriter out = new TrackWriter(filename);
 
       out.write( "Index,Status,Date,UTC,Latitude [DD], Longitude [DD],HDOP,SVs in Use,SVs in View,SNR Avg [dB],Residual Error,Clock Error,\r\n" );
 
@@ -148,6 +169,11 @@ public class CsvProducer implements PositionConsumer {
         out = writeHeader();
         break;
       case EVENT_END_OF_TRACK:
+        try {
+          if( out!=null ) out.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
         break;
     }
   }
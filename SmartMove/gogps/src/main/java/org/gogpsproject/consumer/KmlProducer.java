@@ -19,12 +19,12 @@
  */
 package org.gogpsproject.consumer;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 
 import org.gogpsproject.Status;
@@ -35,11 +35,15 @@ import org.gogpsproject.positioning.RoverPosition.DopType;
  * <p>
  * Produces KML file
  * </p>
+ * <p>
+ * Coordinates are queued and written by the producer thread, see
+ * {@link AsyncPositionConsumer}.
+ * </p>
  *
  * @author Lorenzo Patocchi cryms.com
  */
 
-public class KmlProducer extends Thread implements PositionConsumer {
+public class KmlProducer extends AsyncPositionConsumer {
 
 	private static DecimalFormat f = new DecimalFormat("0.000");
 	private static DecimalFormat g = new DecimalFormat("0.00000000");
@@ -66,12 +70,12 @@ public class KmlProducer extends Thread implements PositionConsumer {
 	private int worstLinePixelWidth = 3;
 	private boolean debug=false;
 
-	private ArrayList<RoverPosition> positions = new ArrayList<RoverPosition>();
+	private TrackWriter out;
 	
 	private final static TimeZone TZ = TimeZone.getTimeZone("GMT");
 
 	public KmlProducer(String filename, double goodDopTreshold, int timeSampleDelaySec) throws IOException{
-	  super("KmlProducer");
+	  super("KmlProducer", DEFAULT_CAPACITY, OVERFLOW_BLOCK);
 		this.filename = filename;
 		this.goodDopThreshold = goodDopTreshold;
 		this.timeSampleDelaySec = timeSampleDelaySec;
@@ -79,7 +83,7 @@ public class KmlProducer extends Thread implements PositionConsumer {
 		timeKML.setTimeZone(TZ);
 
 		goodDop = false;
-		FileWriter out = startOfTrack();
+		Writer out = startOfTrack();
 		if(out!=null){
 
 			endOfTrack(out);
@@ -88,7 +92,7 @@ public class KmlProducer extends Thread implements PositionConsumer {
 	}
 
 	 public KmlProducer(String filename, double goodDopTreshold, int timeSampleDelaySec, String goodColorLine) throws IOException{
-	    super("KmlProducer");
+	    super("KmlProducer", DEFAULT_CAPACITY, OVERFLOW_BLOCK);
 	    this.goodColorLine = goodColorLine;
 //	   this.worstColorLine = goodColorLine;
 	   
@@ -99,7 +103,7 @@ public class KmlProducer extends Thread implements PositionConsumer {
 	    timeKML.setTimeZone(TZ);
 
 	    goodDop = false;
-	    FileWriter out = startOfTrack();
+	    Writer out = startOfTrack();
 	    if(out!=null){
 
 	      endOfTrack(out);
@@ -108,25 +112,32 @@ public class KmlProducer extends Thread implements PositionConsumer {
 	 }
 	 
 	/* (non-Javadoc)
-	 * @see org.gogpsproject.producer.PositionConsumer#addCoordinate(org.gogpsproject.Coordinates)
+	 * @see org.gogpsproject.consumer.AsyncPositionConsumer#deliver(java.util.List)
 	 */
 	@Override
-	public void addCoordinate(RoverPosition coord) {
-		if(debug) System.out.println("Lon:"+g.format(coord.getGeodeticLongitude()) + " " // geod.get(0)
-				+"Lat:"+ g.format(coord.getGeodeticLatitude()) + " " // geod.get(1)
-				+"H:"+ f.format(coord.getGeodeticHeight()) + "\t" // geod.get(2)
-				+"P:"+ coord.getpDop()+" "
-				+"H:"+ coord.gethDop()+" "
-				+"V:"+ coord.getvDop()+" ");//geod.get(2)
-
-		positions.add(coord);
+	protected void deliver(List<RoverPosition> coords) {
+		for (RoverPosition coord : coords) {
+			if(debug) System.out.println("Lon:"+g.format(coord.getGeodeticLongitude()) + " " // geod.get(0)
+					+"Lat:"+ g.format(coord.getGeodeticLatitude()) + " " // geod.get(1)
+					+"H:"+ f.format(coord.getGeodeticHeight()) + "\t" // geod.get(2)
+					+"P:"+ coord.getpDop()+" "
+					+"H:"+ coord.gethDop()+" "
+					+"V:"+ coord.getvDop()+" ");//geod.get(2)
+
+			writeCoordinate(coord, out);
+		}
+		try {
+			if(out!=null) out.endBatch();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.producer.PositionConsumer#addCoordinate(org.gogpsproject.Coordinates)
 	 */
-	public void writeCoordinate(RoverPosition coord,FileWriter out) {
+	public void writeCoordinate(RoverPosition coord,Writer out) {
 		try {
 //      ReceiverPositionObs c = (ReceiverPositionObs)coord;
 //      if( c.status != Status.Valid )
@@ -152,7 +163,6 @@ public class KmlProducer extends Thread implements PositionConsumer {
 			out.write(lon + "," // geod.get(0)
 					+ lat + "," // geod.get(1)
 					+ h + "\n"); // geod.get(2)
-			out.flush();
 
 			String t = timeKML.format(new Date(coord.getRefTime().getMsec()));
 //			System.out.print("T:" + t);
@@ -187,10 +197,10 @@ public class KmlProducer extends Thread implements PositionConsumer {
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.producer.PositionConsumer#startOfTrack()
 	 */
-	public FileWriter startOfTrack() {
+	public TrackWriter startOfTrack() {
 		if(timeSampleDelaySec>0)timeline = "<Folder><open>1</open><Style><ListStyle><listItemType>checkHideChildren</listItemType></ListStyle></Style>";
 		try {
-			FileWriter out = new FileWriter(filename);
+			TrackWriter out = new TrackWriter(filename);
 
 			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
 				"<Document xmlns:kml=\"http://earth.google.com/kml/2.1\">\n"+
@@ -216,7 +226,7 @@ public class KmlProducer extends Thread implements PositionConsumer {
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.producer.PositionConsumer#endOfTrack()
 	 */
-	public void endOfTrack(FileWriter out) {
+	public void endOfTrack(Writer out) {
 		if(out!=null){
 			// Write KML footer part
 			try {
@@ -237,17 +247,14 @@ public class KmlProducer extends Thread implements PositionConsumer {
 	}
 
 	/* (non-Javadoc)
-	 * @see org.gogpsproject.producer.PositionConsumer#event(int)
+	 * @see org.gogpsproject.consumer.AsyncPositionConsumer#deliverEvent(int)
 	 */
 	@Override
-	public void event(int event) {
+	protected void deliverEvent(int event) {
 //		if(event == EVENT_START_OF_TRACK){
 //			startOfTrack();
 //		}
-		if(event == EVENT_END_OF_TRACK){
-			// finish writing
-		  interrupt();
-		}
+		// the end of track ends the thread, see finished()
 	}
 
 	private String generateCircle(double centerlat_form, double centerlong_form, double height, int num_points, double radius_form) {
@@ -402,25 +409,13 @@ public class KmlProducer extends Thread implements PositionConsumer {
 	}
 
 	@Override
-	public void run() {
-		int last = 0;
-    FileWriter out = startOfTrack();
-		while(!isInterrupted() || last<positions.size()){
-//					goodDop = false;
-			for( ; last<positions.size(); last++ ) {
-				writeCoordinate(positions.get(last), out);
-			}
-			try {
-        Thread.sleep(200);
-      } catch (InterruptedException e) {
-        interrupt();
-      }
-		}
-    endOfTrack(out);
+	protected void started() {
+		out = startOfTrack();
 	}
-	
-	public void cleanStop(){
-		interrupt();
+
+	@Override
+	protected void finished() {
+		endOfTrack(out);
 	}
 }
 
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2011 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.consumer;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Buffered writer of the position consumer files. Lines reach the file when
+ * the buffer is full, or at the end of a batch of coordinates at most once a
+ * second, instead of after every coordinate.
+ * </p>
+ */
+public class TrackWriter extends BufferedWriter {
+
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static long FLUSH_INTERVAL = 1000;
+
+	private long lastFlush = System.currentTimeMillis();
+
+	public TrackWriter(String filename) throws IOException {
+		super(new FileWriter(filename), BUFFER_SIZE);
+	}
+
+	/**
+	 * Called after writing one or more coordinates.
+	 */
+	public void endBatch() throws IOException {
+		long now = System.currentTimeMillis();
+		if (now - lastFlush >= FLUSH_INTERVAL) {
+			flush();
+			lastFlush = now;
+		}
+	}
+
+}
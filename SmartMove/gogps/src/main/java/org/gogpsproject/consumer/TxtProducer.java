@@ -19,13 +19,13 @@
  */
 package org.gogpsproject.consumer;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 
 import org.gogpsproject.positioning.RoverPosition;
@@ -34,11 +34,15 @@ import org.gogpsproject.positioning.RoverPosition.DopType;
  * <p>
  * Produces TXT file
  * </p>
+ * <p>
+ * Coordinates are queued and written by the producer thread, see
+ * {@link AsyncPositionConsumer}.
+ * </p>
  *
  * @author Eugenio Realini
  */
 
-public class TxtProducer extends Thread implements PositionConsumer {
+public class TxtProducer extends AsyncPositionConsumer {
 
 	private static DecimalFormat f = new DecimalFormat("0.000");
 	private static DecimalFormat g = new DecimalFormat("0.00000000");
@@ -49,15 +53,16 @@ public class TxtProducer extends Thread implements PositionConsumer {
 	private String filename = null;
 	private boolean debug=false;
 
-	private ArrayList<RoverPosition> positions = new ArrayList<RoverPosition>();
+	private TrackWriter out;
 	
 	private final static TimeZone TZ = TimeZone.getTimeZone("GMT");
 
 	public TxtProducer(String filename) throws IOException{
-    super("TxtProducer");
+    super("TxtProducer", DEFAULT_CAPACITY, OVERFLOW_BLOCK);
 		this.filename = filename;
 
-		writeHeader();
+		Writer out = writeHeader();
+		if(out!=null) out.close();
 		
 		dateTXT.setTimeZone(TZ);
 		timeTXT.setTimeZone(TZ);
@@ -66,24 +71,31 @@ public class TxtProducer extends Thread implements PositionConsumer {
 	}
 
 	/* (non-Javadoc)
-	 * @see org.gogpsproject.producer.PositionConsumer#addCoordinate(org.gogpsproject.Coordinates)
+	 * @see org.gogpsproject.consumer.AsyncPositionConsumer#deliver(java.util.List)
 	 */
 	@Override
-	public void addCoordinate(RoverPosition coord) {
-		if(debug) System.out.println("Lon:"+g.format(coord.getGeodeticLongitude()) + " " // geod.get(0)
-				+"Lat:"+ g.format(coord.getGeodeticLatitude()) + " " // geod.get(1)
-				+"H:"+ f.format(coord.getGeodeticHeight()) + "\t" // geod.get(2)
-				+"P:"+ coord.getpDop()+" "
-				+"H:"+ coord.gethDop()+" "
-				+"V:"+ coord.getvDop()+" ");//geod.get(2)
-
-		positions.add(coord);
+	protected void deliver(List<RoverPosition> coords) {
+		for (RoverPosition coord : coords) {
+			if(debug) System.out.println("Lon:"+g.format(coord.getGeodeticLongitude()) + " " // geod.get(0)
+					+"Lat:"+ g.format(coord.getGeodeticLatitude()) + " " // geod.get(1)
+					+"H:"+ f.format(coord.getGeodeticHeight()) + "\t" // geod.get(2)
+					+"P:"+ coord.getpDop()+" "
+					+"H:"+ coord.gethDop()+" "
+					+"V:"+ coord.getvDop()+" ");//geod.get(2)
+
+			writeCoordinate(coord, out);
+		}
+		try {
+			if(out!=null) out.endBatch();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.producer.PositionConsumer#addCoordinate(org.gogpsproject.Coordinates)
 	 */
-	public void writeCoordinate(RoverPosition coord,FileWriter out) {
+	public void writeCoordinate(RoverPosition coord,Writer out) {
 		try {
 			
 			PrintWriter pw = new PrintWriter(out);
@@ -141,22 +153,18 @@ public class TxtProducer extends Thread implements PositionConsumer {
 //			out.write(lon + "," // geod.get(0)
 //					+ lat + "," // geod.get(1)
 //					+ h + "\n"); // geod.get(2)
-			out.flush();
 
 		} catch (NullPointerException e) {
 			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		}
 	}
 
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.producer.PositionConsumer#startOfTrack()
 	 */
-	public FileWriter writeHeader() {
+	public TrackWriter writeHeader() {
 		try {
-			FileWriter out = new FileWriter(filename);
+			TrackWriter out = new TrackWriter(filename);
 
 			out.write("    Date        GPS time        GPS week         GPS tow    " +
 					  "    Latitude       Longitude     h (ellips.)      " +
@@ -172,17 +180,14 @@ public class TxtProducer extends Thread implements PositionConsumer {
 	}
 
 	/* (non-Javadoc)
-	 * @see org.gogpsproject.producer.PositionConsumer#event(int)
+	 * @see org.gogpsproject.consumer.AsyncPositionConsumer#deliverEvent(int)
 	 */
 	@Override
-	public void event(int event) {
+	protected void deliverEvent(int event) {
 //		if(event == EVENT_START_OF_TRACK){
 //			startOfTrack();
 //		}
-		if(event == EVENT_END_OF_TRACK){
-			// finish writing
-			interrupt();
-		}
+		// the end of track ends the thread, see finished()
 	}
 
 	/**
@@ -199,28 +204,17 @@ public class TxtProducer extends Thread implements PositionConsumer {
 		return debug;
 	}
 
-	/* (non-Javadoc)
-	 * @see java.lang.Runnable#run()
-	 */
 	@Override
-	public void run() {
-		int last = 0;
-    FileWriter out = writeHeader();
-		while(!isInterrupted() || last < positions.size() ){
-		  //	goodDop = false;
-      for( ; last<positions.size(); last++ ) {
-				writeCoordinate(positions.get(last), out);
-			}
-			try {
-				Thread.sleep(200);
-			}
-			catch (InterruptedException e) {
-			  interrupt();
-			}
-	  }
+	protected void started() {
+		out = writeHeader();
 	}
 
-	public void cleanStop(){
-    interrupt();
+	@Override
+	protected void finished() {
+		try {
+			if(out!=null) out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 }
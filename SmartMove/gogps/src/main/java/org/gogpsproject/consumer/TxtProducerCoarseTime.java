@@ -19,12 +19,11 @@
  */
 package org.gogpsproject.consumer;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.TimeZone;
 
@@ -34,6 +33,10 @@ import org.gogpsproject.positioning.RoverPosition;
  * <p>
  * Produces TXT file
  * </p>
+ * <p>
+ * Writes on the caller thread through a {@link TrackWriter}, wrap it in an
+ * {@link AsyncPositionConsumer} to write from another thread.
+ * </p>
  *
  * @author Eugenio Realini
  */
@@ -50,12 +53,13 @@ public class TxtProducerCoarseTime implements PositionConsumer  {
 	private boolean debug=false;
 
 	private final static TimeZone TZ = TimeZone.getTimeZone("GMT");
-	FileWriter out;
+	TrackWriter out;
 	
 	public TxtProducerCoarseTime(String filename) throws IOException{
 		this.filename = filename;
 
-		writeHeader();
+		Writer out = writeHeader();
+		if(out!=null) out.close();
 		
 		dateTXT.setTimeZone(TZ);
 		timeTXT.setTimeZone(TZ);
@@ -71,6 +75,11 @@ public class TxtProducerCoarseTime implements PositionConsumer  {
         out = writeHeader();
       break;
   	  case EVENT_END_OF_TRACK: 
+        try {
+          if( out!=null ) out.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
       break;
     }
   }
@@ -78,9 +87,9 @@ public class TxtProducerCoarseTime implements PositionConsumer  {
   /* (non-Javadoc)
    * @see org.gogpsproject.producer.PositionConsumer#startOfTrack()
    */
-  public FileWriter writeHeader() {
+  public TrackWriter writeHeader() {
     try {
-      FileWriter out = new FileWriter(filename);
+      TrackWriter out = new TrackWriter(filename);
   
       out.write("Index         Status   Sats      Date      RTC time       FIX time     cErr " +
 //            "GPS week        GPS tow" +
@@ -122,7 +131,7 @@ public class TxtProducerCoarseTime implements PositionConsumer  {
 
       if( c.status != Status.Valid ){
         pw.printf("\r\n");
-        out.flush();
+        out.endBatch();
         return;
       }
 
@@ -154,7 +163,7 @@ public class TxtProducerCoarseTime implements PositionConsumer  {
       pw.printf("%9.0f", c.clockErrorRate );
 
       pw.printf("\r\n");
-      out.flush();
+      out.endBatch();
 
     } catch (NullPointerException e) {
       e.printStackTrace();
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.gogpsproject.GoGPS;
+import org.gogpsproject.GoGPS.RunMode;
+import org.gogpsproject.consumer.PositionConsumer;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.positioning.LS_SA_code_pipeline;
+import org.gogpsproject.positioning.RoverPosition;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsProducer;
+import org.gogpsproject.producer.parser.rinex.RinexNavigationParser;
+import org.gogpsproject.producer.parser.rinex.RinexObservationParser;
+
+/**
+ * Measures the throughput of code standalone positioning on a RINEX
+ * observation file and its navigation file.
+ *
+ * The epochs are loaded in memory and positioned several times, the first
+ * pass is a warm-up. Each pass reports the epochs per second and the time
+ * per epoch, and the last position with its PDOP so that runs can be
+ * compared. With a number of workers, the batch mode solves time windows
+ * of the file in parallel, with "pipeline" the stages of consecutive epochs
+ * overlap and their latencies are reported.
+ */
+public class CodeStandaloneBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+
+		//force dot as decimal separator
+		Locale.setDefault(new Locale("en", "US"));
+
+		if(args.length<2){
+			System.out.println("CodeStandaloneBenchmark <observation file> <navigation file> [<passes> [<workers>|pipeline]]");
+			return;
+		}
+
+		int p=0;
+		File obsFile = new File(args[p++]);
+		File navFile = new File(args[p++]);
+		int passes = 5;
+		if (args.length>2)
+			passes = Integer.parseInt(args[p++]);
+		int workers = 0;
+		boolean pipeline = false;
+		if (args.length>3){
+			pipeline = args[p].equals("pipeline");
+			if (!pipeline)
+				workers = Integer.parseInt(args[p]);
+			p++;
+		}
+		RunMode runMode = pipeline ? RunMode.CODE_STANDALONE_PIPELINE
+				: workers>0 ? RunMode.CODE_STANDALONE_BATCH : RunMode.CODE_STANDALONE;
+
+		RinexObservationParser parser = new RinexObservationParser(obsFile);
+		parser.init();
+		final List<Observations> epochs = new ArrayList<Observations>();
+		Observations o;
+		while((o = parser.getNextObservations()) != null)
+			epochs.add(o);
+		final Coordinates definedPosition = parser.getDefinedPosition();
+		parser.release(false, 0);
+
+		RinexNavigationParser navigation = new RinexNavigationParser(navFile);
+		navigation.init();
+
+		System.out.println("in :"+obsFile+" ("+epochs.size()+" epochs), "+navFile);
+
+		for(int pass=0; pass<=passes; pass++){
+			final int[] positions = new int[1];
+			final RoverPosition[] last = new RoverPosition[1];
+			ObservationsProducer roverIn = new ObservationsProducer() {
+				int cursor = 0;
+				public Observations getCurrentObservations() {
+					return cursor>0 ? epochs.get(cursor-1) : null;
+				}
+				public Observations getNextObservations() {
+					return cursor<epochs.size() ? epochs.get(cursor++).copy() : null;
+				}
+				public Coordinates getDefinedPosition() {
+					return definedPosition;
+				}
+				public void init() {
+				}
+				public void release(boolean waitForThread, long timeoutMs) {
+				}
+			};
+			GoGPS goGPS = new GoGPS(navigation, roverIn).setDebug(false).setBatchParallelism(workers);
+			goGPS.addPositionConsumerListener(new PositionConsumer() {
+				public void addCoordinate(RoverPosition coord) {
+					positions[0]++;
+					last[0] = coord;
+				}
+				public void event(int event) {
+				}
+			});
+
+			long start = System.nanoTime();
+			goGPS.run(runMode);
+			long elapsed = System.nanoTime() - start;
+
+			System.out.println((pass==0?"warm-up":"pass "+pass)+": "
+					+String.format("%.3f", elapsed/1e6)+" ms "
+					+String.format("%.0f", epochs.size()/(elapsed/1e9))+" epochs/s "
+					+String.format("%.2f", elapsed/1e3/epochs.size())+" us/epoch, "
+					+positions[0]+" positions"
+					+(last[0]==null?"":String.format(", last %.4f %.4f %.4f PDOP %.4f",
+							last[0].getX(), last[0].getY(), last[0].getZ(), last[0].getpDop())));
+			if (pipeline)
+				for (int stage=0; stage<LS_SA_code_pipeline.STAGE_NAMES.length; stage++)
+					System.out.println("  "+LS_SA_code_pipeline.STAGE_NAMES[stage]+": "+goGPS.getPipelineLatency(stage));
+		}
+		navigation.release(false, 0);
+		System.out.println("END");
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Locale;
+
+import org.gogpsproject.util.HatanakaInputStream;
+import org.gogpsproject.util.UncompressInputStream;
+
+/**
+ * Measures the decompression throughput of product files: Unix compress
+ * (.Z), Hatanaka (.crx, .yyd) or both (.crx.Z, .yyd.Z).
+ *
+ * The file is loaded in memory and decompressed several times so that disk
+ * access is not measured; the first pass is a warm-up. Each pass reports the
+ * decompressed MB/s of bulk reads and of line reads through a BufferedReader,
+ * as done by the RINEX parsers.
+ */
+public class DecompressBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+
+		//force dot as decimal separator
+		Locale.setDefault(new Locale("en", "US"));
+
+		if(args.length<1){
+			System.out.println("DecompressBenchmark <compressed file> [<passes>]");
+			return;
+		}
+
+		int p=0;
+		String inFile = args[p++];
+		int passes = 5;
+		if (args.length>1)
+			passes = Integer.parseInt(args[p++]);
+
+		byte[] data = readFile(new File(inFile));
+		boolean lzw = data.length > 1 && (data[0] & 0xFF) == 0x1f && (data[1] & 0xFF) == 0x9d;
+		boolean crx = HatanakaInputStream.isCompactRinex(firstLine(open(data, lzw, false)));
+		System.out.println("in :"+inFile+" ("+data.length+" bytes"+(lzw?", compress":"")+(crx?", Hatanaka":"")+")");
+		if(!lzw && !crx){
+			System.out.println("not compressed");
+			return;
+		}
+
+		byte[] buffer = new byte[65536];
+		for(int pass=0; pass<=passes; pass++){
+			long start = System.nanoTime();
+			InputStream in = open(data, lzw, crx);
+			long bytes = 0;
+			int n;
+			while((n = in.read(buffer, 0, buffer.length)) >= 0)
+				bytes += n;
+			in.close();
+			long bulk = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(open(data, lzw, crx)));
+			long lines = 0;
+			while(reader.readLine() != null)
+				lines++;
+			reader.close();
+			long line = System.nanoTime() - start;
+
+			System.out.println((pass==0?"warm-up":"pass "+pass)+": "+bytes+" bytes, "+lines+" lines, bulk "
+					+String.format("%.3f", bulk/1e6)+" ms "
+					+String.format("%.1f", bytes/(bulk/1e9)/1e6)+" MB/s, lines "
+					+String.format("%.3f", line/1e6)+" ms "
+					+String.format("%.1f", bytes/(line/1e9)/1e6)+" MB/s, ratio "
+					+String.format("%.2f", (double)bytes/data.length));
+		}
+		System.out.println("END");
+	}
+
+	private static InputStream open(byte[] data, boolean lzw, boolean crx) throws IOException {
+		InputStream in = new ByteArrayInputStream(data);
+		if(lzw)
+			in = new UncompressInputStream(in);
+		if(crx)
+			in = new HatanakaInputStream(in);
+		return in;
+	}
+
+	private static String firstLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while((c = in.read()) >= 0 && c != '\n' && sb.length() < 256)
+			sb.append((char) c);
+		in.close();
+		return sb.toString();
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int n = 0;
+			while(n < data.length){
+				int r = in.read(data, n, data.length - n);
+				if(r < 0) break;
+				n += r;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+}
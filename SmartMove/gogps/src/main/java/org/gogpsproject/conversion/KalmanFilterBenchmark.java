@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.gogpsproject.GoGPS;
+import org.gogpsproject.GoGPS.RunMode;
+import org.gogpsproject.consumer.PositionConsumer;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.positioning.RoverPosition;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsProducer;
+import org.gogpsproject.producer.parser.rinex.RinexNavigationParser;
+import org.gogpsproject.producer.parser.rinex.RinexObservationParser;
+
+/**
+ * Measures the throughput of the code and phase Kalman filter on a RINEX
+ * observation file and its navigation file, standalone or in double
+ * differences when a master observation file is given.
+ *
+ * The epochs are loaded in memory and positioned several times, the first
+ * pass is a warm-up. Each pass reports the time per epoch and the last
+ * position so that runs can be compared.
+ */
+public class KalmanFilterBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+
+		//force dot as decimal separator
+		Locale.setDefault(new Locale("en", "US"));
+
+		if(args.length<2){
+			System.out.println("KalmanFilterBenchmark <rover observation file> <navigation file> [<passes> [<master observation file>]]");
+			return;
+		}
+
+		int p=0;
+		File roverFile = new File(args[p++]);
+		File navFile = new File(args[p++]);
+		int passes = 5;
+		if (args.length>2)
+			passes = Integer.parseInt(args[p++]);
+		File masterFile = null;
+		if (args.length>3)
+			masterFile = new File(args[p++]);
+
+		List<Observations> roverEpochs = new ArrayList<Observations>();
+		Coordinates roverPosition = load(roverFile, roverEpochs);
+		List<Observations> masterEpochs = new ArrayList<Observations>();
+		Coordinates masterPosition = masterFile==null ? null : load(masterFile, masterEpochs);
+
+		RinexNavigationParser navigation = new RinexNavigationParser(navFile);
+		navigation.init();
+
+		System.out.println("in :"+roverFile+" ("+roverEpochs.size()+" epochs), "
+				+(masterFile==null?"":masterFile+" ("+masterEpochs.size()+" epochs), ")+navFile);
+
+		for(int pass=0; pass<=passes; pass++){
+			final int[] positions = new int[1];
+			final RoverPosition[] last = new RoverPosition[1];
+			GoGPS goGPS = masterFile==null
+					? new GoGPS(navigation, inMemory(roverEpochs, roverPosition))
+					: new GoGPS(navigation, inMemory(roverEpochs, roverPosition), inMemory(masterEpochs, masterPosition));
+			goGPS.setDebug(false);
+			goGPS.addPositionConsumerListener(new PositionConsumer() {
+				public void addCoordinate(RoverPosition coord) {
+					positions[0]++;
+					last[0] = coord;
+				}
+				public void event(int event) {
+				}
+			});
+
+			long start = System.nanoTime();
+			goGPS.run(masterFile==null ? RunMode.KALMAN_FILTER_CODE_PHASE_STANDALONE : RunMode.KALMAN_FILTER_CODE_PHASE_DOUBLE_DIFF);
+			long elapsed = System.nanoTime() - start;
+
+			System.out.println((pass==0?"warm-up":"pass "+pass)+": "
+					+String.format("%.3f", elapsed/1e6)+" ms "
+					+String.format("%.2f", elapsed/1e3/roverEpochs.size())+" us/epoch, "
+					+positions[0]+" positions"
+					+(last[0]==null?"":String.format(", last %.4f %.4f %.4f",
+							last[0].getX(), last[0].getY(), last[0].getZ())));
+		}
+		navigation.release(false, 0);
+		System.out.println("END");
+	}
+
+	private static Coordinates load(File file, List<Observations> epochs) throws Exception {
+		RinexObservationParser parser = new RinexObservationParser(file);
+		parser.init();
+		Observations o;
+		while((o = parser.getNextObservations()) != null)
+			epochs.add(o);
+		Coordinates definedPosition = parser.getDefinedPosition();
+		parser.release(false, 0);
+		return definedPosition;
+	}
+
+	private static ObservationsProducer inMemory(final List<Observations> epochs, final Coordinates definedPosition) {
+		return new ObservationsProducer() {
+			int cursor = 0;
+			public Observations getCurrentObservations() {
+				return cursor>0 ? epochs.get(cursor-1) : null;
+			}
+			public Observations getNextObservations() {
+				return cursor<epochs.size() ? epochs.get(cursor++).copy() : null;
+			}
+			public Coordinates getDefinedPosition() {
+				return definedPosition;
+			}
+			public void init() {
+			}
+			public void release(boolean waitForThread, long timeoutMs) {
+			}
+		};
+	}
+
+}
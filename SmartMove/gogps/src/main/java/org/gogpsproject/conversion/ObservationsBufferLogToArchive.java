@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.gogpsproject.ephemeris.EphGps;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.Streamable;
+import org.gogpsproject.producer.archive.ObservationArchiveWriter;
+import org.gogpsproject.producer.parser.IonoGps;
+
+/**
+ * Converts log files generated by ObservationsBuffer into an observation
+ * archive, readable with ObservationArchiveReader.
+ * Arguments: &lt;dat file&gt; [compact]
+ * where compact rounds code and phase to the RINEX resolution
+ *
+ * The log is streamed, all its epochs are kept whatever its length.
+ */
+public class ObservationsBufferLogToArchive {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length<1){
+			System.out.println("ObservationsBufferLogToArchive <dat file> [compact]");
+			return;
+		}
+		int p=0;
+		String inFile = args[p++];
+		String outFile = (inFile.indexOf(".dat")>0?inFile.substring(0, inFile.indexOf(".dat")):inFile)+".gobs";
+		int encoding = args.length>p && args[p++].startsWith("c") ? ObservationArchiveWriter.ENCODING_COMPACT : ObservationArchiveWriter.ENCODING_DOUBLE;
+
+		System.out.println("in :"+inFile);
+		System.out.println("out:"+outFile);
+
+		// the writer appends to an existing archive
+		new File(outFile).delete();
+		ObservationArchiveWriter out = new ObservationArchiveWriter(outFile, encoding);
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile), 65536));
+		int epochs = 0;
+		try{
+			while(true){
+				String msg;
+				try{
+					msg = dis.readUTF();
+				}catch(EOFException eof){
+					break;
+				}
+				if(msg.equalsIgnoreCase(Streamable.MESSAGE_OBSERVATIONS)){
+					out.write(new Observations(dis,false));
+					epochs++;
+				}else
+				if(msg.equalsIgnoreCase(Streamable.MESSAGE_EPHEMERIS)){
+					out.write(new EphGps(dis,false));
+				}else
+				if(msg.equalsIgnoreCase(Streamable.MESSAGE_OBSERVATIONS_SET)){
+					new ObservationSet(dis,false);
+				}else
+				if(msg.equalsIgnoreCase(Streamable.MESSAGE_IONO)){
+					out.write(new IonoGps(dis,false));
+				}else
+				if(msg.equalsIgnoreCase(Streamable.MESSAGE_COORDINATES)){
+					out.write(Coordinates.readFromStream(dis,false));
+				}else{
+					System.out.println("Unknow Msg:["+msg+"]");
+					break;
+				}
+			}
+		}catch(EOFException eof){
+			// truncated last message
+		}finally{
+			dis.close();
+			out.close();
+		}
+		System.out.println(epochs+" epochs");
+		System.out.println("END");
+	}
+
+}
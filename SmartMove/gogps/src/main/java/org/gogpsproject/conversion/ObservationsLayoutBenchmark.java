@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsColumns;
+
+/**
+ * Compares memory per epoch and satellite lookup cost of {@link Observations}
+ * and {@link ObservationsColumns} on synthetic multi-GNSS epochs.
+ */
+public class ObservationsLayoutBenchmark {
+
+	private final static char[] SYSTEMS = { 'G', 'R', 'E', 'C' };
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		//force dot as decimal separator
+		Locale.setDefault(new Locale("en", "US"));
+
+		int epochs = 2000;
+		int satsPerSystem = 10;
+		if(args.length>0)
+			epochs = Integer.parseInt(args[0]);
+		if(args.length>1)
+			satsPerSystem = Integer.parseInt(args[1]);
+		int nsat = satsPerSystem * SYSTEMS.length;
+		System.out.println(epochs+" epochs of "+nsat+" satellites");
+
+		long before = usedMemory();
+		List<Observations> objects = new ArrayList<Observations>(epochs);
+		for(int e=0; e<epochs; e++)
+			objects.add(epoch(e, satsPerSystem));
+		long objectBytes = usedMemory() - before;
+
+		before = usedMemory();
+		List<ObservationsColumns> columns = new ArrayList<ObservationsColumns>(epochs);
+		for(int e=0; e<epochs; e++)
+			columns.add(ObservationsColumns.of(objects.get(e)));
+		long columnBytes = usedMemory() - before;
+
+		System.out.println("Observations        : "+objectBytes/epochs+" bytes/epoch");
+		System.out.println("ObservationsColumns : "+columnBytes/epochs+" bytes/epoch");
+
+		double sum = 0;
+		for(int pass=0; pass<=5; pass++){
+			long start = System.nanoTime();
+			for(Observations o : objects)
+				for(char s : SYSTEMS)
+					for(int id=1; id<=satsPerSystem; id++)
+						sum += o.getSatByIDType(id, s).getPseudorange(0);
+			long objectTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(ObservationsColumns c : columns)
+				for(char s : SYSTEMS)
+					for(int id=1; id<=satsPerSystem; id++)
+						sum += c.getPseudorange(c.getRow(s, id), 0);
+			long columnTime = System.nanoTime() - start;
+
+			long lookups = (long)epochs * nsat;
+			System.out.println((pass==0?"warm-up":"pass "+pass)+": getSatByIDType "
+					+String.format("%.1f", objectTime/(double)lookups)+" ns, getRow "
+					+String.format("%.1f", columnTime/(double)lookups)+" ns per lookup");
+		}
+		// keeps the lookups from being optimized away
+		if(sum==0) System.out.println(sum);
+	}
+
+	private static Observations epoch(int e, int satsPerSystem) {
+		Observations o = new Observations(new Time(1000000000000L + e*1000L), 0);
+		int i = 0;
+		// satellites in a scrambled order, as receivers report them
+		for(int id=satsPerSystem; id>=1; id--){
+			for(char s : SYSTEMS){
+				ObservationSet os = new ObservationSet();
+				os.setSatID(id);
+				os.setSatType(s);
+				for(int b=0; b<2; b++){
+					os.setCodeC(b, 2.0e7 + id*1000 + e);
+					os.setPhaseCycles(b, 1.1e8 + id);
+					os.setDoppler(b, id);
+					os.setSignalStrength(b, 40);
+					os.setLossLockInd(b, 0);
+				}
+				o.setGps(i++, os);
+			}
+		}
+		return o;
+	}
+
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for(int i=0; i<3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
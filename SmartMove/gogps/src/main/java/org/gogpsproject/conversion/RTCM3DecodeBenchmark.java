@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.parser.rtcm3.RTCM3Client;
+import org.gogpsproject.producer.parser.rtcm3.RTCM3Framer;
+
+/**
+ * Measures the RTCM3 decoding throughput on a recorded capture.
+ *
+ * The capture is loaded in memory, then framed and decoded several times so
+ * that disk access is not measured; the first pass is a warm-up.
+ */
+public class RTCM3DecodeBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+
+		//force dot as decimal separator
+		Locale.setDefault(new Locale("en", "US"));
+
+		if(args.length<2){
+			System.out.println("RTCM3DecodeBenchmark <RTCM3 file> <starting GPS week> [<passes>]");
+			return;
+		}
+
+		int p=0;
+		String inFile = args[p++];
+		int week = Integer.parseInt(args[p++]);
+		int passes = 5;
+		if (args.length>2)
+			passes = Integer.parseInt(args[p++]);
+
+		byte[] capture = readFile(new File(inFile));
+		System.out.println("in :"+inFile+" ("+capture.length+" bytes)");
+
+		for(int pass=0; pass<=passes; pass++){
+			Map<Integer, Integer> types = new TreeMap<Integer, Integer>();
+			RTCM3Client client = new RTCM3Client(week);
+			RTCM3Framer framer = new RTCM3Framer(new ByteArrayInputStream(capture), client.getStatistics());
+
+			long frames = 0;
+			long epochs = 0;
+			long start = System.nanoTime();
+			while(framer.nextFrame() >= 0){
+				byte[] buffer = framer.getBuffer();
+				int offset = framer.getPayloadOffset();
+				if(framer.getPayloadLength() >= 2){
+					int type = ((buffer[offset] & 0xFF) << 4) | ((buffer[offset + 1] & 0xFF) >> 4);
+					Integer count = types.get(type);
+					types.put(type, count == null ? 1 : count + 1);
+				}
+				Object o = client.decodeFrame(buffer, offset, framer.getPayloadLength());
+				if(o instanceof Observations)
+					epochs++;
+				frames++;
+			}
+			long elapsed = System.nanoTime() - start;
+
+			double seconds = elapsed / 1e9;
+			System.out.println((pass==0?"warm-up":"pass "+pass)+": "+frames+" frames, "+epochs+" epochs in "
+					+String.format("%.3f", seconds*1000)+" ms, "
+					+String.format("%.0f", frames/seconds)+" frames/s, "
+					+String.format("%.0f", epochs/seconds)+" epochs/s, "
+					+String.format("%.2f", frames>0?elapsed/1e3/frames:0)+" us/frame");
+			if(pass==passes){
+				for(Map.Entry<Integer, Integer> e : types.entrySet())
+					System.out.println("  "+e.getKey()+": "+e.getValue());
+				System.out.println(client.getStatistics());
+			}
+		}
+		System.out.println("END");
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int n = 0;
+			while(n < data.length){
+				int r = in.read(data, n, data.length - n);
+				if(r < 0) break;
+				n += r;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+}
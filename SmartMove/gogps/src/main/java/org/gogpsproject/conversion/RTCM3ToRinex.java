@@ -69,8 +69,11 @@ public class RTCM3ToRinex {
 			e.printStackTrace();
 		}
 		
-		while(masterIn.hasMoreObservations()){
-			masterIn.getNextObservations();
+		try {
+			// epochs are decoded in parallel and written in time order
+			masterIn.replay(Runtime.getRuntime().availableProcessors());
+		} catch (InterruptedException e) {
+			e.printStackTrace();
 		}
 		
 		rp.streamClosed();
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.parser.rinex.RinexObservationParallelParser;
+import org.gogpsproject.producer.parser.rinex.RinexObservationParser;
+import org.gogpsproject.producer.parser.rinex.RinexObservationSpeedParser;
+
+/**
+ * Compares RinexObservationParser, RinexObservationSpeedParser and
+ * RinexObservationParallelParser on a RINEX observation file (2.11, 2.12 or
+ * 3.0x, possibly .Z or Hatanaka compressed).
+ *
+ * The epochs of the parsers are checked field by field first, then the file
+ * is parsed several times by each parser; the first pass is a warm-up. Each
+ * pass reports the epochs per second and the time per epoch.
+ */
+public class RinexObservationBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+
+		//force dot as decimal separator
+		Locale.setDefault(new Locale("en", "US"));
+
+		if(args.length<1){
+			System.out.println("RinexObservationBenchmark <observation file> [<passes>] [<threads>]");
+			return;
+		}
+
+		int p=0;
+		File inFile = new File(args[p++]);
+		int passes = 5;
+		if (args.length>1)
+			passes = Integer.parseInt(args[p++]);
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length>2)
+			threads = Integer.parseInt(args[p++]);
+
+		System.out.println("in :"+inFile+" ("+inFile.length()+" bytes)");
+
+		List<Observations> ref = parse(new RinexObservationParser(inFile));
+		if(!check(ref, parse(new RinexObservationSpeedParser(inFile)), "RinexObservationSpeedParser")
+				|| !check(ref, parse(new RinexObservationParallelParser(inFile, threads)), "RinexObservationParallelParser"))
+			return;
+		System.out.println(ref.size()+" identical epochs, "+threads+" threads");
+
+		for(int pass=0; pass<=passes; pass++){
+			long start = System.nanoTime();
+			int epochs = parse(new RinexObservationParser(inFile)).size();
+			long base = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			parse(new RinexObservationSpeedParser(inFile));
+			long speed = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			parse(new RinexObservationParallelParser(inFile, threads));
+			long parallel = System.nanoTime() - start;
+
+			System.out.println((pass==0?"warm-up":"pass "+pass)+": RinexObservationParser "
+					+String.format("%.3f", base/1e6)+" ms "
+					+String.format("%.0f", epochs/(base/1e9))+" epochs/s "
+					+String.format("%.2f", base/1e3/epochs)+" us/epoch, RinexObservationSpeedParser "
+					+String.format("%.3f", speed/1e6)+" ms "
+					+String.format("%.0f", epochs/(speed/1e9))+" epochs/s "
+					+String.format("%.2f", speed/1e3/epochs)+" us/epoch, speedup "
+					+String.format("%.2f", (double)base/speed)+", RinexObservationParallelParser "
+					+String.format("%.3f", parallel/1e6)+" ms "
+					+String.format("%.0f", epochs/(parallel/1e9))+" epochs/s "
+					+String.format("%.2f", parallel/1e3/epochs)+" us/epoch, speedup "
+					+String.format("%.2f", (double)base/parallel));
+		}
+		System.out.println("END");
+	}
+
+	private static List<Observations> parse(RinexObservationParser parser) throws Exception {
+		List<Observations> list = new ArrayList<Observations>();
+		parser.init();
+		Observations o;
+		while((o = parser.getNextObservations()) != null)
+			list.add(o);
+		parser.release(false, 0);
+		return list;
+	}
+
+	private static boolean check(List<Observations> ref, List<Observations> list, String parser) {
+		for(int i=0; i<Math.max(ref.size(), list.size()); i++){
+			if(i>=ref.size() || i>=list.size() || !same(ref.get(i), list.get(i))){
+				System.out.println(parser+": epoch "+i+" differs ("+ref.size()+" / "+list.size()+" epochs)");
+				if(i<ref.size()) System.out.println("RinexObservationParser : "+ref.get(i));
+				if(i<list.size()) System.out.println(parser+" : "+list.get(i));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean same(Observations a, Observations b) {
+		if(a.getRefTime().getMsec() != b.getRefTime().getMsec()
+				|| a.getRefTime().getFraction() != b.getRefTime().getFraction()
+				|| a.getEventFlag() != b.getEventFlag()
+				|| a.getNumSat() != b.getNumSat())
+			return false;
+		for(int i=0; i<a.getNumSat(); i++){
+			ObservationSet x = a.getSatByIdx(i);
+			ObservationSet y = b.getSatByIdx(i);
+			if(x == null || y == null){
+				if(x != y) return false;
+				continue;
+			}
+			if(x.getSatType() != y.getSatType() || x.getSatID() != y.getSatID())
+				return false;
+			for(int f=0; f<2; f++){
+				if(Double.compare(x.getCodeC(f), y.getCodeC(f)) != 0
+						|| Double.compare(x.getCodeP(f), y.getCodeP(f)) != 0
+						|| Double.compare(x.getPhaseCycles(f), y.getPhaseCycles(f)) != 0
+						|| Float.compare(x.getSignalStrength(f), y.getSignalStrength(f)) != 0
+						|| Float.compare(x.getDoppler(f), y.getDoppler(f)) != 0
+						|| x.getLossLockInd(f) != y.getLossLockInd(f)
+						|| x.getSignalStrengthInd(f) != y.getSignalStrengthInd(f))
+					return false;
+			}
+		}
+		return true;
+	}
+}
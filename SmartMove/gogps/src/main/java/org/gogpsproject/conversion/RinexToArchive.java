@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2011 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.File;
+
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.archive.ObservationArchiveWriter;
+import org.gogpsproject.producer.parser.rinex.RinexObservationSpeedParser;
+
+/**
+ * Converts a RINEX observation file (2.11, 2.12 or 3.0x, possibly .Z or
+ * Hatanaka compressed) into an observation archive, readable with
+ * ObservationArchiveReader.
+ * Arguments: &lt;observation file&gt; [compact]
+ * where compact rounds code and phase to the RINEX resolution, which
+ * loses nothing from a RINEX file
+ */
+public class RinexToArchive {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length<1){
+			System.out.println("RinexToArchive <observation file> [compact]");
+			return;
+		}
+		int p=0;
+		File inFile = new File(args[p++]);
+		String outFile = inFile.getPath()+".gobs";
+		int encoding = args.length>p && args[p++].startsWith("c") ? ObservationArchiveWriter.ENCODING_COMPACT : ObservationArchiveWriter.ENCODING_DOUBLE;
+
+		System.out.println("in :"+inFile);
+		System.out.println("out:"+outFile);
+
+		RinexObservationSpeedParser parser = new RinexObservationSpeedParser(inFile);
+		parser.init();
+		// the writer appends to an existing archive
+		new File(outFile).delete();
+		ObservationArchiveWriter out = new ObservationArchiveWriter(outFile, encoding);
+		if(parser.getDefinedPosition()!=null) out.write(parser.getDefinedPosition());
+		int epochs = 0;
+		try{
+			Observations o;
+			while((o = parser.getNextObservations())!=null){
+				out.write(o);
+				epochs++;
+			}
+		}finally{
+			parser.release(false, 0);
+			out.close();
+		}
+		System.out.println(epochs+" epochs, "+inFile.length()+" -> "+new File(outFile).length()+" bytes");
+		System.out.println("END");
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.gogpsproject.GoGPS;
+import org.gogpsproject.GoGPS.RunMode;
+import org.gogpsproject.Status;
+import org.gogpsproject.consumer.PositionConsumer;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.positioning.RoverPosition;
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsProducer;
+import org.gogpsproject.producer.parser.rinex.RinexNavigationSpeedParser;
+import org.gogpsproject.producer.parser.rinex.RinexObservationParser;
+
+/**
+ * Measures the throughput of snapshot positioning on captures taken from a
+ * RINEX observation file and its navigation file, read with satellite speeds.
+ *
+ * The captures are epochs evenly spread over the file, with the code phase
+ * within the millisecond as a snapshot receiver measures it. Their time is
+ * off by the given error with alternating sign, so that each capture has to
+ * search the time offsets. The a priori position is the one of the file header,
+ * the elevation cutoff is the one of the pivot search (5 degrees).
+ * The first pass is a warm-up. Each pass reports the captures per second
+ * and the number of valid fixes, with a number of workers the time offsets
+ * are tried concurrently.
+ */
+public class SnapshotBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+
+		//force dot as decimal separator
+		Locale.setDefault(new Locale("en", "US"));
+
+		if(args.length<2){
+			System.out.println("SnapshotBenchmark <observation file> <navigation file> [<passes> [<captures> [<time error s> [<workers>]]]]");
+			return;
+		}
+
+		int p=0;
+		File obsFile = new File(args[p++]);
+		File navFile = new File(args[p++]);
+		int passes = 3;
+		if (args.length>2)
+			passes = Integer.parseInt(args[p++]);
+		int captures = 100;
+		if (args.length>3)
+			captures = Integer.parseInt(args[p++]);
+		long errorms = 120000;
+		if (args.length>4)
+			errorms = Long.parseLong(args[p++])*1000;
+		int workers = 1;
+		if (args.length>5)
+			workers = Integer.parseInt(args[p++]);
+
+		RinexObservationParser parser = new RinexObservationParser(obsFile);
+		parser.init();
+		List<Observations> all = new ArrayList<Observations>();
+		Observations o;
+		while((o = parser.getNextObservations()) != null)
+			all.add(o);
+		final Coordinates definedPosition = parser.getDefinedPosition();
+		parser.release(false, 0);
+
+		final List<Observations> epochs = captures(all, captures, errorms);
+
+		RinexNavigationSpeedParser navigation = new RinexNavigationSpeedParser(navFile);
+		navigation.init();
+
+		System.out.println("in :"+obsFile+" ("+epochs.size()+" captures, time error "+errorms/1000+" s), "+navFile);
+
+		for(int pass=0; pass<=passes; pass++){
+			final int[] positions = new int[2];
+			final Coordinates aPriori = Coordinates.globalXYZInstance(definedPosition.getX(), definedPosition.getY(), definedPosition.getZ());
+			ObservationsProducer roverIn = new ObservationsProducer() {
+				int cursor = 0;
+				Observations current = epochs.get(0).copy();
+				public Observations getCurrentObservations() {
+					return current;
+				}
+				public Observations getNextObservations() {
+					current = ++cursor<epochs.size() ? epochs.get(cursor).copy() : null;
+					return current;
+				}
+				public Coordinates getDefinedPosition() {
+					return aPriori;
+				}
+				public void init() {
+				}
+				public void release(boolean waitForThread, long timeoutMs) {
+				}
+			};
+			GoGPS goGPS = new GoGPS(navigation, roverIn).setDebug(false).setCutoff(5).setSnapshotParallelism(workers);
+			goGPS.addPositionConsumerListener(new PositionConsumer() {
+				public void addCoordinate(RoverPosition coord) {
+					positions[0]++;
+					if(coord.status==Status.Valid)
+						positions[1]++;
+				}
+				public void event(int event) {
+				}
+			});
+
+			long start = System.nanoTime();
+			goGPS.run(RunMode.CODE_STANDALONE_SNAPSHOT);
+			long elapsed = System.nanoTime() - start;
+
+			System.out.println((pass==0?"warm-up":"pass "+pass)+": "
+					+String.format("%.3f", elapsed/1e6)+" ms "
+					+String.format("%.1f", epochs.size()/(elapsed/1e9))+" captures/s "
+					+String.format("%.2f", elapsed/1e6/epochs.size())+" ms/capture, "
+					+positions[0]+" positions, "+positions[1]+" valid");
+		}
+		navigation.release(false, 0);
+		System.out.println("END");
+	}
+
+	/**
+	 * @param all epochs of the observation file
+	 * @param captures number of captures
+	 * @param errorms time error of the captures
+	 * @return captures evenly spread over the epochs, with code phase within the millisecond
+	 */
+	static List<Observations> captures(List<Observations> all, int captures, long errorms) {
+		List<Observations> epochs = new ArrayList<Observations>();
+		for(int i=0; i<captures && i<all.size(); i++){
+			Observations capture = all.get((int)((long)i*all.size()/Math.min(captures, all.size()))).copy();
+			capture.setRefTime(new Time(capture.getRefTime().getMsec() + (i%2==0 ? errorms : -errorms)));
+			for(int s=0; s<capture.getNumSat(); s++){
+				ObservationSet os = capture.getSatByIdx(s);
+				os.setCodeC(ObservationSet.L1, os.getCodeC(ObservationSet.L1) % GoGPS.MODULO1MS);
+			}
+			epochs.add(capture);
+		}
+		return epochs;
+	}
+
+}
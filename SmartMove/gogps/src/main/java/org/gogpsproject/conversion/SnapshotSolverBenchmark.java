@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.conversion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gogpsproject.GoGPS;
+import org.gogpsproject.Status;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.positioning.RoverPosition;
+import org.gogpsproject.positioning.SnapshotSolver;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.parser.rinex.RinexNavigationSpeedParser;
+import org.gogpsproject.producer.parser.rinex.RinexObservationParser;
+
+/**
+ * Measures the throughput of {@link SnapshotSolver} on the captures of
+ * {@link SnapshotBenchmark}, solved as independent snapshots by a number of
+ * threads sharing one solver and one navigation.
+ *
+ * The first pass is a warm-up. Each pass reports the snapshots per second,
+ * per second and core in use, and the number of valid fixes.
+ */
+public class SnapshotSolverBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+
+		//force dot as decimal separator
+		Locale.setDefault(new Locale("en", "US"));
+
+		if(args.length<2){
+			System.out.println("SnapshotSolverBenchmark <observation file> <navigation file> [<passes> [<captures> [<time error s> [<threads>]]]]");
+			return;
+		}
+
+		int p=0;
+		File obsFile = new File(args[p++]);
+		File navFile = new File(args[p++]);
+		int passes = 3;
+		if (args.length>2)
+			passes = Integer.parseInt(args[p++]);
+		int captures = 1000;
+		if (args.length>3)
+			captures = Integer.parseInt(args[p++]);
+		long errorms = 120000;
+		if (args.length>4)
+			errorms = Long.parseLong(args[p++])*1000;
+		final int threads = args.length>5 ? Integer.parseInt(args[p++]) : Runtime.getRuntime().availableProcessors();
+
+		RinexObservationParser parser = new RinexObservationParser(obsFile);
+		parser.init();
+		List<Observations> all = new ArrayList<Observations>();
+		Observations o;
+		while((o = parser.getNextObservations()) != null)
+			all.add(o);
+		final Coordinates aPriori = parser.getDefinedPosition();
+		parser.release(false, 0);
+
+		final List<Observations> snapshots = SnapshotBenchmark.captures(all, captures, errorms);
+
+		RinexNavigationSpeedParser navigation = new RinexNavigationSpeedParser(navFile);
+		navigation.init();
+
+		final SnapshotSolver solver = new SnapshotSolver(new GoGPS(navigation, null).setDebug(false).setCutoff(5));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		int cores = Math.min(threads, Runtime.getRuntime().availableProcessors());
+
+		System.out.println("in :"+obsFile+" ("+snapshots.size()+" snapshots, time error "+errorms/1000+" s), "+navFile
+				+", "+threads+" threads on "+cores+" cores");
+
+		for(int pass=0; pass<=passes; pass++){
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			long start = System.nanoTime();
+			for(int t=0; t<threads; t++){
+				final int first = t;
+				results.add(executor.submit(new Callable<Integer>() {
+					public Integer call() {
+						int valid = 0;
+						for(int i=first; i<snapshots.size(); i+=threads){
+							RoverPosition fix = solver.solve(snapshots.get(i), aPriori);
+							if(fix.status==Status.Valid)
+								valid++;
+						}
+						return valid;
+					}
+				}));
+			}
+			int valid = 0;
+			for(Future<Integer> result: results)
+				valid += result.get();
+			long elapsed = System.nanoTime() - start;
+
+			double rate = snapshots.size()/(elapsed/1e9);
+			System.out.println((pass==0?"warm-up":"pass "+pass)+": "
+					+String.format("%.3f", elapsed/1e6)+" ms "
+					+String.format("%.1f", rate)+" snapshots/s "
+					+String.format("%.1f", rate/cores)+" snapshots/s/core "
+					+String.format("%.2f", elapsed/1e6/snapshots.size())+" ms/snapshot, "
+					+valid+" valid");
+		}
+		executor.shutdown();
+		navigation.release(false, 0);
+		System.out.println("END");
+	}
+
+}
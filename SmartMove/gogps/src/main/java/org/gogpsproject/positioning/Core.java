@@ -107,4 +107,36 @@ public abstract class Core {
     rover.hDop = Math.sqrt(covENU.get(0, 0) + covENU.get(1, 1));
     rover.vDop = Math.sqrt(covENU.get(2, 2));
   }
+
+  /**
+   * Same as {@link #updateDops(SimpleMatrix)}, without allocation.
+   *
+   * @param covXYZ covariance matrix from the satellite geometry [ECEF reference system], row-major 3x3
+   */
+  void updateDops( double[] covXYZ ){
+    double lam = Math.toRadians(rover.getGeodeticLongitude());
+    double phi = Math.toRadians(rover.getGeodeticLatitude());
+    double cosLam = Math.cos(lam);
+    double cosPhi = Math.cos(phi);
+    double sinLam = Math.sin(lam);
+    double sinPhi = Math.sin(phi);
+
+    // rows of the rotation matrix to local coordinates, see Coordinates.rotationMatrix
+    double e0 = -sinLam, e1 = cosLam, e2 = 0;
+    double n0 = -sinPhi * cosLam, n1 = -sinPhi * sinLam, n2 = cosPhi;
+    double u0 = cosPhi * cosLam, u1 = cosPhi * sinLam, u2 = sinPhi;
+
+    rover.pDop = Math.sqrt(covXYZ[0] + covXYZ[4] + covXYZ[8]);
+    rover.hDop = Math.sqrt(quadraticForm(covXYZ, e0, e1, e2) + quadraticForm(covXYZ, n0, n1, n2));
+    rover.vDop = Math.sqrt(quadraticForm(covXYZ, u0, u1, u2));
+  }
+
+  /**
+   * @return r'Cr for a row-major 3x3 matrix C
+   */
+  private static double quadraticForm( double[] c, double r0, double r1, double r2 ){
+    return r0 * (c[0] * r0 + c[1] * r1 + c[2] * r2)
+        + r1 * (c[3] * r0 + c[4] * r1 + c[5] * r2)
+        + r2 * (c[6] * r0 + c[7] * r1 + c[8] * r2);
+  }
 }
@@ -643,10 +643,10 @@ public class KF_DD_code_phase extends KalmanFilter {
       A.set(pivotIndex, pivotIndex, 0);
 
       // Update predicted state
-      KFprediction = A.mult(KFprediction);
+      KFprediction.set(A.mult(KFprediction));
 
       // Re-computation of the Cee covariance matrix at the previous epoch
-      Cee = A.mult(Cee).mult(A.transpose());
+      Cee.set(A.mult(Cee).mult(A.transpose()));
     }
 
     // Cycle-slip detection
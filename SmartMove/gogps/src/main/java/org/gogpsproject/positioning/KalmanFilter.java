@@ -46,6 +46,9 @@ public abstract class KalmanFilter extends LS_DD_code {
   SimpleMatrix KFstate;
   SimpleMatrix KFprediction;
 
+  /** Storage of KFstate, KFprediction, Cee and Cvv, sequential update */
+  KalmanState kalman;
+
   // Fields for keeping track of satellite configuration changes
   ArrayList<Integer> satOld;
   ArrayList<Character> satTypeOld;
@@ -119,10 +122,6 @@ public abstract class KalmanFilter extends LS_DD_code {
   
     // Allocate matrices
     T = SimpleMatrix.identity( o3 + nN);
-    KFstate = new SimpleMatrix( o3 + nN, 1);
-    KFprediction = new SimpleMatrix(o3 + nN, 1);
-    Cvv = new SimpleMatrix(o3 + nN, o3 + nN);
-    Cee = new SimpleMatrix(o3 + nN, o3 + nN);
   
     // System dynamics
     int j = 0;
@@ -134,6 +133,18 @@ public abstract class KalmanFilter extends LS_DD_code {
         j = 0;
       }
     }
+
+    // State and covariances for all the ambiguity slots, reused at each epoch
+    kalman = new KalmanState(T);
+    KFstate = kalman.getState();
+    KFprediction = kalman.getPrediction();
+    Cvv = kalman.getNoise();
+    Cee = kalman.getCovariance();
+
+    // Observation matrices, reshaped at each epoch
+    H = new SimpleMatrix(1, o3 + nN);
+    y0 = new SimpleMatrix(1, 1);
+    Cnn = new SimpleMatrix(1, 1);
   
     // Model error covariance matrix
     Cvv.zero();
@@ -175,7 +186,7 @@ public abstract class KalmanFilter extends LS_DD_code {
     KFstate.set(i2 + 1, 0, rover.getZ());
   
     // Prediction
-    KFprediction = T.mult(KFstate);
+    kalman.predictState();
   
     // Covariance matrix of the initial state
     if(positionCovariance != null) {
@@ -200,6 +211,51 @@ public abstract class KalmanFilter extends LS_DD_code {
 	  return residuals;
   }
   
+  /**
+   * Kalman filter equations with the whole observation set, inverting HKH'+Cnn
+   *
+   * @param outliers remove the observations whose residuals exceed the thresholds
+   */
+  void batchUpdate( boolean outliers ) {
+
+    // Identity matrix
+    SimpleMatrix I = SimpleMatrix.identity(o3 + nN);
+
+    // Kalman filter equations
+    SimpleMatrix K = T.mult(Cee).mult(T.transpose()).plus(Cvv);
+    SimpleMatrix G = K.mult(H.transpose()).mult(H.mult(K).mult(H.transpose()).plus(Cnn).invert());
+
+    // look for outliers
+    if( outliers ) {
+
+      SimpleMatrix Xhat_t_t = I.minus(G.mult(H)).mult(KFprediction).plus(G.mult(y0));
+      SimpleMatrix residuals = compute_residuals(Xhat_t_t);
+
+      // remove observations with residuals exceeding thresholds
+      int r = 0;
+      for( ; r<residuals.getNumElements()/2; r++ ) {
+        if( Math.abs( residuals.get(r) )> goGPS.getCodeResidThreshold()) {
+          H.setRow( r, 0, new double[H.numCols()]);
+          y0.setRow( r, 0, new double[y0.numCols()]);
+          Cnn.setRow( r, 0, new double[Cnn.numCols()]);
+        }
+      }
+
+      for( ; r<residuals.getNumElements(); r++ ) {
+        if( Math.abs( residuals.get(r) )> goGPS.getPhaseResidThreshold() ) {
+          H.setRow( r, 0, new double[H.numCols()]);
+          y0.setRow( r, 0, new double[y0.numCols()]);
+          Cnn.setRow( r, 0, new double[Cnn.numCols()]);
+        }
+      }
+    }
+
+    // Results are copied, the matrices are views on the filter state
+    KFstate.set(I.minus(G.mult(H)).mult(KFprediction).plus(G.mult(y0)));
+    Cee.set(I.minus(G.mult(H)).mult(K));
+    kalman.predictState();
+  }
+
   /**
    * @param roverObs
    * @param masterObs
@@ -252,18 +308,13 @@ public abstract class KalmanFilter extends LS_DD_code {
     }
 
     if( sats.avail.size() >= minNumSat ) {
-      // Allocate transformation matrix
-      H = new SimpleMatrix(nObs, o3 + nN);
-
-      // Allocate observation vector
-      y0 = new SimpleMatrix(nObs, 1);
-
-      // Allocate observation error covariance matrix
-      Cnn = new SimpleMatrix(nObs, nObs);
-
-      // Allocate K and G matrices
-      SimpleMatrix K = new SimpleMatrix(o3 + nN, o3 + nN);
-      SimpleMatrix G = new SimpleMatrix(o3 + nN, nObs);
+      // Reshape transformation matrix, observation vector and observation error covariance matrix
+      H.reshape(nObs, o3 + nN);
+      H.zero();
+      y0.reshape(nObs, 1);
+      y0.zero();
+      Cnn.reshape(nObs, nObs);
+      Cnn.zero();
 
       // Re-initialization of the model error covariance matrix
       Cvv.zero();
@@ -300,48 +351,23 @@ public abstract class KalmanFilter extends LS_DD_code {
       // Check if satellite configuration changed since the previous epoch
       checkSatelliteConfiguration(roverObs, masterObs, masterPos);
 
-      // Identity matrix
-      SimpleMatrix I = SimpleMatrix.identity(o3 + nN);
-
-      // Kalman filter equations
-      K = T.mult(Cee).mult(T.transpose()).plus(Cvv);
-      G = K.mult(H.transpose()).mult(H.mult(K).mult(H.transpose()).plus(Cnn).invert());
-      
-      // look for outliers
       if( goGPS.searchForOutliers() ) {
-    	  
-	      SimpleMatrix Xhat_t_t = I.minus(G.mult(H)).mult(KFprediction).plus(G.mult(y0));
-	      SimpleMatrix residuals = compute_residuals(Xhat_t_t);
-	      
-	//      remove observations with residuals exceeding thresholds
-	      int r = 0;
-	      for( ; r<residuals.getNumElements()/2; r++ ) {
-	    	  	if( Math.abs( residuals.get(r) )> goGPS.getCodeResidThreshold()) {
-	    	  		H.setRow( r, 0, new double[H.numCols()]);
-	    	  		y0.setRow( r, 0, new double[y0.numCols()]);
-	    	  		Cnn.setRow( r, 0, new double[Cnn.numCols()]);
-	    	  	}
-	      }
-	      
-	      for( ; r<residuals.getNumElements(); r++ ) {
-	  	  	if( Math.abs( residuals.get(r) )> goGPS.getPhaseResidThreshold() ) {
-		  		H.setRow( r, 0, new double[H.numCols()]);
-		  		y0.setRow( r, 0, new double[y0.numCols()]);
-		  		Cnn.setRow( r, 0, new double[Cnn.numCols()]);
-	  	  	}
-	      }
+        // Outliers are searched on the batch solution
+        batchUpdate(true);
+      } else {
+        // Kalman filter equations, one observation at a time
+        kalman.activate(H.getDDRM(), nObs);
+        kalman.predictCovariance(true);
+        if( kalman.update(H.getDDRM(), y0.getDDRM(), Cnn.getDDRM(), nObs) )
+          kalman.commit();
+        else
+          batchUpdate(false);
       }
-      
-      KFstate = I.minus(G.mult(H)).mult(KFprediction).plus(G.mult(y0));
-      KFprediction = T.mult(KFstate);
-      Cee = I.minus(G.mult(H)).mult(K);
 
     } else {
 
       // Positioning only by system dynamics
-      KFstate = KFprediction;
-      KFprediction = T.mult(KFstate);
-      Cee = T.mult(Cee).mult(T.transpose());
+      kalman.propagate();
     }
 
     // Compute predicted phase ranges based on Doppler observations
@@ -0,0 +1,277 @@
+package org.gogpsproject.positioning;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Kalman filter state, allocated once for the dynamic model block and all the
+ * ambiguity slots.
+ * <p>
+ * State, prediction, error covariance (Cee) and model error covariance (Cvv)
+ * are plain arrays, {@link KalmanFilter} keeps working on them through
+ * SimpleMatrix views. Observations are processed one at a time in Joseph
+ * form, correlated observations are whitened first, so HKH'+Cnn is never
+ * inverted. Products only run over the active slots: a slot without
+ * variance, covariance or observation keeps its value exactly, which lets
+ * satellites come and go without reallocating.
+ * </p>
+ */
+class KalmanState {
+
+  private final int size;
+
+  /** rows of the transition matrix with a one on the superdiagonal */
+  private final boolean[] shift;
+
+  private final double[] state;
+  private final double[] prediction;
+  private final double[] covariance;
+  private final double[] noise;
+
+  /** T Cee T' + Cvv, then the updated covariance */
+  private final double[] predicted;
+
+  private final boolean[] active;
+  private final int[] activeIndex;
+  private int activeCount;
+
+  private final double[] u;
+  private final double[] gain;
+  private final int[] nonZero;
+
+  /** whitening of correlated observations, grown on demand */
+  private double[] factor = new double[0];
+  private double[] whiteRows = new double[0];
+  private double[] whiteValues = new double[0];
+
+  private final SimpleMatrix stateView;
+  private final SimpleMatrix predictionView;
+  private final SimpleMatrix covarianceView;
+  private final SimpleMatrix noiseView;
+
+  /**
+   * @param T transition matrix, identity plus ones on the superdiagonal
+   */
+  KalmanState( SimpleMatrix T ) {
+    size = T.numRows();
+    shift = new boolean[size];
+    for( int i = 0; i < size - 1; i++ )
+      shift[i] = T.get(i, i + 1) != 0;
+
+    state = new double[size];
+    prediction = new double[size];
+    covariance = new double[size * size];
+    noise = new double[size * size];
+    predicted = new double[size * size];
+
+    active = new boolean[size];
+    activeIndex = new int[size];
+    u = new double[size];
+    gain = new double[size];
+    nonZero = new int[size];
+
+    stateView = SimpleMatrix.wrap(DMatrixRMaj.wrap(size, 1, state));
+    predictionView = SimpleMatrix.wrap(DMatrixRMaj.wrap(size, 1, prediction));
+    covarianceView = SimpleMatrix.wrap(DMatrixRMaj.wrap(size, size, covariance));
+    noiseView = SimpleMatrix.wrap(DMatrixRMaj.wrap(size, size, noise));
+  }
+
+  SimpleMatrix getState() {
+    return stateView;
+  }
+
+  SimpleMatrix getPrediction() {
+    return predictionView;
+  }
+
+  SimpleMatrix getCovariance() {
+    return covarianceView;
+  }
+
+  SimpleMatrix getNoise() {
+    return noiseView;
+  }
+
+  /**
+   * Marks the slots taking part in this epoch.
+   *
+   * @param H design matrix, null if there are no observations
+   * @param nObs number of rows of H
+   */
+  void activate( DMatrixRMaj H, int nObs ) {
+    for( int j = 0; j < size; j++ ) {
+      boolean used = noise[j * size + j] != 0;
+      for( int i = 0; i < size && !used; i++ )
+        used = covariance[j * size + i] != 0 || covariance[i * size + j] != 0;
+      for( int r = 0; r < nObs && !used; r++ )
+        used = H.data[r * size + j] != 0;
+      active[j] = used;
+    }
+    // the transition moves a slot into the one before it
+    for( int j = size - 2; j >= 0; j-- )
+      if( shift[j] && active[j + 1] )
+        active[j] = true;
+
+    activeCount = 0;
+    for( int j = 0; j < size; j++ )
+      if( active[j] )
+        activeIndex[activeCount++] = j;
+  }
+
+  /**
+   * Computes T Cee T', plus Cvv if required, over the active slots.
+   */
+  void predictCovariance( boolean withNoise ) {
+    for( int a = 0; a < activeCount; a++ ) {
+      int i = activeIndex[a];
+      for( int b = 0; b < activeCount; b++ ) {
+        int j = activeIndex[b];
+        double v = covariance[i * size + j];
+        if( shift[j] )
+          v += covariance[i * size + j + 1];
+        if( shift[i] ) {
+          v += covariance[(i + 1) * size + j];
+          if( shift[j] )
+            v += covariance[(i + 1) * size + j + 1];
+        }
+        if( withNoise )
+          v += noise[i * size + j];
+        predicted[i * size + j] = v;
+      }
+    }
+  }
+
+  /**
+   * Updates the prediction with the observations, one at a time, starting
+   * from the covariance computed by {@link #predictCovariance(boolean)}.
+   * The state is written, the covariance only by {@link #commit()}.
+   *
+   * @return false if Cnn or an innovation variance is not positive
+   */
+  boolean update( DMatrixRMaj H, DMatrixRMaj y0, DMatrixRMaj Cnn, int nObs ) {
+    System.arraycopy(prediction, 0, state, 0, size);
+
+    boolean diagonal = true;
+    for( int r = 0; r < nObs && diagonal; r++ )
+      for( int c = 0; c < nObs && diagonal; c++ )
+        diagonal = r == c || Cnn.data[r * nObs + c] == 0;
+
+    if( diagonal ) {
+      for( int r = 0; r < nObs; r++ )
+        if( !scalarUpdate(H.data, r * size, y0.data[r], Cnn.data[r * nObs + r]) )
+          return false;
+      return true;
+    }
+
+    // Whitening: with Cnn = LL', the rows of L^-1 H are uncorrelated with unit variance
+    if( factor.length < nObs * nObs )
+      factor = new double[nObs * nObs];
+    if( whiteRows.length < nObs * size ) {
+      whiteRows = new double[nObs * size];
+      whiteValues = new double[nObs];
+    }
+    System.arraycopy(Cnn.data, 0, factor, 0, nObs * nObs);
+    if( !NormalEquations.cholesky(factor, nObs) )
+      return false;
+    for( int r = 0; r < nObs; r++ ) {
+      double l = factor[r * nObs + r];
+      double y = y0.data[r];
+      for( int k = 0; k < r; k++ )
+        y -= factor[r * nObs + k] * whiteValues[k];
+      whiteValues[r] = y / l;
+      for( int a = 0; a < activeCount; a++ ) {
+        int j = activeIndex[a];
+        double h = H.data[r * size + j];
+        for( int k = 0; k < r; k++ )
+          h -= factor[r * nObs + k] * whiteRows[k * size + j];
+        whiteRows[r * size + j] = h / l;
+      }
+    }
+    for( int r = 0; r < nObs; r++ )
+      if( !scalarUpdate(whiteRows, r * size, whiteValues[r], 1) )
+        return false;
+    return true;
+  }
+
+  /**
+   * One observation h'x = y with variance r.
+   */
+  private boolean scalarUpdate( double[] h, int offset, double y, double r ) {
+    int count = 0;
+    for( int a = 0; a < activeCount; a++ ) {
+      int j = activeIndex[a];
+      if( h[offset + j] != 0 )
+        nonZero[count++] = j;
+    }
+    if( count == 0 )
+      return true;
+
+    // u = Ph, s = h'Ph + r
+    double s = r;
+    double innovation = y;
+    for( int c = 0; c < count; c++ )
+      innovation -= h[offset + nonZero[c]] * state[nonZero[c]];
+    for( int a = 0; a < activeCount; a++ ) {
+      int i = activeIndex[a];
+      double v = 0;
+      for( int c = 0; c < count; c++ )
+        v += predicted[i * size + nonZero[c]] * h[offset + nonZero[c]];
+      u[i] = v;
+    }
+    for( int c = 0; c < count; c++ )
+      s += h[offset + nonZero[c]] * u[nonZero[c]];
+    if( !(s > 0) )
+      return false;
+
+    for( int a = 0; a < activeCount; a++ ) {
+      int i = activeIndex[a];
+      gain[i] = u[i] / s;
+      state[i] += gain[i] * innovation;
+    }
+
+    // Joseph form (I-kh')P(I-kh')' + rkk' = P - ku' - uk' + skk'
+    for( int a = 0; a < activeCount; a++ ) {
+      int i = activeIndex[a];
+      for( int b = 0; b <= a; b++ ) {
+        int j = activeIndex[b];
+        double v = predicted[i * size + j]
+            - gain[i] * u[j] - u[i] * gain[j] + s * gain[i] * gain[j];
+        predicted[i * size + j] = v;
+        predicted[j * size + i] = v;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stores the updated (or only predicted) covariance and predicts the state.
+   */
+  void commit() {
+    for( int a = 0; a < activeCount; a++ ) {
+      int i = activeIndex[a];
+      for( int b = 0; b < activeCount; b++ ) {
+        int j = activeIndex[b];
+        covariance[i * size + j] = predicted[i * size + j];
+      }
+    }
+    predictState();
+  }
+
+  /**
+   * Positioning by system dynamics only, no observation.
+   */
+  void propagate() {
+    activate(null, 0);
+    predictCovariance(false);
+    System.arraycopy(prediction, 0, state, 0, size);
+    commit();
+  }
+
+  /**
+   * prediction = T state
+   */
+  void predictState() {
+    for( int i = 0; i < size; i++ )
+      prediction[i] = shift[i] ? state[i] + state[i + 1] : state[i];
+  }
+}
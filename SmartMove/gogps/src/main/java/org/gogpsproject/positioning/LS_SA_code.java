@@ -1,15 +1,30 @@
 package org.gogpsproject.positioning;
 
+import java.util.Arrays;
+
+import org.ejml.data.SingularMatrixException;
 import org.ejml.simple.SimpleMatrix;
 import org.gogpsproject.Constants;
 import org.gogpsproject.GoGPS;
 import org.gogpsproject.consumer.PositionConsumer;
 import org.gogpsproject.positioning.RoverPosition.DopType;
+import org.gogpsproject.producer.ObservationSet;
 import org.gogpsproject.producer.Observations;
 import org.gogpsproject.producer.ObservationsProducer;
 
 public class LS_SA_code extends Core {
 
+  /** Normal equations, reused from one epoch to the next */
+  private final NormalEquations normal = new NormalEquations();
+
+  /** Systems of the available satellites, the first one is the time reference */
+  private char[] systems = new char[4];
+
+  /** Covariance of the position, row-major 3x3 */
+  private final double[] cov = new double[9];
+
+  private final SimpleMatrix covariance = new SimpleMatrix(3, 3);
+
   public LS_SA_code( GoGPS goGPS ){
     super( goGPS );
   }
@@ -23,125 +38,196 @@ public class LS_SA_code extends Core {
     int nUnknowns = 4;
     
     // Add one unknown for each constellation in addition to the first (to estimate Inter-System Biases - ISBs)
-    String sys = sats.getAvailGnssSystems();
-    if (sys.length()>0) {
-      sys = sys.substring(1);
-      nUnknowns = nUnknowns + sys.length();
+    int nSystems = 0;
+    for( int c = 0; c < sats.typeAvail.size(); c++ ) {
+      char type = sats.typeAvail.get(c);
+      if( indexOf(systems, nSystems, type) < 0 ) {
+        if( nSystems == systems.length )
+          systems = Arrays.copyOf(systems, nSystems * 2);
+        systems[nSystems++] = type;
+      }
+    }
+    if (nSystems>1) {
+      nUnknowns = nUnknowns + nSystems - 1;
     }
 
     // Number of available satellites (i.e. observations)
     int nObsAvail = sats.avail.size();
 
-    // Least squares design matrix
-    SimpleMatrix A = new SimpleMatrix(nObsAvail, nUnknowns);
-
-    // Vector for approximate pseudoranges
-    SimpleMatrix b = new SimpleMatrix(nObsAvail, 1);
+    // Least squares design matrix, observations and weights
+    normal.reset(nUnknowns, Math.max(nObs, nObsAvail));
 
-    // Vector for observed pseudoranges
-    SimpleMatrix y0 = new SimpleMatrix(nObsAvail, 1);
-
-    // Cofactor matrix (initialized to identity)
-    SimpleMatrix Q = SimpleMatrix.identity(nObsAvail);
-
-    // Solution vector
-    SimpleMatrix x = new SimpleMatrix(nUnknowns, 1);
-
-    // Vector for observation error
-    SimpleMatrix vEstim = new SimpleMatrix(nObsAvail, 1);
-
-    // Vectors for troposphere and ionosphere corrections
-    SimpleMatrix tropoCorr = new SimpleMatrix(nObsAvail, 1);
-
-    SimpleMatrix ionoCorr = new SimpleMatrix(nObsAvail, 1);
-    
     // Set up the least squares matrices
-    for( int i = 0, k = 0; i < nObs; i++ ) {
+    for( int i = 0; i < nObs; i++ ) {
 
       // Satellite ID
-      int id = roverObs.getSatID(i);
-      char satType = roverObs.getGnssType(i);   
+      ObservationSet os = roverObs.getSatByIdx(i);
+      int id = os.getSatID();
+      char satType = os.getSatType();
       
-      String checkAvailGnss = String.valueOf(satType) + String.valueOf(id);
-      
-      if( sats.pos[i]!=null && sats.gnssAvail.contains(checkAvailGnss)) {
-//      if (sats.pos[i]!=null && sats.avail.contains(id)  && satTypeAvail.contains(satType)) {
-//        System.out.println("####" + checkAvailGnss  + "####");
-
-        // Fill in one row in the design matrix
-        A.set(k, 0, rover.diffSat[i].get(0) / rover.satAppRange[i]); /* X */
-        A.set(k, 1, rover.diffSat[i].get(1) / rover.satAppRange[i]); /* Y */
-        A.set(k, 2, rover.diffSat[i].get(2) / rover.satAppRange[i]); /* Z */
-        A.set(k, 3, 1); /* clock error */
-        for (int c = 0; c < sys.length(); c++) {
-          A.set(k, 4+c, sys.indexOf(satType)==c?1:0); /* inter-system bias */
-        }
+      if( sats.pos[i]!=null && sats.isAvail(satType, id)) {
 
-        // Add the approximate pseudorange value to b
-        b.set(k, 0, rover.satAppRange[i] - sats.pos[i].getSatelliteClockError() * Constants.SPEED_OF_LIGHT);
+        // Approximate pseudorange
+        double b = rover.satAppRange[i] - sats.pos[i].getSatelliteClockError() * Constants.SPEED_OF_LIGHT;
 
-        // Add the clock-corrected observed pseudorange value to y0
-        y0.set(k, 0, roverObs.getSatByIDType(id, satType).getPseudorange(goGPS.getFreq()));
+        // Cofactor (1 by default)
+        double q = 1;
 
         if (!ignoreTopocentricParameters) {
-          // Fill in troposphere and ionosphere double differenced
-          // corrections
-          tropoCorr.set(k, 0, rover.satTropoCorr[i]);
-          ionoCorr.set(k, 0, rover.satIonoCorr[i]);
-
-          // Fill in the cofactor matrix
-          double weight = Q.get(k, k)
-              + computeWeight(rover.topo[i].getElevation(),
-                  roverObs.getSatByIDType(id, satType).getSignalStrength(goGPS.getFreq()));
-          Q.set(k, k, weight);
+          // Apply troposphere and ionosphere correction
+          b = b + rover.satTropoCorr[i];
+          b = b + rover.satIonoCorr[i];
+
+          q = q + computeWeight(rover.topo[i].getElevation(),
+                  os.getSignalStrength(goGPS.getFreq()));
         }
 
-        // Increment available satellites counter
-        k++;
+        // Clock-corrected observed pseudorange minus approximate pseudorange
+        int k = normal.addObservation(os.getPseudorange(goGPS.getFreq()) - b, 1 / q);
+
+        // Fill in one row in the design matrix
+        normal.set(k, 0, rover.diffSat[i].get(0) / rover.satAppRange[i]); /* X */
+        normal.set(k, 1, rover.diffSat[i].get(1) / rover.satAppRange[i]); /* Y */
+        normal.set(k, 2, rover.diffSat[i].get(2) / rover.satAppRange[i]); /* Z */
+        normal.set(k, 3, 1); /* clock error */
+        int c = indexOf(systems, nSystems, satType);
+        if (c > 0) {
+          normal.set(k, 3+c, 1); /* inter-system bias */
+        }
       }
       
     }
 
-    if (!ignoreTopocentricParameters) {
-      // Apply troposphere and ionosphere correction
-      b = b.plus(tropoCorr);
-      b = b.plus(ionoCorr);
-    }
-
     // Least squares solution x = ((A'*Q^-1*A)^-1)*A'*Q^-1*(y0-b);
-    x = A.transpose().mult(Q.invert()).mult(A).invert().mult(A.transpose())
-        .mult(Q.invert()).mult(y0.minus(b));
+    if (!normal.solve())
+      throw new SingularMatrixException();
 
     // Receiver clock error
-    rover.clockError = x.get(3) / Constants.SPEED_OF_LIGHT;
+    rover.clockError = normal.getSolution(3) / Constants.SPEED_OF_LIGHT;
 
     if(estimateOnlyClock)
       return;
 
     // Receiver position
-    rover.setPlusXYZ(x.extractMatrix(0, 3, 0, 1));
+    rover.setXYZ(rover.getX() + normal.getSolution(0),
+        rover.getY() + normal.getSolution(1),
+        rover.getZ() + normal.getSolution(2));
 
     // Estimation of the variance of the observation error
-    vEstim = y0.minus(A.mult(x).plus(b));
-    double varianceEstim = (vEstim.transpose().mult(Q.invert())
-        .mult(vEstim)).get(0)
+    double varianceEstim = normal.getWeightedResidualSquares()
         / (nObsAvail - nUnknowns);
 
     // Covariance matrix of the estimation error
     if (nObsAvail > nUnknowns) {
-      positionCovariance = A.transpose().mult(Q.invert()).mult(A).invert()
-      .scale(varianceEstim)
-      .extractMatrix(0, 3, 0, 3);
+      normal.getCovariance(3, cov);
+      for (int c = 0; c < 9; c++)
+        covariance.set(c / 3, c % 3, cov[c] * varianceEstim);
+      positionCovariance = covariance;
     }else{
       positionCovariance = null;
     }
 
-    updateDops(A);
+    normal.getGeometryCovariance(3, cov);
+    updateDops(cov);
 
     // Compute positioning in geodetic coordinates
     rover.computeGeodetic();
   }
+
+  private static int indexOf( char[] systems, int n, char type ) {
+    for( int c = 0; c < n; c++ )
+      if( systems[c] == type )
+        return c;
+    return -1;
+  }
   
+  /**
+   * Code stand-alone positioning of one epoch, starting from the position of
+   * the previous epoch or, when it is not valid, from an approximate position
+   * computed by iterative least-squares.
+   *
+   * @param obsR rover observations
+   * @param definedPosition a-priori rover position, may be null
+   * @return true if the epoch has at least four satellites and the rover position is valid
+   */
+  public boolean solveEpoch( Observations obsR, Coordinates definedPosition ) {
+
+    // If there are at least four satellites
+    if (obsR.getNumSat() < 4) // gps.length
+      return false;
+
+    if (selectEpoch( obsR, definedPosition ))
+      // Compute code stand-alone positioning (epoch-by-epoch solution)
+      codeStandalone( obsR, false, false);
+
+    if(goGPS.isDebug())System.out.println("Valid LS position? "+rover.isValidXYZ()+ " " + rover.toString() );
+    return rover.isValidXYZ();
+  }
+
+  /**
+   * First part of {@link #solveEpoch(Observations, Coordinates)}: approximate
+   * position if needed, then satellite positions, corrections and selection.
+   *
+   * @param obsR rover observations
+   * @param definedPosition a-priori rover position, may be null
+   * @return true if the epoch can be solved by codeStandalone
+   */
+  boolean selectEpoch( Observations obsR, Coordinates definedPosition ) {
+
+    boolean debug = goGPS.isDebug();
+
+    // If there are at least four satellites
+    if (obsR.getNumSat() < 4)
+      return false;
+
+    if(debug) System.out.println("Total number of satellites: "+obsR.getNumSat());
+
+    // Compute approximate positioning by iterative least-squares
+    if (!rover.isValidXYZ()) {
+
+      if( definedPosition != null )
+        definedPosition.cloneInto(rover);
+
+      for (int iter = 0; iter < 3; iter++) {
+        // Select all satellites
+        sats.selectStandalone( obsR, -100);
+
+        if (sats.getAvailNumber() >= 4) {
+          codeStandalone( obsR, false, true);
+        }
+      }
+
+      // If an approximate position was computed
+      if(debug) System.out.println("Valid approximate position? "+rover.isValidXYZ()+ " " + rover.toString());
+    }
+    if (!rover.isValidXYZ())
+      return false;
+
+    // Select available satellites
+    sats.selectStandalone( obsR );
+
+    if (sats.getAvailNumber() < 4) {
+      // Discard approximate positioning
+      rover.setXYZ(0, 0, 0);
+      return false;
+    }
+    if(debug) System.out.println("Number of selected satellites: " + sats.getAvailNumber());
+    return true;
+  }
+
+  /**
+   * @param obsR observations of the epoch just solved
+   * @return a copy of the rover position, for the position consumers
+   */
+  RoverPosition getCoordinate( Observations obsR ) {
+    RoverPosition coord = new RoverPosition(rover, DopType.STANDARD, rover.getpDop(), rover.gethDop(), rover.getvDop());
+    coord.setRefTime(new Time(obsR.getRefTime().getMsec()));
+    coord.obs = obsR;
+    coord.sampleTime = obsR.getRefTime();
+    coord.status = rover.status;
+    return coord;
+  }
+
   /**
    * Run code standalone.
    *
@@ -152,87 +238,30 @@ public class LS_SA_code extends Core {
   public static void run( GoGPS goGPS, double stopAtDopThreshold ) {
     
     RoverPosition rover   = goGPS.getRoverPos();
-    MasterPosition master = goGPS.getMasterPos();
-    Satellites sats       = goGPS.getSats();
     ObservationsProducer roverIn = goGPS.getRoverIn();
-    ObservationsProducer masterIn = goGPS.getMasterIn();
     boolean debug = goGPS.isDebug();
     boolean validPosition = false;
     
     LS_SA_code sa = new LS_SA_code(goGPS);
     
-    RoverPosition coord = null;
     try {
       Observations obsR = roverIn.getNextObservations();
       while( obsR!=null && !Thread.interrupted() ) { // buffStreamObs.ready()
-//        if(debug) System.out.println("OK ");
-
-        //try{
-          // If there are at least four satellites
-          if (obsR.getNumSat() >= 4) { // gps.length
-            if(debug) System.out.println("Total number of satellites: "+obsR.getNumSat());
-
-            // Compute approximate positioning by iterative least-squares
-            if (!rover.isValidXYZ()) {
-            	
-            	 if( roverIn.getDefinedPosition() != null )
-           	   roverIn.getDefinedPosition().cloneInto(rover);
-
-              for (int iter = 0; iter < 3; iter++) {
-                // Select all satellites
-                sats.selectStandalone( obsR, -100);
-                
-                if (sats.getAvailNumber() >= 4) {
-                  sa.codeStandalone( obsR, false, true);
-                }
-              }
-
-            // If an approximate position was computed
-              if(debug) System.out.println("Valid approximate position? "+rover.isValidXYZ()+ " " + rover.toString());
-            }
-            if (rover.isValidXYZ()) {
-              // Select available satellites
-              sats.selectStandalone( obsR );
-              
-              if (sats.getAvailNumber() >= 4){
-                if(debug) System.out.println("Number of selected satellites: " + sats.getAvailNumber());
-                // Compute code stand-alone positioning (epoch-by-epoch solution)
-                sa.codeStandalone( obsR, false, false);
-              }
-              else
-                // Discard approximate positioning
-                rover.setXYZ(0, 0, 0);
-            }
-
-            if(debug)System.out.println("Valid LS position? "+rover.isValidXYZ()+ " " + rover.toString() );
-            if (rover.isValidXYZ()) {
-              if(!validPosition){
-                goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_START_OF_TRACK);
-                validPosition = true;
-              }
-//              else 
-              {
-                coord = new RoverPosition(rover, DopType.STANDARD, rover.getpDop(), rover.gethDop(), rover.getvDop());
-
-                if( goGPS.getPositionConsumers().size()>0){
-                  coord.setRefTime(new Time(obsR.getRefTime().getMsec()));
-                  coord.obs = obsR;
-                  coord.sampleTime = obsR.getRefTime();
-                  coord.status = rover.status;
-                  goGPS.notifyPositionConsumerAddCoordinate(coord);
-                }
-                if(debug)System.out.println("PDOP: "+rover.getpDop());
-                if(debug)System.out.println("------------------------------------------------------------");
-                if( stopAtDopThreshold>0.0 && rover.getpDop()<stopAtDopThreshold){
-                  return;
-                }
-              }
-            }
+
+        if (sa.solveEpoch( obsR, roverIn.getDefinedPosition() )) {
+          if(!validPosition){
+            goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_START_OF_TRACK);
+            validPosition = true;
+          }
+          if( goGPS.getPositionConsumers().size()>0){
+            goGPS.notifyPositionConsumerAddCoordinate(sa.getCoordinate(obsR));
           }
-//        }catch(Exception e){
-//          System.out.println("Could not complete due to "+e);
-//          e.printStackTrace();
-//        }
+          if(debug)System.out.println("PDOP: "+rover.getpDop());
+          if(debug)System.out.println("------------------------------------------------------------");
+          if( stopAtDopThreshold>0.0 && rover.getpDop()<stopAtDopThreshold){
+            return;
+          }
+        }
         obsR = roverIn.getNextObservations();
       }
     } catch (Exception e) {
@@ -242,5 +271,5 @@ public class LS_SA_code extends Core {
       goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_END_OF_TRACK);
     }
   }
-  
+
 }
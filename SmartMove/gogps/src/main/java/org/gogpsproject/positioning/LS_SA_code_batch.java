@@ -0,0 +1,122 @@
+package org.gogpsproject.positioning;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.gogpsproject.GoGPS;
+import org.gogpsproject.consumer.PositionConsumer;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsProducer;
+
+/**
+ * Code stand-alone positioning of a whole observation source, in parallel.
+ * <p>
+ * Epochs are grouped in time windows ({@link GoGPS#getBatchWindow()}) and the
+ * windows are solved concurrently on a fork/join pool. Each window has its
+ * own rover and satellites ({@link GoGPS#fork()}), only the navigation is
+ * shared, and starts from the a-priori position like the first epoch of
+ * {@link LS_SA_code#run(GoGPS, double)}. Positions are notified in time
+ * order, from the thread that called run.
+ * </p>
+ */
+public class LS_SA_code_batch extends LS_SA_code {
+
+  public LS_SA_code_batch( GoGPS goGPS ) {
+    super( goGPS );
+  }
+
+  /**
+   * @param epochs observations of one time window
+   * @param definedPosition a-priori rover position, may be null
+   * @return the valid positions of the window
+   */
+  List<RoverPosition> solveWindow( List<Observations> epochs, Coordinates definedPosition ) {
+    List<RoverPosition> coords = new ArrayList<RoverPosition>(epochs.size());
+    for( Observations obsR: epochs ) {
+      if( solveEpoch( obsR, definedPosition ))
+        coords.add(getCoordinate(obsR));
+    }
+    return coords;
+  }
+
+  public static void run( final GoGPS goGPS ) {
+
+    ObservationsProducer roverIn = goGPS.getRoverIn();
+    final Coordinates definedPosition = roverIn.getDefinedPosition();
+    boolean debug = goGPS.isDebug();
+    boolean validPosition = false;
+
+    int parallelism = goGPS.getBatchParallelism() > 0 ? goGPS.getBatchParallelism() : Runtime.getRuntime().availableProcessors();
+    long window = goGPS.getBatchWindow() * 1000L;
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+    // Windows being solved, in time order, at most two per worker
+    ArrayDeque<Future<List<RoverPosition>>> pending = new ArrayDeque<Future<List<RoverPosition>>>();
+
+    try {
+      List<Observations> epochs = new ArrayList<Observations>();
+      long windowStart = 0;
+      Observations obsR = roverIn.getNextObservations();
+      while( obsR!=null && !Thread.currentThread().isInterrupted() ) {
+
+        long time = obsR.getRefTime().getMsec();
+        if( !epochs.isEmpty() && time - windowStart >= window ) {
+          pending.add(submit(pool, goGPS, epochs, definedPosition));
+          epochs = new ArrayList<Observations>();
+        }
+        if( epochs.isEmpty() )
+          windowStart = time;
+        epochs.add(obsR);
+
+        // Notify the solved windows, wait for the oldest one if all workers are busy
+        while( !pending.isEmpty() && (pending.peek().isDone() || pending.size() >= 2 * parallelism) )
+          validPosition = notify(goGPS, pending.poll(), validPosition);
+
+        obsR = roverIn.getNextObservations();
+      }
+      if( !epochs.isEmpty() )
+        pending.add(submit(pool, goGPS, epochs, definedPosition));
+
+      while( !pending.isEmpty() && !Thread.currentThread().isInterrupted() )
+        validPosition = notify(goGPS, pending.poll(), validPosition);
+
+      if(debug) System.out.println("Batch completed, "+parallelism+" workers");
+    } catch (InterruptedException e) {
+      // stopped
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+      goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_END_OF_TRACK);
+    }
+  }
+
+  private static Future<List<RoverPosition>> submit( ForkJoinPool pool, final GoGPS goGPS,
+      final List<Observations> epochs, final Coordinates definedPosition ) {
+    return pool.submit(new Callable<List<RoverPosition>>() {
+      @Override
+      public List<RoverPosition> call() throws Exception {
+        return new LS_SA_code_batch(goGPS.fork()).solveWindow(epochs, definedPosition);
+      }
+    });
+  }
+
+  private static boolean notify( GoGPS goGPS, Future<List<RoverPosition>> solved, boolean validPosition )
+      throws InterruptedException, ExecutionException {
+    for( RoverPosition coord: solved.get() ) {
+      if(!validPosition){
+        goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_START_OF_TRACK);
+        validPosition = true;
+      }
+      goGPS.notifyPositionConsumerAddCoordinate(coord);
+    }
+    return validPosition;
+  }
+}
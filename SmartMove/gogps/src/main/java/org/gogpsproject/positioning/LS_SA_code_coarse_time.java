@@ -1,5 +1,6 @@
 package org.gogpsproject.positioning;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -298,7 +299,7 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
     
   } while ((badSat > goodSat) && ((1 << sats.avail.size()) > (pivot_map + 1)));
     
-    System.out.println( String.format( "* Residuals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
+    if(goGPS.isTrace()) System.out.println( String.format( "* Residuals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
     
     // Officially check again
     k = 0;
@@ -312,7 +313,7 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
       ObservationSet os = roverObs.getSatByID(satId);
       
       double d = resid.get(k);
-      System.out.print( String.format( "%2d) C:%8.3f (%8.5f); %9.5f -> ", 
+      if(goGPS.isTrace()) System.out.print( String.format( "%2d) C:%8.3f (%8.5f); %9.5f -> ", 
           satId, 
           roverObs.getSatByID(satId).getCodeC(0), 
           roverObs.getSatByID(satId).getCodeC(0)/Constants.SPEED_OF_LIGHT*1000, 
@@ -324,14 +325,14 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
       if( d-pivot<-MODULO/2){
         d+=MODULO;
       }
-      System.out.print( String.format( "%9.5f", d/Constants.SPEED_OF_LIGHT*1000));
-      System.out.print( String.format( "  Q:%3.1f", Q.get(k,k)));
+      if(goGPS.isTrace()) System.out.print( String.format( "%9.5f", d/Constants.SPEED_OF_LIGHT*1000));
+      if(goGPS.isTrace()) System.out.print( String.format( "  Q:%3.1f", Q.get(k,k)));
       
       // check again, if fails, exclude this satellite
       double diff = Math.abs(d-pivot);
       if( Math.abs(diff) > goGPS.getCodeResidThreshold() )
       {
-        if( goGPS.isDebug() ) System.out.println( String.format( " Excluding d:%8.3f", diff));
+        if( goGPS.isTrace() ) System.out.println( String.format( " Excluding d:%8.3f", diff));
         resid.set(k, 0);
         A.set(k, 0, 0);
         A.set(k, 1, 0);
@@ -346,13 +347,13 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
         rover.satsInUse++;
         os.inUse(true);
         os.el = rover.topo[i].getElevation();
-        System.out.println();
+        if(goGPS.isTrace()) System.out.println();
       }
       k++;
     }
     
     if( rover.satsInUse < nUnknowns-1 ){
-      System.out.println("Not enough satellites for " + roverObs.getRefTime() );
+      if(goGPS.isTrace()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
       rover.setXYZ(0, 0, 0);
       if( rover.status == Status.None ){
         rover.status = Status.NotEnoughSats;
@@ -386,12 +387,12 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
        rover.eRes += Math.pow( os.eRes, 2); 
      }
      rover.eRes = Math.sqrt(rover.eRes/rover.satsInUse);
-     System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
+     if(goGPS.isTrace()) System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
      
      // expected
-     System.out.println( String.format( "pos update:  %5.1f, %5.1f, %5.1f; Mag: %5d(m)", x.get(0), x.get(1), x.get(2), (long)correction_mag ));
-     System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
-     System.out.println( String.format( "time update: %3.3f (s)", tg ));
+     if(goGPS.isTrace()) System.out.println( String.format( "pos update:  %5.1f, %5.1f, %5.1f; Mag: %5d(m)", x.get(0), x.get(1), x.get(2), (long)correction_mag ));
+     if(goGPS.isTrace()) System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
+     if(goGPS.isTrace()) System.out.println( String.format( "time update: %3.3f (s)", tg ));
 
      // Receiver clock error
      rover.clockError = x.get(3) / Constants.SPEED_OF_LIGHT;
@@ -408,7 +409,7 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
        rover.setRefTime( newTime );
      }
      
-     System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
+     if(goGPS.isTrace()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
          rover.getGeodeticLatitude(), 
          rover.getGeodeticLongitude(), 
          rover.getGeodeticHeight(), 
@@ -565,14 +566,14 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
       }
     }
 
-    System.out.println( String.format( "* Residuals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
+    if(goGPS.isTrace()) System.out.println( String.format( "* Residuals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
     
     for( k=0; k<sats.avail.size(); k++){
       int satId = roverObs.getSatID(k);
       ObservationSet os = roverObs.getSatByID(satId);
       
       double d = resid.get(k);
-      System.out.print( String.format( "%2d) C:%8.3f (%8.5f); %9.5f -> ", 
+      if(goGPS.isTrace()) System.out.print( String.format( "%2d) C:%8.3f (%8.5f); %9.5f -> ", 
           satId, 
           roverObs.getSatByID(satId).getCodeC(0), 
           roverObs.getSatByID(satId).getCodeC(0)/Constants.SPEED_OF_LIGHT*1000, 
@@ -580,21 +581,21 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
       
       d += codeAmbiguities[k]*MODULO;
       
-      System.out.print( String.format( "%9.5f", d/Constants.SPEED_OF_LIGHT*1000));
-      System.out.print( String.format( "  Q:%3.1f; N:%6.2f", Q.get(k, k), codeAmbiguities[k]));
+      if(goGPS.isTrace()) System.out.print( String.format( "%9.5f", d/Constants.SPEED_OF_LIGHT*1000));
+      if(goGPS.isTrace()) System.out.print( String.format( "  Q:%3.1f; N:%6.2f", Q.get(k, k), codeAmbiguities[k]));
       
       resid.set(k,d);
     
       rover.satsInUse++;
       os.inUse(true);
-      System.out.println();
+      if(goGPS.isTrace()) System.out.println();
       rover.eRes += Math.pow( d-pivot, 2); 
     }
     rover.eRes = Math.sqrt(rover.eRes/rover.satsInUse);
-    System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
+    if(goGPS.isTrace()) System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
     
     if( rover.satsInUse < nUnknowns-1 ){
-      System.out.println("Not enough satellites for " + roverObs.getRefTime() );
+      if(goGPS.isTrace()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
       rover.setXYZ(0, 0, 0);
       if( rover.status == Status.None ){
         rover.status = Status.NotEnoughSats;
@@ -614,15 +615,15 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
      double tg = x.get(4); // time update in seconds
 
      // expected
-     System.out.println( String.format( "pos update:  %5.1f, %5.1f, %5.1f; Mag: %5d(m)", x.get(0), x.get(1), x.get(2), (long)correction_mag ));
-     System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
-     System.out.println( String.format( "time update: %3.3f (s)", tg ));
+     if(goGPS.isTrace()) System.out.println( String.format( "pos update:  %5.1f, %5.1f, %5.1f; Mag: %5d(m)", x.get(0), x.get(1), x.get(2), (long)correction_mag ));
+     if(goGPS.isTrace()) System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
+     if(goGPS.isTrace()) System.out.println( String.format( "time update: %3.3f (s)", tg ));
      
-     System.out.println( "ambiguities: " );
+     if(goGPS.isTrace()) System.out.println( "ambiguities: " );
      for( k = 0; k<codeAmbiguities.length; k++){
-       System.out.print( String.format("%5.2f ->", x.get(k) ));
+       if(goGPS.isTrace()) System.out.print( String.format("%5.2f ->", x.get(k) ));
        codeAmbiguities[k] = x.get(k); 
-       System.out.println( String.format("%5.2f", codeAmbiguities[k] ));
+       if(goGPS.isTrace()) System.out.println( String.format("%5.2f", codeAmbiguities[k] ));
      }
      
      // only update position when ambiguities have converged
@@ -643,7 +644,7 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
        rover.setRefTime( newTime );
      }
      
-     System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
+     if(goGPS.isTrace()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
          rover.getGeodeticLatitude(), 
          rover.getGeodeticLongitude(), 
          rover.getGeodeticHeight(), 
@@ -875,14 +876,14 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
 //      }
 //    }
     
-    System.out.println( String.format( "* Residuals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
+    if(goGPS.isTrace()) System.out.println( String.format( "* Residuals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
     
     for( k=0; k<sats.avail.size(); k++){
       int satId = roverObs.getSatID(k);
       ObservationSet os = roverObs.getSatByID(satId);
       
       double d = resid.get(k);
-      System.out.print( String.format( "%2d) C:%8.3f (%8.5f); %9.5f -> ", 
+      if(goGPS.isTrace()) System.out.print( String.format( "%2d) C:%8.3f (%8.5f); %9.5f -> ", 
           satId, 
           roverObs.getSatByID(satId).getCodeC(0), 
           roverObs.getSatByID(satId).getCodeC(0)/Constants.SPEED_OF_LIGHT*1000, 
@@ -894,14 +895,14 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
       if( d-pivot<-MODULO/2){
         d+=MODULO;
       }
-      System.out.print( String.format( "%9.5f", d/Constants.SPEED_OF_LIGHT*1000));
-      System.out.print( String.format( "  Q:%3.1f", Q.get(k,k)));
+      if(goGPS.isTrace()) System.out.print( String.format( "%9.5f", d/Constants.SPEED_OF_LIGHT*1000));
+      if(goGPS.isTrace()) System.out.print( String.format( "  Q:%3.1f", Q.get(k,k)));
       
       // check again, if fails, exclude this satellite
       double dms = Math.abs(d-pivot)/Constants.SPEED_OF_LIGHT*1000;
       if( Math.abs(dms) > goGPS.getCodeResidThreshold() )
       {
-        if( goGPS.isDebug() ) System.out.println( String.format( " Excluding d:%8.3f", dms));
+        if( goGPS.isTrace() ) System.out.println( String.format( " Excluding d:%8.3f", dms));
         resid.set(k, 0);
         A.set(k, 0, 0);
         A.set(k, 1, 0);
@@ -916,15 +917,15 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
         resid.set(k,d);
         rover.satsInUse++;
         os.inUse(true);
-        System.out.println();
+        if(goGPS.isTrace()) System.out.println();
         rover.eRes += Math.pow( d-pivot, 2); 
       }
     }
     rover.eRes = Math.sqrt(rover.eRes/rover.satsInUse);
-    System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
+    if(goGPS.isTrace()) System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
     
     if( rover.satsInUse < nUnknowns-1 ){
-      System.out.println("Not enough satellites for " + roverObs.getRefTime() );
+      if(goGPS.isTrace()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
       rover.setXYZ(0, 0, 0);
       if( rover.status == Status.None ){
         rover.status = Status.NotEnoughSats;
@@ -945,8 +946,8 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
 //     double tg = x.get(4); 
 
      // expected
-     System.out.println( String.format( "pos update:  %5.1f, %5.1f, %5.1f; Mag: %5d(m)", x.get(0), x.get(1), x.get(2), (long)correction_mag ));
-     System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
+     if(goGPS.isTrace()) System.out.println( String.format( "pos update:  %5.1f, %5.1f, %5.1f; Mag: %5d(m)", x.get(0), x.get(1), x.get(2), (long)correction_mag ));
+     if(goGPS.isTrace()) System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
 //     System.out.println( String.format( "time update: %3.3f (s)", tg ));
 
      // Receiver clock error
@@ -964,7 +965,7 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
 //       this.setRefTime( newTime );
 //     }
      
-     System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
+     if(goGPS.isTrace()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
          rover.getGeodeticLatitude(), 
          rover.getGeodeticLongitude(), 
          rover.getGeodeticHeight(), 
@@ -983,7 +984,7 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
     final double TG_TOL = 1;  // milliseconds
 
     for (int iter = 0; iter < 2000; iter++) {
-      if(goGPS.isDebug()) System.out.println("\r\n////// itr = " + iter );
+      if(goGPS.isTrace()) System.out.println("\r\n////// itr = " + iter );
       long   updatems = obsR.getRefTime().getMsec();
 
 //      if( truePos != null ){
@@ -995,16 +996,16 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
 //        truePos.selectSatellitesStandaloneFractional( obsR, -100, MODULO20MS );
 //      }
       
-      System.out.println( String.format( "\r\n* Rover Pos: %8.4f, %8.4f, %8.4f", 
+      if(goGPS.isTrace()) System.out.println( String.format( "\r\n* Rover Pos: %8.4f, %8.4f, %8.4f", 
           rover.getGeodeticLatitude(),
           rover.getGeodeticLongitude(),
           rover.getGeodeticHeight()
           ));
       selectSatellites( obsR, -100, GoGPS.MODULO20MS );
-      System.out.println();
+      if(goGPS.isTrace()) System.out.println();
 
       if (sats.getAvailNumber() <= 3) {
-        if(goGPS.isDebug()) System.out.println("Not enough satellites" );
+        if(goGPS.isTrace()) System.out.println("Not enough satellites" );
         rover.setXYZ(0, 0, 0);
         rover.status = Status.NotEnoughSats;
         break;
@@ -1017,7 +1018,7 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
         updatems = obsR.getRefTime().getMsec() - updatems;
         
         if( Math.abs( updatems/1000 )> /*12*60*60*/ /*goGPS.getMaxCoarseTimeUpdate()*/ 30 ){
-          if(goGPS.isDebug()) System.out.println("Time update is too large: " + updatems/1000 + " s" );
+          if(goGPS.isTrace()) System.out.println("Time update is too large: " + updatems/1000 + " s" );
           rover.setXYZ(0, 0, 0);
           if( rover.status == Status.None ){
             rover.status = Status.MaxCorrection;
@@ -1050,13 +1051,8 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
     Time refTime;
     int leapSeconds;
     
-    // read the whole file
-    List<Observations> obsl = new ArrayList<Observations>();
-    do{
-      obsR = goGPS.getRoverIn().getNextObservations();
-      if( obsR!=null )
-        obsl.add(obsR);
-    } while( obsR!=null);
+    // observations read ahead to search for an a priori position
+    ArrayDeque<Observations> obsl = new ArrayDeque<Observations>();
     
       Coordinates aPrioriPos = goGPS.getRoverIn().getDefinedPosition();
       if( aPrioriPos != null && aPrioriPos.isValidXYZ() ){
@@ -1066,7 +1062,14 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
       else {
         aPrioriPos = Coordinates.globalXYZInstance(0, 0, 0);
         
-        System.out.println("\r\nSearching for a priori position");
+        if(goGPS.isDebug()) System.out.println("\r\nSearching for a priori position");
+        
+        while( obsl.size() < goGPS.getCoarseTimeWindow() ){
+          obsR = goGPS.getRoverIn().getNextObservations();
+          if( obsR==null )
+            break;
+          obsl.add(obsR);
+        }
         
         long maxNumSat = 0;
         index = 0;
@@ -1088,7 +1091,8 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
         }
   
         rover.status = Status.NoAprioriPos;
-        sa.runElevationMethod(maxSatObs);
+        if( maxSatObs != null )
+          sa.runElevationMethod(maxSatObs);
             
         if( rover.status == Status.Valid){
             // remember refTime
@@ -1107,12 +1111,11 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
       }
 
     // now process all the observation sets from the top of the file
-    Iterator<Observations> it = obsl.iterator();
     goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_START_OF_TRACK);
     index = 0;
     try {
-      while( it.hasNext() ) { 
-        obsR = it.next();
+      while( true ) { 
+        obsR = obsl.isEmpty()? goGPS.getRoverIn().getNextObservations() : obsl.poll();
         if( obsR == null )
           break;
         
@@ -1168,7 +1171,7 @@ public class LS_SA_code_coarse_time extends LS_SA_code_snapshot {
           rover.sampleTime = refTime;
           
           if( rover.isValidXYZ() && rover.gethDop()>goGPS.getHdopLimit() ){
-            System.out.println( String.format( "Excluding fix hdop = %3.1f > %3.1f (limit)", rover.gethDop(), goGPS.getHdopLimit() ));
+            if(goGPS.isDebug()) System.out.println( String.format( "Excluding fix hdop = %3.1f > %3.1f (limit)", rover.gethDop(), goGPS.getHdopLimit() ));
             rover.status = Status.MaxHDOP;
           }
           // restore a priori location
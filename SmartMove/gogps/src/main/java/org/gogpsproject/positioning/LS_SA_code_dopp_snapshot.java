@@ -9,23 +9,15 @@ import org.gogpsproject.producer.Observations;
 
 public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
 
-  /** max time update for a valid fix */
-  private long maxTimeUpdateSec = 30; // s
-
-  /** Set aPrioriPos in thread mode */
-  public Coordinates aPrioriPos;
-
   public LS_SA_code_dopp_snapshot(GoGPS goGPS) {
     super(goGPS);
   }
-  
-  public long getTimeLimit(){
-    return maxTimeUpdateSec;
-  }
 
-  public GoGPS setTimeLimit(long maxTimeUpdateSec) {
-    this.maxTimeUpdateSec  = maxTimeUpdateSec;
-    return goGPS;
+  @Override
+  LS_SA_code_snapshot newWorkspace(){
+    LS_SA_code_snapshot ws = new LS_SA_code_dopp_snapshot(goGPS.fork());
+    ws.setTimeLimit(getTimeLimit());
+    return ws;
   }
 
   SnapshotPivotResult snapshotProcessPivot( Observations roverObs, int pivotIndex, int max_iterations, double cutOffEl, Double residCutOff ){
@@ -61,7 +53,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
 
     for (int itr = 0; itr < max_iterations; itr++) {
 
-      if( goGPS.isDebug()) System.out.println(">> Itr " + itr);
+      if( goGPS.isTrace()) System.out.println(">> Itr " + itr);
       
 //      if( goGPS.isDebug() && goGPS.truePos != null ){
 //        System.out.println( String.format( "\r\n* True Pos: %8.4f, %8.4f, %8.4f", 
@@ -91,7 +83,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
       }
 
       if( nObsAvail<nUnknowns ){
-        if( goGPS.isDebug()) System.out.println("\r\nNot enough satellites for " + roverObs.getRefTime() );
+        if( goGPS.isTrace()) System.out.println("\r\nNot enough satellites for " + roverObs.getRefTime() );
         rover.setXYZ(0, 0, 0);
         if( nObsAvail>0 ){
           rover.satsInUse = nObsAvail;
@@ -101,7 +93,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
       }
     
       if( sats.pos[savedIndex]==null || rover.topo[savedIndex] == null  || !sats.avail.keySet().contains(pivotSatId)) {
-        if( goGPS.isDebug()) System.out.println("\r\nCan't use pivot with satId " + pivotSatId );
+        if( goGPS.isTrace()) System.out.println("\r\nCan't use pivot with satId " + pivotSatId );
         return null; 
       }
       
@@ -224,7 +216,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
 //        }
         double pivot = resid.get(pivotIndex);
           
-        if( goGPS.isDebug()) System.out.println( String.format( "\r\n\r\nResiduals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
+        if( goGPS.isTrace()) System.out.println( String.format( "\r\n\r\nResiduals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
         int i = 0;
         for( k=0; k<roverObs.getNumSat(); k++){
           Integer satId = roverObs.getSatID(k);
@@ -236,14 +228,14 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
           os.el = rover.topo[k].getElevation();
     
           double d = resid.get(i);
-          if( goGPS.isDebug()) System.out.print( String.format( "%2d) %7.4f -> ", satId, d/Constants.SPEED_OF_LIGHT*1000));
+          if( goGPS.isTrace()) System.out.print( String.format( "%2d) %7.4f -> ", satId, d/Constants.SPEED_OF_LIGHT*1000));
           if( d-pivot>GoGPS.MODULO1MS/2 ){
             d-=GoGPS.MODULO1MS;
           }
           if( d-pivot<-GoGPS.MODULO1MS/2){
             d+=GoGPS.MODULO1MS;
           }
-          if( goGPS.isDebug()) System.out.print( String.format( "%7.4f", d/Constants.SPEED_OF_LIGHT*1000));
+          if( goGPS.isTrace()) System.out.print( String.format( "%7.4f", d/Constants.SPEED_OF_LIGHT*1000));
     
           resid.set(i,d);
       
@@ -253,7 +245,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
           if( residCutOff != null &&
               (rover.eRes<residCutOff*Constants.SPEED_OF_LIGHT/1000) &&
               dms>residCutOff) {
-            if( goGPS.isDebug() ) System.out.println( String.format( "; D:%6.4f; Excluding sat:%2d; C:%6.4f; El:%6.4f; rodot:%7.2f; ", 
+            if( goGPS.isTrace() ) System.out.println( String.format( "; D:%6.4f; Excluding sat:%2d; C:%6.4f; El:%6.4f; rodot:%7.2f; ", 
                 dms, 
                 roverObs.getSatID(k), 
                 roverObs.getSatByID(satId).getCodeC(0)/Constants.SPEED_OF_LIGHT*1000, 
@@ -271,7 +263,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
             rover.satsInUse++;
             os.inUse(true);
     
-            if( goGPS.isDebug() ) System.out.println( String.format( "; D:%6.4f; snr:%5.1f; El:%5.1f; rodot:%10.2f; ", 
+            if( goGPS.isTrace() ) System.out.println( String.format( "; D:%6.4f; snr:%5.1f; El:%5.1f; rodot:%10.2f; ", 
                 dms, 
                 os.getSignalStrength(0),
                 os.el, 
@@ -282,7 +274,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
       } 
       
       if( 2*rover.satsInUse + 1 < nUnknowns ){
-        if( goGPS.isDebug()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
+        if( goGPS.isTrace()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
         rover.setXYZ(0, 0, 0);
         if( rover.status == Status.None ){
           rover.status = Status.NotEnoughSats;
@@ -350,14 +342,14 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
       cbiasms = x.get(4) * 1000;
      
       
-      if( goGPS.isDebug()) System.out.println( String.format( "\r\npos update:  %5.0f (m)", correction_mag ));
-      if( goGPS.isDebug()) System.out.println( String.format( "clock error: %2.4f (us)", rover.clockError*1000000 ));
-      if( goGPS.isDebug()) System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
+      if( goGPS.isTrace()) System.out.println( String.format( "\r\npos update:  %5.0f (m)", correction_mag ));
+      if( goGPS.isTrace()) System.out.println( String.format( "clock error: %2.4f (us)", rover.clockError*1000000 ));
+      if( goGPS.isTrace()) System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
       
       if( estimateClockErrRate ) {
         // Update receiver clock error rate
         rover.clockErrorRate += x.get(5);
-        if( goGPS.isDebug()) System.out.println( String.format( "clock error rate: %2.4f", rover.clockErrorRate ));
+        if( goGPS.isTrace()) System.out.println( String.format( "clock error rate: %2.4f", rover.clockErrorRate ));
       }
       
       // apply correction to Rx position estimate
@@ -369,7 +361,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
       Time newTime = new Time( unixTime);
       roverObs.setRefTime( newTime );
           
-      if( goGPS.isDebug()) System.out.println( String.format( "recpos (%d): %5.3f, %5.3f, %5.3f, %s", 
+      if( goGPS.isTrace()) System.out.println( String.format( "recpos (%d): %5.3f, %5.3f, %5.3f, %s", 
           itr, 
           rover.getGeodeticLatitude(), 
           rover.getGeodeticLongitude(), 
@@ -387,7 +379,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
            rover.eRes += Math.pow( os.eRes, 2); 
        }
        rover.eRes = Math.sqrt(rover.eRes/rover.satsInUse);
-       if( goGPS.isDebug()) System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
+       if( goGPS.isTrace()) System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
    
        // if correction is small enough, we're done, exit loop
        // TODO check also eRes
@@ -400,7 +392,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
 
     if( Double.isNaN(correction_mag) || correction_mag>goGPS.getPosLimit() ||  Math.abs(tg) > this.getTimeLimit() ){
       
-      if(goGPS.isDebug()) System.out.println("Correction exceeds the limits: dist = " + (long)correction_mag +"m; t offset = " + (long)tg +"s" );
+      if(goGPS.isTrace()) System.out.println("Correction exceeds the limits: dist = " + (long)correction_mag +"m; t offset = " + (long)tg +"s" );
 
       rover.setXYZ(0, 0, 0);
       rover.status = Status.MaxCorrection;
@@ -408,7 +400,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
       return null;
     } 
     else {
-      if( goGPS.isDebug()) 
+      if( goGPS.isTrace()) 
         System.out.println( String.format( "recpos: %5.3f, %5.3f, %5.3f, %s, eRes = %5.3f", 
             rover.getGeodeticLatitude(), 
             rover.getGeodeticLongitude(), 
@@ -435,7 +427,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
     // Number of GPS observations
     int nObs = roverObs.getNumSat();
     if( 2*nObs + 1 < nUnknowns ){
-      if(goGPS.isDebug()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
+      if(goGPS.isTrace()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
       rover.setXYZ(0, 0, 0);
       rover.satsInUse = nObs;
       rover.status = Status.NotEnoughSats;
@@ -450,7 +442,9 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
     Time refTime = roverObs.getRefTime();
     
     for( int satIdx = 0; satIdx<roverObs.getNumSat(); satIdx++ ){
-      if(goGPS.isDebug()) System.out.println( "\r\n===> Try Pivot " + satIdx );
+      if( cancelled )
+        return null;
+      if(goGPS.isTrace()) System.out.println( "\r\n===> Try Pivot " + satIdx );
       
       // restore this position before trying
       refPos.cloneInto(rover);
@@ -476,7 +470,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
       rover.setXYZ(0, 0, 0);
       return null;
     }
-    if(goGPS.isDebug()) 
+    if(goGPS.isTrace()) 
       System.out.println( String.format( "\r\n>> Selected Pivot SatId = %d; SatIdx = %d; eRes = %5.2f;  cbias = %5.2f; elevation = %5.2f\r\n", 
         result.satId, 
         result.satIndex,
@@ -503,7 +497,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
     
     if( result.eRes > 350 ){
 //      if(goGPS.isDebug()) 
-        System.out.println("eRes too large = " + rover.eRes );
+        if(goGPS.isTrace()) System.out.println("eRes too large = " + rover.eRes );
 
       rover.setXYZ(0, 0, 0);
       rover.status = Status.MaxEres;
@@ -512,13 +506,13 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
     }
 
     if( result.hDop>this.goGPS.getHdopLimit() ){
-      if(goGPS.isDebug()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
+      if(goGPS.isTrace()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
           rover.getGeodeticLatitude(), 
           rover.getGeodeticLongitude(), 
           rover.getGeodeticHeight(), 
           new Time(result.unixTime).toString() ));
 //      if(goGPS.isDebug()) 
-        System.out.println( String.format( "hDOP too large: %3.1f", result.hDop ));
+        if(goGPS.isTrace()) System.out.println( String.format( "hDOP too large: %3.1f", result.hDop ));
       rover.setXYZ(0, 0, 0);
       rover.status = Status.MaxHDOP;
       return null;
@@ -528,7 +522,7 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
     result.roverPos.cloneInto(rover);
     rover.setRefTime(new Time(result.unixTime));
 
-    if(goGPS.isDebug()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
+    if(goGPS.isTrace()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
         rover.getGeodeticLatitude(), 
         rover.getGeodeticLongitude(), 
         rover.getGeodeticHeight(), 
@@ -538,103 +532,5 @@ public class LS_SA_code_dopp_snapshot extends LS_SA_code_snapshot {
     
     return offsetms;
   }
-  
-  Long runOffset( Observations obsR, long offsetms ){
-    if( rover == null || obsR == null )
-      return null;
-  
-    if(goGPS.isDebug()) System.out.println( "\r\n>>Try offset = " + offsetms/1000 + " (s)");
-
-    rover.setXYZ( aPrioriPos.getX(), aPrioriPos.getY(), aPrioriPos.getZ() );
-    rover.computeGeodetic();
-    if(goGPS.isDebug()) System.out.println( "A priori pos: " + aPrioriPos );
-
-    Time refTime = new Time( obsR.getRefTime().getMsec() + offsetms );
-    obsR.setRefTime( refTime );
-    
-    if( !rover.isValidXYZ() && aPrioriPos.isValidXYZ() ){
-      aPrioriPos.cloneInto(rover);
-    }
-    
-    Long updatedms = snapshotPos(obsR);
-    
-    if( updatedms == null && rover.status == Status.MaxCorrection ){
-      if(goGPS.isDebug()) System.out.println("Reset aPrioriPos");        
-      aPrioriPos.cloneInto(rover);
-    }
-    
-    return updatedms!=null? 
-        offsetms + updatedms : 
-        null ;
-  }
-
-  
-  public void tryOffset( Coordinates aPrioriPos, Observations obsR ) throws Exception{
-    this.aPrioriPos = aPrioriPos;
-    
-  //  Long offsetsec = Math.round(offsetms/1000.0);
-    Long offsetms = 0l;
-  
-    Long updatems = runOffset( obsR, offsetms );
-    
-    if( updatems == null && 
-        (rover.status == Status.EphNotFound 
-      || rover.status == Status.MaxHDOP 
-      || rover.status == Status.MaxEres 
-      || rover.status == Status.NotEnoughSats 
-      )){
-      return;
-  }
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 2*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 2*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 4*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 4*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 6*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 6*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 8*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 8*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 10*maxTimeUpdateSec*1000 );
 
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 10*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 12*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 14*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 16*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 18*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 20*maxTimeUpdateSec*1000 );
-
-  if( updatems == null )
-    rover.setXYZ(0, 0, 0);
-}
-
-  
-  
 }
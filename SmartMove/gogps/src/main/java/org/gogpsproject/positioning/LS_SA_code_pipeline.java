@@ -0,0 +1,220 @@
+package org.gogpsproject.positioning;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.gogpsproject.GoGPS;
+import org.gogpsproject.consumer.PositionConsumer;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsProducer;
+import org.gogpsproject.util.LatencyHistogram;
+import org.gogpsproject.util.StageQueue;
+
+/**
+ * Code stand-alone positioning in a pipeline of stages, each on its own
+ * thread: ingest (observations producer) -> geometry (approximate position,
+ * satellite positions, corrections and selection) -> solve (least squares)
+ * -> publish (position consumers, on the thread that called run).
+ * <p>
+ * Stages are connected by bounded {@link StageQueue}s ({@link GoGPS#getPipelineCapacity()}),
+ * a full queue stalls the stages before it. Each epoch in flight has its own
+ * rover and satellites ({@link GoGPS#fork()}). The geometry of an epoch is
+ * computed around the latest solved position and clock, which may be one or
+ * two epochs old instead of the previous epoch. Time spent by each epoch in
+ * each stage, and from ingest to publish, is recorded in
+ * {@link GoGPS#getPipelineLatency(int)}.
+ * </p>
+ */
+public class LS_SA_code_pipeline extends LS_SA_code {
+
+  public static final int STAGE_INGEST = 0;
+  public static final int STAGE_GEOMETRY = 1;
+  public static final int STAGE_SOLVE = 2;
+  public static final int STAGE_PUBLISH = 3;
+  /** from the end of ingest to the end of publish */
+  public static final int FIX = 4;
+
+  public static final String[] STAGE_NAMES = { "ingest", "geometry", "solve", "publish", "fix" };
+
+  /** Epoch travelling through the stages */
+  private static class Epoch {
+    Observations obs;
+    long ingested;
+    LS_SA_code_pipeline workspace;
+    boolean selected;
+    RoverPosition coord;
+  }
+
+  /** Solved position and clock, linearization point of the next geometry */
+  private static class Solution {
+    final double x, y, z, clockError;
+    final boolean valid;
+
+    Solution( RoverPosition rover ) {
+      x = rover.getX();
+      y = rover.getY();
+      z = rover.getZ();
+      clockError = rover.getClockError();
+      valid = rover.isValidXYZ();
+    }
+  }
+
+  public LS_SA_code_pipeline( GoGPS goGPS ) {
+    super( goGPS );
+  }
+
+  /**
+   * Moves the rover of the workspace to the latest solution
+   */
+  void linearizeAt( Solution solution ) {
+    if( solution == null || !solution.valid ) {
+      rover.setXYZ(0, 0, 0);
+      return;
+    }
+    rover.setXYZ(solution.x, solution.y, solution.z);
+    rover.computeGeodetic();
+    rover.setClockError(solution.clockError);
+  }
+
+  public static void run( final GoGPS goGPS ) {
+
+    final ObservationsProducer roverIn = goGPS.getRoverIn();
+    final Coordinates definedPosition = roverIn.getDefinedPosition();
+    final LatencyHistogram[] latency = new LatencyHistogram[STAGE_NAMES.length];
+    for( int s = 0; s < latency.length; s++ ) {
+      latency[s] = goGPS.getPipelineLatency(s);
+      latency[s].reset();
+    }
+    int capacity = goGPS.getPipelineCapacity();
+
+    final StageQueue<Epoch> ingested = new StageQueue<Epoch>(capacity);
+    final StageQueue<Epoch> selected = new StageQueue<Epoch>(capacity);
+    final StageQueue<Epoch> solved = new StageQueue<Epoch>(capacity);
+
+    // Workspaces go back from solve to geometry, one per epoch in flight between them
+    final StageQueue<LS_SA_code_pipeline> workspaces = new StageQueue<LS_SA_code_pipeline>(selected.capacity() + 2);
+    while( workspaces.offer(new LS_SA_code_pipeline(goGPS.fork())) );
+
+    final AtomicReference<Solution> latest = new AtomicReference<Solution>();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    Thread ingest = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while( true ) {
+            long start = System.nanoTime();
+            Observations obsR = roverIn.getNextObservations();
+            if( obsR == null )
+              break;
+            Epoch epoch = new Epoch();
+            epoch.obs = obsR;
+            epoch.ingested = System.nanoTime();
+            latency[STAGE_INGEST].record(epoch.ingested - start);
+            ingested.put(epoch);
+          }
+        } catch( InterruptedException e ) {
+          // stopped
+        } catch( Throwable t ) {
+          failure.compareAndSet(null, t);
+        } finally {
+          ingested.close();
+        }
+      }
+    }, "goGPS pipeline ingest");
+
+    Thread geometry = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Epoch epoch;
+          while( (epoch = ingested.take()) != null ) {
+            LS_SA_code_pipeline workspace = workspaces.take();
+            long start = System.nanoTime();
+            workspace.linearizeAt(latest.get());
+            epoch.workspace = workspace;
+            epoch.selected = workspace.selectEpoch(epoch.obs, definedPosition);
+            latency[STAGE_GEOMETRY].record(System.nanoTime() - start);
+            selected.put(epoch);
+          }
+        } catch( InterruptedException e ) {
+          // stopped
+        } catch( Throwable t ) {
+          failure.compareAndSet(null, t);
+        } finally {
+          selected.close();
+        }
+      }
+    }, "goGPS pipeline geometry");
+
+    Thread solve = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Epoch epoch;
+          while( (epoch = selected.take()) != null ) {
+            long start = System.nanoTime();
+            LS_SA_code_pipeline workspace = epoch.workspace;
+            if( epoch.selected )
+              workspace.codeStandalone(epoch.obs, false, false);
+            if( epoch.obs.getNumSat() >= 4 ) {
+              // Same rover state as after solveEpoch
+              if( workspace.rover.isValidXYZ() && epoch.selected )
+                epoch.coord = workspace.getCoordinate(epoch.obs);
+              latest.set(new Solution(workspace.rover));
+            }
+            epoch.workspace = null;
+            workspaces.put(workspace);
+            latency[STAGE_SOLVE].record(System.nanoTime() - start);
+            solved.put(epoch);
+          }
+        } catch( InterruptedException e ) {
+          // stopped
+        } catch( Throwable t ) {
+          failure.compareAndSet(null, t);
+        } finally {
+          solved.close();
+        }
+      }
+    }, "goGPS pipeline solve");
+
+    Thread[] stages = { ingest, geometry, solve };
+    for( Thread stage: stages ) {
+      stage.setDaemon(true);
+      stage.start();
+    }
+
+    boolean validPosition = false;
+    try {
+      Epoch epoch;
+      while( (epoch = solved.take()) != null ) {
+        long start = System.nanoTime();
+        if( epoch.coord != null ) {
+          if(!validPosition){
+            goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_START_OF_TRACK);
+            validPosition = true;
+          }
+          goGPS.notifyPositionConsumerAddCoordinate(epoch.coord);
+        }
+        long end = System.nanoTime();
+        latency[STAGE_PUBLISH].record(end - start);
+        latency[FIX].record(end - epoch.ingested);
+      }
+    } catch( InterruptedException e ) {
+      // stopped
+    } finally {
+      for( Thread stage: stages )
+        stage.interrupt();
+      goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_END_OF_TRACK);
+    }
+
+    if( goGPS.isDebug() )
+      for( int s = 0; s < latency.length; s++ )
+        System.out.println("Pipeline "+STAGE_NAMES[s]+": "+latency[s]);
+
+    Throwable t = failure.get();
+    if( t != null ) {
+      t.printStackTrace();
+      throw new RuntimeException(t);
+    }
+  }
+}
@@ -2,6 +2,12 @@ package org.gogpsproject.positioning;
 
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.ejml.simple.SimpleMatrix;
 import org.gogpsproject.Constants;
@@ -23,6 +29,15 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
   /** Set aPrioriPos in thread mode */
   public Coordinates aPrioriPos;
 
+  /** workers trying the candidate time offsets, null to try them in turn */
+  private ExecutorService offsetPool;
+
+  /** one per candidate time offset, created on first use */
+  private LS_SA_code_snapshot[] offsetWorkspaces;
+
+  /** set when an earlier candidate time offset has converged */
+  volatile boolean cancelled;
+
   public LS_SA_code_snapshot(GoGPS goGPS) {
     super(goGPS);
   }
@@ -101,7 +116,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     double cbiasms = 1;
     
     for (int itr = 0; itr < max_iterations; itr++) {
-      if( goGPS.isDebug()) System.out.println(">> Itr " + itr);
+      if( goGPS.isTrace()) System.out.println(">> Itr " + itr);
       
 //      if( goGPS.isDebug() && goGPS.truePos != null ){
 //        System.out.println( String.format( "\r\n* True Pos: %8.4f, %8.4f, %8.4f", 
@@ -121,7 +136,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       nObsAvail = sats.getAvailNumber() + 1; // add DTM / height soft constraint
   
       if( nObsAvail<nUnknowns ){
-        if( goGPS.isDebug()) System.out.println("\r\nNot enough satellites for " + roverObs.getRefTime() );
+        if( goGPS.isTrace()) System.out.println("\r\nNot enough satellites for " + roverObs.getRefTime() );
         rover.setXYZ(0, 0, 0);
         if( nObsAvail>1 ){
           rover.satsInUse = nObsAvail;
@@ -131,7 +146,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       }
     
       if( sats.pos[savedIndex]==null || rover.topo[savedIndex] == null  || !sats.avail.keySet().contains(pivotSatId)) {
-        if( goGPS.isDebug()) System.out.println("\r\nCan't use pivot with satId " + pivotSatId );
+        if( goGPS.isTrace()) System.out.println("\r\nCan't use pivot with satId " + pivotSatId );
         return null; 
       }
       
@@ -198,7 +213,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
           rhodot = -doppler * Constants.SPEED_OF_LIGHT/Constants.FL1;
 
           double dopplerSatSpeed = rhodotSatSpeed*Constants.FL1/Constants.SPEED_OF_LIGHT;
-          if( goGPS.isDebug() ) System.out.println( String.format( "%2d) doppler:%6.0f; satSpeed:%6.0f; D:%6.0f", 
+          if( goGPS.isTrace() ) System.out.println( String.format( "%2d) doppler:%6.0f; satSpeed:%6.0f; D:%6.0f", 
               satId,
               doppler, 
               dopplerSatSpeed,
@@ -260,7 +275,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
 //        }
         double pivot = resid.get(pivotIndex);
           
-        if( goGPS.isDebug()) System.out.println( String.format( "\r\n\r\nResiduals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
+        if( goGPS.isTrace()) System.out.println( String.format( "\r\n\r\nResiduals -> Adjusted Residuals (ms) - Pivot = %7.4f (ms)",  pivot/Constants.SPEED_OF_LIGHT*1000));
         int i = 0;
         for( k=0; k<roverObs.getNumSat(); k++){
           Integer satId = roverObs.getSatID(k);
@@ -272,14 +287,14 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
           os.el = rover.topo[k].getElevation();
     
           double d = resid.get(i);
-          if( goGPS.isDebug()) System.out.print( String.format( "%2d) %7.4f -> ", satId, d/Constants.SPEED_OF_LIGHT*1000));
+          if( goGPS.isTrace()) System.out.print( String.format( "%2d) %7.4f -> ", satId, d/Constants.SPEED_OF_LIGHT*1000));
           if( d-pivot>GoGPS.MODULO1MS/2 ){
             d-=GoGPS.MODULO1MS;
           }
           if( d-pivot<-GoGPS.MODULO1MS/2){
             d+=GoGPS.MODULO1MS;
           }
-          if( goGPS.isDebug()) System.out.print( String.format( "%7.4f", d/Constants.SPEED_OF_LIGHT*1000));
+          if( goGPS.isTrace()) System.out.print( String.format( "%7.4f", d/Constants.SPEED_OF_LIGHT*1000));
     
           resid.set(i,d);
       
@@ -289,7 +304,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
           if( residCutOff != null &&
               (rover.eRes<residCutOff*Constants.SPEED_OF_LIGHT/1000) &&
               dms>residCutOff) {
-            if( goGPS.isDebug() ) System.out.println( String.format( "; D:%6.4f; Excluding sat:%2d; C:%6.4f; El:%6.4f; rodot:%7.2f; ", 
+            if( goGPS.isTrace() ) System.out.println( String.format( "; D:%6.4f; Excluding sat:%2d; C:%6.4f; El:%6.4f; rodot:%7.2f; ", 
                 dms, 
                 roverObs.getSatID(k), 
                 roverObs.getSatByID(satId).getCodeC(0)/Constants.SPEED_OF_LIGHT*1000, 
@@ -307,7 +322,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
             rover.satsInUse++;
             os.inUse(true);
     
-            if( goGPS.isDebug() ) System.out.println( String.format( "; D:%6.4f; snr:%5.1f; El:%5.1f; rodot:%10.2f; ", 
+            if( goGPS.isTrace() ) System.out.println( String.format( "; D:%6.4f; snr:%5.1f; El:%5.1f; rodot:%10.2f; ", 
                 dms, 
                 os.getSignalStrength(0),
                 os.el, 
@@ -318,7 +333,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       } 
       
       if( rover.satsInUse + 1 < nUnknowns ){
-        if( goGPS.isDebug()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
+        if( goGPS.isTrace()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
         rover.setXYZ(0, 0, 0);
         if( rover.status == Status.None ){
           rover.status = Status.NotEnoughSats;
@@ -384,9 +399,9 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       // time update seconds -> ms
       cbiasms = x.get(4) * 1000;
       
-      if( goGPS.isDebug()) System.out.println( String.format( "\r\npos update:  %5.0f (m)", correction_mag ));
-      if( goGPS.isDebug()) System.out.println( String.format( "clock error: %2.4f (us)", rover.clockError*1000000 ));
-      if( goGPS.isDebug()) System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
+      if( goGPS.isTrace()) System.out.println( String.format( "\r\npos update:  %5.0f (m)", correction_mag ));
+      if( goGPS.isTrace()) System.out.println( String.format( "clock error: %2.4f (us)", rover.clockError*1000000 ));
+      if( goGPS.isTrace()) System.out.println( String.format( "common bias: %2.4f (ms)", cbiasms ));
 
       // apply correction to Rx position estimate
       rover.setPlusXYZ( x.extractMatrix(0, 3, 0, 1) );
@@ -397,7 +412,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       Time newTime = new Time( unixTime);
       roverObs.setRefTime( newTime );
           
-      if( goGPS.isDebug()) System.out.println( String.format( "recpos (%d): %5.3f, %5.3f, %5.3f, %s", 
+      if( goGPS.isTrace()) System.out.println( String.format( "recpos (%d): %5.3f, %5.3f, %5.3f, %s", 
           itr, 
           rover.getGeodeticLatitude(), 
           rover.getGeodeticLongitude(), 
@@ -415,7 +430,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
            rover.eRes += Math.pow( os.eRes, 2); 
        }
        rover.eRes = Math.sqrt(rover.eRes/rover.satsInUse);
-       if( goGPS.isDebug()) System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
+       if( goGPS.isTrace()) System.out.println(String.format("eRes = %5.3f\r\n", rover.eRes));
    
        // if correction is small enough, we're done, exit loop
        // TODO check also eRes
@@ -428,7 +443,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
 
     if( Double.isNaN(correction_mag) || correction_mag>goGPS.getPosLimit() ||  Math.abs(tg) > this.getTimeLimit() ){
       
-      if(goGPS.isDebug()) System.out.println("Correction exceeds the limits: dist = " + (long)correction_mag +"m; t offset = " + (long)tg +"s" );
+      if(goGPS.isTrace()) System.out.println("Correction exceeds the limits: dist = " + (long)correction_mag +"m; t offset = " + (long)tg +"s" );
 
       rover.setXYZ(0, 0, 0);
       rover.status = Status.MaxCorrection;
@@ -436,7 +451,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       return null;
     } 
     else {
-      if( goGPS.isDebug()) 
+      if( goGPS.isTrace()) 
         System.out.println( String.format( "recpos: %5.3f, %5.3f, %5.3f, %s, eRes = %5.3f", 
             rover.getGeodeticLatitude(), 
             rover.getGeodeticLongitude(), 
@@ -463,7 +478,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     // Number of GPS observations
     int nObs = roverObs.getNumSat();
     if( nObs+1 < nUnknowns ){
-      if(goGPS.isDebug()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
+      if(goGPS.isTrace()) System.out.println("Not enough satellites for " + roverObs.getRefTime() );
       rover.setXYZ(0, 0, 0);
       rover.satsInUse = nObs;
       rover.status = Status.NotEnoughSats;
@@ -480,7 +495,9 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     rover.status = Status.None;
 
     for( int satIdx = 0; satIdx<roverObs.getNumSat(); satIdx++ ){
-      if(goGPS.isDebug()) System.out.println( "\r\n===> Try Pivot " + satIdx );
+      if( cancelled )
+        return null;
+      if(goGPS.isTrace()) System.out.println( "\r\n===> Try Pivot " + satIdx );
       
       // restore this position before trying
       refPos.cloneInto(rover);
@@ -508,7 +525,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
         rover.status = Status.Exception;
       return null;
     }
-    if(goGPS.isDebug()) 
+    if(goGPS.isTrace()) 
       System.out.println( String.format( "\r\n>> Selected Pivot SatId = %d; SatIdx = %d; eRes = %5.2f;  cbias = %5.2f; elevation = %5.2f\r\n", 
         result.satId, 
         result.satIndex,
@@ -535,7 +552,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     
     if( result.eRes > 500 ){
 //      if(goGPS.isDebug()) 
-        System.out.println("eRes too large = " + rover.eRes );
+        if(goGPS.isTrace()) System.out.println("eRes too large = " + rover.eRes );
 
       rover.setXYZ(0, 0, 0);
       rover.status = Status.MaxEres;
@@ -544,13 +561,13 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     }
 
     if( result.hDop>this.goGPS.getHdopLimit() ){
-      if(goGPS.isDebug()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
+      if(goGPS.isTrace()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
           rover.getGeodeticLatitude(), 
           rover.getGeodeticLongitude(), 
           rover.getGeodeticHeight(), 
           new Time(result.unixTime).toString() ));
 //      if(goGPS.isDebug()) 
-        System.out.println( String.format( "hDOP too large: %3.1f", result.hDop ));
+        if(goGPS.isTrace()) System.out.println( String.format( "hDOP too large: %3.1f", result.hDop ));
       rover.setXYZ(0, 0, 0);
       rover.status = Status.MaxHDOP;
       return null;
@@ -560,7 +577,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     result.roverPos.cloneInto(rover);
     rover.setRefTime(new Time(result.unixTime));
 
-    if(goGPS.isDebug()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
+    if(goGPS.isTrace()) System.out.println( String.format( "recpos: %5.4f, %5.4f, %5.4f, %s", 
         rover.getGeodeticLatitude(), 
         rover.getGeodeticLongitude(), 
         rover.getGeodeticHeight(), 
@@ -592,8 +609,8 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
 
     // Compute topocentric coordinates and
     // select satellites above the cutoff level
-    System.out.println("Satellite Elevation");
-    System.out.println( roverObs.getRefTime() );
+    if(goGPS.isTrace()) System.out.println("Satellite Elevation");
+    if(goGPS.isTrace()) System.out.println( roverObs.getRefTime() );
     for (int i = 0; i < nObs; i++) {
       id = roverObs.getSatID(i);
       ObservationSet os = roverObs.getSatByID(id);
@@ -633,7 +650,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       SimpleMatrix enu = R.mult(sats.pos[i].minusXYZ(rover));
       
       double U = enu.get(2);
-      System.out.println( String.format( "%2d) C:%12.3f %5.1f(dg) %9.0f(up)", 
+      if(goGPS.isTrace()) System.out.println( String.format( "%2d) C:%12.3f %5.1f(dg) %9.0f(up)", 
           id, 
           roverObs.getSatByID(id).getCodeC(0),
           el, 
@@ -658,7 +675,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
 //        y0.set(i, 0, Constants.EARTH_RADIUS);
       }
     }
-    System.out.println("");
+    if(goGPS.isTrace()) System.out.println("");
 
   // Add height soft constraint
     double lam = Math.toRadians(rover.getGeodeticLongitude());
@@ -689,13 +706,13 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
                                       Math.pow( x.get(1), 2 ) +
                                       Math.pow( x.get(2), 2 ) );
 
-   System.out.println( String.format( "pos update:  %5.1f, %5.1f, %5.1f; Mag: %5d(m)", x.get(0), x.get(1), x.get(2), (long)correction_mag ));
+   if(goGPS.isTrace()) System.out.println( String.format( "pos update:  %5.1f, %5.1f, %5.1f; Mag: %5d(m)", x.get(0), x.get(1), x.get(2), (long)correction_mag ));
 
    // apply correction to Rx position estimate
    rover.setPlusXYZ(x.extractMatrix(0, 3, 0, 1));
    rover.computeGeodetic();
 
-   System.out.println( "recpos: " + rover );
+   if(goGPS.isTrace()) System.out.println( "recpos: " + rover );
    
    return correction_mag; // return correction_mag
   }
@@ -706,7 +723,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     rover.computeECEF();
     for (int iter = 0; iter < 500; iter++) {
       // Select all satellites
-      System.out.println("////// Itr = " + iter);
+      if(goGPS.isTrace()) System.out.println("////// Itr = " + iter);
       
       double correctionMag = selectPositionUpdate(obsR);
       if (sats.getAvailNumber() < 6) {
@@ -725,11 +742,11 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     if( rover == null || obsR == null )
       return null;
   
-    if(goGPS.isDebug()) System.out.println( "\r\n>>Try offset = " + offsetms/1000 + " (s)");
+    if(goGPS.isTrace()) System.out.println( "\r\n>>Try offset = " + offsetms/1000 + " (s)");
 
     rover.setXYZ( aPrioriPos.getX(), aPrioriPos.getY(), aPrioriPos.getZ() );
     rover.computeGeodetic();
-    if(goGPS.isDebug()) System.out.println( "A priori pos: " + aPrioriPos );
+    if(goGPS.isTrace()) System.out.println( "A priori pos: " + aPrioriPos );
 
     Time refTime = new Time( obsR.getRefTime().getMsec() + offsetms );
     obsR.setRefTime( refTime );
@@ -741,7 +758,7 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
     Long updatedms = snapshotPos(obsR);
     
     if( updatedms == null && rover.status == Status.MaxCorrection ){
-      if(goGPS.isDebug()) System.out.println("Reset aPrioriPos");        
+      if(goGPS.isTrace()) System.out.println("Reset aPrioriPos");        
       aPrioriPos.cloneInto(rover);
     }
     
@@ -751,13 +768,38 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
   }
 
   
+  /**
+   * Time offsets tried when the a priori time fails, in order of preference,
+   * each from the a priori time
+   */
+  long[] candidateOffsets(){
+    long step = 2*maxTimeUpdateSec*1000;
+    return new long[]{
+        -step, step, -2*step, 2*step, -3*step, 3*step, -4*step, 4*step, -5*step, 5*step,
+        -6*step, -7*step, -8*step, -9*step, -10*step };
+  }
+
+  /**
+   * @return an instance of the same solver and time limit with its own rover and satellites
+   */
+  LS_SA_code_snapshot newWorkspace(){
+    LS_SA_code_snapshot ws = new LS_SA_code_snapshot(goGPS.fork());
+    ws.setTimeLimit(getTimeLimit());
+    return ws;
+  }
+
+  /**
+   * @param offsetPool workers trying the candidate offsets concurrently, null to try them in turn
+   */
+  public void setOffsetPool( ExecutorService offsetPool ){
+    this.offsetPool = offsetPool;
+  }
+
   public void tryOffset( Coordinates aPrioriPos, Observations obsR ) throws Exception{
     this.aPrioriPos = aPrioriPos;
-    
-  //  Long offsetsec = Math.round(offsetms/1000.0);
-    Long offsetms = 0l;
-  
-    Long updatems = runOffset( obsR, offsetms );
+    Time refTime = obsR.getRefTime();
+
+    Long updatems = runOffset( obsR, 0 );
     
     if( updatems == null && 
         (rover.status == Status.EphNotFound 
@@ -766,57 +808,102 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       || rover.status == Status.NotEnoughSats 
       )){
       return;
-  }
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 2*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 2*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 4*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 4*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 6*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 6*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 8*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 8*maxTimeUpdateSec*1000 );
-
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 10*maxTimeUpdateSec*1000 );
+    }
 
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms + 10*maxTimeUpdateSec*1000 );
+    if( updatems == null ){
+      if( offsetPool == null )
+        updatems = tryOffsets( obsR, refTime, candidateOffsets() );
+      else
+        updatems = tryOffsetsConcurrently( obsR, refTime, candidateOffsets() );
+    }
 
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 12*maxTimeUpdateSec*1000 );
+    if( updatems == null )
+      rover.setXYZ(0, 0, 0);
+    if( rover.status == Status.None )
+      rover.status = Status.Exception;
+  }
 
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 14*maxTimeUpdateSec*1000 );
+  private Long tryOffsets( Observations obsR, Time refTime, long[] offsets ){
+    Long updatems = null;
+    for( int i = 0; i < offsets.length && updatems == null; i++ ){
+      obsR.setRefTime( refTime );
+      updatems = runOffset( obsR, offsets[i] );
+    }
+    return updatems;
+  }
 
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 16*maxTimeUpdateSec*1000 );
+  /**
+   * Tries all the offsets at once, each on its own workspace and copy of the
+   * observations. The first offset in order that converges is taken, as if
+   * they had been tried in turn, offsets after it are cancelled as soon as it
+   * converges.
+   */
+  private Long tryOffsetsConcurrently( Observations obsR, Time refTime, long[] offsets ) throws Exception{
+    final int n = offsets.length;
+    if( offsetWorkspaces == null || offsetWorkspaces.length != n ){
+      offsetWorkspaces = new LS_SA_code_snapshot[n];
+      for( int i = 0; i < n; i++ )
+        offsetWorkspaces[i] = newWorkspace();
+    }
+    final LS_SA_code_snapshot[] workspaces = offsetWorkspaces;
+    final Observations[] copies = new Observations[n];
+    for( int i = 0; i < n; i++ ){
+      workspaces[i].cancelled = false;
+      workspaces[i].aPrioriPos = aPrioriPos;
+      copies[i] = obsR.copy();
+      copies[i].setRefTime( refTime );
+    }
 
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 18*maxTimeUpdateSec*1000 );
+    List<Future<Long>> results = new ArrayList<Future<Long>>(n);
+    for( int i = 0; i < n; i++ ){
+      final int candidate = i;
+      final long offsetms = offsets[i];
+      results.add( offsetPool.submit( new Callable<Long>(){
+        @Override
+        public Long call() throws Exception {
+          LS_SA_code_snapshot ws = workspaces[candidate];
+          if( ws.cancelled )
+            return null;
+          Long updatems = ws.runOffset( copies[candidate], offsetms );
+          if( updatems != null ){
+            for( int k = candidate + 1; k < n; k++ )
+              workspaces[k].cancelled = true;
+          }
+          return updatems;
+        }
+      }));
+    }
 
-  if(  updatems == null  )
-    updatems = runOffset( obsR, offsetms - 20*maxTimeUpdateSec*1000 );
+    // Wait for all of them, the workspaces are reused by the next epoch
+    Long updatems = null;
+    int chosen = n - 1;
+    for( int i = 0; i < n; i++ ){
+      Long result = results.get(i).get();
+      if( updatems == null && result != null ){
+        updatems = result;
+        chosen = i;
+      }
+    }
 
-  if( updatems == null )
-    rover.setXYZ(0, 0, 0);
-    if( rover.status == Status.None )
-      rover.status = Status.Exception;
+    // Same state as after trying the chosen offset
+    RoverPosition r = workspaces[chosen].rover;
+    r.cloneInto(rover);
+    rover.status = r.status;
+    rover.satsInUse = r.satsInUse;
+    rover.eRes = r.eRes;
+    rover.clockError = r.clockError;
+    rover.clockErrorRate = r.clockErrorRate;
+    rover.pDop = r.pDop;
+    rover.hDop = r.hDop;
+    rover.vDop = r.vDop;
+    rover.setDopType(r.getDopType());
+
+    Observations obs = copies[chosen];
+    obsR.setRefTime( obs.getRefTime() );
+    for( int i = 0; i < obs.getNumSat(); i++ )
+      obsR.setGps( i, obs.getSatByIdx(i) );
+
+    return updatems;
   }
 
   public static void run( GoGPS goGPS ) {
@@ -831,127 +918,136 @@ public class LS_SA_code_snapshot extends LS_SA_dopplerPos {
       sa = new LS_SA_code_dopp_snapshot(goGPS);
     else
       sa = new LS_SA_code_snapshot(goGPS);
-    
-    Observations obsR = null;
 
-    int leapSeconds;
-    obsR = goGPS.getRoverIn().getCurrentObservations();
+    int parallelism = goGPS.getSnapshotParallelism() > 0 ? goGPS.getSnapshotParallelism() : Runtime.getRuntime().availableProcessors();
+    ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    sa.setOffsetPool(pool);
+    try {
+      Observations obsR = null;
+
+      int leapSeconds;
+      obsR = goGPS.getRoverIn().getCurrentObservations();
     
-    goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_START_OF_TRACK);
-    while( obsR!=null && !Thread.interrupted() ) { // buffStreamObs.ready()
-     try {
-       if( obsR.getNumSat()<2 ) 
-         continue;
+      goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_START_OF_TRACK);
+      while( obsR!=null && !Thread.interrupted() ) { // buffStreamObs.ready()
+       try {
+         if( obsR.getNumSat()<2 ) 
+           continue;
          
-       if(goGPS.isDebug()) System.out.println("Index: " + obsR.index );
-       rover.satsInUse = 0;
+         if(goGPS.isDebug()) System.out.println("Index: " + obsR.index );
+         rover.satsInUse = 0;
 
-       if( goGPS.useDoppler() && Float.isNaN( obsR.getSatByIdx(0).getDoppler(0) )){
-         sa = new LS_SA_code_snapshot(goGPS);
-       }
+         if( goGPS.useDoppler() && Float.isNaN( obsR.getSatByIdx(0).getDoppler(0) ) && sa instanceof LS_SA_code_dopp_snapshot ){
+           sa = new LS_SA_code_snapshot(goGPS);
+           sa.setOffsetPool(pool);
+         }
 
-       // apply time offset
-       rover.sampleTime = obsR.getRefTime();
-       obsR.setRefTime(new Time(obsR.getRefTime().getMsec() + goGPS.getOffsetms() ));
+         // apply time offset
+         rover.sampleTime = obsR.getRefTime();
+         obsR.setRefTime(new Time(obsR.getRefTime().getMsec() + goGPS.getOffsetms() ));
 
-       // Add Leap Seconds, remove at the end
-       leapSeconds = rover.sampleTime.getLeapSeconds();
-       Time GPSTime = new Time( rover.sampleTime.getMsec() + leapSeconds * 1000);
+         // Add Leap Seconds, remove at the end
+         leapSeconds = rover.sampleTime.getLeapSeconds();
+         Time GPSTime = new Time( rover.sampleTime.getMsec() + leapSeconds * 1000);
        
-       obsR.setRefTime(GPSTime);
-       long refTimeMs = obsR.getRefTime().getMsec();
-
-//       if( truePos != null ){
-//         if(debug) System.out.println( String.format( "\r\n* True Pos: %8.4f, %8.4f, %8.4f", 
-//             truePos.getGeodeticLatitude(),
-//             truePos.getGeodeticLongitude(),
-//             truePos.getGeodeticHeight()
-//             ));
-//         truePos.selectSatellitesStandaloneFractional( obsR, -100, MODULO1MS );
-//       }
+         obsR.setRefTime(GPSTime);
+         long refTimeMs = obsR.getRefTime().getMsec();
+
+  //       if( truePos != null ){
+  //         if(debug) System.out.println( String.format( "\r\n* True Pos: %8.4f, %8.4f, %8.4f", 
+  //             truePos.getGeodeticLatitude(),
+  //             truePos.getGeodeticLongitude(),
+  //             truePos.getGeodeticHeight()
+  //             ));
+  //         truePos.selectSatellitesStandaloneFractional( obsR, -100, MODULO1MS );
+  //       }
        
-       if( !rover.isValidXYZ() ){
+         if( !rover.isValidXYZ() ){
          
-        if( goGPS.getRoverIn().getDefinedPosition() != null && goGPS.getRoverIn().getDefinedPosition().isValidXYZ()){
-          goGPS.getRoverIn().getDefinedPosition().cloneInto(rover);
-        }
-        else if( !Float.isNaN(obsR.getSatByIdx(0).getDoppler(0))){
-         rover.setXYZ(0, 0, 0);
-//         sa.runElevationMethod(obsR);
+          if( goGPS.getRoverIn().getDefinedPosition() != null && goGPS.getRoverIn().getDefinedPosition().isValidXYZ()){
+            goGPS.getRoverIn().getDefinedPosition().cloneInto(rover);
+          }
+          else if( !Float.isNaN(obsR.getSatByIdx(0).getDoppler(0))){
+           rover.setXYZ(0, 0, 0);
+  //         sa.runElevationMethod(obsR);
          
-         sa.dopplerPos(obsR);
+           sa.dopplerPos(obsR);
          
-         if( rover.isValidXYZ() )
-//           goGPS.getRoverIn().setDefinedPosition(rover);
-           rover.cloneInto( goGPS.getRoverIn().getDefinedPosition() );
-        }
-        else {
-          if( obsR.getNumSat()<5 )
-            continue;
+           if( rover.isValidXYZ() )
+  //           goGPS.getRoverIn().setDefinedPosition(rover);
+             rover.cloneInto( goGPS.getRoverIn().getDefinedPosition() );
+          }
+          else {
+            if( obsR.getNumSat()<5 )
+              continue;
 
-          rover.setXYZ(0, 0, 0);
-         sa.runElevationMethod(obsR);
+            rover.setXYZ(0, 0, 0);
+           sa.runElevationMethod(obsR);
          
-         sa.dopplerPos(obsR);
+           sa.dopplerPos(obsR);
 
-         if( rover.isValidXYZ() )
-           rover.cloneInto( goGPS.getRoverIn().getDefinedPosition() );
+           if( rover.isValidXYZ() )
+             rover.cloneInto( goGPS.getRoverIn().getDefinedPosition() );
+           }
+         }
+         if( !rover.isValidXYZ() ){
+           continue;
          }
-       }
-       if( !rover.isValidXYZ() ){
-         continue;
-       }
            
-       sa.tryOffset( goGPS.getRoverIn().getDefinedPosition(), obsR );
+         sa.tryOffset( goGPS.getRoverIn().getDefinedPosition(), obsR );
 
-       if(goGPS.isDebug()) System.out.println("Valid position? "+rover.isValidXYZ()+" x:"+rover.getX()+" y:"+rover.getY()+" z:"+rover.getZ());
-       if(goGPS.isDebug()) System.out.println(" lat:"+rover.getGeodeticLatitude()+" lon:"+rover.getGeodeticLongitude() );
+         if(goGPS.isDebug()) System.out.println("Valid position? "+rover.isValidXYZ()+" x:"+rover.getX()+" y:"+rover.getY()+" z:"+rover.getZ());
+         if(goGPS.isDebug()) System.out.println(" lat:"+rover.getGeodeticLatitude()+" lon:"+rover.getGeodeticLongitude() );
        
-       if( rover.isValidXYZ() ){
+         if( rover.isValidXYZ() ){
          
-         goGPS.setOffsetms( obsR.getRefTime().getMsec()-refTimeMs );
+           goGPS.setOffsetms( obsR.getRefTime().getMsec()-refTimeMs );
 
-         // remove Leap Seconds
-         obsR.setRefTime(new Time(obsR.getRefTime().getMsec() - leapSeconds * 1000));
-         rover.status = Status.Valid;
-         rover.cErrMS = goGPS.getOffsetms();
+           // remove Leap Seconds
+           obsR.setRefTime(new Time(obsR.getRefTime().getMsec() - leapSeconds * 1000));
+           rover.status = Status.Valid;
+           rover.cErrMS = goGPS.getOffsetms();
          
-         // update a priori location
-         rover.cloneInto(goGPS.getRoverIn().getDefinedPosition());
+           // update a priori location
+           rover.cloneInto(goGPS.getRoverIn().getDefinedPosition());
 
-        if(goGPS.isDebug())System.out.println("-------------------- "+rover.getpDop());
-      }
-      else {
-        if( rover.status == Status.None || rover.status == Status.EphNotFound 
-//           && !Float.isNaN(obsR.getSatByIdx(0).getDoppler(0))
-           && obsR.getNumSat()>3 ){
-          continue;
+          if(goGPS.isDebug())System.out.println("-------------------- "+rover.getpDop());
         }
-        else {        
-          // invalidate aPrioriPos and recompute later
-          // goGPS.getRoverIn().getDefinedPosition().setXYZ(0, 0, 0);
-          goGPS.getRoverIn().getDefinedPosition().setXYZ(0, 0, 0);
-          
-          if( rover.status == Status.MaxCorrection ) {
+        else {
+          if( rover.status == Status.None || rover.status == Status.EphNotFound 
+  //           && !Float.isNaN(obsR.getSatByIdx(0).getDoppler(0))
+             && obsR.getNumSat()>3 ){
             continue;
           }
+          else {        
+            // invalidate aPrioriPos and recompute later
+            // goGPS.getRoverIn().getDefinedPosition().setXYZ(0, 0, 0);
+            goGPS.getRoverIn().getDefinedPosition().setXYZ(0, 0, 0);
+          
+            if( rover.status == Status.MaxCorrection ) {
+              continue;
+            }
+          }
+        }
+        if(goGPS.getPositionConsumers().size()>0){
+          rover.setRefTime(new Time(obsR.getRefTime().getMsec()));
+          goGPS.notifyPositionConsumerAddCoordinate(rover.clone(obsR));
         }
-      }
-      if(goGPS.getPositionConsumers().size()>0){
-        rover.setRefTime(new Time(obsR.getRefTime().getMsec()));
-        goGPS.notifyPositionConsumerAddCoordinate(rover.clone(obsR));
-      }
 
-     } catch (Throwable e) {
-       e.printStackTrace();
-     } 
-     finally {
-      obsR = goGPS.getRoverIn().getNextObservations();
-      rover.status = Status.None;
-    } 
-  }
-  goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_END_OF_TRACK);
-    
+       } catch (Throwable e) {
+         e.printStackTrace();
+       } 
+       finally {
+        obsR = goGPS.getRoverIn().getNextObservations();
+        rover.status = Status.None;
+      } 
+    }
+    }
+    finally {
+      if( pool != null )
+        pool.shutdownNow();
+      goGPS.notifyPositionConsumerEvent(PositionConsumer.EVENT_END_OF_TRACK);
+    }
   }
   
 }
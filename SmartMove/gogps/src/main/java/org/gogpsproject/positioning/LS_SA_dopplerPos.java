@@ -98,7 +98,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
 
       // recompute satpos now with estimatedPR
       if( Double.isNaN(rover.satAppRange[i])){
-        if( goGPS.isDebug() ) System.out.println("Error NaN");
+        if( goGPS.isTrace() ) System.out.println("Error NaN");
       }
       else {
         os.setCodeC(0, rover.satAppRange[i]);
@@ -127,7 +127,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
 
       double R = rover.satAppRange[i]/Constants.SPEED_OF_LIGHT*1000;
       double C = roverObs.getSatByID(id).getCodeC(0)/Constants.SPEED_OF_LIGHT*1000;
-      if( goGPS.isDebug() ) System.out.print( String.format( "%2d) SR:%8.5f C:%8.5f D:%9.5f ", 
+      if( goGPS.isTrace() ) System.out.print( String.format( "%2d) SR:%8.5f C:%8.5f D:%9.5f ", 
           id, 
           R%(MODULO*1000/Constants.SPEED_OF_LIGHT), 
           C,
@@ -143,7 +143,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
       // Correct approximate pseudorange for ionosphere
       rover.satIonoCorr[i] = sats.computeIonosphereCorrection(navigation, rover, rover.topo[i].getAzimuth(), rover.topo[i].getElevation(), roverObs.getRefTime());
 
-      if( goGPS.isDebug()) System.out.print( String.format( " El:%4.1f ", rover.topo[i].getElevation() ));
+      if( goGPS.isTrace()) System.out.print( String.format( " El:%4.1f ", rover.topo[i].getElevation() ));
 
 //        System.out.println("getElevation: " + id + "::" + rover.topo[i].getElevation() ); 
       // Check if satellite elevation is higher than cutoff
@@ -162,9 +162,9 @@ public class LS_SA_dopplerPos extends LS_SA_code {
       }
       else{
         os.el = rover.topo[i].getElevation();
-        if(goGPS.isDebug()) System.out.print( String.format( " Not useful sat %2d  for too low elevation %3.1f < %3.1f", roverObs.getSatID(i), rover.topo[i].getElevation(), cutoff ));
+        if(goGPS.isTrace()) System.out.print( String.format( " Not useful sat %2d  for too low elevation %3.1f < %3.1f", roverObs.getSatID(i), rover.topo[i].getElevation(), cutoff ));
       }
-      if( goGPS.isDebug()) System.out.println();
+      if( goGPS.isTrace()) System.out.println();
     }
   }
   
@@ -192,7 +192,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
       // Number of available satellites (i.e. observations)
       int nObsAvail = sats.avail.size();
       if( nObsAvail < MINSV ){
-        if( goGPS.isDebug() ) System.out.println("dopplerPos, not enough satellites for " + obs.getRefTime() );
+        if( goGPS.isTrace() ) System.out.println("dopplerPos, not enough satellites for " + obs.getRefTime() );
         if( rover.status == Status.None ){
           rover.status = Status.NotEnoughSats;
         }
@@ -240,7 +240,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
           rodot[k] = doppler * Constants.SPEED_OF_LIGHT/Constants.FL1;
           
           os.getDoppler(ObservationSet.L1);
-          System.out.println( String.format( "%2d) snr:%2.0f doppler:%6.0f; satSpeed:%6.0f; D:%6.0f", 
+          if(goGPS.isTrace()) System.out.println( String.format( "%2d) snr:%2.0f doppler:%6.0f; satSpeed:%6.0f; D:%6.0f", 
               satId,
               os.getSignalStrength(ObservationSet.L1),
               doppler, 
@@ -292,7 +292,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
     
      SimpleMatrix x = A.transpose().mult(A).invert().mult(A.transpose()).mult(b);
 
-     System.out.println( String.format( "Update %d: x: %3.3f, y: %3.3f, z: %3.3f, br: %3.3f", itr, 
+     if(goGPS.isTrace()) System.out.println( String.format( "Update %d: x: %3.3f, y: %3.3f, z: %3.3f, br: %3.3f", itr, 
                                                     x.get(0), x.get(1), x.get(2), x.get(3) ));
 
      double correction_mag = Math.sqrt( Math.pow( x.get(0) - rover.getX(), 2 ) + 
@@ -300,7 +300,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
                                         Math.pow( x.get(2) - rover.getZ(), 2 ) );
 
      // expected
-     System.out.println( String.format( "pos diff mag %f (m)", correction_mag ));
+     if(goGPS.isTrace()) System.out.println( String.format( "pos diff mag %f (m)", correction_mag ));
 
      // Update receiver clock error rate
      rover.clockErrorRate = x.get(3);
@@ -318,16 +318,16 @@ public class LS_SA_dopplerPos extends LS_SA_code {
 //       rover.computeECEF();
 //     }
 
-     System.out.println( "recpos (" + itr +")");
-     System.out.println( String.format( "%10.6f,%10.6f,%10.6f", 
+     if(goGPS.isTrace()) System.out.println( "recpos (" + itr +")");
+     if(goGPS.isTrace()) System.out.println( String.format( "%10.6f,%10.6f,%10.6f", 
          rover.getGeodeticLatitude(), rover.getGeodeticLongitude(), rover.getGeodeticHeight() ));
-     System.out.println();
+     if(goGPS.isTrace()) System.out.println();
      
      // if correction is small enough, we're done, exit loop
      if( correction_mag< DOPP_POS_TOL )
        break;
     }
-    System.out.println( rover );
+    if(goGPS.isTrace()) System.out.println( rover );
   }
 
   /**
@@ -354,7 +354,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
 
       if( nObsAvail < nUnknowns ){
 //        if( goGPS.isDebug() ) 
-        System.out.println("dopplerPos, not enough satellites for " + obs.getRefTime() );
+        if(goGPS.isTrace()) System.out.println("dopplerPos, not enough satellites for " + obs.getRefTime() );
         if( rover.status == Status.None ){
           rover.status = Status.NotEnoughSats;
         }
@@ -430,7 +430,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
       
      SimpleMatrix x = A.transpose().mult(A).invert().mult(A.transpose()).mult(b);
 
-     System.out.println( String.format( "Update %d: x: %3.3f, y: %3.3f, z: %3.3f, cr: %3.3f", itr, 
+     if(goGPS.isTrace()) System.out.println( String.format( "Update %d: x: %3.3f, y: %3.3f, z: %3.3f, cr: %3.3f", itr, 
                                                     x.get(0), x.get(1), x.get(2), x.get(3) ));
 
      double correction_mag = Math.sqrt( Math.pow( x.get(0), 2 ) + 
@@ -438,7 +438,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
                                         Math.pow( x.get(2), 2 ) );
 
      // expected
-     System.out.println( String.format( "pos diff mag %f (m)", correction_mag ));
+     if(goGPS.isTrace()) System.out.println( String.format( "pos diff mag %f (m)", correction_mag ));
 
      // Update Rx position estimate
      rover.setPlusXYZ( x.extractMatrix(0, 3, 0, 1) );
@@ -447,11 +447,11 @@ public class LS_SA_dopplerPos extends LS_SA_code {
      // Update receiver clock error rate
      rover.clockErrorRate += x.get(3);
 
-     System.out.println( "recpos (" + itr +")");
-     System.out.println( String.format( "%10.6f,%10.6f,%10.6f cr:%10.6f", 
+     if(goGPS.isTrace()) System.out.println( "recpos (" + itr +")");
+     if(goGPS.isTrace()) System.out.println( String.format( "%10.6f,%10.6f,%10.6f cr:%10.6f", 
                          rover.getGeodeticLatitude(), rover.getGeodeticLongitude(), rover.getGeodeticHeight(),
                          rover.clockErrorRate ));
-     System.out.println();
+     if(goGPS.isTrace()) System.out.println();
      
      // if correction is small enough, we're done, exit loop
      if( correction_mag< DOPP_POS_TOL )
@@ -460,7 +460,7 @@ public class LS_SA_dopplerPos extends LS_SA_code {
     
     updateDops(A);
     
-    System.out.println( rover );
+    if(goGPS.isTrace()) System.out.println( rover );
   }
   
   public static void run( GoGPS goGPS ) {
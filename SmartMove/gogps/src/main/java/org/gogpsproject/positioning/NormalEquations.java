@@ -0,0 +1,213 @@
+package org.gogpsproject.positioning;
+
+import java.util.Arrays;
+
+/**
+ * Weighted least squares workspace, reused from one epoch to the next.
+ * <p>
+ * Observations have diagonal weights, so the normal matrix A'WA and the
+ * vector A'Wy are accumulated row by row instead of forming W. The normal
+ * matrix is factorised in place (Cholesky, N = LL'), the solution and the
+ * covariance are derived from the factor, and so is the geometry (DOP)
+ * covariance when all weights are equal. Arrays only grow, an epoch with no
+ * more observations or unknowns than the previous ones allocates nothing.
+ * </p>
+ */
+class NormalEquations {
+
+  private int unknowns;
+  private int observations;
+
+  /** design matrix, row-major observations x unknowns */
+  private double[] design = new double[0];
+  /** observed minus computed */
+  private double[] reduced = new double[0];
+  private double[] weights = new double[0];
+
+  /** A'WA, then its Cholesky factor in the lower triangle */
+  private double[] normal = new double[0];
+  /** A'A factor, when the weights differ */
+  private double[] geometry = new double[0];
+  private double[] solution = new double[0];
+  private double[] column = new double[0];
+
+  private boolean uniformWeights;
+
+  /**
+   * Starts a new system, all coefficients are zero.
+   */
+  void reset( int unknowns, int maxObservations ) {
+    this.unknowns = unknowns;
+    this.observations = 0;
+    if( design.length < unknowns * maxObservations )
+      design = new double[unknowns * maxObservations];
+    else
+      Arrays.fill(design, 0, unknowns * maxObservations, 0);
+    if( reduced.length < maxObservations ) {
+      reduced = new double[maxObservations];
+      weights = new double[maxObservations];
+    }
+    if( normal.length < unknowns * unknowns ) {
+      normal = new double[unknowns * unknowns];
+      geometry = new double[unknowns * unknowns];
+      solution = new double[unknowns];
+      column = new double[unknowns];
+    }
+  }
+
+  /**
+   * @param reduced observed minus computed value
+   * @param weight inverse of the cofactor of the observation
+   * @return the row of the observation, coefficients are set with {@link #set(int, int, double)}
+   */
+  int addObservation( double reduced, double weight ) {
+    this.reduced[observations] = reduced;
+    this.weights[observations] = weight;
+    return observations++;
+  }
+
+  void set( int row, int unknown, double coefficient ) {
+    design[row * unknowns + unknown] = coefficient;
+  }
+
+  /**
+   * Accumulates and factorises the normal equations, then solves them.
+   *
+   * @return false if the normal matrix is not positive definite
+   */
+  boolean solve() {
+    int n = unknowns;
+    Arrays.fill(normal, 0, n * n, 0);
+    Arrays.fill(solution, 0, n, 0);
+    uniformWeights = true;
+    for( int k = 0; k < observations; k++ ) {
+      double w = weights[k];
+      if( w != weights[0] )
+        uniformWeights = false;
+      int r = k * n;
+      for( int i = 0; i < n; i++ ) {
+        double wa = w * design[r + i];
+        if( wa == 0 )
+          continue;
+        solution[i] += wa * reduced[k];
+        for( int j = 0; j <= i; j++ )
+          normal[i * n + j] += wa * design[r + j];
+      }
+    }
+    if( !cholesky(normal, n) )
+      return false;
+    substitute(normal, n, solution);
+    return true;
+  }
+
+  /**
+   * Factorises the symmetric matrix given by its lower triangle, in place,
+   * the factor L is left in the lower triangle.
+   *
+   * @param m row-major n x n matrix
+   * @return false if the matrix is not positive definite
+   */
+  static boolean cholesky( double[] m, int n ) {
+    for( int j = 0; j < n; j++ ) {
+      double d = m[j * n + j];
+      for( int k = 0; k < j; k++ )
+        d -= m[j * n + k] * m[j * n + k];
+      if( !(d > 0) )
+        return false;
+      d = Math.sqrt(d);
+      m[j * n + j] = d;
+      for( int i = j + 1; i < n; i++ ) {
+        double s = m[i * n + j];
+        for( int k = 0; k < j; k++ )
+          s -= m[i * n + k] * m[j * n + k];
+        m[i * n + j] = s / d;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Solves LL'x = b in place.
+   */
+  private static void substitute( double[] l, int n, double[] b ) {
+    for( int i = 0; i < n; i++ ) {
+      double s = b[i];
+      for( int k = 0; k < i; k++ )
+        s -= l[i * n + k] * b[k];
+      b[i] = s / l[i * n + i];
+    }
+    for( int i = n - 1; i >= 0; i-- ) {
+      double s = b[i];
+      for( int k = i + 1; k < n; k++ )
+        s -= l[k * n + i] * b[k];
+      b[i] = s / l[i * n + i];
+    }
+  }
+
+  double getSolution( int unknown ) {
+    return solution[unknown];
+  }
+
+  /**
+   * @return v'Wv, the weighted sum of the squared residuals of the solution
+   */
+  double getWeightedResidualSquares() {
+    double sum = 0;
+    for( int k = 0; k < observations; k++ ) {
+      int r = k * unknowns;
+      double v = reduced[k];
+      for( int i = 0; i < unknowns; i++ )
+        v -= design[r + i] * solution[i];
+      sum += v * weights[k] * v;
+    }
+    return sum;
+  }
+
+  /**
+   * @param size number of leading unknowns
+   * @param out leading size x size block of (A'WA)^-1, row-major
+   */
+  void getCovariance( int size, double[] out ) {
+    inverse(normal, size, 1, out);
+  }
+
+  /**
+   * @param size number of leading unknowns
+   * @param out leading size x size block of (A'A)^-1, row-major, which only
+   *        depends on the satellite geometry
+   */
+  void getGeometryCovariance( int size, double[] out ) {
+    if( uniformWeights && observations > 0 ) {
+      // A'A = (A'WA) / w
+      inverse(normal, size, weights[0], out);
+      return;
+    }
+    int n = unknowns;
+    Arrays.fill(geometry, 0, n * n, 0);
+    for( int k = 0; k < observations; k++ ) {
+      int r = k * n;
+      for( int i = 0; i < n; i++ )
+        for( int j = 0; j <= i; j++ )
+          geometry[i * n + j] += design[r + i] * design[r + j];
+    }
+    if( !cholesky(geometry, n) ) {
+      Arrays.fill(out, 0, size * size, Double.NaN);
+      return;
+    }
+    inverse(geometry, size, 1, out);
+  }
+
+  /**
+   * Leading block of the inverse of a factorised matrix, scaled.
+   */
+  private void inverse( double[] factor, int size, double scale, double[] out ) {
+    int n = unknowns;
+    for( int j = 0; j < size; j++ ) {
+      Arrays.fill(column, 0, n, 0);
+      column[j] = 1;
+      substitute(factor, n, column);
+      for( int i = 0; i < size; i++ )
+        out[i * size + j] = column[i] * scale;
+    }
+  }
+}
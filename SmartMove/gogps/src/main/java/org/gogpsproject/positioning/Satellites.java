@@ -61,6 +61,24 @@ public class Satellites {
     return availPhase.size();
   }
   
+  /**
+   * Same as gnssAvail.contains(satType + id), without allocation.
+   */
+  boolean isAvail( char satType, int id ){
+    for( int j = 0; j < gnssAvail.size(); j++ ) {
+      String s = gnssAvail.get(j);
+      if( s.length() < 2 || s.charAt(0) != satType )
+        continue;
+      int n = 0;
+      int c = 1;
+      for( ; c < s.length() && s.charAt(c) >= '0' && s.charAt(c) <= '9'; c++ )
+        n = n * 10 + (s.charAt(c) - '0');
+      if( c == s.length() && n == id )
+        return true;
+    }
+    return false;
+  }
+
   public String getAvailGnssSystems(){
     if( typeAvail.isEmpty()) return "";
     String GnssSys = "";
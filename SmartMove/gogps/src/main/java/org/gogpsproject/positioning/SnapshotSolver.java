@@ -0,0 +1,149 @@
+package org.gogpsproject.positioning;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.gogpsproject.GoGPS;
+import org.gogpsproject.Status;
+import org.gogpsproject.producer.Observations;
+
+/**
+ * Snapshot positioning of independent captures, without an observations
+ * producer or position consumers: observations and a priori position and
+ * time in, position with status, time offset and DOP out.
+ * <p>
+ * Settings and navigation are those of the GoGPS instance given to the
+ * constructor, copied once ({@link GoGPS#fork()}). The navigation is shared
+ * by all the calls and only read. Rover and satellites come from a pool of
+ * workspaces, one per call in progress, so {@link #solve(Observations, Coordinates, Time)}
+ * can be called from any number of threads. Each call starts from its own
+ * a priori values, nothing is carried over from the previous capture.
+ * Time offsets are tried in turn, captures are the unit of parallelism.
+ * </p>
+ */
+public class SnapshotSolver {
+
+  /** code and, if Doppler is used, Doppler solver sharing one rover */
+  private static class Workspace {
+    final LS_SA_code_snapshot code;
+    final LS_SA_code_snapshot doppler;
+    final RoverPosition rover;
+
+    Workspace( GoGPS settings ) {
+      GoGPS goGPS = settings.fork();
+      code = new LS_SA_code_snapshot(goGPS);
+      doppler = goGPS.useDoppler() ? new LS_SA_code_dopp_snapshot(goGPS) : null;
+      rover = goGPS.getRoverPos();
+    }
+  }
+
+  private final GoGPS settings;
+
+  private final ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<Workspace>();
+
+  /**
+   * @param goGPS navigation and settings (cutoff, HDOP limit, Doppler...),
+   * later changes to it are not seen by the solver
+   */
+  public SnapshotSolver( GoGPS goGPS ) {
+    settings = goGPS.fork();
+  }
+
+  /**
+   * @param obs capture, not modified, its time is the a priori time
+   * @param aPrioriPos a priori position, null to compute one from the capture
+   * @return the position, valid or with the reason why it is not
+   */
+  public RoverPosition solve( Observations obs, Coordinates aPrioriPos ) {
+    return solve( obs, aPrioriPos, null );
+  }
+
+  /**
+   * @param obs capture, not modified
+   * @param aPrioriPos a priori position, null to compute one from the capture
+   * @param aPrioriTime a priori time (UTC), null for the time of the capture
+   * @return the position, valid or with the reason why it is not. Its time
+   * is the solved time (the a priori one if not valid), sample time the
+   * a priori one and cErrMS the difference between them
+   */
+  public RoverPosition solve( Observations obs, Coordinates aPrioriPos, Time aPrioriTime ) {
+    Time time = new Time( (aPrioriTime != null? aPrioriTime : obs.getRefTime()).getMsec() );
+    Workspace ws = workspaces.poll();
+    if( ws == null )
+      ws = new Workspace(settings);
+    try {
+      return solve( ws, obs.copy(), aPrioriPos, time );
+    }
+    finally {
+      workspaces.offer(ws);
+    }
+  }
+
+  private RoverPosition solve( Workspace ws, Observations obsR, Coordinates aPrioriPos, Time aPrioriTime ) {
+    RoverPosition rover = ws.rover;
+    rover.setXYZ(0, 0, 0);
+    rover.status = Status.None;
+    rover.satsInUse = 0;
+    rover.eRes = 0;
+    rover.clockError = 0;
+    rover.clockErrorRate = 0;
+    rover.cErrMS = 0;
+    rover.pDop = rover.hDop = rover.vDop = 0;
+    rover.sampleTime = aPrioriTime;
+
+    // Add Leap Seconds, remove at the end
+    long leapms = aPrioriTime.getLeapSeconds() * 1000L;
+    long refTimeMs = aPrioriTime.getMsec() + leapms;
+    obsR.setRefTime( new Time(refTimeMs) );
+
+    try {
+      if( obsR.getNumSat() < 2 ) {
+        rover.status = Status.NotEnoughSats;
+        return fix( rover, obsR, leapms );
+      }
+
+      boolean doppler = ws.doppler != null && !Float.isNaN( obsR.getSatByIdx(0).getDoppler(0) );
+      LS_SA_code_snapshot sa = doppler? ws.doppler : ws.code;
+
+      if( aPrioriPos != null && aPrioriPos.isValidXYZ() ) {
+        aPrioriPos = (Coordinates) aPrioriPos.clone();
+      }
+      else {
+        if( !doppler && obsR.getNumSat() >= 5 )
+          sa.runElevationMethod(obsR);
+        if( doppler || obsR.getNumSat() >= 5 )
+          sa.dopplerPos(obsR);
+        if( !rover.isValidXYZ() ) {
+          rover.setXYZ(0, 0, 0);
+          rover.status = Status.NoAprioriPos;
+          return fix( rover, obsR, leapms );
+        }
+        aPrioriPos = (Coordinates) rover.clone();
+      }
+
+      sa.tryOffset( aPrioriPos, obsR );
+
+      if( rover.isValidXYZ() ) {
+        rover.status = Status.Valid;
+        rover.cErrMS = obsR.getRefTime().getMsec() - refTimeMs;
+      }
+    }
+    catch( Exception e ) {
+      if( settings.isDebug() )
+        e.printStackTrace();
+      rover.setXYZ(0, 0, 0);
+      rover.status = Status.Exception;
+    }
+    return fix( rover, obsR, leapms );
+  }
+
+  private static RoverPosition fix( RoverPosition rover, Observations obsR, long leapms ) {
+    if( rover.status == Status.Valid )
+      // remove Leap Seconds
+      obsR.setRefTime( new Time(obsR.getRefTime().getMsec() - leapms) );
+    else
+      // time of the last offset tried, back to the a priori one
+      obsR.setRefTime( new Time(rover.sampleTime.getMsec()) );
+    rover.setRefTime( new Time(obsR.getRefTime().getMsec()) );
+    return rover.clone(obsR);
+  }
+}
@@ -43,11 +43,30 @@ public class Time {
 	private double fraction; /* fraction of millisecond */
 
 	private Date[] leapDates;
-	private Calendar gc =  GregorianCalendar.getInstance();
-	TimeZone zone = TimeZone.getTimeZone("GMT Time");
-	DateFormat df = new SimpleDateFormat("yyyy MM dd HH mm ss.SSS");
+	// created on first use, most instances never need them
+	private Calendar gc = null;
+	private static final TimeZone zone = TimeZone.getTimeZone("GMT Time");
+	private DateFormat df = null;
+
+	private Calendar gc(){
+		if(gc == null){
+			gc = GregorianCalendar.getInstance();
+			gc.setTimeZone(zone);
+			gc.setTimeInMillis(msec);
+		}
+		return gc;
+	}
+
+	private DateFormat df(){
+		if(df == null){
+			df = new SimpleDateFormat("yyyy MM dd HH mm ss.SSS");
+			df.setTimeZone(zone);
+		}
+		return df;
+	}
 
 	void initleapDates() throws ParseException{
+		DateFormat df = df();
 		leapDates = new Date[19];
 		leapDates[0]  = df.parse("1980 01 06 00 00 00.0");
 		leapDates[1]  = df.parse("1981 07 01 00 00 00.0");
@@ -71,33 +90,21 @@ public class Time {
 	}
 
 	public Time(long msec){
-		df.setTimeZone(zone);
-		gc.setTimeZone(zone);
-		this.gc.setTimeInMillis(msec);
 		this.msec = msec;
 		this.fraction = 0;
 	}
 	public Time(long msec, double fraction){
-		df.setTimeZone(zone);
-		gc.setTimeZone(zone);
 		this.msec = msec;
-		this.gc.setTimeInMillis(msec);
 		this.fraction = fraction;
 	}
 	public Time(String dateStr) throws ParseException{
-		df.setTimeZone(zone);
-		gc.setTimeZone(zone);
 		this.msec = dateStringToTime(dateStr);
-		this.gc.setTimeInMillis(this.msec);
 		this.fraction = 0;
 	}
 	public Time(int gpsWeek, double weekSec){
-		df.setTimeZone(zone);
-		gc.setTimeZone(zone);
 		double fullTime = (Constants.UNIX_GPS_DAYS_DIFF * Constants.SEC_IN_DAY + gpsWeek*Constants.DAYS_IN_WEEK*Constants.SEC_IN_DAY + weekSec) * 1000L;
 		this.msec = (long) (fullTime);
 		this.fraction = fullTime - this.msec;
-		this.gc.setTimeInMillis(this.msec);
 	}
 	/**
 	 * @param dateStr
@@ -109,7 +116,7 @@ public class Time {
 		long dateTime = 0;
 
 		try {
-			Date dateObj = df.parse(dateStr);
+			Date dateObj = df().parse(dateStr);
 			dateTime = dateObj.getTime();
 		} catch (ParseException e) {
 			throw e;
@@ -164,13 +171,13 @@ public class Time {
 		return (int)((time%(Constants.SEC_IN_DAY))/Constants.SEC_IN_HOUR);
 	}
 	public int getYear(){
-		return gc.get(Calendar.YEAR);
+		return gc().get(Calendar.YEAR);
 	}
 	public int getYear2c(){
-		return gc.get(Calendar.YEAR)-2000;
+		return gc().get(Calendar.YEAR)-2000;
 	}
 	public int getDayOfYear(){
-		return gc.get(Calendar.DAY_OF_YEAR);
+		return gc().get(Calendar.DAY_OF_YEAR);
 	}
 	public String getHourOfDayLetter(){
 		char c = (char)('a'+getGpsHourInDay());
@@ -289,6 +296,6 @@ public class Time {
 	}
 
 	public String toString(){
-		return df.format(gc.getTime())+" "+gc.getTime();
+		return df().format(gc().getTime())+" "+gc().getTime();
 	}
 }
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.gogpsproject.ephemeris.EphGps;
+import org.gogpsproject.ephemeris.GNSSEphemeris;
+import org.gogpsproject.ephemeris.GNSSEphemerisCorrections;
+import org.gogpsproject.ephemeris.SatelliteCodeBiases;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.producer.parser.IonoGps;
+
+/**
+ * <p>
+ * Delivers stream events to a listener on its own thread.
+ * </p>
+ * <p>
+ * Events are queued in a bounded buffer in arrival order, so a slow listener
+ * (file writer, logger) no longer stalls the thread reading the stream. What
+ * happens when the buffer is full is chosen per listener with the overflow
+ * policy. Only observations are dropped: stream closure, navigation messages,
+ * corrections and defined position always wait for room. The wrapper is
+ * released once the stream closure is delivered, later events are ignored.
+ * Queries
+ * ({@link #getCurrentObservations()}, {@link #pointToNextObservations()}) are
+ * forwarded directly.
+ * </p>
+ * <p>
+ * Producers hand the same frozen {@link Observations} to every listener, see
+ * {@link Observations#freeze()}.
+ * </p>
+ */
+public class AsyncStreamEventListener implements StreamEventListener {
+
+	/** the producer waits for room, as a synchronous listener */
+	public final static int OVERFLOW_BLOCK = 0;
+	/** the oldest queued event is discarded */
+	public final static int OVERFLOW_DROP_OLDEST = 1;
+	/** the incoming event is discarded */
+	public final static int OVERFLOW_DROP_NEWEST = 2;
+
+	private final static int EVENT_CLOSED = 0;
+	private final static int EVENT_OBSERVATIONS = 1;
+	private final static int EVENT_IONO = 2;
+	private final static int EVENT_EPH_GPS = 3;
+	private final static int EVENT_EPHEMERIS = 4;
+	private final static int EVENT_EPHEMERIS_CORR = 5;
+	private final static int EVENT_CODE_BIASES = 6;
+	private final static int EVENT_DEFINED_POSITION = 7;
+	private final static int EVENT_STREAM_RECEIVED = 8;
+
+	private static class Event {
+		final int type;
+		final Object payload;
+		final boolean droppable;
+		final long time = System.currentTimeMillis();
+
+		Event(int type, Object payload, boolean droppable) {
+			this.type = type;
+			this.payload = payload;
+			this.droppable = droppable;
+		}
+	}
+
+	private final StreamEventListener listener;
+	private final ArrayBlockingQueue<Event> queue;
+	private final int overflowPolicy;
+	private final int capacity;
+	private final Thread deliveryThread;
+	private volatile boolean running = true;
+	/** set by release(), events are no longer queued */
+	private volatile boolean released = false;
+
+	private volatile long delivered = 0;
+	private volatile long dropped = 0;
+	private volatile int maxLag = 0;
+	private volatile long lastLatency = 0;
+
+	/**
+	 * @param listener listener receiving the events
+	 * @param capacity largest number of queued events
+	 * @param overflowPolicy one of the OVERFLOW_ constants
+	 */
+	public AsyncStreamEventListener(StreamEventListener listener, int capacity, int overflowPolicy) {
+		this.listener = listener;
+		this.queue = new ArrayBlockingQueue<Event>(capacity);
+		this.overflowPolicy = overflowPolicy;
+		this.capacity = capacity;
+
+		deliveryThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				deliveryLoop();
+			}
+		});
+		deliveryThread.setName("AsyncStreamEventListener " + listener.getClass().getName());
+		deliveryThread.setDaemon(true);
+		deliveryThread.start();
+	}
+
+	private void deliveryLoop() {
+		while (running) {
+			Event e;
+			try {
+				e = queue.take();
+			} catch (InterruptedException ie) {
+				continue;
+			}
+			try {
+				deliver(e);
+			} catch (RuntimeException re) {
+				re.printStackTrace();
+			}
+			lastLatency = System.currentTimeMillis() - e.time;
+			delivered++;
+			// nothing follows the end of the stream
+			if (e.type == EVENT_CLOSED)
+				release();
+		}
+	}
+
+	private void deliver(Event e) {
+		switch (e.type) {
+			case EVENT_CLOSED: listener.streamClosed(); break;
+			case EVENT_OBSERVATIONS: listener.addObservations((Observations) e.payload); break;
+			case EVENT_IONO: listener.addIonospheric((IonoGps) e.payload); break;
+			case EVENT_EPH_GPS: listener.addEphemeris((EphGps) e.payload); break;
+			case EVENT_EPHEMERIS: listener.addEphemeris((GNSSEphemeris) e.payload); break;
+			case EVENT_EPHEMERIS_CORR: listener.addEphemerisCorr((GNSSEphemerisCorrections) e.payload); break;
+			case EVENT_CODE_BIASES: listener.addSatelliteCodeBiases((SatelliteCodeBiases) e.payload); break;
+			case EVENT_DEFINED_POSITION: listener.setDefinedPosition((Coordinates) e.payload); break;
+			case EVENT_STREAM_RECEIVED: listener.onStreamReceived((String) e.payload); break;
+		}
+	}
+
+	/**
+	 * Queues an event, applying the overflow policy if the queue is full.
+	 * Called by the single producer thread.
+	 */
+	private void enqueue(int type, Object payload, boolean droppable) {
+		if (released)
+			return;
+		Event e = new Event(type, payload, droppable);
+		if (!droppable || overflowPolicy == OVERFLOW_BLOCK) {
+			put(e);
+		} else if (!queue.offer(e)) {
+			if (overflowPolicy == OVERFLOW_DROP_NEWEST) {
+				dropped++;
+			} else {
+				while (!queue.offer(e)) {
+					if (dropOldest()) {
+						dropped++;
+					} else {
+						// only events that are never dropped are queued
+						put(e);
+						break;
+					}
+				}
+			}
+		}
+		int lag = queue.size();
+		if (lag > maxLag) maxLag = lag;
+	}
+
+	private void put(Event e) {
+		try {
+			queue.put(e);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			dropped++;
+		}
+		// released while waiting for room, nobody takes the event
+		if (released)
+			queue.clear();
+	}
+
+	/**
+	 * Removes the oldest droppable event.
+	 *
+	 * @return false if no queued event can be dropped
+	 */
+	private boolean dropOldest() {
+		for (Iterator<Event> i = queue.iterator(); i.hasNext();) {
+			if (i.next().droppable) {
+				i.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stops the delivery thread, queued events are discarded and later ones
+	 * ignored. A producer waiting for room returns.
+	 */
+	public void release() {
+		released = true;
+		running = false;
+		queue.clear();
+		if (Thread.currentThread() != deliveryThread)
+			deliveryThread.interrupt();
+	}
+
+	/**
+	 * @return true once released, explicitly or after the stream closure
+	 */
+	public boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * @return the listener receiving the events
+	 */
+	public StreamEventListener getListener() {
+		return listener;
+	}
+
+	public int getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return the largest number of queued events
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of events waiting for delivery
+	 */
+	public int getLag() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the largest number of events that waited for delivery
+	 */
+	public int getMaxLag() {
+		return maxLag;
+	}
+
+	/**
+	 * @return the time spent in the queue by the last delivered event in ms
+	 */
+	public long getLastLatency() {
+		return lastLatency;
+	}
+
+	public long getDeliveredCount() {
+		return delivered;
+	}
+
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+	public String toString() {
+		return listener.getClass().getName() + ": delivered " + delivered + ", dropped " + dropped
+				+ ", lag " + getLag() + " (max " + maxLag + "), latency " + lastLatency + " ms";
+	}
+
+	@Override
+	public void streamClosed() {
+		enqueue(EVENT_CLOSED, null, false);
+	}
+
+	@Override
+	public void addObservations(Observations o) {
+		enqueue(EVENT_OBSERVATIONS, o, true);
+	}
+
+	@Override
+	public void addIonospheric(IonoGps iono) {
+		enqueue(EVENT_IONO, iono, false);
+	}
+
+	@Override
+	public void addEphemeris(EphGps eph) {
+		enqueue(EVENT_EPH_GPS, eph, false);
+	}
+
+	@Override
+	public void addEphemeris(GNSSEphemeris eph) {
+		enqueue(EVENT_EPHEMERIS, eph, false);
+	}
+
+	@Override
+	public void addEphemerisCorr(GNSSEphemerisCorrections ephCorr) {
+		enqueue(EVENT_EPHEMERIS_CORR, ephCorr, false);
+	}
+
+	@Override
+	public void addSatelliteCodeBiases(SatelliteCodeBiases _scb) {
+		enqueue(EVENT_CODE_BIASES, _scb, false);
+	}
+
+	@Override
+	public void setDefinedPosition(Coordinates definedPosition) {
+		enqueue(EVENT_DEFINED_POSITION, definedPosition, false);
+	}
+
+	@Override
+	public Observations getCurrentObservations() {
+		return listener.getCurrentObservations();
+	}
+
+	@Override
+	public void pointToNextObservations() {
+		listener.pointToNextObservations();
+	}
+
+	@Override
+	public void onStreamReceived(String msg) {
+		enqueue(EVENT_STREAM_RECEIVED, msg, false);
+	}
+}
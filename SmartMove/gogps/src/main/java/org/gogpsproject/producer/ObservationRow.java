@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer;
+
+/**
+ * <p>
+ * Read-only measurements of one satellite in an epoch, by band.
+ * </p>
+ * <p>
+ * Implemented by {@link ObservationSet} and by the rows of
+ * {@link ObservationsColumns}, so that code reading an epoch works on both
+ * layouts. Empty values are NaN, empty indicators -1.
+ * </p>
+ */
+public interface ObservationRow {
+
+	public int getSatID();
+
+	public char getSatType();
+
+	/**
+	 * @return the GLONASS frequency number
+	 */
+	public int getFreqNum(int i);
+
+	public boolean isInUse();
+
+	/**
+	 * @return the P code pseudorange if available, the C/A one otherwise (in meters)
+	 */
+	public double getPseudorange(int i);
+
+	public double getCodeC(int i);
+
+	public double getCodeP(int i);
+
+	public double getPhaseCycles(int i);
+
+	public float getSignalStrength(int i);
+
+	public float getDoppler(int i);
+
+	public int getQualityInd(int i);
+
+	public int getLossLockInd(int i);
+
+	public int getSignalStrengthInd(int i);
+}
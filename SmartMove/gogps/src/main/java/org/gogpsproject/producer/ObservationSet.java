@@ -33,7 +33,7 @@ import org.gogpsproject.Constants;
  *
  * @author Eugenio Realini, Cryms.com
  */
-public class ObservationSet implements Streamable {
+public class ObservationSet implements Streamable, ObservationRow {
 
 	private final static int STREAM_V = 1;
 
@@ -45,14 +45,14 @@ public class ObservationSet implements Streamable {
 	private int satID;	/* Satellite number */
 	private char satType;	/* Satellite Type */
 
-	/* Array of [L1,L2] */
-	private double[] codeC = {Double.NaN,Double.NaN};			/* C Coarse/Acquisition (C/A) code [m] */
-	private double[] codeP = {Double.NaN,Double.NaN};			/* P Code Pseudorange [m] */
-	private double[] phase = {Double.NaN,Double.NaN};			/* L Carrier Phase [cycle] */
-	private float[] signalStrength = {Float.NaN,Float.NaN};		/* C/N0 (signal strength) [dBHz] */
-	private float[] doppler = {Float.NaN,Float.NaN};			/* Doppler value [Hz] */
+	/* Array of [L1,L2], null in the views of ObservationsColumns */
+	private double[] codeC;			/* C Coarse/Acquisition (C/A) code [m] */
+	private double[] codeP;			/* P Code Pseudorange [m] */
+	private double[] phase;			/* L Carrier Phase [cycle] */
+	private float[] signalStrength;		/* C/N0 (signal strength) [dBHz] */
+	private float[] doppler;			/* Doppler value [Hz] */
 
-	private int[] qualityInd = {-1,-1};	/* Nav Measurements Quality Ind. ublox proprietary? */
+	private int[] qualityInd;	/* Nav Measurements Quality Ind. ublox proprietary? */
 
 	/*
 	 * Loss of lock indicator (LLI). Range: 0-7
@@ -62,7 +62,7 @@ public class ObservationSet implements Streamable {
 	 *  Bit 2 set : Observation under Antispoofing (may suffer from increased noise)
 	 * Bits 0 and 1 for phase only.
 	 */
-	private int[] lossLockInd = {-1,-1};
+	private int[] lossLockInd;
 
 	/*
 	 * Signal strength indicator projected into interval 1-9:
@@ -71,7 +71,7 @@ public class ObservationSet implements Streamable {
  	 *  9: maximum possible signal strength
  	 * 0 or blank: not known, don't care
 	 */
-	private int[] signalStrengthInd = {-1,-1};
+	private int[] signalStrengthInd;
 
 	private int freqNum;
 
@@ -81,6 +81,9 @@ public class ObservationSet implements Streamable {
   */
 	private boolean inUse = false;
 
+	/** set once the observations are shared between listeners */
+	private boolean frozen = false;
+
   /* residual error */
   public double eRes;
 
@@ -90,12 +93,69 @@ public class ObservationSet implements Streamable {
   public double el;
 
 	public ObservationSet(){
+		codeC = new double[]{Double.NaN,Double.NaN};
+		codeP = new double[]{Double.NaN,Double.NaN};
+		phase = new double[]{Double.NaN,Double.NaN};
+		signalStrength = new float[]{Float.NaN,Float.NaN};
+		doppler = new float[]{Float.NaN,Float.NaN};
+		qualityInd = new int[]{-1,-1};
+		lossLockInd = new int[]{-1,-1};
+		signalStrengthInd = new int[]{-1,-1};
 	}
 
 	public ObservationSet(DataInputStream dai, boolean oldVersion) throws IOException{
+		this();
 		read(dai,oldVersion);
 	}
 
+	/**
+	 * Observation set without measurement arrays, for views that keep the
+	 * measurements elsewhere and override all their accessors.
+	 */
+	ObservationSet(boolean view){
+	}
+
+	/**
+	 * @return a writable deep copy of the measurements
+	 */
+	public ObservationSet copy(){
+		ObservationSet os = new ObservationSet();
+		os.satID = getSatID();
+		os.satType = getSatType();
+		for(int i=L1;i<=L2;i++){
+			os.codeC[i] = getCodeC(i);
+			os.codeP[i] = getCodeP(i);
+			os.phase[i] = getPhaseCycles(i);
+			os.signalStrength[i] = getSignalStrength(i);
+			os.doppler[i] = getDoppler(i);
+			os.qualityInd[i] = getQualityInd(i);
+			os.lossLockInd[i] = getLossLockInd(i);
+			os.signalStrengthInd[i] = getSignalStrengthInd(i);
+		}
+		os.freqNum = getFreqNum(L1);
+		os.inUse = isInUse();
+		os.eRes = eRes;
+		os.el = el;
+		return os;
+	}
+
+	/**
+	 * Makes the measurements read-only, setters then throw an
+	 * IllegalStateException. The positioning flags (inUse, eRes, el) stay
+	 * writable, consumers computing positions should work on a {@link #copy()}.
+	 */
+	public void freeze(){
+		frozen = true;
+	}
+
+	public boolean isFrozen(){
+		return frozen;
+	}
+
+	void checkWritable(){
+		if(frozen) throw new IllegalStateException("Shared observations are read-only, use copy()");
+	}
+
 	/**
 	 * @return the satID
 	 */
@@ -107,6 +167,7 @@ public class ObservationSet implements Streamable {
 	 * @param satID the satID to set
 	 */
 	public void setSatID(int satID) {
+		checkWritable();
 		this.satID = satID;
 	}
 
@@ -121,6 +182,7 @@ public class ObservationSet implements Streamable {
 	 * @param satType the satType to set
 	 */
 	public void setSatType(char satType) {
+		checkWritable();
 		this.satType = satType;
 	}
 	
@@ -128,12 +190,13 @@ public class ObservationSet implements Streamable {
 	 * @return the phase range (in meters)
 	 */
 	public double getPhaserange(int i) {
-		return phase[i] * getWavelength(i);
+		return getPhaseCycles(i) * getWavelength(i);
 	}
 
 	public double getWavelength(int i) {
 		double frequency = 0;
-		switch (this.satType) {
+		int freqNum = getFreqNum(i);
+		switch (getSatType()) {
 		case 'G': frequency = (i==0)?Constants.FL1:Constants.FL2;
 		case 'R': frequency = (i==0)?freqNum*Constants.FR1_delta+Constants.FR1_base:freqNum*Constants.FR2_delta+Constants.FR2_base;
 		case 'E': frequency = (i==0)?Constants.FE1:Constants.FE5a;
@@ -147,11 +210,12 @@ public class ObservationSet implements Streamable {
 	 * @return the pseudorange (in meters)
 	 */
 	public double getPseudorange(int i) {
-		return Double.isNaN(codeP[i])?codeC[i]:codeP[i];
+		double p = getCodeP(i);
+		return Double.isNaN(p)?getCodeC(i):p;
 	}
 
 	public boolean isPseudorangeP(int i){
-		return !Double.isNaN(codeP[i]);
+		return !Double.isNaN(getCodeP(i));
 	}
 
 	/**
@@ -165,6 +229,7 @@ public class ObservationSet implements Streamable {
 	 * @param c the c to set
 	 */
 	public void setCodeC(int i,double c) {
+		checkWritable();
 		codeC[i] = c;
 	}
 
@@ -179,6 +244,7 @@ public class ObservationSet implements Streamable {
 	 * @param p the p to set
 	 */
 	public void setCodeP(int i, double p) {
+		checkWritable();
 		codeP[i] = p;
 	}
 
@@ -193,6 +259,7 @@ public class ObservationSet implements Streamable {
 	 * @param l the l to set
 	 */
 	public void setPhaseCycles(int i, double l) {
+		checkWritable();
 		phase[i] = l;
 	}
 
@@ -207,6 +274,7 @@ public class ObservationSet implements Streamable {
 	 * @param s the s to set
 	 */
 	public void setSignalStrength(int i, float s) {
+		checkWritable();
 		signalStrength[i] = s;
 	}
 
@@ -221,6 +289,7 @@ public class ObservationSet implements Streamable {
 	 * @param d the d to set
 	 */
 	public void setDoppler(int i, float d) {
+		checkWritable();
 		doppler[i] = d;
 	}
 
@@ -230,7 +299,7 @@ public class ObservationSet implements Streamable {
 	@Override
 	public boolean equals(Object obj) {
 		if(obj instanceof ObservationSet){
-			return ((ObservationSet)obj).getSatID() == satID;
+			return ((ObservationSet)obj).getSatID() == getSatID();
 		}else{
 			return super.equals(obj);
 		}
@@ -247,6 +316,7 @@ public class ObservationSet implements Streamable {
 	 * @param qualityInd the qualityInd to set
 	 */
 	public void setQualityInd(int i,int qualityInd) {
+		checkWritable();
 		this.qualityInd[i] = qualityInd;
 	}
 
@@ -261,20 +331,24 @@ public class ObservationSet implements Streamable {
 	 * @param lossLockInd the lossLockInd to set
 	 */
 	public void setLossLockInd(int i,int lossLockInd) {
+		checkWritable();
 		this.lossLockInd[i] = lossLockInd;
 	}
 
 	public boolean isLocked(int i){
-		return lossLockInd[i] == 0;
+		return getLossLockInd(i) == 0;
 	}
 	public boolean isPossibleCycleSlip(int i){
-		return lossLockInd[i]>0 && ((lossLockInd[i]&0x1) == 0x1);
+		int lli = getLossLockInd(i);
+		return lli>0 && ((lli&0x1) == 0x1);
 	}
 	public boolean isHalfWavelength(int i){
-		return lossLockInd[i]>0 && ((lossLockInd[i]&0x2) == 0x2);
+		int lli = getLossLockInd(i);
+		return lli>0 && ((lli&0x2) == 0x2);
 	}
 	public boolean isUnderAntispoof(int i){
-		return lossLockInd[i]>0 && ((lossLockInd[i]&0x4) == 0x4);
+		int lli = getLossLockInd(i);
+		return lli>0 && ((lli&0x4) == 0x4);
 	}
 
 	public int write(DataOutputStream dos) throws IOException{
@@ -282,32 +356,32 @@ public class ObservationSet implements Streamable {
 		dos.writeUTF(MESSAGE_OBSERVATIONS_SET); // 5
 
 		dos.writeInt(STREAM_V); size +=4;
-		dos.write(satID);size +=1;		// 1
-		dos.write(satType);size +=1;		// 1
+		dos.write(getSatID());size +=1;		// 1
+		dos.write(getSatType());size +=1;		// 1
 		// L1 data
-		dos.write((byte)qualityInd[L1]);	size+=1;
-		dos.write((byte)lossLockInd[L1]);	size+=1;
-		dos.writeDouble(codeC[L1]); size+=8;
-		dos.writeDouble(codeP[L1]); size+=8;
-		dos.writeDouble(phase[L1]); size+=8;
-		dos.writeFloat(signalStrength[L1]); size+=4;
-		dos.writeFloat(doppler[L1]); size+=4;
+		dos.write((byte)getQualityInd(L1));	size+=1;
+		dos.write((byte)getLossLockInd(L1));	size+=1;
+		dos.writeDouble(getCodeC(L1)); size+=8;
+		dos.writeDouble(getCodeP(L1)); size+=8;
+		dos.writeDouble(getPhaseCycles(L1)); size+=8;
+		dos.writeFloat(getSignalStrength(L1)); size+=4;
+		dos.writeFloat(getDoppler(L1)); size+=4;
 		// write L2 data ?
 		boolean hasL2 = false;
-		if(!Double.isNaN(codeC[L2])) hasL2 = true;
-		if(!Double.isNaN(codeP[L2])) hasL2 = true;
-		if(!Double.isNaN(phase[L2])) hasL2 = true;
-		if(!Float.isNaN(signalStrength[L2])) hasL2 = true;
-		if(!Float.isNaN(doppler[L2])) hasL2 = true;
+		if(!Double.isNaN(getCodeC(L2))) hasL2 = true;
+		if(!Double.isNaN(getCodeP(L2))) hasL2 = true;
+		if(!Double.isNaN(getPhaseCycles(L2))) hasL2 = true;
+		if(!Float.isNaN(getSignalStrength(L2))) hasL2 = true;
+		if(!Float.isNaN(getDoppler(L2))) hasL2 = true;
 		dos.writeBoolean(hasL2); size+=1;
 		if(hasL2){
-			dos.write((byte)qualityInd[L2]);	size+=1;
-			dos.write((byte)lossLockInd[L2]);	size+=1;
-			dos.writeDouble(codeC[L2]); size+=8;
-			dos.writeDouble(codeP[L2]); size+=8;
-			dos.writeDouble(phase[L2]); size+=8;
-			dos.writeFloat(signalStrength[L2]); size+=4;
-			dos.writeFloat(doppler[L2]); size+=4;
+			dos.write((byte)getQualityInd(L2));	size+=1;
+			dos.write((byte)getLossLockInd(L2));	size+=1;
+			dos.writeDouble(getCodeC(L2)); size+=8;
+			dos.writeDouble(getCodeP(L2)); size+=8;
+			dos.writeDouble(getPhaseCycles(L2)); size+=8;
+			dos.writeFloat(getSignalStrength(L2)); size+=4;
+			dos.writeFloat(getDoppler(L2)); size+=4;
 		}
 		return size;
 	}
@@ -317,6 +391,7 @@ public class ObservationSet implements Streamable {
 	 */
 	@Override
 	public void read(DataInputStream dai, boolean oldVersion) throws IOException {
+		checkWritable();
 		int v = 1;
 		if(!oldVersion) v = dai.readInt();
 
@@ -355,6 +430,7 @@ public class ObservationSet implements Streamable {
 	 * @param signalStrengthInd the signalStrengthInd to set
 	 */
 	public void setSignalStrengthInd(int i,int signalStrengthInd) {
+		checkWritable();
 		this.signalStrengthInd[i] = signalStrengthInd;
 	}
 
@@ -369,6 +445,7 @@ public class ObservationSet implements Streamable {
 	 * @param signalStrengthInd the signalStrengthInd to set
 	 */
 	public void setFreqNum(int freqNum) {
+		checkWritable();
 		this.freqNum = freqNum;
 	}
 
@@ -43,8 +43,9 @@ import org.gogpsproject.positioning.Time;
  */
 public class Observations implements Streamable {
 
-	SimpleDateFormat sdfHeader = getGMTdf();
-	DecimalFormat dfX4 = new DecimalFormat("0.0000");
+	/** only created by toString(), decoders build one Observations per epoch */
+	SimpleDateFormat sdfHeader;
+	DecimalFormat dfX4;
 
 	private final static int STREAM_V = 1;
 
@@ -56,6 +57,9 @@ public class Observations implements Streamable {
 	private int issueOfData = -1;
     public long index;
 
+	/** set once the epoch is shared between listeners */
+	private boolean frozen = false;
+
 	/**
 	 * The Rinex filename
 	 */
@@ -81,6 +85,43 @@ public class Observations implements Streamable {
 		return null;
 	}
 
+	/**
+	 * @return a writable deep copy of the epoch, without serialization
+	 */
+	public Observations copy(){
+		Observations o = new Observations(refTime==null?null:(Time)refTime.clone(), eventFlag);
+		if(obsSet!=null){
+			for(int i=0;i<obsSet.size();i++){
+				if(obsSet.get(i)!=null) o.setGps(i, obsSet.get(i).copy());
+			}
+		}
+		o.issueOfData = issueOfData;
+		o.index = index;
+		o.rinexFileName = rinexFileName;
+		return o;
+	}
+
+	/**
+	 * Makes the epoch and its observation sets read-only so the same instance
+	 * can be handed to several listeners. Listeners that need to modify it
+	 * work on a {@link #copy()}.
+	 */
+	public Observations freeze(){
+		frozen = true;
+		if(obsSet!=null)
+			for(int i=0;i<obsSet.size();i++)
+				if(obsSet.get(i)!=null) obsSet.get(i).freeze();
+		return this;
+	}
+
+	public boolean isFrozen(){
+		return frozen;
+	}
+
+	private void checkWritable(){
+		if(frozen) throw new IllegalStateException("Shared observations are read-only, use copy()");
+	}
+
 	public Observations(Time time, int flag){
 		this.refTime = time;
 		this.eventFlag = flag;
@@ -91,6 +132,7 @@ public class Observations implements Streamable {
 	}
 	
 	public void cleanObservations(){
+		checkWritable();
 		if(obsSet != null)
 			for (int i=obsSet.size()-1;i>=0;i--)
 				if(obsSet.get(i)==null || Double.isNaN(obsSet.get(i).getPseudorange(0)))
@@ -105,6 +147,13 @@ public class Observations implements Streamable {
 		return obsSet==null?-1:nsat;
 	}
 
+	/**
+	 * @return the number of observation set positions, including empty ones
+	 */
+	int getSetCount(){
+		return obsSet==null?0:obsSet.size();
+	}
+
 	public HashMap<String, ObservationSet> getObsSetHM()
 	{
 		return obsSetHM;
@@ -177,6 +226,7 @@ public class Observations implements Streamable {
 	 * @param refTime the refTime to set
 	 */
 	public void setRefTime(Time refTime) {
+		checkWritable();
 		this.refTime = refTime;
 	}
 
@@ -209,6 +259,7 @@ public class Observations implements Streamable {
 	 * @param eventFlag the eventFlag to set
 	 */
 	public void setEventFlag(int eventFlag) {
+		checkWritable();
 		this.eventFlag = eventFlag;
 	}
 
@@ -224,6 +275,7 @@ public class Observations implements Streamable {
 //	}
 
 	public void setGps(int i, ObservationSet os ){
+		checkWritable();
 		if(obsSetHM == null)
 		{
 			obsSetHM = new LinkedHashMap<String, ObservationSet>();
@@ -264,6 +316,7 @@ public class Observations implements Streamable {
 
 		String lineBreak = System.getProperty("line.separator");
 
+		if(sdfHeader == null) sdfHeader = getGMTdf();
 		String out= " GPS Time:"+getRefTime().getGpsTime()+" "+sdfHeader.format(new Date(getRefTime().getMsec()))+" evt:"+eventFlag+lineBreak;
 		for(int i=0;i<getNumSat();i++){
 			ObservationSet os = getSatByIdx(i);
@@ -280,6 +333,7 @@ public class Observations implements Streamable {
 	}
 
 	private String fd(double n){
+		if(dfX4 == null) dfX4 = new DecimalFormat("0.0000");
 		return Double.isNaN(n)?"NaN":dfX4.format(n);
 	}
 	
@@ -288,6 +342,7 @@ public class Observations implements Streamable {
 	 */
 	@Override
 	public void read(DataInputStream dai, boolean oldVersion) throws IOException {
+		checkWritable();
 		int v=1;
 		if(!oldVersion) v=dai.readInt();
 
@@ -308,6 +363,7 @@ public class Observations implements Streamable {
 	}
 
 	public void setIssueOfData(int iOD) {
+		checkWritable();
 		this.issueOfData = iOD;
 	}
 
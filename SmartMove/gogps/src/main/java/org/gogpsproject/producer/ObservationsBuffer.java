@@ -26,8 +26,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.gogpsproject.ephemeris.EphGps;
 import org.gogpsproject.ephemeris.GNSSEphemeris;
@@ -36,13 +39,19 @@ import org.gogpsproject.ephemeris.EphemerisSystem;
 import org.gogpsproject.ephemeris.SatelliteCodeBiases;
 import org.gogpsproject.positioning.Coordinates;
 import org.gogpsproject.positioning.SatellitePosition;
-import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.archive.ObservationArchiveWriter;
 import org.gogpsproject.producer.parser.IonoGps;
 
 /**
  * <p>
  * This class receive data from streaming source and keep it buffered for navigation and observation consumer.
- * It does not yet release consumed data.
+ * </p>
+ * <p>
+ * Consumers waiting for observations are woken as soon as an epoch is added.
+ * Ephemerides and ionospheric parameters older than the retention window are
+ * released, the latest set of each satellite is always kept; consumed epochs
+ * older than the window are released too, and at most bufferSizeLimit epochs
+ * are kept. Memory stays constant over long real-time sessions.
  * </p>
  *
  * @author Lorenzo Patocchi cryms.com
@@ -51,13 +60,8 @@ public class ObservationsBuffer
 	extends EphemerisSystem
 	implements StreamEventListener, ObservationsProducer, NavigationProducer {
 
-    class EphSet{
-        public Time refTime;
-        public HashMap<Integer,EphGps> ephs = new HashMap<Integer,EphGps>();
-        public EphSet(Time refTime){
-            this.refTime = refTime;
-        }
-    }
+    /** default retention window, covers the fit interval of broadcast ephemerides */
+    public final static long DEFAULT_RETENTION = 4 * 3600 * 1000L;
 
     private boolean debug = false;
 
@@ -65,19 +69,25 @@ public class ObservationsBuffer
 
     private boolean waitForData=true;
 
-    private Vector<Observations> timeOrderedObs = new Vector<Observations>();
-    private Vector<EphSet> timeOrderedEphs = new Vector<EphSet>();
-    private Vector<IonoGps> timeOrderedIono = new Vector<IonoGps>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition newData = lock.newCondition();
+
+    private final ArrayList<Observations> timeOrderedObs = new ArrayList<Observations>();
+    /* time ordered ephemerides of each satellite, one per minute */
+    private final HashMap<Integer,ArrayList<EphGps>> timeOrderedEphs = new HashMap<Integer,ArrayList<EphGps>>();
+    private final ArrayList<IonoGps> timeOrderedIono = new ArrayList<IonoGps>();
 
-    private int ionoCursor = 0;
     private int obsCursor = 0;
-    private HashMap<Integer,Integer> ephCursors = new HashMap<Integer, Integer>();
+
+    private long latestTime = Long.MIN_VALUE;
+    private long retention = DEFAULT_RETENTION;
 
     private StreamResource streamResource;
 
     private String fileNameOutLog = null;
     private FileOutputStream fosOutLog = null;
     private DataOutputStream outLog = null;//new XMLEncoder(os);
+    private ObservationArchiveWriter outArchive = null;
 
     private String id = null;
 
@@ -113,33 +123,99 @@ public class ObservationsBuffer
     	}
     }
 
-    private int getEphCursor(int satID){
-    	Integer ID = new Integer(satID);
-    	if(!ephCursors.containsKey(ID)) return 0;
-    	return ephCursors.get(ID).intValue();
+    /**
+     * Updates the time of the latest data and releases what is older than the
+     * retention window. Called with the lock held.
+     */
+    private void evict(long time) {
+    	if(time<=latestTime) return;
+    	latestTime = time;
+    	long horizon = latestTime - retention;
+
+    	// keep the last set before the horizon, it is still the closest one there
+    	for(ArrayList<EphGps> ephs : timeOrderedEphs.values()){
+    		while(ephs.size()>1 && ephs.get(1).getRefTime().getMsec()<=horizon) ephs.remove(0);
+    	}
+    	while(timeOrderedIono.size()>1 && timeOrderedIono.get(1).getRefTime().getMsec()<=horizon) timeOrderedIono.remove(0);
+
+    	// only consumed epochs
+    	int trimmed = 0;
+    	while(trimmed<obsCursor && trimmed<timeOrderedObs.size() && timeOrderedObs.get(trimmed).getRefTime().getMsec()<horizon) trimmed++;
+    	trimObservations(trimmed);
+    }
+
+    /**
+     * Removes the oldest epochs. Called with the lock held.
+     */
+    private void trimObservations(int count) {
+    	if(count<=0) return;
+    	timeOrderedObs.subList(0, count).clear();
+    	// -1 when the current epoch is gone, the next one is the oldest kept
+    	obsCursor = Math.max(obsCursor - count, -1);
+    }
+
+    /**
+     * @return the index of the last ephemeris with a reference time before unixTime, -1 if none
+     */
+    private static int lastEphBefore(ArrayList<EphGps> ephs, long unixTime) {
+    	int lo = 0, hi = ephs.size() - 1, found = -1;
+    	while(lo<=hi){
+    		int mid = (lo + hi) >>> 1;
+    		if(ephs.get(mid).getRefTime().getMsec()<unixTime){
+    			found = mid;
+    			lo = mid + 1;
+    		}else{
+    			hi = mid - 1;
+    		}
+    	}
+    	return found;
     }
-    private void setEphCursor(int satID, int cur){
-    	ephCursors.put(new Integer(satID), new Integer(cur));
+
+    /**
+     * @return the index of the last parameters with a reference time before unixTime, -1 if none
+     */
+    private int lastIonoBefore(long unixTime) {
+    	int lo = 0, hi = timeOrderedIono.size() - 1, found = -1;
+    	while(lo<=hi){
+    		int mid = (lo + hi) >>> 1;
+    		if(timeOrderedIono.get(mid).getRefTime().getMsec()<unixTime){
+    			found = mid;
+    			lo = mid + 1;
+    		}else{
+    			hi = mid - 1;
+    		}
+    	}
+    	return found;
     }
+
     /* (non-Javadoc)
      * @see org.gogpsproject.parser.ublox.UBXEventListener#addEphemeris(org.gogpsproject.EphGps)
      */
     @Override
     public void addEphemeris(EphGps eph) {
-        int c = getEphCursor(eph.getSatID());
         // trim to minutes
-        while(c<timeOrderedEphs.size() && timeOrderedEphs.elementAt(c).refTime.getMsec()/60000!=eph.getRefTime().getMsec()/60000) c++;
-
-        if(c<timeOrderedEphs.size()){
-            if(debug)System.out.println("found existing EphSet for "+eph.getSatID()+" @ "+(eph.getRefTime().getMsec()/60000));
-            // existing set
-            timeOrderedEphs.elementAt(c).ephs.put(new Integer(eph.getSatID()), eph);
-        }else{
-            if(debug)System.out.println("new EphSet for "+eph.getSatID()+" @ "+(eph.getRefTime().getMsec()/60000));
-            // new set
-            EphSet es = new EphSet(eph.getRefTime());
-            es.ephs.put(new Integer(eph.getSatID()), eph);
-            timeOrderedEphs.add(es);
+        long minute = eph.getRefTime().getMsec()/60000;
+        lock.lock();
+        try{
+        	Integer ID = Integer.valueOf(eph.getSatID());
+        	ArrayList<EphGps> ephs = timeOrderedEphs.get(ID);
+        	if(ephs==null){
+        		ephs = new ArrayList<EphGps>();
+        		timeOrderedEphs.put(ID, ephs);
+        	}
+        	int c = ephs.size();
+        	while(c>0 && ephs.get(c-1).getRefTime().getMsec()/60000>minute) c--;
+
+        	if(c>0 && ephs.get(c-1).getRefTime().getMsec()/60000==minute){
+        		if(debug)System.out.println("found existing eph for "+eph.getSatID()+" @ "+minute);
+        		ephs.set(c-1, eph);
+        	}else{
+        		if(debug)System.out.println("new eph for "+eph.getSatID()+" @ "+minute);
+        		ephs.add(c, eph);
+        	}
+        	evict(eph.getRefTime().getMsec());
+        }finally{
+        	lock.unlock();
         }
         if(outLog!=null){
 
@@ -151,6 +227,7 @@ public class ObservationsBuffer
 			}
 
         }
+        if(outArchive!=null) outArchive.addEphemeris(eph);
     }
 
     /* (non-Javadoc)
@@ -158,17 +235,24 @@ public class ObservationsBuffer
      */
     @Override
     public void addIonospheric(IonoGps iono) {
-    	int c = ionoCursor;
     	// trim to minute
-        while(c<timeOrderedIono.size() && timeOrderedIono.elementAt(c).getRefTime().getMsec()/60000!=iono.getRefTime().getMsec()/60000) c++;
-
-        if(c<timeOrderedIono.size()){
-        	//System.out.println("found existing Iono @ "+(iono.getRefTime().getMsec()/60000));
-        	timeOrderedIono.set(c, iono);
-        }else{
-        	//System.out.println("new Iono @ "+(iono.getRefTime().getMsec()/60000));
-        	timeOrderedIono.add(iono);
-        }
+    	long minute = iono.getRefTime().getMsec()/60000;
+    	lock.lock();
+    	try{
+    		int c = timeOrderedIono.size();
+    		while(c>0 && timeOrderedIono.get(c-1).getRefTime().getMsec()/60000>minute) c--;
+
+    		if(c>0 && timeOrderedIono.get(c-1).getRefTime().getMsec()/60000==minute){
+    			//System.out.println("found existing Iono @ "+minute);
+    			timeOrderedIono.set(c-1, iono);
+    		}else{
+    			//System.out.println("new Iono @ "+minute);
+    			timeOrderedIono.add(c, iono);
+    		}
+    		evict(iono.getRefTime().getMsec());
+    	}finally{
+    		lock.unlock();
+    	}
         if(outLog!=null){
 
         	try {
@@ -179,6 +263,7 @@ public class ObservationsBuffer
 			}
 
         }
+        if(outArchive!=null) outArchive.addIonospheric(iono);
     }
 
     /* (non-Javadoc)
@@ -190,18 +275,19 @@ public class ObservationsBuffer
     		System.out.println("obs "+o.getNumSat()+" time "+o.getRefTime().getMsec());
     		System.out.println(o);
     	}
-        // TODO test if ref time observations is not already present
-        this.timeOrderedObs.add(o);
-        //System.out.println("---------------------------------------------");
-        //System.out.println(o);
-        
-        //limit the observations buffer to bufferSizeLimit
-        if (this.timeOrderedObs.size() > bufferSizeLimit) {
-        	int sizeToBeTrimmed = this.timeOrderedObs.size() - bufferSizeLimit;
-        	for (int i = 0; i < sizeToBeTrimmed; i++) {
-        		this.timeOrderedObs.removeElementAt(i);
-        	}
-        	obsCursor = obsCursor - sizeToBeTrimmed;
+        // positioning updates the observations, keep our own copy of shared epochs
+        if(o.isFrozen()) o = o.copy();
+        lock.lock();
+        try{
+        	// TODO test if ref time observations is not already present
+        	timeOrderedObs.add(o);
+
+        	//limit the observations buffer to bufferSizeLimit
+        	trimObservations(timeOrderedObs.size() - bufferSizeLimit);
+        	evict(o.getRefTime().getMsec());
+        	newData.signalAll();
+        }finally{
+        	lock.unlock();
         }
 
         if(outLog!=null){
@@ -214,6 +300,7 @@ public class ObservationsBuffer
 			}
 
         }
+        if(outArchive!=null) outArchive.addObservations(o);
 
     }
 
@@ -223,7 +310,47 @@ public class ObservationsBuffer
     @Override
     public void streamClosed() {
     	// TODO implement reconnection policy, i.e. if(streamResource!=null && !waitForData) streamResource.reconnect();
-    	waitForData = false;
+    	stopWaiting();
+    }
+
+    /**
+     * Makes the requests waiting for observations return.
+     */
+    private void stopWaiting() {
+    	lock.lock();
+    	try{
+    		waitForData = false;
+    		newData.signalAll();
+    	}finally{
+    		lock.unlock();
+    	}
+    }
+
+    /**
+     * Waits until the epoch at obsCursor+offset is buffered, the stream is
+     * closed or timeoutNextObsWait elapses. Called with the lock held.
+     * @return the epoch, null if not available
+     */
+    private Observations awaitObservations(int offset) {
+    	long remaining = timeoutNextObsWait==-1 ? 0 : TimeUnit.MILLISECONDS.toNanos(timeoutNextObsWait);
+    	while(waitForData && obsCursor+offset>=timeOrderedObs.size()){
+    		try {
+    			if(timeoutNextObsWait==-1){
+    				newData.await();
+    			}else{
+    				if(remaining<=0) break;
+    				remaining = newData.awaitNanos(remaining);
+    			}
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			break;
+    		}
+    	}
+    	int index = obsCursor+offset;
+    	if(index>=0 && index<timeOrderedObs.size()){
+    		return timeOrderedObs.get(index);
+    	}
+    	return null;
     }
 
 
@@ -235,19 +362,13 @@ public class ObservationsBuffer
      */
     @Override
     public Observations getCurrentObservations() {
-    	long begin=System.currentTimeMillis();
-
-    	while(waitForData && (timeOrderedObs.size()==0 || obsCursor>=timeOrderedObs.size()) && (timeoutNextObsWait==-1|| System.currentTimeMillis()-begin<timeoutNextObsWait)){
-			//System.out.print("r");
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {}
-		}
-
-    	if(timeOrderedObs.size()>0 && obsCursor<timeOrderedObs.size()){
-    		return timeOrderedObs.get(obsCursor);
-    	}else{
-    		return null;
+    	lock.lock();
+    	try{
+    		// current epoch released, move to the oldest kept
+    		if(obsCursor<0) obsCursor = 0;
+    		return awaitObservations(0);
+    	}finally{
+    		lock.unlock();
     	}
     }
     
@@ -257,8 +378,12 @@ public class ObservationsBuffer
      */
     @Override
     public void pointToNextObservations() {
-
-    	obsCursor++;
+    	lock.lock();
+    	try{
+    		obsCursor++;
+    	}finally{
+    		lock.unlock();
+    	}
     }
 
     /* (non-Javadoc)
@@ -278,23 +403,17 @@ public class ObservationsBuffer
     @Override
     public Observations getNextObservations() {
 
-    	long begin=System.currentTimeMillis();
-
-    	while(waitForData && (timeOrderedObs.size()==0 || (obsCursor+1)>=timeOrderedObs.size()) && (timeoutNextObsWait==-1|| System.currentTimeMillis()-begin<timeoutNextObsWait)){
-			//System.out.println((id!=null?id:"")+"\tlook for :"+(obsCursor+1)+" pool size is:"+timeOrderedObs.size());
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {}
-		}
-
-        if(timeOrderedObs.size()>0 && (obsCursor+1) < timeOrderedObs.size()){
-        	Observations o = timeOrderedObs.get(++obsCursor);
-
-            //System.out.println((id!=null?id:"")+"\tread obs "+o.getRefTime().getMsec());
-            return o;
-        }
-
-        return null;
+    	lock.lock();
+    	try{
+    		Observations o = awaitObservations(1);
+    		if(o!=null){
+    			obsCursor++;
+    			//System.out.println((id!=null?id:"")+"\tread obs "+o.getRefTime().getMsec());
+    		}
+    		return o;
+    	}finally{
+    		lock.unlock();
+    	}
     }
 
     /* (non-Javadoc)
@@ -303,7 +422,7 @@ public class ObservationsBuffer
     @Override
     public void release(boolean waitForThread, long timeoutMs) throws InterruptedException {
     	// make the request to nextObservations() return null as end of stream
-    	waitForData = false;
+    	stopWaiting();
 
     	if(outLog!=null){
     		try{
@@ -320,6 +439,13 @@ public class ObservationsBuffer
 				e.printStackTrace();
 			}
     	}
+    	if(outArchive!=null){
+    		try{
+    			outArchive.close();
+    		}catch (Exception e) {
+				e.printStackTrace();
+			}
+    	}
 
 
     	//if(streamResource!=null) streamResource.release(waitForThread, timeoutMs);
@@ -336,41 +462,24 @@ public class ObservationsBuffer
     public SatellitePosition getGpsSatPosition(Observations obs, int satID, char satType, double receiverClockError) {
     	long unixTime = obs.getRefTime().getMsec();
     	double range = obs.getSatByIDType(satID, satType).getPseudorange(0);
-    	if(timeOrderedEphs.size()==0 ||
-                unixTime < timeOrderedEphs.elementAt(0).refTime.getMsec()
-                ){
-    		//System.out.println("\tR: sat pos not found for "+satID);
-    		return null;
+    	EphGps eph = null;
+    	lock.lock();
+    	try{
+    		// closest set before unixTime
+    		ArrayList<EphGps> ephs = timeOrderedEphs.get(Integer.valueOf(satID));
+    		if(ephs!=null){
+    			int c = lastEphBefore(ephs, unixTime);
+    			if(c>=0) eph = ephs.get(c);
+    		}
+    	}finally{
+    		lock.unlock();
     	}
-        EphSet closer = null;// timeOrderedEphs.elementAt(ephCursor);
-
-        Integer ID = new Integer(satID);
-
-        // temp cursor
-        int c = getEphCursor(satID);
-        while(c<timeOrderedEphs.size()){
-        	EphSet tester = timeOrderedEphs.elementAt(c);
-            if((closer == null || unixTime-closer.refTime.getMsec() > unixTime-tester.refTime.getMsec()) &&
-            		unixTime-tester.refTime.getMsec()>0){
-                //tester is closer and before unixTime, keep as new closer and update cursor
-            	if(tester.ephs.containsKey(ID)){
-            		closer = tester;
-            		setEphCursor(satID, c);
-            	}
-                c++;
-            }else{
-                // tester is not closer or not before unixTime
-                break;
-            }
-        }
-        if(closer !=null){
-        	EphGps eph = closer.ephs.get(ID);
-        	
+        if(eph !=null){
         	SatellitePosition sp = computePositionGps(obs, satID, satType, eph, receiverClockError);
-        	//System.out.println("\tR: < sat pos "+ID);
+        	//System.out.println("\tR: < sat pos "+satID);
 			return sp;
         }
-        //System.out.println("\tR: < sat pos not found for "+ID);
+        //System.out.println("\tR: < sat pos not found for "+satID);
         return null;
     }
 
@@ -379,28 +488,17 @@ public class ObservationsBuffer
      */
     @Override
     public IonoGps getIono(long unixTime) {
-        if(timeOrderedIono.size()==0 ||
-                unixTime < timeOrderedIono.elementAt(0).getRefTime().getMsec()
-                ) return null;
-        IonoGps closer = timeOrderedIono.elementAt(ionoCursor);
-
-        // temp cursor
-        int c = ionoCursor;
-        while(c<timeOrderedIono.size()){
-            IonoGps tester = timeOrderedIono.elementAt(c);
-            if(unixTime-closer.getRefTime().getMsec() > unixTime-tester.getRefTime().getMsec() && unixTime-tester.getRefTime().getMsec()>0){
-                //tester is closer and before unixTime, keep as new closer and update cursor
-                closer = tester;
-                ionoCursor = c;
-                c++;
-            }else{
-                // tester is not closer or not before unixTime
-            	//System.out.println("\t\tR: < Iono1");
-                return closer;
-            }
-        }
-        //System.out.println("\t\tR: < Iono2");
-        return closer;
+    	lock.lock();
+    	try{
+    		if(timeOrderedIono.size()==0 ||
+    				unixTime < timeOrderedIono.get(0).getRefTime().getMsec()
+    				) return null;
+    		// closest before unixTime, the first one at its own time
+    		int c = lastIonoBefore(unixTime);
+    		return timeOrderedIono.get(Math.max(c, 0));
+    	}finally{
+    		lock.unlock();
+    	}
     }
 
     /* (non-Javadoc)
@@ -413,7 +511,9 @@ public class ObservationsBuffer
 	/**
 	 * @param fileNameOutLog the fileNameOutLog to set
 	 * @throws FileNotFoundException
+	 * @deprecated the log is unbuffered and only replayable from its start, use {@link #setFileNameOutArchive(String)}
 	 */
+	@Deprecated
 	public void setFileNameOutLog(String fileNameOutLog) throws FileNotFoundException {
 		this.fileNameOutLog = fileNameOutLog;
 		if(fileNameOutLog!=null){
@@ -427,6 +527,22 @@ public class ObservationsBuffer
 	public String getFileNameOutLog() {
 		return fileNameOutLog;
 	}
+	/**
+	 * Records everything received in an observation archive, closed on
+	 * {@link #release(boolean, long)}. An existing archive is appended to.
+	 *
+	 * @param fileNameOutArchive the archive, null to stop recording
+	 */
+	public void setFileNameOutArchive(String fileNameOutArchive) throws IOException {
+		if(outArchive!=null) outArchive.close();
+		outArchive = fileNameOutArchive==null ? null : new ObservationArchiveWriter(fileNameOutArchive);
+	}
+	/**
+	 * @return the archive recording what is received, null if none
+	 */
+	public ObservationArchiveWriter getOutArchive() {
+		return outArchive;
+	}
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.StreamEventListener#setDefinedPosition(org.gogpsproject.Coordinates)
 	 */
@@ -446,6 +562,7 @@ public class ObservationsBuffer
 			}
 
         }
+		if(outArchive!=null) outArchive.setDefinedPosition(definedPosition);
 	}
 	/**
 	 * @param id the id to set
@@ -471,6 +588,30 @@ public class ObservationsBuffer
 	public long getTimeoutNextObsWait() {
 		return timeoutNextObsWait;
 	}
+	/**
+	 * @param retention the window of kept data in ms, counted back from the latest reference time
+	 */
+	public void setRetention(long retention) {
+		this.retention = retention;
+	}
+	/**
+	 * @return the retention window in ms
+	 */
+	public long getRetention() {
+		return retention;
+	}
+	/**
+	 * @param bufferSizeLimit the largest number of kept epochs
+	 */
+	public void setBufferSizeLimit(int bufferSizeLimit) {
+		this.bufferSizeLimit = bufferSizeLimit;
+	}
+	/**
+	 * @return the largest number of kept epochs
+	 */
+	public int getBufferSizeLimit() {
+		return bufferSizeLimit;
+	}
 	public void readFromLog(String logFilename) throws IOException{
 		readFromLog(logFilename,false);
 	}
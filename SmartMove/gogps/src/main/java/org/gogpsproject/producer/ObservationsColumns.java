@@ -0,0 +1,596 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer;
+
+import java.io.DataInputStream;
+import java.util.Arrays;
+
+import org.gogpsproject.positioning.Time;
+
+/**
+ * <p>
+ * Observations of one epoch stored by columns.
+ * </p>
+ * <p>
+ * Each measurement is a primitive array indexed by row (one row per
+ * satellite, in insertion order) and band, so an epoch is a dozen arrays
+ * instead of a dozen arrays per satellite. Rows are found from the system and
+ * PRN in constant time through a satellite slot table, see
+ * {@link #slot(char, int)}.
+ * </p>
+ * <p>
+ * Rows are read through the {@link ObservationRow} interface, like
+ * {@link ObservationSet}, see {@link #row(int)}. {@link #asObservations()}
+ * wraps the columns as {@link Observations} for the existing consumers,
+ * positioning included, without copying the measurements.
+ * {@link #toObservations()} copies the epoch for the consumers that keep it.
+ * </p>
+ */
+public class ObservationsColumns {
+
+	/** systems having a slot, in slot order */
+	public final static String SYSTEMS = "GREJCIS";
+	public final static int MAX_PRN = 64;
+	public final static int SLOTS = SYSTEMS.length() * MAX_PRN;
+	public final static int BANDS = 2;
+
+	private Time refTime;
+	private int eventFlag;
+
+	private int count = 0;
+	/** row + 1 by satellite slot, 0 if the satellite is not in the epoch */
+	private final short[] rowBySlot = new short[SLOTS];
+
+	private int[] satID;
+	private char[] satType;
+	private int[] freqNum;
+	private boolean[] inUse;
+
+	/* [row * BANDS + band] */
+	private double[] codeC;
+	private double[] codeP;
+	private double[] phase;
+	private float[] signalStrength;
+	private float[] doppler;
+	private int[] qualityInd;
+	private int[] lossLockInd;
+	private int[] signalStrengthInd;
+
+	public ObservationsColumns(Time refTime, int eventFlag) {
+		this(refTime, eventFlag, 32);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of satellites before the columns are reallocated
+	 */
+	public ObservationsColumns(Time refTime, int eventFlag, int capacity) {
+		this.refTime = refTime;
+		this.eventFlag = eventFlag;
+		allocate(Math.max(capacity, 1));
+	}
+
+	private void allocate(int capacity) {
+		satID = satID == null ? new int[capacity] : Arrays.copyOf(satID, capacity);
+		satType = satType == null ? new char[capacity] : Arrays.copyOf(satType, capacity);
+		freqNum = freqNum == null ? new int[capacity] : Arrays.copyOf(freqNum, capacity);
+		inUse = inUse == null ? new boolean[capacity] : Arrays.copyOf(inUse, capacity);
+
+		int from = count * BANDS;
+		int size = capacity * BANDS;
+		codeC = grow(codeC, from, size, Double.NaN);
+		codeP = grow(codeP, from, size, Double.NaN);
+		phase = grow(phase, from, size, Double.NaN);
+		signalStrength = grow(signalStrength, from, size, Float.NaN);
+		doppler = grow(doppler, from, size, Float.NaN);
+		qualityInd = grow(qualityInd, from, size, -1);
+		lossLockInd = grow(lossLockInd, from, size, -1);
+		signalStrengthInd = grow(signalStrengthInd, from, size, -1);
+	}
+
+	private static double[] grow(double[] a, int from, int size, double empty) {
+		double[] b = a == null ? new double[size] : Arrays.copyOf(a, size);
+		Arrays.fill(b, from, size, empty);
+		return b;
+	}
+
+	private static float[] grow(float[] a, int from, int size, float empty) {
+		float[] b = a == null ? new float[size] : Arrays.copyOf(a, size);
+		Arrays.fill(b, from, size, empty);
+		return b;
+	}
+
+	private static int[] grow(int[] a, int from, int size, int empty) {
+		int[] b = a == null ? new int[size] : Arrays.copyOf(a, size);
+		Arrays.fill(b, from, size, empty);
+		return b;
+	}
+
+	/**
+	 * @return the slot of a satellite, between 0 and {@link #SLOTS}, -1 for an
+	 *         unknown system or a PRN out of 1..{@link #MAX_PRN}
+	 */
+	public static int slot(char satType, int satID) {
+		int system = SYSTEMS.indexOf(satType);
+		if (system < 0 || satID < 1 || satID > MAX_PRN)
+			return -1;
+		return system * MAX_PRN + satID - 1;
+	}
+
+	/**
+	 * Copies the observations of an epoch, satellites without a slot are left out.
+	 */
+	public static ObservationsColumns of(Observations o) {
+		ObservationsColumns c = new ObservationsColumns(o.getRefTime(), o.getEventFlag(), o.getNumSat());
+		for (int i = 0; i < o.getSetCount(); i++) {
+			ObservationSet os = o.getSatByIdx(i);
+			if (os == null || slot(os.getSatType(), os.getSatID()) < 0)
+				continue;
+			int row = c.addSatellite(os.getSatType(), os.getSatID());
+			c.freqNum[row] = os.getFreqNum(0);
+			c.inUse[row] = os.isInUse();
+			for (int b = 0; b < BANDS; b++) {
+				int k = row * BANDS + b;
+				c.codeC[k] = os.getCodeC(b);
+				c.codeP[k] = os.getCodeP(b);
+				c.phase[k] = os.getPhaseCycles(b);
+				c.signalStrength[k] = os.getSignalStrength(b);
+				c.doppler[k] = os.getDoppler(b);
+				c.qualityInd[k] = os.getQualityInd(b);
+				c.lossLockInd[k] = os.getLossLockInd(b);
+				c.signalStrengthInd[k] = os.getSignalStrengthInd(b);
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Wraps the columns as {@link Observations}. Its observation sets read and
+	 * write the columns, except eRes and el which are kept by each set. The
+	 * view follows the columns, take {@link #toObservations()} to keep an
+	 * epoch while the columns are modified.
+	 */
+	public Observations asObservations() {
+		Observations o = new Observations(refTime, eventFlag);
+		for (int row = 0; row < count; row++)
+			o.setGps(row, new RowView(this, row));
+		return o;
+	}
+
+	/**
+	 * Copies the columns into {@link Observations}, for the consumers that
+	 * keep the epoch. Code that only reads an epoch can take
+	 * {@link #asObservations()} or its {@link #row(int)}s instead.
+	 */
+	public Observations toObservations() {
+		Observations o = new Observations(refTime, eventFlag);
+		for (int row = 0; row < count; row++) {
+			ObservationSet os = new ObservationSet();
+			os.setSatID(satID[row]);
+			os.setSatType(satType[row]);
+			os.setFreqNum(freqNum[row]);
+			os.setInUse(inUse[row]);
+			for (int b = 0; b < BANDS; b++) {
+				int k = row * BANDS + b;
+				os.setCodeC(b, codeC[k]);
+				os.setCodeP(b, codeP[k]);
+				os.setPhaseCycles(b, phase[k]);
+				os.setSignalStrength(b, signalStrength[k]);
+				os.setDoppler(b, doppler[k]);
+				os.setQualityInd(b, qualityInd[k]);
+				os.setLossLockInd(b, lossLockInd[k]);
+				os.setSignalStrengthInd(b, signalStrengthInd[k]);
+			}
+			o.setGps(row, os);
+		}
+		return o;
+	}
+
+	/**
+	 * Adds a satellite to the epoch, its measurements are empty.
+	 *
+	 * @return the row of the satellite, the existing one if already added
+	 */
+	public int addSatellite(char type, int id) {
+		int slot = slot(type, id);
+		if (slot < 0)
+			throw new IllegalArgumentException("No slot for satellite " + type + id);
+		if (rowBySlot[slot] > 0)
+			return rowBySlot[slot] - 1;
+		if (count == satID.length)
+			allocate(count * 2);
+		int row = count++;
+		satID[row] = id;
+		satType[row] = type;
+		freqNum[row] = 0;
+		inUse[row] = false;
+		rowBySlot[slot] = (short) (row + 1);
+		return row;
+	}
+
+	/**
+	 * @return the row of a satellite, -1 if it is not in the epoch
+	 */
+	public int getRow(char type, int id) {
+		int slot = slot(type, id);
+		return slot < 0 ? -1 : rowBySlot[slot] - 1;
+	}
+
+	public boolean contains(char type, int id) {
+		return getRow(type, id) >= 0;
+	}
+
+	public int getNumSat() {
+		return count;
+	}
+
+	public Time getRefTime() {
+		return refTime;
+	}
+
+	public void setRefTime(Time refTime) {
+		this.refTime = refTime;
+	}
+
+	public int getEventFlag() {
+		return eventFlag;
+	}
+
+	public void setEventFlag(int eventFlag) {
+		this.eventFlag = eventFlag;
+	}
+
+	public int getSatID(int row) {
+		return satID[row];
+	}
+
+	public char getSatType(int row) {
+		return satType[row];
+	}
+
+	public int getFreqNum(int row) {
+		return freqNum[row];
+	}
+
+	public void setFreqNum(int row, int freqNum) {
+		this.freqNum[row] = freqNum;
+	}
+
+	public boolean isInUse(int row) {
+		return inUse[row];
+	}
+
+	public void setInUse(int row, boolean inUse) {
+		this.inUse[row] = inUse;
+	}
+
+	/**
+	 * @return the P code pseudorange if available, the C/A one otherwise (in meters)
+	 */
+	public double getPseudorange(int row, int band) {
+		double p = codeP[row * BANDS + band];
+		return Double.isNaN(p) ? codeC[row * BANDS + band] : p;
+	}
+
+	public double getCodeC(int row, int band) {
+		return codeC[row * BANDS + band];
+	}
+
+	public void setCodeC(int row, int band, double c) {
+		codeC[row * BANDS + band] = c;
+	}
+
+	public double getCodeP(int row, int band) {
+		return codeP[row * BANDS + band];
+	}
+
+	public void setCodeP(int row, int band, double p) {
+		codeP[row * BANDS + band] = p;
+	}
+
+	public double getPhaseCycles(int row, int band) {
+		return phase[row * BANDS + band];
+	}
+
+	public void setPhaseCycles(int row, int band, double l) {
+		phase[row * BANDS + band] = l;
+	}
+
+	public float getSignalStrength(int row, int band) {
+		return signalStrength[row * BANDS + band];
+	}
+
+	public void setSignalStrength(int row, int band, float s) {
+		signalStrength[row * BANDS + band] = s;
+	}
+
+	public float getDoppler(int row, int band) {
+		return doppler[row * BANDS + band];
+	}
+
+	public void setDoppler(int row, int band, float d) {
+		doppler[row * BANDS + band] = d;
+	}
+
+	public int getQualityInd(int row, int band) {
+		return qualityInd[row * BANDS + band];
+	}
+
+	public void setQualityInd(int row, int band, int q) {
+		qualityInd[row * BANDS + band] = q;
+	}
+
+	public int getLossLockInd(int row, int band) {
+		return lossLockInd[row * BANDS + band];
+	}
+
+	public void setLossLockInd(int row, int band, int lli) {
+		lossLockInd[row * BANDS + band] = lli;
+	}
+
+	public int getSignalStrengthInd(int row, int band) {
+		return signalStrengthInd[row * BANDS + band];
+	}
+
+	public void setSignalStrengthInd(int row, int band, int ssi) {
+		signalStrengthInd[row * BANDS + band] = ssi;
+	}
+
+	/**
+	 * @return a read-only view of a row, reading the columns
+	 */
+	public ObservationRow row(int row) {
+		if (row < 0 || row >= count)
+			throw new IndexOutOfBoundsException("Row " + row + " of " + count);
+		return new Row(this, row);
+	}
+
+	/**
+	 * One row of the columns, two references instead of a copy of the measurements.
+	 */
+	private static final class Row implements ObservationRow {
+		private final ObservationsColumns c;
+		private final int row;
+
+		Row(ObservationsColumns c, int row) {
+			this.c = c;
+			this.row = row;
+		}
+
+		@Override
+		public int getSatID() {
+			return c.getSatID(row);
+		}
+
+		@Override
+		public char getSatType() {
+			return c.getSatType(row);
+		}
+
+		@Override
+		public int getFreqNum(int i) {
+			return c.getFreqNum(row);
+		}
+
+		@Override
+		public boolean isInUse() {
+			return c.isInUse(row);
+		}
+
+		@Override
+		public double getPseudorange(int i) {
+			return c.getPseudorange(row, i);
+		}
+
+		@Override
+		public double getCodeC(int i) {
+			return c.getCodeC(row, i);
+		}
+
+		@Override
+		public double getCodeP(int i) {
+			return c.getCodeP(row, i);
+		}
+
+		@Override
+		public double getPhaseCycles(int i) {
+			return c.getPhaseCycles(row, i);
+		}
+
+		@Override
+		public float getSignalStrength(int i) {
+			return c.getSignalStrength(row, i);
+		}
+
+		@Override
+		public float getDoppler(int i) {
+			return c.getDoppler(row, i);
+		}
+
+		@Override
+		public int getQualityInd(int i) {
+			return c.getQualityInd(row, i);
+		}
+
+		@Override
+		public int getLossLockInd(int i) {
+			return c.getLossLockInd(row, i);
+		}
+
+		@Override
+		public int getSignalStrengthInd(int i) {
+			return c.getSignalStrengthInd(row, i);
+		}
+	}
+
+	/**
+	 * Observation set reading and writing one row of the columns. It holds no
+	 * measurement arrays of its own, see {@link ObservationSet#ObservationSet(boolean)}.
+	 */
+	private static final class RowView extends ObservationSet {
+		private final ObservationsColumns c;
+		private final int row;
+
+		RowView(ObservationsColumns c, int row) {
+			super(true);
+			this.c = c;
+			this.row = row;
+		}
+
+		@Override
+		public int getSatID() {
+			return c.getSatID(row);
+		}
+
+		@Override
+		public void setSatID(int satID) {
+			throw new UnsupportedOperationException("The satellite of a column row is fixed");
+		}
+
+		@Override
+		public char getSatType() {
+			return c.getSatType(row);
+		}
+
+		@Override
+		public void setSatType(char satType) {
+			throw new UnsupportedOperationException("The satellite of a column row is fixed");
+		}
+
+		@Override
+		public int getFreqNum(int i) {
+			return c.getFreqNum(row);
+		}
+
+		@Override
+		public void setFreqNum(int freqNum) {
+			checkWritable();
+			c.setFreqNum(row, freqNum);
+		}
+
+		@Override
+		public boolean isInUse() {
+			return c.isInUse(row);
+		}
+
+		@Override
+		public void setInUse(boolean inUse) {
+			c.setInUse(row, inUse);
+		}
+
+		@Override
+		public double getPseudorange(int i) {
+			return c.getPseudorange(row, i);
+		}
+
+		@Override
+		public double getCodeC(int i) {
+			return c.getCodeC(row, i);
+		}
+
+		@Override
+		public void setCodeC(int i, double v) {
+			checkWritable();
+			c.setCodeC(row, i, v);
+		}
+
+		@Override
+		public double getCodeP(int i) {
+			return c.getCodeP(row, i);
+		}
+
+		@Override
+		public void setCodeP(int i, double v) {
+			checkWritable();
+			c.setCodeP(row, i, v);
+		}
+
+		@Override
+		public double getPhaseCycles(int i) {
+			return c.getPhaseCycles(row, i);
+		}
+
+		@Override
+		public void setPhaseCycles(int i, double v) {
+			checkWritable();
+			c.setPhaseCycles(row, i, v);
+		}
+
+		@Override
+		public float getSignalStrength(int i) {
+			return c.getSignalStrength(row, i);
+		}
+
+		@Override
+		public void setSignalStrength(int i, float v) {
+			checkWritable();
+			c.setSignalStrength(row, i, v);
+		}
+
+		@Override
+		public float getDoppler(int i) {
+			return c.getDoppler(row, i);
+		}
+
+		@Override
+		public void setDoppler(int i, float v) {
+			checkWritable();
+			c.setDoppler(row, i, v);
+		}
+
+		@Override
+		public int getQualityInd(int i) {
+			return c.getQualityInd(row, i);
+		}
+
+		@Override
+		public void setQualityInd(int i, int v) {
+			checkWritable();
+			c.setQualityInd(row, i, v);
+		}
+
+		@Override
+		public int getLossLockInd(int i) {
+			return c.getLossLockInd(row, i);
+		}
+
+		@Override
+		public void setLossLockInd(int i, int v) {
+			checkWritable();
+			c.setLossLockInd(row, i, v);
+		}
+
+		@Override
+		public int getSignalStrengthInd(int i) {
+			return c.getSignalStrengthInd(row, i);
+		}
+
+		@Override
+		public void setSignalStrengthInd(int i, int v) {
+			checkWritable();
+			c.setSignalStrengthInd(row, i, v);
+		}
+
+		@Override
+		public void read(DataInputStream dai, boolean oldVersion) {
+			throw new UnsupportedOperationException("Column rows are not read from streams");
+		}
+	}
+}
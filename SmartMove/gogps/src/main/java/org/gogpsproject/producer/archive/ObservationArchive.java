@@ -0,0 +1,631 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.ObservationRow;
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsColumns;
+
+/**
+ * <p>
+ * Layout and block codec of an observation archive.
+ * </p>
+ * <p>
+ * An archive is a header followed by deflated blocks, each holding either
+ * a run of epochs stored by columns or a run of records (ephemerides,
+ * ionospheric parameters, positions) in their {@link org.gogpsproject.producer.Streamable}
+ * form. Each block carries its time span and the CRC32 of its payload, so
+ * an archive cut by a crash is read up to its last complete block. The
+ * footer, written on close, indexes the blocks by time.
+ * </p>
+ * <pre>
+ * header  magic "GOGPSOBS", int version, int encoding, long creation time
+ * block   int BLOCK_MAGIC, byte type, int stored length, int raw length,
+ *         long first time, long last time, int count, int CRC32 of the
+ *         stored payload, deflated payload
+ * footer  int FOOTER_MAGIC, int block count, per block long offset, byte
+ *         type, int stored length, long first time, long last time, int
+ *         count, then int CRC32 of the entries
+ * trailer long footer offset, magic "GOGPSEND"
+ * </pre>
+ * <p>
+ * The payload of an observation block is its columns, each prefixed by its
+ * length as a varint: epoch time deltas, time fractions, event flags,
+ * satellite counts, then per satellite its system, PRN and GLONASS
+ * frequency number, and per satellite and band a presence mask, the three
+ * indicators and the present values. Values are differences from the same
+ * satellite, band and observable in the previous epoch of the block, so a
+ * block is decoded on its own: the XOR of the IEEE bits, or with the compact
+ * encoding code and phase as varint differences of thousandths (the RINEX
+ * resolution).
+ * </p>
+ */
+final class ObservationArchive {
+
+	final static byte[] MAGIC = { 'G', 'O', 'G', 'P', 'S', 'O', 'B', 'S' };
+	final static byte[] END_MAGIC = { 'G', 'O', 'G', 'P', 'S', 'E', 'N', 'D' };
+	final static int VERSION = 1;
+	final static int HEADER_SIZE = 8 + 4 + 4 + 8;
+
+	final static int BLOCK_MAGIC = 0x424c4f43; // BLOC
+	final static int FOOTER_MAGIC = 0x464f4f54; // FOOT
+	final static int BLOCK_HEADER_SIZE = 4 + 1 + 4 + 4 + 8 + 8 + 4 + 4;
+	final static int ENTRY_SIZE = 8 + 1 + 4 + 8 + 8 + 4;
+	final static int TRAILER_SIZE = 8 + 8;
+
+	final static byte BLOCK_OBSERVATIONS = 1;
+	final static byte BLOCK_RECORDS = 2;
+
+	final static int ENCODING_DOUBLE = 0;
+	final static int ENCODING_COMPACT = 1;
+
+	private final static int COLUMNS = 14;
+	private final static int EPOCH_TIME = 0;
+	private final static int EPOCH_FRACTION = 1;
+	private final static int EPOCH_FLAG = 2;
+	private final static int EPOCH_SATS = 3;
+	private final static int SAT_TYPE = 4;
+	private final static int SAT_ID = 5;
+	private final static int SAT_FREQ = 6;
+	private final static int PRESENCE = 7;
+	private final static int INDICATORS = 8;
+	private final static int CODE_C = 9;
+	private final static int CODE_P = 10;
+	private final static int PHASE = 11;
+	private final static int STRENGTH = 12;
+	private final static int DOPPLER = 13;
+
+	private final static int HAS_C = 1;
+	private final static int HAS_P = 2;
+	private final static int HAS_L = 4;
+	private final static int HAS_S = 8;
+	private final static int HAS_D = 16;
+
+	private final static int BANDS = 2;
+	private final static int VALUES = 5;
+
+	private ObservationArchive() {
+	}
+
+	/**
+	 * Index entry of a block
+	 */
+	static class Block {
+		final long offset;
+		final byte type;
+		final int storedLength;
+		final long firstTime;
+		final long lastTime;
+		final int count;
+
+		Block(long offset, byte type, int storedLength, long firstTime, long lastTime, int count) {
+			this.offset = offset;
+			this.type = type;
+			this.storedLength = storedLength;
+			this.firstTime = firstTime;
+			this.lastTime = lastTime;
+			this.count = count;
+		}
+
+		long end() {
+			return offset + BLOCK_HEADER_SIZE + storedLength;
+		}
+	}
+
+	/**
+	 * Index of an archive and the length of its valid part
+	 */
+	static class Index {
+		final int encoding;
+		final List<Block> blocks;
+		/** end of the last complete block, where the footer is or is to be written */
+		final long dataEnd;
+		final boolean hasFooter;
+
+		Index(int encoding, List<Block> blocks, long dataEnd, boolean hasFooter) {
+			this.encoding = encoding;
+			this.blocks = blocks;
+			this.dataEnd = dataEnd;
+			this.hasFooter = hasFooter;
+		}
+	}
+
+	static ByteBuffer header(int encoding) {
+		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+		b.put(MAGIC).putInt(VERSION).putInt(encoding).putLong(System.currentTimeMillis());
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Reads the index of an archive, from its footer if it was closed,
+	 * otherwise by scanning the blocks up to the first incomplete one.
+	 */
+	static Index readIndex(FileChannel ch) throws IOException {
+		long size = ch.size();
+		ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(ch, h, 0);
+		h.flip();
+		byte[] magic = new byte[MAGIC.length];
+		h.get(magic);
+		if (!Arrays.equals(magic, MAGIC))
+			throw new IOException("Not an observation archive");
+		int version = h.getInt();
+		if (version != VERSION)
+			throw new IOException("Unknown archive version:" + version);
+		int encoding = h.getInt();
+
+		List<Block> blocks = readFooter(ch, size);
+		if (blocks != null) {
+			long end = blocks.isEmpty() ? HEADER_SIZE : blocks.get(blocks.size() - 1).end();
+			return new Index(encoding, blocks, end, true);
+		}
+
+		// not closed: scan the complete blocks
+		blocks = new ArrayList<Block>();
+		long pos = HEADER_SIZE;
+		ByteBuffer bh = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		while (pos + BLOCK_HEADER_SIZE <= size) {
+			bh.clear();
+			readFully(ch, bh, pos);
+			bh.flip();
+			if (bh.getInt() != BLOCK_MAGIC)
+				break;
+			byte type = bh.get();
+			int stored = bh.getInt();
+			bh.getInt();
+			long first = bh.getLong();
+			long last = bh.getLong();
+			int count = bh.getInt();
+			int sum = bh.getInt();
+			if (stored < 0 || pos + BLOCK_HEADER_SIZE + stored > size)
+				break;
+			ByteBuffer payload = ByteBuffer.allocate(stored);
+			readFully(ch, payload, pos + BLOCK_HEADER_SIZE);
+			crc.reset();
+			crc.update(payload.array(), 0, stored);
+			if ((int) crc.getValue() != sum)
+				break;
+			blocks.add(new Block(pos, type, stored, first, last, count));
+			pos += BLOCK_HEADER_SIZE + stored;
+		}
+		return new Index(encoding, blocks, pos, false);
+	}
+
+	private static List<Block> readFooter(FileChannel ch, long size) throws IOException {
+		if (size < HEADER_SIZE + TRAILER_SIZE + 12)
+			return null;
+		ByteBuffer t = ByteBuffer.allocate(TRAILER_SIZE);
+		readFully(ch, t, size - TRAILER_SIZE);
+		t.flip();
+		long footer = t.getLong();
+		byte[] magic = new byte[END_MAGIC.length];
+		t.get(magic);
+		if (!Arrays.equals(magic, END_MAGIC) || footer < HEADER_SIZE || footer > size - TRAILER_SIZE - 12)
+			return null;
+
+		ByteBuffer f = ByteBuffer.allocate((int) (size - TRAILER_SIZE - footer));
+		readFully(ch, f, footer);
+		f.flip();
+		if (f.getInt() != FOOTER_MAGIC)
+			return null;
+		int n = f.getInt();
+		if (n < 0 || f.remaining() != (long) n * ENTRY_SIZE + 4)
+			return null;
+		CRC32 crc = new CRC32();
+		crc.update(f.array(), 8, n * ENTRY_SIZE);
+		List<Block> blocks = new ArrayList<Block>(n);
+		for (int i = 0; i < n; i++)
+			blocks.add(new Block(f.getLong(), f.get(), f.getInt(), f.getLong(), f.getLong(), f.getInt()));
+		if (f.getInt() != (int) crc.getValue())
+			return null;
+		return blocks;
+	}
+
+	static ByteBuffer footer(List<Block> blocks, long offset) {
+		ByteBuffer f = ByteBuffer.allocate(8 + blocks.size() * ENTRY_SIZE + 4 + TRAILER_SIZE);
+		f.putInt(FOOTER_MAGIC).putInt(blocks.size());
+		for (Block b : blocks)
+			f.putLong(b.offset).put(b.type).putInt(b.storedLength).putLong(b.firstTime).putLong(b.lastTime).putInt(b.count);
+		CRC32 crc = new CRC32();
+		crc.update(f.array(), 8, blocks.size() * ENTRY_SIZE);
+		f.putInt((int) crc.getValue());
+		f.putLong(offset).put(END_MAGIC);
+		f.flip();
+		return f;
+	}
+
+	static void readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+		while (b.hasRemaining()) {
+			int n = ch.read(b, pos);
+			if (n < 0)
+				throw new IOException("Unexpected end of archive");
+			pos += n;
+		}
+	}
+
+	/**
+	 * Deflates a block payload and frames it with its header.
+	 */
+	static ByteBuffer frame(Deflater deflater, byte type, byte[] raw, int rawLength, long first, long last, int count) {
+		deflater.reset();
+		deflater.setInput(raw, 0, rawLength);
+		deflater.finish();
+		byte[] out = new byte[BLOCK_HEADER_SIZE + rawLength / 2 + 64];
+		int n = BLOCK_HEADER_SIZE;
+		while (!deflater.finished()) {
+			if (n == out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			n += deflater.deflate(out, n, out.length - n);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(out, BLOCK_HEADER_SIZE, n - BLOCK_HEADER_SIZE);
+		ByteBuffer b = ByteBuffer.wrap(out, 0, n);
+		b.putInt(BLOCK_MAGIC).put(type).putInt(n - BLOCK_HEADER_SIZE).putInt(rawLength)
+				.putLong(first).putLong(last).putInt(count).putInt((int) crc.getValue());
+		b.position(0);
+		return b;
+	}
+
+	/**
+	 * Checks and inflates the payload of a block.
+	 *
+	 * @param archive the archive, positions are absolute
+	 */
+	static byte[] payload(ByteBuffer archive, Block block, Inflater inflater) throws IOException {
+		ByteBuffer h = archive.duplicate();
+		h.position((int) block.offset);
+		if (h.getInt() != BLOCK_MAGIC || h.get() != block.type || h.getInt() != block.storedLength)
+			throw new IOException("Corrupted block at " + block.offset);
+		int raw = h.getInt();
+		h.position(h.position() + 8 + 8 + 4);
+		int sum = h.getInt();
+		byte[] stored = new byte[block.storedLength];
+		h.get(stored);
+		CRC32 crc = new CRC32();
+		crc.update(stored, 0, stored.length);
+		if ((int) crc.getValue() != sum)
+			throw new IOException("CRC error in block at " + block.offset);
+
+		inflater.reset();
+		inflater.setInput(stored);
+		byte[] out = new byte[raw];
+		try {
+			int n = 0;
+			while (n < raw && !inflater.finished()) {
+				int k = inflater.inflate(out, n, raw - n);
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += k;
+			}
+			if (n != raw)
+				throw new IOException("Truncated block at " + block.offset);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted block at " + block.offset + ": " + e.getMessage());
+		}
+		return out;
+	}
+
+	/**
+	 * Growable byte column
+	 */
+	static class Column {
+		byte[] data = new byte[1024];
+		int length = 0;
+
+		void clear() {
+			length = 0;
+		}
+
+		private void ensure(int n) {
+			if (length + n > data.length)
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+		}
+
+		void putByte(int v) {
+			ensure(1);
+			data[length++] = (byte) v;
+		}
+
+		void putInt(int v) {
+			ensure(4);
+			data[length++] = (byte) (v >>> 24);
+			data[length++] = (byte) (v >>> 16);
+			data[length++] = (byte) (v >>> 8);
+			data[length++] = (byte) v;
+		}
+
+		void putLong(long v) {
+			putInt((int) (v >>> 32));
+			putInt((int) v);
+		}
+
+		void putVarLong(long v) {
+			ensure(10);
+			while ((v & ~0x7fL) != 0) {
+				data[length++] = (byte) ((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			data[length++] = (byte) v;
+		}
+
+		/** zig-zag varint */
+		void putSigned(long v) {
+			putVarLong((v << 1) ^ (v >> 63));
+		}
+
+		void put(Column c) {
+			ensure(c.length);
+			System.arraycopy(c.data, 0, data, length, c.length);
+			length += c.length;
+		}
+	}
+
+	static long getVarLong(ByteBuffer b) {
+		long v = 0;
+		int shift = 0;
+		while (true) {
+			byte x = b.get();
+			v |= (long) (x & 0x7f) << shift;
+			if (x >= 0)
+				return v;
+			shift += 7;
+		}
+	}
+
+	static long getSigned(ByteBuffer b) {
+		long v = getVarLong(b);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Encodes epochs into the columns of an observation block
+	 */
+	static class Encoder {
+		private final int encoding;
+		private final Column[] columns = new Column[COLUMNS];
+		private final Column raw = new Column();
+		/* previous values of each satellite: [band * VALUES + value] */
+		private final HashMap<Integer, long[]> previous = new HashMap<Integer, long[]>();
+		private long lastTime = 0;
+		private long firstTime;
+		private int count = 0;
+
+		Encoder(int encoding) {
+			this.encoding = encoding;
+			for (int i = 0; i < COLUMNS; i++)
+				columns[i] = new Column();
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		long getFirstTime() {
+			return firstTime;
+		}
+
+		long getLastTime() {
+			return lastTime;
+		}
+
+		void add(Observations o) {
+			int n = 0;
+			for (int i = 0; i < o.getNumSat(); i++)
+				if (o.getSatByIdx(i) != null)
+					n++;
+			addEpoch(o.getRefTime(), o.getEventFlag(), n);
+			for (int i = 0; i < o.getNumSat(); i++) {
+				ObservationSet os = o.getSatByIdx(i);
+				if (os != null)
+					add(os);
+			}
+			count++;
+		}
+
+		void add(ObservationsColumns c) {
+			addEpoch(c.getRefTime(), c.getEventFlag(), c.getNumSat());
+			for (int row = 0; row < c.getNumSat(); row++)
+				add(c.row(row));
+			count++;
+		}
+
+		private void addEpoch(Time refTime, int eventFlag, int sats) {
+			long time = refTime == null ? -1 : refTime.getMsec();
+			if (count == 0)
+				firstTime = time;
+			columns[EPOCH_TIME].putSigned(time - lastTime);
+			lastTime = time;
+			columns[EPOCH_FRACTION].putLong(Double.doubleToLongBits(refTime == null ? 0 : refTime.getFraction()));
+			columns[EPOCH_FLAG].putByte(eventFlag);
+			columns[EPOCH_SATS].putVarLong(sats);
+		}
+
+		private void add(ObservationRow os) {
+			columns[SAT_TYPE].putByte(os.getSatType());
+			columns[SAT_ID].putVarLong(os.getSatID());
+			columns[SAT_FREQ].putSigned(os.getFreqNum(0));
+
+			Integer key = Integer.valueOf(os.getSatType() << 16 | (os.getSatID() & 0xffff));
+			long[] prev = previous.get(key);
+			if (prev == null) {
+				prev = new long[BANDS * VALUES];
+				previous.put(key, prev);
+			}
+			for (int b = 0; b < BANDS; b++) {
+				int p = b * VALUES;
+				double c = os.getCodeC(b), pc = os.getCodeP(b), l = os.getPhaseCycles(b);
+				float s = os.getSignalStrength(b), d = os.getDoppler(b);
+				int mask = (present(c) ? HAS_C : 0) | (present(pc) ? HAS_P : 0) | (present(l) ? HAS_L : 0)
+						| (Float.isNaN(s) ? 0 : HAS_S) | (Float.isNaN(d) ? 0 : HAS_D);
+				columns[PRESENCE].putByte(mask);
+				columns[INDICATORS].putSigned(os.getQualityInd(b));
+				columns[INDICATORS].putSigned(os.getLossLockInd(b));
+				columns[INDICATORS].putSigned(os.getSignalStrengthInd(b));
+				if ((mask & HAS_C) != 0) putDouble(CODE_C, c, prev, p);
+				if ((mask & HAS_P) != 0) putDouble(CODE_P, pc, prev, p + 1);
+				if ((mask & HAS_L) != 0) putDouble(PHASE, l, prev, p + 2);
+				if ((mask & HAS_S) != 0) putFloat(STRENGTH, s, prev, p + 3);
+				if ((mask & HAS_D) != 0) putFloat(DOPPLER, d, prev, p + 4);
+			}
+		}
+
+		private boolean present(double v) {
+			return encoding == ENCODING_COMPACT ? !Double.isNaN(v) && !Double.isInfinite(v) : !Double.isNaN(v);
+		}
+
+		private void putDouble(int column, double v, long[] prev, int p) {
+			if (encoding == ENCODING_COMPACT) {
+				long q = Math.round(v * 1000);
+				columns[column].putSigned(q - prev[p]);
+				prev[p] = q;
+			} else {
+				long bits = Double.doubleToLongBits(v);
+				columns[column].putLong(bits ^ prev[p]);
+				prev[p] = bits;
+			}
+		}
+
+		private void putFloat(int column, float v, long[] prev, int p) {
+			int bits = Float.floatToIntBits(v);
+			columns[column].putInt(bits ^ (int) prev[p]);
+			prev[p] = bits;
+		}
+
+		/**
+		 * @return the block payload, valid up to {@link #rawLength()}
+		 */
+		byte[] raw() {
+			raw.clear();
+			for (Column c : columns) {
+				raw.putVarLong(c.length);
+				raw.put(c);
+			}
+			return raw.data;
+		}
+
+		int rawLength() {
+			return raw.length;
+		}
+
+		void clear() {
+			for (Column c : columns)
+				c.clear();
+			previous.clear();
+			lastTime = 0;
+			count = 0;
+		}
+	}
+
+	/**
+	 * Decodes the epochs of an observation block
+	 */
+	static List<Observations> decode(byte[] payload, int count, int encoding) throws IOException {
+		ByteBuffer all = ByteBuffer.wrap(payload);
+		ByteBuffer[] col = new ByteBuffer[COLUMNS];
+		for (int i = 0; i < COLUMNS; i++) {
+			int n = (int) getVarLong(all);
+			if (n < 0 || n > all.remaining())
+				throw new IOException("Corrupted observation block");
+			ByteBuffer c = all.slice();
+			c.limit(n);
+			col[i] = c;
+			all.position(all.position() + n);
+		}
+
+		HashMap<Integer, long[]> previous = new HashMap<Integer, long[]>();
+		List<Observations> epochs = new ArrayList<Observations>(count);
+		long time = 0;
+		try {
+			for (int e = 0; e < count; e++) {
+				time += getSigned(col[EPOCH_TIME]);
+				double fraction = Double.longBitsToDouble(col[EPOCH_FRACTION].getLong());
+				int flag = col[EPOCH_FLAG].get() & 0xff;
+				Observations o = new Observations(time < 0 ? null : new Time(time, fraction), flag);
+				int n = (int) getVarLong(col[EPOCH_SATS]);
+				for (int i = 0; i < n; i++) {
+					ObservationSet os = new ObservationSet();
+					char type = (char) (col[SAT_TYPE].get() & 0xff);
+					int id = (int) getVarLong(col[SAT_ID]);
+					os.setSatType(type);
+					os.setSatID(id);
+					os.setFreqNum((int) getSigned(col[SAT_FREQ]));
+
+					Integer key = Integer.valueOf(type << 16 | (id & 0xffff));
+					long[] prev = previous.get(key);
+					if (prev == null) {
+						prev = new long[BANDS * VALUES];
+						previous.put(key, prev);
+					}
+					for (int b = 0; b < BANDS; b++) {
+						int p = b * VALUES;
+						int mask = col[PRESENCE].get();
+						os.setQualityInd(b, (int) getSigned(col[INDICATORS]));
+						os.setLossLockInd(b, (int) getSigned(col[INDICATORS]));
+						os.setSignalStrengthInd(b, (int) getSigned(col[INDICATORS]));
+						os.setCodeC(b, (mask & HAS_C) != 0 ? getDouble(col[CODE_C], encoding, prev, p) : Double.NaN);
+						os.setCodeP(b, (mask & HAS_P) != 0 ? getDouble(col[CODE_P], encoding, prev, p + 1) : Double.NaN);
+						os.setPhaseCycles(b, (mask & HAS_L) != 0 ? getDouble(col[PHASE], encoding, prev, p + 2) : Double.NaN);
+						os.setSignalStrength(b, (mask & HAS_S) != 0 ? getFloat(col[STRENGTH], prev, p + 3) : Float.NaN);
+						os.setDoppler(b, (mask & HAS_D) != 0 ? getFloat(col[DOPPLER], prev, p + 4) : Float.NaN);
+					}
+					o.setGps(i, os);
+				}
+				epochs.add(o);
+			}
+		} catch (RuntimeException ex) {
+			// BufferUnderflowException on a column shorter than announced
+			throw new IOException("Corrupted observation block: " + ex);
+		}
+		return epochs;
+	}
+
+	private static double getDouble(ByteBuffer c, int encoding, long[] prev, int p) {
+		if (encoding == ENCODING_COMPACT) {
+			long q = prev[p] + getSigned(c);
+			prev[p] = q;
+			return q / 1000.0;
+		}
+		long bits = c.getLong() ^ prev[p];
+		prev[p] = bits;
+		return Double.longBitsToDouble(bits);
+	}
+
+	private static float getFloat(ByteBuffer c, long[] prev, int p) {
+		int bits = c.getInt() ^ (int) prev[p];
+		prev[p] = bits;
+		return Float.intBitsToFloat(bits);
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Inflater;
+
+import org.gogpsproject.ephemeris.EphGps;
+import org.gogpsproject.ephemeris.EphemerisSystem;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.positioning.SatellitePosition;
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.NavigationProducer;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsProducer;
+import org.gogpsproject.producer.Streamable;
+import org.gogpsproject.producer.parser.IonoGps;
+
+/**
+ * <p>
+ * Reads an observation archive written by {@link ObservationArchiveWriter}
+ * and implements Observation and Navigation producer.
+ * </p>
+ * <p>
+ * The file is memory mapped on {@link #init()}; its index comes from the
+ * footer, or for an archive that was not closed from a scan of its complete
+ * blocks. Ephemerides, ionospheric parameters and positions are loaded
+ * upfront, observation blocks are decoded when reached, so
+ * {@link #seek(Time)} and {@link #getObservations(Time, Time)} only decode
+ * the blocks covering the requested time.
+ * </p>
+ */
+public class ObservationArchiveReader extends EphemerisSystem implements ObservationsProducer, NavigationProducer {
+
+	private boolean debug = false;
+
+	private final File file;
+	private RandomAccessFile raf;
+	private MappedByteBuffer archive;
+	private ObservationArchive.Index index;
+	private final List<ObservationArchive.Block> obsBlocks = new ArrayList<ObservationArchive.Block>();
+	private final Inflater inflater = new Inflater();
+
+	/* decoded epochs of the current block */
+	private int block = -1;
+	private List<Observations> epochs = null;
+	private int cursor = -1;
+	private Observations obs = null;
+
+	/* time ordered ephemerides of each satellite */
+	private final HashMap<Integer,ArrayList<EphGps>> timeOrderedEphs = new HashMap<Integer,ArrayList<EphGps>>();
+	private final ArrayList<IonoGps> timeOrderedIono = new ArrayList<IonoGps>();
+	private final ArrayList<Long> positionTimes = new ArrayList<Long>();
+	private final ArrayList<Coordinates> positions = new ArrayList<Coordinates>();
+
+	public ObservationArchiveReader(File file) {
+		this.file = file;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.ObservationsProducer#init()
+	 */
+	@Override
+	public void init() throws Exception {
+		if (file.length() > Integer.MAX_VALUE)
+			throw new IOException("Observation archive larger than 2 GB: " + file);
+		this.raf = new RandomAccessFile(file, "r");
+		FileChannel ch = raf.getChannel();
+		this.index = ObservationArchive.readIndex(ch);
+		this.archive = ch.map(FileChannel.MapMode.READ_ONLY, 0, index.dataEnd);
+		if (debug) System.out.println(file + ": " + index.blocks.size() + " blocks" + (index.hasFooter ? "" : ", recovered without index"));
+
+		for (ObservationArchive.Block b : index.blocks) {
+			if (b.type == ObservationArchive.BLOCK_OBSERVATIONS)
+				obsBlocks.add(b);
+			else if (b.type == ObservationArchive.BLOCK_RECORDS)
+				readRecords(b);
+		}
+		block = -1;
+		epochs = null;
+		cursor = -1;
+	}
+
+	private void readRecords(ObservationArchive.Block b) throws IOException {
+		byte[] payload = ObservationArchive.payload(archive, b, inflater);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+		for (int i = 0; i < b.count; i++) {
+			long time = dis.readLong();
+			String msg = dis.readUTF();
+			if (msg.equals(Streamable.MESSAGE_EPHEMERIS)) {
+				addEphemeris(new EphGps(dis, false));
+			} else if (msg.equals(Streamable.MESSAGE_IONO)) {
+				addIonospheric(new IonoGps(dis, false));
+			} else if (msg.equals(Streamable.MESSAGE_COORDINATES)) {
+				int c = positionTimes.size();
+				while (c > 0 && positionTimes.get(c - 1) > time) c--;
+				positionTimes.add(c, time);
+				positions.add(c, Coordinates.readFromStream(dis, false));
+			} else {
+				throw new IOException("Unknown record [" + msg + "] in block at " + b.offset);
+			}
+		}
+	}
+
+	private void addEphemeris(EphGps eph) {
+		Integer id = Integer.valueOf(eph.getSatID());
+		ArrayList<EphGps> ephs = timeOrderedEphs.get(id);
+		if (ephs == null) {
+			ephs = new ArrayList<EphGps>();
+			timeOrderedEphs.put(id, ephs);
+		}
+		long time = eph.getRefTime().getMsec();
+		int c = ephs.size();
+		while (c > 0 && ephs.get(c - 1).getRefTime().getMsec() > time) c--;
+		ephs.add(c, eph);
+	}
+
+	private void addIonospheric(IonoGps iono) {
+		long time = iono.getRefTime().getMsec();
+		int c = timeOrderedIono.size();
+		while (c > 0 && timeOrderedIono.get(c - 1).getRefTime().getMsec() > time) c--;
+		timeOrderedIono.add(c, iono);
+	}
+
+	/**
+	 * @return false if the archive was not closed and its index was rebuilt
+	 */
+	public boolean isComplete() {
+		return index.hasFooter;
+	}
+
+	/**
+	 * @return the number of epochs in the archive
+	 */
+	public int getEpochCount() {
+		int n = 0;
+		for (ObservationArchive.Block b : obsBlocks)
+			n += b.count;
+		return n;
+	}
+
+	private List<Observations> decode(int i) {
+		ObservationArchive.Block b = obsBlocks.get(i);
+		try {
+			return ObservationArchive.decode(ObservationArchive.payload(archive, b, inflater), b.count, index.encoding);
+		} catch (IOException e) {
+			// skip a damaged block, the others are independent
+			e.printStackTrace();
+			return new ArrayList<Observations>();
+		}
+	}
+
+	/**
+	 * @return the index of the first observation block ending at or after time
+	 */
+	private int firstBlockEndingAfter(long time) {
+		int lo = 0, hi = obsBlocks.size() - 1, found = obsBlocks.size();
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (obsBlocks.get(mid).lastTime >= time) {
+				found = mid;
+				hi = mid - 1;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return found;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.ObservationsProducer#getCurrentObservations()
+	 */
+	@Override
+	public Observations getCurrentObservations() {
+		return obs;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.ObservationsProducer#nextObservations()
+	 */
+	@Override
+	public Observations getNextObservations() {
+		while (epochs == null || cursor + 1 >= epochs.size()) {
+			if (block + 1 >= obsBlocks.size())
+				return null;
+			epochs = decode(++block);
+			cursor = -1;
+		}
+		obs = epochs.get(++cursor);
+		return obs;
+	}
+
+	/**
+	 * Moves to the first epoch at or after the given time, returned by the
+	 * next {@link #getNextObservations()}.
+	 *
+	 * @return false if the archive ends before
+	 */
+	public boolean seek(Time time) {
+		long t = time.getMsec();
+		int i = firstBlockEndingAfter(t);
+		if (i >= obsBlocks.size()) {
+			block = obsBlocks.size() - 1;
+			epochs = null;
+			return false;
+		}
+		block = i;
+		epochs = decode(i);
+		cursor = -1;
+		while (cursor + 1 < epochs.size() && before(epochs.get(cursor + 1), t))
+			cursor++;
+		return true;
+	}
+
+	/**
+	 * @return true if the epoch is before t, epochs without time are passed over
+	 */
+	private static boolean before(Observations o, long t) {
+		return o.getRefTime() == null || o.getRefTime().getMsec() < t;
+	}
+
+	/**
+	 * Decodes the epochs between two times, included, without moving the
+	 * current epoch. Epochs archived without time are not returned.
+	 */
+	public List<Observations> getObservations(Time from, Time to) {
+		long t0 = from.getMsec();
+		long t1 = to.getMsec();
+		List<Observations> range = new ArrayList<Observations>();
+		for (int i = firstBlockEndingAfter(t0); i < obsBlocks.size() && obsBlocks.get(i).firstTime <= t1; i++) {
+			for (Observations o : decode(i)) {
+				if (o.getRefTime() == null)
+					continue;
+				long t = o.getRefTime().getMsec();
+				if (t >= t0 && t <= t1)
+					range.add(o);
+			}
+		}
+		return range;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.ObservationsProducer#release()
+	 */
+	@Override
+	public void release(boolean waitForThread, long timeoutMs) throws InterruptedException {
+		inflater.end();
+		try {
+			if (raf != null)
+				raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.ObservationsProducer#getApproxPosition()
+	 */
+	@Override
+	public Coordinates getDefinedPosition() {
+		if (positions.isEmpty())
+			return null;
+		// latest position at the current epoch, the first one before it
+		int c = 0;
+		if (obs != null && obs.getRefTime() != null) {
+			long t = obs.getRefTime().getMsec();
+			while (c + 1 < positions.size() && positionTimes.get(c + 1) <= t) c++;
+		}
+		return positions.get(c);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.NavigationProducer#getGpsSatPosition(long, int, double)
+	 */
+	@Override
+	public SatellitePosition getGpsSatPosition(Observations obs, int satID, char satType, double receiverClockError) {
+		ArrayList<EphGps> ephs = timeOrderedEphs.get(Integer.valueOf(satID));
+		if (ephs == null)
+			return null;
+		// closest set before the epoch
+		long unixTime = obs.getRefTime().getMsec();
+		int lo = 0, hi = ephs.size() - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ephs.get(mid).getRefTime().getMsec() < unixTime) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (found < 0)
+			return null;
+		return computePositionGps(obs, satID, satType, ephs.get(found), receiverClockError);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.gogpsproject.NavigationProducer#getIono(long)
+	 */
+	@Override
+	public IonoGps getIono(long unixTime) {
+		if (timeOrderedIono.isEmpty() || unixTime < timeOrderedIono.get(0).getRefTime().getMsec())
+			return null;
+		int c = 0;
+		while (c + 1 < timeOrderedIono.size() && timeOrderedIono.get(c + 1).getRefTime().getMsec() < unixTime) c++;
+		return timeOrderedIono.get(c);
+	}
+
+	/**
+	 * @param debug the debug to set
+	 */
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+
+	/**
+	 * @return the debug
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+}
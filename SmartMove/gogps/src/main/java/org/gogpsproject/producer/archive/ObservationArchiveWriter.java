@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.gogpsproject.ephemeris.EphGps;
+import org.gogpsproject.ephemeris.GNSSEphemeris;
+import org.gogpsproject.ephemeris.GNSSEphemerisCorrections;
+import org.gogpsproject.ephemeris.SatelliteCodeBiases;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.ObservationsColumns;
+import org.gogpsproject.producer.StreamEventListener;
+import org.gogpsproject.producer.Streamable;
+import org.gogpsproject.producer.parser.IonoGps;
+
+/**
+ * <p>
+ * Writes observations, ephemerides, ionospheric parameters and positions
+ * to an indexed observation archive, read back by
+ * {@link ObservationArchiveReader}.
+ * </p>
+ * <p>
+ * Epochs are gathered in blocks of {@link #getBlockEpochs()} epochs, stored
+ * by columns and deflated. Nothing is written until a block is complete, or
+ * on {@link #flush()}; the index is written on {@link #close()}. If the
+ * process dies, the archive is still readable up to its last complete
+ * block. Opening an existing archive appends to it.
+ * </p>
+ */
+public class ObservationArchiveWriter implements StreamEventListener {
+
+	/** code and phase stored exactly, as IEEE doubles */
+	public final static int ENCODING_DOUBLE = ObservationArchive.ENCODING_DOUBLE;
+	/** code and phase rounded to the thousandth, the RINEX resolution */
+	public final static int ENCODING_COMPACT = ObservationArchive.ENCODING_COMPACT;
+
+	public final static int DEFAULT_BLOCK_EPOCHS = 300;
+
+	private boolean debug = false;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int encoding;
+	private final List<ObservationArchive.Block> blocks;
+	private long position;
+	private int blockEpochs = DEFAULT_BLOCK_EPOCHS;
+
+	private final ObservationArchive.Encoder encoder;
+	private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+	private final DataOutputStream recordsOut = new DataOutputStream(records);
+	private int recordCount = 0;
+	private long recordFirst;
+	private long recordLast;
+	private long lastTime = -1;
+
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	private boolean closed = false;
+
+	/**
+	 * Creates the archive with exact encoding, or appends to it if it exists.
+	 */
+	public ObservationArchiveWriter(String fileName) throws IOException {
+		this(fileName, ENCODING_DOUBLE);
+	}
+
+	/**
+	 * Creates the archive, or appends to it if it exists.
+	 *
+	 * @param encoding ENCODING_DOUBLE or ENCODING_COMPACT, an existing archive keeps its own
+	 */
+	public ObservationArchiveWriter(String fileName, int encoding) throws IOException {
+		if (encoding != ENCODING_DOUBLE && encoding != ENCODING_COMPACT)
+			throw new IllegalArgumentException("Unknown encoding:" + encoding);
+		this.file = new File(fileName);
+		boolean exists = file.length() > 0;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		try {
+			if (exists) {
+				// drop the footer or what a crash left after the last complete block
+				ObservationArchive.Index index = ObservationArchive.readIndex(channel);
+				this.encoding = index.encoding;
+				this.blocks = new ArrayList<ObservationArchive.Block>(index.blocks);
+				this.position = index.dataEnd;
+				channel.truncate(position);
+				for (ObservationArchive.Block b : blocks)
+					lastTime = Math.max(lastTime, b.lastTime);
+			} else {
+				this.encoding = encoding;
+				this.blocks = new ArrayList<ObservationArchive.Block>();
+				ByteBuffer header = ObservationArchive.header(encoding);
+				channel.write(header, 0);
+				this.position = ObservationArchive.HEADER_SIZE;
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		this.encoder = new ObservationArchive.Encoder(this.encoding);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * @param blockEpochs number of epochs per block, larger blocks compress better, smaller ones lose less on a crash
+	 */
+	public void setBlockEpochs(int blockEpochs) {
+		if (blockEpochs < 1)
+			throw new IllegalArgumentException("blockEpochs:" + blockEpochs);
+		this.blockEpochs = blockEpochs;
+	}
+
+	public int getBlockEpochs() {
+		return blockEpochs;
+	}
+
+	/**
+	 * @return the number of blocks written
+	 */
+	public synchronized int getBlockCount() {
+		return blocks.size();
+	}
+
+	public synchronized void write(Observations o) throws IOException {
+		checkOpen();
+		encoder.add(o);
+		if (o.getRefTime() != null)
+			lastTime = o.getRefTime().getMsec();
+		if (encoder.getCount() >= blockEpochs)
+			flush();
+	}
+
+	/**
+	 * Writes an epoch kept in columns, without copying it into observation sets.
+	 */
+	public synchronized void write(ObservationsColumns c) throws IOException {
+		checkOpen();
+		encoder.add(c);
+		if (c.getRefTime() != null)
+			lastTime = c.getRefTime().getMsec();
+		if (encoder.getCount() >= blockEpochs)
+			flush();
+	}
+
+	public synchronized void write(EphGps eph) throws IOException {
+		writeRecord(eph.getRefTime() == null ? lastTime : eph.getRefTime().getMsec(), eph);
+	}
+
+	public synchronized void write(IonoGps iono) throws IOException {
+		writeRecord(iono.getRefTime() == null ? lastTime : iono.getRefTime().getMsec(), iono);
+	}
+
+	/**
+	 * Writes a position, it applies from the last written epoch
+	 */
+	public synchronized void write(Coordinates position) throws IOException {
+		writeRecord(lastTime, position);
+	}
+
+	private void writeRecord(long time, Streamable s) throws IOException {
+		checkOpen();
+		if (recordCount == 0) {
+			recordFirst = time;
+			recordLast = time;
+		}
+		recordFirst = Math.min(recordFirst, time);
+		recordLast = Math.max(recordLast, time);
+		recordsOut.writeLong(time);
+		s.write(recordsOut);
+		recordCount++;
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed)
+			throw new IOException("Archive closed: " + file);
+	}
+
+	/**
+	 * Writes the pending epochs and records as blocks.
+	 */
+	public synchronized void flush() throws IOException {
+		checkOpen();
+		// records first, a reader has the ephemerides before the epochs using them
+		if (recordCount > 0) {
+			recordsOut.flush();
+			writeBlock(ObservationArchive.BLOCK_RECORDS, records.toByteArray(), records.size(), recordFirst, recordLast, recordCount);
+			records.reset();
+			recordCount = 0;
+		}
+		if (encoder.getCount() > 0) {
+			byte[] raw = encoder.raw();
+			writeBlock(ObservationArchive.BLOCK_OBSERVATIONS, raw, encoder.rawLength(), encoder.getFirstTime(), encoder.getLastTime(), encoder.getCount());
+			encoder.clear();
+		}
+	}
+
+	private void writeBlock(byte type, byte[] raw, int rawLength, long first, long last, int count) throws IOException {
+		ByteBuffer b = ObservationArchive.frame(deflater, type, raw, rawLength, first, last, count);
+		int stored = b.remaining() - ObservationArchive.BLOCK_HEADER_SIZE;
+		long offset = position;
+		while (b.hasRemaining())
+			position += channel.write(b, position);
+		blocks.add(new ObservationArchive.Block(offset, type, stored, first, last, count));
+		if (debug) System.out.println("Block " + type + " " + count + " items, " + rawLength + " -> " + stored + " bytes");
+	}
+
+	/**
+	 * Writes the pending blocks and the index, then closes the file.
+	 */
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		try {
+			flush();
+			ByteBuffer f = ObservationArchive.footer(blocks, position);
+			long p = position;
+			while (f.hasRemaining())
+				p += channel.write(f, p);
+			channel.truncate(p);
+		} finally {
+			closed = true;
+			deflater.end();
+			raf.close();
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void streamClosed() {
+		try {
+			close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void addObservations(Observations o) {
+		try {
+			write(o);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void addIonospheric(IonoGps iono) {
+		try {
+			write(iono);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void addEphemeris(EphGps eph) {
+		try {
+			write(eph);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void setDefinedPosition(Coordinates definedPosition) {
+		try {
+			write(definedPosition);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void addEphemeris(GNSSEphemeris eph) {
+	}
+
+	@Override
+	public void addEphemerisCorr(GNSSEphemerisCorrections ephCorr) {
+	}
+
+	@Override
+	public void addSatelliteCodeBiases(SatelliteCodeBiases _scb) {
+	}
+
+	@Override
+	public Observations getCurrentObservations() {
+		return null;
+	}
+
+	@Override
+	public void pointToNextObservations() {
+	}
+
+	@Override
+	public void onStreamReceived(String msg) {
+	}
+
+	/**
+	 * @param debug the debug to set
+	 */
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+
+	/**
+	 * @return the debug
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+}
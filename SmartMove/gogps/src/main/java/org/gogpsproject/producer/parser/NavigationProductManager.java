@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.util.UncompressInputStream;
+
+/**
+ * <p>
+ * Retrieves the navigation products (RINEX navigation, SP3) named by a URL
+ * template, shared by {@link org.gogpsproject.producer.parser.rinex.RinexNavigation}
+ * and {@link org.gogpsproject.producer.parser.sp3.SP3Navigation}.
+ * </p>
+ * <p>
+ * A product is looked up in order in the memory pool, the downloads in
+ * progress, the negative cache, the disk cache and finally on the net. The
+ * memory pool keeps the most recently used products only. Concurrent requests
+ * of a product, prefetch included, share a single retrieval. When a request gets
+ * within the prefetch lead of the next product, the next product is retrieved
+ * on a background thread, so crossing an hour or a day does not stall the
+ * caller. file:// templates read local files, for instance a mirror of the
+ * server.
+ * </p>
+ *
+ * @param <P> parsed product
+ */
+public class NavigationProductManager<P> {
+
+	/**
+	 * Parses products for the manager.
+	 */
+	public interface ProductLoader<P> {
+		/**
+		 * @param file a product of the disk cache
+		 */
+		P read(File file) throws IOException;
+
+		/**
+		 * @param is uncompressed product
+		 * @param cache file to write a copy of the product to
+		 */
+		P parse(InputStream is, File cache) throws IOException;
+
+		/**
+		 * Downloads and parses a product, writing a copy to cache.
+		 * @return the product, null if the server could not be reached
+		 * @throws FileNotFoundException if the product is not available
+		 */
+		P download(String url, File cache) throws IOException;
+	}
+
+	/** default number of products kept in memory */
+	public final static int DEFAULT_POOL_SIZE = 8;
+	/** default time a product is known missing, as the previous negative cache */
+	public final static long DEFAULT_NEGATIVE_TTL = 60*60*1000L;
+	/** default time before the next product where it is prefetched */
+	public final static long DEFAULT_PREFETCH_LEAD = 30*60*1000L;
+	/** time between two prefetch attempts of a missing product */
+	public final static long PREFETCH_RETRY = 5*60*1000L;
+
+	private final String urltemplate;
+	private final ProductLoader<P> loader;
+	private String cacheDir;
+
+	private int poolSize = DEFAULT_POOL_SIZE;
+	private long negativeTtl = DEFAULT_NEGATIVE_TTL;
+	private long prefetchLead = DEFAULT_PREFETCH_LEAD;
+	private long prefetchRetryDelay = PREFETCH_RETRY;
+
+	private final LinkedHashMap<String,P> pool = new LinkedHashMap<String,P>(16, 0.75f, true){
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,P> eldest) {
+			return size() > poolSize;
+		}
+	};
+	private final HashMap<String,Retrieval> inProgress = new HashMap<String,Retrieval>();
+	/** url to expiry time */
+	private final HashMap<String,Long> negativeCache = new HashMap<String,Long>();
+	/** url to time of the next prefetch attempt */
+	private final HashMap<String,Long> prefetchRetry = new HashMap<String,Long>();
+
+	private ExecutorService prefetcher = null;
+	/** set by release, no prefetch afterwards */
+	private boolean released = false;
+
+	private boolean debug = false;
+
+	/**
+	 * Retrieval of a product, run by the first caller that needs it, the
+	 * others wait for its result.
+	 */
+	private class Retrieval extends FutureTask<P> {
+		private final String url;
+
+		/**
+		 * @param recordMissing true to add the product to the negative cache
+		 * if it is not found. A prefetch runs ahead of the publication of the
+		 * product, it only waits for its next attempt.
+		 */
+		Retrieval(final String url, final boolean recordMissing) {
+			super(new Callable<P>() {
+				@Override
+				public P call() throws Exception {
+					P product;
+					try {
+						product = retrieve(url);
+					} catch (FileNotFoundException e) {
+						if(recordMissing){
+							synchronized(NavigationProductManager.this) {
+								negativeCache.put(url, System.currentTimeMillis() + negativeTtl);
+							}
+						}
+						throw e;
+					}
+					if(product != null){
+						synchronized(NavigationProductManager.this) {
+							pool.put(url, product);
+							prefetchRetry.remove(url);
+						}
+					}
+					return product;
+				}
+			});
+			this.url = url;
+		}
+
+		@Override
+		protected void done() {
+			synchronized(NavigationProductManager.this) {
+				if(inProgress.get(url) == this) inProgress.remove(url);
+			}
+		}
+	}
+
+	/**
+	 * @param urltemplate template of the product URLs, see {@link Time#formatTemplate(String)}
+	 * @param cacheDir folder of the disk cache
+	 * @param loader parser of the products
+	 */
+	public NavigationProductManager(String urltemplate, String cacheDir, ProductLoader<P> loader) {
+		this.urltemplate = urltemplate;
+		this.cacheDir = cacheDir;
+		this.loader = loader;
+	}
+
+	/**
+	 * @return the URL of the product covering unixTime
+	 */
+	public String resolve(long unixTime) {
+		return new Time(unixTime).formatTemplate(urltemplate);
+	}
+
+	/**
+	 * @return the file of the disk cache for a URL
+	 */
+	public File getCacheFile(String url) {
+		String filename = url.replaceAll("[ ,/:]", "_");
+		if(filename.endsWith(".Z")) filename = filename.substring(0, filename.length()-2);
+		if(filename.endsWith(".gz")) filename = filename.substring(0, filename.length()-3);
+		return new File(getCacheDir(), filename);
+	}
+
+	/**
+	 * Returns the product covering unixTime, retrieving it if needed, and
+	 * starts the prefetch of the next one when it is close.
+	 * @return the product, null if the server could not be reached
+	 * @throws FileNotFoundException if the product is not available
+	 */
+	public P get(long unixTime) throws IOException {
+		String url = resolve(unixTime);
+		P product = get(url);
+
+		String next = resolve(unixTime + prefetchLead);
+		if(!next.equals(url)) prefetch(next);
+
+		return product;
+	}
+
+	/**
+	 * @return the product of a URL, retrieved if needed
+	 */
+	public P get(String url) throws IOException {
+		Retrieval retrieval;
+		synchronized(this) {
+			P product = pool.get(url);
+			if(product != null) return product;
+			retrieval = inProgress.get(url);
+			if(retrieval == null){
+				if(isKnownMissing(url)) throw new FileNotFoundException("cached answer");
+				retrieval = new Retrieval(url, true);
+				inProgress.put(url, retrieval);
+			}
+		}
+		// does nothing if already run by the prefetch thread or another caller
+		retrieval.run();
+		try {
+			return retrieval.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * @return true if the product was not found less than the negative TTL ago,
+	 * expired entries are removed
+	 */
+	private boolean isKnownMissing(String url) {
+		Long expiry = negativeCache.get(url);
+		if(expiry == null) return false;
+		if(System.currentTimeMillis() < expiry.longValue()) return true;
+		negativeCache.remove(url);
+		return false;
+	}
+
+	/**
+	 * Adds a product to the memory pool.
+	 */
+	public synchronized void put(String url, P product) {
+		pool.put(url, product);
+	}
+
+	/**
+	 * @return true if the product is in the memory pool
+	 */
+	public synchronized boolean contains(String url) {
+		return pool.containsKey(url);
+	}
+
+	/**
+	 * @return true if the product is being retrieved
+	 */
+	public synchronized boolean isInProgress(String url) {
+		return inProgress.containsKey(url);
+	}
+
+	/**
+	 * Starts the retrieval of a product on the background thread, unless it is
+	 * already in memory, in progress or known missing. A product not found by
+	 * the prefetch is tried again after the prefetch retry delay. Does nothing
+	 * once the manager is released.
+	 */
+	public void prefetch(String url) {
+		synchronized(this) {
+			if(released) return;
+			if(pool.containsKey(url) || inProgress.containsKey(url) || isKnownMissing(url)) return;
+			Long retry = prefetchRetry.get(url);
+			long now = System.currentTimeMillis();
+			if(retry != null && now < retry.longValue()) return;
+			prefetchRetry.put(url, now + prefetchRetryDelay);
+
+			if(prefetcher == null){
+				prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "NavigationProductManager prefetch");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			if(debug) System.out.println("prefetch "+url);
+			Retrieval retrieval = new Retrieval(url, false);
+			inProgress.put(url, retrieval);
+			prefetcher.execute(retrieval);
+		}
+	}
+
+	/**
+	 * Reads a product from the disk cache, a local file or the net.
+	 */
+	private P retrieve(String url) throws IOException {
+		File cache = getCacheFile(url);
+		if(cache.exists()){
+			if(debug) System.out.println(url+" from cache file "+cache);
+			try {
+				P product = loader.read(cache);
+				if(product != null) return product;
+			} catch (Exception e) {
+				// invalid, retrieve it again
+			}
+			cache.delete();
+		}
+
+		File path = cache.getParentFile();
+		if(path != null && !path.exists()) path.mkdirs();
+
+		if(url.startsWith("file://")){
+			File file = new File(url.substring("file://".length()));
+			if(!file.exists()) throw new FileNotFoundException(url);
+			if(debug) System.out.println(url+" from local file.");
+			InputStream is = new FileInputStream(file);
+			try {
+				if(url.endsWith(".Z")){
+					is = new UncompressInputStream(is);
+				}else if(url.endsWith(".gz")){
+					is = new GZIPInputStream(is);
+				}
+				return loader.parse(is, cache);
+			} finally {
+				is.close();
+			}
+		}
+
+		if(debug) System.out.println(url+" from the net.");
+		return loader.download(url, cache);
+	}
+
+	/**
+	 * Stops the prefetch thread for good, downloads in progress complete.
+	 * Products are still retrieved on demand afterwards, without prefetch.
+	 */
+	public synchronized void release() {
+		released = true;
+		if(prefetcher != null){
+			prefetcher.shutdown();
+			prefetcher = null;
+		}
+	}
+
+	public String getUrlTemplate() {
+		return urltemplate;
+	}
+
+	public synchronized void setCacheDir(String cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	public synchronized String getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * @param poolSize the largest number of products kept in memory
+	 */
+	public synchronized void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public synchronized int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @param negativeTtl the time in ms a product is known missing once not found
+	 */
+	public synchronized void setNegativeTtl(long negativeTtl) {
+		this.negativeTtl = negativeTtl;
+	}
+
+	public synchronized long getNegativeTtl() {
+		return negativeTtl;
+	}
+
+	/**
+	 * @param prefetchLead the time in ms before the next product where it is prefetched, 0 to disable
+	 */
+	public synchronized void setPrefetchLead(long prefetchLead) {
+		this.prefetchLead = prefetchLead;
+	}
+
+	public synchronized long getPrefetchLead() {
+		return prefetchLead;
+	}
+
+	/**
+	 * @param prefetchRetryDelay the time in ms between two prefetch attempts of a missing product
+	 */
+	public synchronized void setPrefetchRetryDelay(long prefetchRetryDelay) {
+		this.prefetchRetryDelay = prefetchRetryDelay;
+	}
+
+	public synchronized long getPrefetchRetryDelay() {
+		return prefetchRetryDelay;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rinex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.gogpsproject.ephemeris.EphGps;
+import org.gogpsproject.producer.ObservationsColumns;
+
+/**
+ * <p>
+ * Ephemerides of a navigation file grouped by satellite and sorted by
+ * reference time, for the selection of the closest set without scanning the
+ * whole file.
+ * </p>
+ * <p>
+ * Each satellite keeps the position of its last selection, so processing the
+ * epochs in time order moves at most one set forward; other times are found by
+ * binary search. The index is built once the file is parsed and is read-only
+ * afterwards, except for these cursors which are only hints.
+ * </p>
+ */
+class EphemerisIndex {
+
+	private static class Satellite {
+		final EphGps[] eph;
+		final long[] time;
+		/** last set at or before the requested time, -1 if before the first one */
+		int cursor = -1;
+
+		Satellite(List<EphGps> list) {
+			eph = list.toArray(new EphGps[list.size()]);
+			// stable, sets with the same reference time stay in file order
+			Arrays.sort(eph, new Comparator<EphGps>() {
+				@Override
+				public int compare(EphGps a, EphGps b) {
+					return Long.compare(a.getRefTime().getMsec(), b.getRefTime().getMsec());
+				}
+			});
+			time = new long[eph.length];
+			for (int i = 0; i < eph.length; i++)
+				time[i] = eph[i].getRefTime().getMsec();
+		}
+
+		/**
+		 * @return the index of the last set with a reference time at or before
+		 *         unixTime, -1 if none
+		 */
+		int floor(long unixTime) {
+			int c = cursor;
+			if (!isFloor(c, unixTime)) {
+				if (isFloor(c + 1, unixTime)) {
+					c++;
+				} else {
+					int lo = 0, hi = time.length - 1;
+					c = -1;
+					while (lo <= hi) {
+						int mid = (lo + hi) >>> 1;
+						if (time[mid] <= unixTime) {
+							c = mid;
+							lo = mid + 1;
+						} else {
+							hi = mid - 1;
+						}
+					}
+				}
+				cursor = c;
+			}
+			return c;
+		}
+
+		private boolean isFloor(int i, long unixTime) {
+			if (i < -1 || i >= time.length)
+				return false;
+			return (i == -1 || time[i] <= unixTime)
+					&& (i + 1 == time.length || time[i + 1] > unixTime);
+		}
+
+		/**
+		 * @return the closest set in whole seconds, the earlier one on a tie and
+		 *         the first in file order among sets with the same reference time
+		 */
+		EphGps closest(long unixTime) {
+			if (time.length == 0)
+				return null;
+			int i = floor(unixTime);
+			if (i < 0) {
+				i = 0;
+			} else if (i + 1 < time.length
+					&& (time[i + 1] - unixTime) / 1000 < (unixTime - time[i]) / 1000) {
+				i++;
+			}
+			while (i > 0 && time[i - 1] == time[i])
+				i--;
+			return eph[i];
+		}
+	}
+
+	private final Satellite[] bySlot = new Satellite[ObservationsColumns.SLOTS];
+	/** sets of satellites outside the slot table, scanned */
+	private final ArrayList<EphGps> others = new ArrayList<EphGps>();
+
+	/**
+	 * @param eph parsed ephemerides, in file order
+	 */
+	EphemerisIndex(List<EphGps> eph) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		ArrayList<EphGps>[] lists = new ArrayList[ObservationsColumns.SLOTS];
+		for (EphGps e : eph) {
+			if (e.getRefTime() == null)
+				continue;
+			int slot = ObservationsColumns.slot(e.getSatType(), e.getSatID());
+			if (slot < 0) {
+				others.add(e);
+				continue;
+			}
+			if (lists[slot] == null)
+				lists[slot] = new ArrayList<EphGps>();
+			lists[slot].add(e);
+		}
+		for (int slot = 0; slot < lists.length; slot++) {
+			if (lists[slot] != null)
+				bySlot[slot] = new Satellite(lists[slot]);
+		}
+	}
+
+	/**
+	 * @param unixTime time in ms
+	 * @return the set of the satellite with the reference time closest to
+	 *         unixTime, null if the satellite has none
+	 */
+	EphGps findClosest(long unixTime, int satID, char satType) {
+		int slot = ObservationsColumns.slot(satType, satID);
+		if (slot >= 0) {
+			Satellite s = bySlot[slot];
+			return s == null ? null : s.closest(unixTime);
+		}
+
+		EphGps refEph = null;
+		long dtMin = 0;
+		for (EphGps e : others) {
+			if (e.getSatID() == satID && e.getSatType() == satType) {
+				long dt = Math.abs(e.getRefTime().getMsec() - unixTime) / 1000;
+				if (refEph == null || dt < dtMin) {
+					dtMin = dt;
+					refEph = e;
+				}
+			}
+		}
+		return refEph;
+	}
+}
@@ -28,8 +28,6 @@ import java.net.URL;
 import java.util.Base64;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
 import java.util.zip.GZIPInputStream;
@@ -46,6 +44,7 @@ import org.gogpsproject.positioning.Time;
 import org.gogpsproject.producer.NavigationProducer;
 import org.gogpsproject.producer.Observations;
 import org.gogpsproject.producer.StreamResource;
+import org.gogpsproject.producer.parser.NavigationProductManager;
 import org.gogpsproject.util.UncompressInputStream;
 
 /**
@@ -64,13 +63,9 @@ public class RinexNavigation implements NavigationProducer {
 	public final static String NASA_NAVIGATION_HOURLY = "ftp://cddis.gsfc.nasa.gov/pub/gps/data/hourly/${yyyy}/${ddd}/hour${ddd}0.${yy}n.Z";
   public final static String GARNER_NAVIGATION_AUTO_HTTP = "http://garner.ucsd.edu/pub/rinex/${yyyy}/${ddd}/auto${ddd}0.${yy}n.Z"; // ex http://garner.ucsd.edu/pub/rinex/2016/034/auto0340.16n.Z
 
-	/** cache for negative answers */
-	private Hashtable<String,Date> negativeChache = new Hashtable<String, Date>();
-
-	/** Folder containing downloaded files */
+	/** Folder containing downloaded files, changed with setCacheDir */
 	public String RNP_CACHE = "./rnp-cache";
 
-	private boolean waitForData = true;
 	/**
 	 * @param args
 	 */
@@ -116,7 +111,8 @@ public class RinexNavigation implements NavigationProducer {
 
 	/** Template string where to retrieve files on the net */
 	private String urltemplate;
-	private HashMap<String,RinexNavigationParser> pool = new HashMap<String,RinexNavigationParser>();
+	/** memory pool, prefetch and caches of the files */
+	private final NavigationProductManager<RinexNavigationParser> products;
 
 	/**
 	 * Instantiates a new RINEX navigation retriever and parser.
@@ -125,7 +121,37 @@ public class RinexNavigation implements NavigationProducer {
 	 */
 	public RinexNavigation(String urltemplate){
 		this.urltemplate = urltemplate;
+		this.products = new NavigationProductManager<RinexNavigationParser>(urltemplate, RNP_CACHE,
+				new NavigationProductManager.ProductLoader<RinexNavigationParser>() {
+			@Override
+			public RinexNavigationParser read(File file) throws IOException {
+				RinexNavigationParser rnp = new RinexNavigationParser(file);
+				rnp.init();
+				return rnp;
+			}
+			@Override
+			public RinexNavigationParser parse(InputStream is, File cache) throws IOException {
+				RinexNavigationParser rnp = new RinexNavigationParser(is, cache);
+				rnp.init();
+				return rnp;
+			}
+			@Override
+			public RinexNavigationParser download(String url, File cache) throws IOException {
+				if(url.toLowerCase().startsWith("http"))
+					return getFromHTTP(url, cache);
+				else if(url.toLowerCase().startsWith("ftp"))
+					return getFromFTP(url, cache);
+				else
+					throw new RuntimeException("Invalid url template " + url);
+			}
+		});
+	}
 
+	/**
+	 * @return the manager of the files, to configure pool size, prefetch and caches
+	 */
+	public NavigationProductManager<RinexNavigationParser> getProductManager() {
+		return products;
 	}
 
 	/* (non-Javadoc)
@@ -169,76 +195,24 @@ public class RinexNavigation implements NavigationProducer {
 	
 	/* Convenience method for adding an rnp to memory cache*/
   public void put(long reqTime, RinexNavigationParser rnp) {
-    Time t = new Time(reqTime);
-     String url = t.formatTemplate(urltemplate);
-     if(!pool.containsKey(url))
-       pool.put(url, rnp);
+     String url = products.resolve(reqTime);
+     if(!products.contains(url))
+       products.put(url, rnp);
    }
    
 	protected RinexNavigationParser getRNPByTimestamp(long unixTime) {
 
-		RinexNavigationParser rnp = null;
-		long reqTime = unixTime;
-
-		do{
-			// found none, retrieve from urltemplate
-			Time t = new Time(reqTime);
-			//System.out.println("request: "+unixTime+" "+(new Date(t.getMsec()))+" week:"+t.getGpsWeek()+" "+t.getGpsWeekDay());
-
-			String url = t.formatTemplate(urltemplate);
-
-      try {
-        if(pool.containsKey(url)){
-          rnp = pool.get(url);
-        }else{
-          if(url.toLowerCase().startsWith("http"))
-            rnp = getFromHTTP(url);
-          else if(url.toLowerCase().startsWith("ftp"))
-            rnp = getFromFTP(url);
-          else 
-            throw new RuntimeException("Invalid url template " + url);
-    
-          if(rnp != null){
-            pool.put(url, rnp);
-          }
-        }
-        return rnp;
-      } catch( IOException e) {
-				  System.out.println( e.getClass().getName() + " url: " + url);
-				  return null;
-      }
-
-		} while( waitForData && rnp==null);
-  }
-
-	private RinexNavigationParser getFromFTP(String url) throws IOException{
-		RinexNavigationParser rnp = null;
-
-		String origurl = url;
-		if(negativeChache.containsKey(url)){
-			if(System.currentTimeMillis()-negativeChache.get(url).getTime() < 60*60*1000){
-				throw new FileNotFoundException("cached answer");
-			}else{
-				negativeChache.remove(url);
-			}
+		try {
+			return products.get(unixTime);
+		} catch( IOException e) {
+			System.out.println( e.getClass().getName() + " url: " + products.resolve(unixTime));
+			return null;
 		}
+	}
 
-		String filename = url.replaceAll("[ ,/:]", "_");
-		if(filename.endsWith(".Z")) filename = filename.substring(0, filename.length()-2);
-		File rnf = new File(RNP_CACHE,filename);
+	private RinexNavigationParser getFromFTP(String url, File rnf) throws IOException{
+		RinexNavigationParser rnp = null;
 
-		if(rnf.exists()){
-      System.out.println(url+" from cache file "+rnf);
-      rnp = new RinexNavigationParser(rnf);
-      try{
-        rnp.init();
-        return rnp;
-      }
-      catch( Exception e ){
-        rnf.delete();
-      }
-		}
-		
 		// if the file doesn't exist of is invalid
 		System.out.println(url+" from the net.");
 		FTPClient ftp = new FTPClient();
@@ -280,7 +254,6 @@ public class RinexNavigation implements NavigationProducer {
 			InputStream is = ftp.retrieveFileStream(remoteFile);
 			System.out.println(ftp.getReplyString());
 			if(ftp.getReplyString().startsWith("550")){
-				negativeChache.put(origurl, new Date());
 				throw new FileNotFoundException();
 			}
       InputStream uis = is;
@@ -310,85 +283,65 @@ public class RinexNavigation implements NavigationProducer {
 		return rnp;
 	}
 
-  private RinexNavigationParser getFromHTTP(String tUrl) throws IOException{
+  private RinexNavigationParser getFromHTTP(String tUrl, File rnf) throws IOException{
     RinexNavigationParser rnp = null;
 
-    String origurl = tUrl;
-    if(negativeChache.containsKey(tUrl)){
-      if(System.currentTimeMillis()-negativeChache.get(tUrl).getTime() < 60*60*1000){
-        throw new FileNotFoundException("cached answer");
-      }else{
-        negativeChache.remove(tUrl);
-      }
-    }
-
-    String filename = tUrl.replaceAll("[ ,/:]", "_");
-    if(filename.endsWith(".Z")) filename = filename.substring(0, filename.length()-2);
-    File rnf = new File(RNP_CACHE,filename);
-
-    if(rnf.exists()){
-      System.out.println(tUrl+" from cache file "+rnf);
-      rnp = new RinexNavigationParser(rnf);
-      rnp.init();
-    }
-    else {
-      System.out.println(tUrl+" from the net.");
-      
-      System.out.println("URL: "+tUrl);
-      tUrl = tUrl.substring("http://".length());
-      String remoteFile = tUrl.substring(tUrl.indexOf('/'));
-      remoteFile = remoteFile.substring(remoteFile.lastIndexOf('/')+1);
-
-      URL url = new URL("http://" + tUrl);
-      HttpURLConnection con = (HttpURLConnection) url.openConnection();
-      con.setRequestMethod("GET");
+    System.out.println(tUrl+" from the net.");
+    
+    System.out.println("URL: "+tUrl);
+    tUrl = tUrl.substring("http://".length());
+    String remoteFile = tUrl.substring(tUrl.indexOf('/'));
+    remoteFile = remoteFile.substring(remoteFile.lastIndexOf('/')+1);
+
+    URL url = new URL("http://" + tUrl);
+    HttpURLConnection con = (HttpURLConnection) url.openConnection();
+    con.setRequestMethod("GET");
 //      con.setRequestProperty("Authorization", "Basic "+ new String(Base64.encode(new String("anonymous:info@eriadne.org"))));
-      con.setRequestProperty("Authorization", "Basic "+ new String(Base64.getEncoder().encode((new String("anonymous:info@eriadne.org").getBytes()))));
+    con.setRequestProperty("Authorization", "Basic "+ new String(Base64.getEncoder().encode((new String("anonymous:info@eriadne.org").getBytes()))));
 
-      int reply = con.getResponseCode();
+    int reply = con.getResponseCode();
 
-      if (reply>200) {
-        if( reply == 404 )
-          System.err.println("404 Not Found");
-        else
-          System.err.println("HTTP server refused connection.");
+    if (reply>200) {
+      if( reply == 404 )
+        throw new FileNotFoundException("404 Not Found");
+      else
+        System.err.println("HTTP server refused connection.");
 //        System.out.print(new String(res.getContent()));
 
-        return null;
-      }
+      return null;
+    }
 
-      try{
-        if(remoteFile.endsWith(".Z")){
-          try{
+    try{
+      if(remoteFile.endsWith(".Z")){
+        try{
 //            InputStream is = new ByteArrayInputStream(res.getContent());
-            InputStream is  = con.getInputStream();
-            InputStream uis = new UncompressInputStream(is);
-            rnp = new RinexNavigationParser(uis,rnf);
-            rnp.init();
-            uis.close();
-          }
-          catch( IOException e ){
-            InputStream is  = con.getInputStream();
-            InputStream uis = new GZIPInputStream(is);
-            rnp = new RinexNavigationParser(uis,rnf);
-            rnp.init();
-  //        Reader decoder = new InputStreamReader(gzipStream, encoding);
-  //        BufferedReader buffered = new BufferedReader(decoder);
-            uis.close();
-          }
+          InputStream is  = con.getInputStream();
+          InputStream uis = new UncompressInputStream(is);
+          rnp = new RinexNavigationParser(uis,rnf);
+          rnp.init();
+          uis.close();
         }
-        else {
+        catch( IOException e ){
           InputStream is  = con.getInputStream();
-          rnp = new RinexNavigationParser(is,rnf);
+          InputStream uis = new GZIPInputStream(is);
+          rnp = new RinexNavigationParser(uis,rnf);
           rnp.init();
-          is.close();
+  //        Reader decoder = new InputStreamReader(gzipStream, encoding);
+  //        BufferedReader buffered = new BufferedReader(decoder);
+          uis.close();
         }
       }
-      catch(IOException e ){
-        e.printStackTrace();
-        // TODO delete file, maybe it's corrupt
+      else {
+        InputStream is  = con.getInputStream();
+        rnp = new RinexNavigationParser(is,rnf);
+        rnp.init();
+        is.close();
       }
     }
+    catch(IOException e ){
+      e.printStackTrace();
+      // TODO delete file, maybe it's corrupt
+    }
     return rnp;
   }
   
@@ -411,12 +364,20 @@ public class RinexNavigation implements NavigationProducer {
 
 	}
 
+	/**
+	 * @param cacheDir the folder containing downloaded files
+	 */
+	public void setCacheDir(String cacheDir) {
+		RNP_CACHE = cacheDir;
+		products.setCacheDir(cacheDir);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.NavigationProducer#release()
 	 */
 	@Override
 	public void release(boolean waitForThread, long timeoutMs) throws InterruptedException {
-		waitForData = false;
+		products.release();
 	}
 
 
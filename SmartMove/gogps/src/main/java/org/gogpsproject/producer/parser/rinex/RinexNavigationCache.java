@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rinex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.gogpsproject.ephemeris.EphGps;
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.parser.IonoGps;
+
+/**
+ * <p>
+ * Binary sidecar of a parsed RINEX navigation file.
+ * </p>
+ * <p>
+ * The sidecar is written next to the navigation file the first time it is
+ * parsed, and later runs map it and rebuild the {@link EphGps} records from
+ * fixed-size binary records instead of parsing the text again. It is
+ * ignored (and rewritten) when its version, the length or modification time
+ * of the navigation file, or its CRC32 do not match.
+ * </p>
+ * <pre>
+ * header  magic "GOGPSNAV", int version, long source length,
+ *         long source modification time, int record count,
+ *         int iono present, long CRC32 of the payload
+ * payload iono block (if present), then one record per ephemeris
+ * </pre>
+ */
+class RinexNavigationCache {
+
+	public final static String SUFFIX = ".bin";
+
+	private final static byte[] MAGIC = { 'G', 'O', 'G', 'P', 'S', 'N', 'A', 'V' };
+	private final static int VERSION = 1;
+
+	private final static int HEADER_SIZE = 8 + 4 + 8 + 8 + 4 + 4 + 8;
+	private final static int IONO_SIZE = 8 * 4 + 8 + 8 + 8 + 8 + 4 + 4;
+	private final static int RECORD_SIZE = 8 + 2 + 9 * 4 + 22 * 8 + 8 + 2 * 4 + 13 * 8;
+
+	/**
+	 * @param source navigation file
+	 * @return the sidecar file of the navigation file
+	 */
+	public static File sidecarOf(File source) {
+		return new File(source.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Loads the sidecar of a navigation file.
+	 *
+	 * @param source navigation file
+	 * @param eph list receiving the ephemerides, in file order
+	 * @param iono receives the ionospheric parameters in its first element,
+	 * null if the file had none
+	 * @return false, with eph left untouched, if there is no valid sidecar
+	 */
+	public static boolean load(File source, List<EphGps> eph, IonoGps[] iono) {
+		File sidecar = sidecarOf(source);
+		if (!sidecar.isFile() || !source.isFile())
+			return false;
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(sidecar, "r");
+			FileChannel ch = raf.getChannel();
+			long size = ch.size();
+			if (size < HEADER_SIZE)
+				return false;
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			for (int i = 0; i < MAGIC.length; i++)
+				if (buf.get() != MAGIC[i])
+					return false;
+			if (buf.getInt() != VERSION)
+				return false;
+			if (buf.getLong() != source.length() || buf.getLong() != source.lastModified())
+				return false;
+			int count = buf.getInt();
+			boolean hasIono = buf.getInt() != 0;
+			long crc = buf.getLong();
+			if (count < 0 || size != HEADER_SIZE + (hasIono ? IONO_SIZE : 0) + (long) count * RECORD_SIZE)
+				return false;
+
+			CRC32 check = new CRC32();
+			check.update(buf.duplicate());
+			if (check.getValue() != crc)
+				return false;
+
+			iono[0] = hasIono ? readIono(buf) : null;
+			ArrayList<EphGps> list = new ArrayList<EphGps>(count);
+			for (int i = 0; i < count; i++)
+				list.add(readEph(buf));
+			eph.addAll(list);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Exception reading " + sidecar);
+			e.printStackTrace();
+			return false;
+		} finally {
+			if (raf != null) {
+				try { raf.close(); } catch (IOException e) { }
+			}
+		}
+	}
+
+	/**
+	 * Writes the sidecar of a navigation file. The sidecar is written to a
+	 * temporary file first, so a concurrent reader never sees a partial one.
+	 *
+	 * @param source navigation file, already closed
+	 * @param eph parsed ephemerides
+	 * @param iono parsed ionospheric parameters, may be null
+	 */
+	public static void save(File source, List<EphGps> eph, IonoGps iono) {
+		File sidecar = sidecarOf(source);
+		File tmp = new File(sidecar.getPath() + ".tmp");
+
+		ByteBuffer payload = ByteBuffer.allocate((iono != null ? IONO_SIZE : 0) + eph.size() * RECORD_SIZE);
+		if (iono != null)
+			writeIono(payload, iono);
+		for (EphGps e : eph)
+			writeEph(payload, e);
+		payload.flip();
+
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(source.length());
+		header.putLong(source.lastModified());
+		header.putInt(eph.size());
+		header.putInt(iono != null ? 1 : 0);
+		header.putLong(crc.getValue());
+		header.flip();
+
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(tmp);
+			FileChannel ch = fos.getChannel();
+			while (header.hasRemaining())
+				ch.write(header);
+			while (payload.hasRemaining())
+				ch.write(payload);
+			fos.close();
+			fos = null;
+			if (sidecar.exists())
+				sidecar.delete();
+			if (!tmp.renameTo(sidecar))
+				tmp.delete();
+		} catch (IOException e) {
+			System.err.println("Exception writing " + sidecar);
+			e.printStackTrace();
+		} finally {
+			if (fos != null) {
+				try { fos.close(); } catch (IOException e) { }
+				tmp.delete();
+			}
+		}
+	}
+
+	private static void writeIono(ByteBuffer b, IonoGps iono) {
+		for (int i = 0; i < 4; i++)
+			b.putFloat(iono.getAlpha(i));
+		for (int i = 0; i < 4; i++)
+			b.putFloat(iono.getBeta(i));
+		b.putLong(iono.getRefTime() == null ? -1 : iono.getRefTime().getMsec());
+		b.putDouble(iono.getUtcA0());
+		b.putDouble(iono.getUtcA1());
+		b.putLong(iono.getUtcTOW());
+		b.putInt(iono.getUtcWNT());
+		b.putInt(iono.getUtcLS());
+	}
+
+	private static IonoGps readIono(ByteBuffer b) {
+		IonoGps iono = new IonoGps();
+		float[] alpha = new float[4];
+		float[] beta = new float[4];
+		for (int i = 0; i < 4; i++)
+			alpha[i] = b.getFloat();
+		for (int i = 0; i < 4; i++)
+			beta[i] = b.getFloat();
+		iono.setAlpha(alpha);
+		iono.setBeta(beta);
+		long refTime = b.getLong();
+		if (refTime != -1)
+			iono.setRefTime(new Time(refTime));
+		iono.setUtcA0(b.getDouble());
+		iono.setUtcA1(b.getDouble());
+		iono.setUtcTOW(b.getLong());
+		iono.setUtcWNT(b.getInt());
+		iono.setUtcLS(b.getInt());
+		return iono;
+	}
+
+	private static void writeEph(ByteBuffer b, EphGps e) {
+		b.putLong(e.getRefTime() == null ? -1 : e.getRefTime().getMsec());
+		b.putChar(e.getSatType());
+
+		b.putInt(e.getSatID());
+		b.putInt(e.getWeek());
+		b.putInt(e.getL2Code());
+		b.putInt(e.getL2Flag());
+		b.putInt(e.getSvAccur());
+		b.putInt(e.getSvHealth());
+		b.putInt(e.getIode());
+		b.putInt(e.getIodc());
+		b.putInt(e.getfreq_num());
+
+		b.putDouble(e.getToc());
+		b.putDouble(e.getToe());
+		b.putDouble(e.getTom());
+		b.putDouble(e.getAf0());
+		b.putDouble(e.getAf1());
+		b.putDouble(e.getAf2());
+		b.putDouble(e.getTgd());
+		b.putDouble(e.getRootA());
+		b.putDouble(e.getE());
+		b.putDouble(e.getI0());
+		b.putDouble(e.getiDot());
+		b.putDouble(e.getOmega());
+		b.putDouble(e.getOmega0());
+		b.putDouble(e.getOmegaDot());
+		b.putDouble(e.getM0());
+		b.putDouble(e.getDeltaN());
+		b.putDouble(e.getCrc());
+		b.putDouble(e.getCrs());
+		b.putDouble(e.getCuc());
+		b.putDouble(e.getCus());
+		b.putDouble(e.getCic());
+		b.putDouble(e.getCis());
+		b.putLong(e.getFitInt());
+
+		// GLONASS
+		b.putFloat(e.getTauN());
+		b.putFloat(e.getGammaN());
+		b.putDouble(e.gettk());
+		b.putDouble(e.gettb());
+		b.putDouble(e.getX());
+		b.putDouble(e.getXv());
+		b.putDouble(e.getXa());
+		b.putDouble(e.getBn());
+		b.putDouble(e.getY());
+		b.putDouble(e.getYv());
+		b.putDouble(e.getYa());
+		b.putDouble(e.getZ());
+		b.putDouble(e.getZv());
+		b.putDouble(e.getZa());
+		b.putDouble(e.getEn());
+	}
+
+	private static EphGps readEph(ByteBuffer b) {
+		EphGps e = new EphGps();
+		long refTime = b.getLong();
+		if (refTime != -1)
+			e.setRefTime(new Time(refTime));
+		e.setSatType(b.getChar());
+
+		e.setSatID(b.getInt());
+		e.setWeek(b.getInt());
+		e.setL2Code(b.getInt());
+		e.setL2Flag(b.getInt());
+		e.setSvAccur(b.getInt());
+		e.setSvHealth(b.getInt());
+		e.setIode(b.getInt());
+		e.setIodc(b.getInt());
+		e.setfreq_num(b.getInt());
+
+		e.setToc(b.getDouble());
+		e.setToe(b.getDouble());
+		e.setTom(b.getDouble());
+		e.setAf0(b.getDouble());
+		e.setAf1(b.getDouble());
+		e.setAf2(b.getDouble());
+		e.setTgd(b.getDouble());
+		e.setRootA(b.getDouble());
+		e.setE(b.getDouble());
+		e.setI0(b.getDouble());
+		e.setiDot(b.getDouble());
+		e.setOmega(b.getDouble());
+		e.setOmega0(b.getDouble());
+		e.setOmegaDot(b.getDouble());
+		e.setM0(b.getDouble());
+		e.setDeltaN(b.getDouble());
+		e.setCrc(b.getDouble());
+		e.setCrs(b.getDouble());
+		e.setCuc(b.getDouble());
+		e.setCus(b.getDouble());
+		e.setCic(b.getDouble());
+		e.setCis(b.getDouble());
+		e.setFitInt(b.getLong());
+
+		// GLONASS
+		e.setTauN(b.getFloat());
+		e.setGammaN(b.getFloat());
+		e.settk(b.getDouble());
+		e.settb(b.getDouble());
+		e.setX(b.getDouble());
+		e.setXv(b.getDouble());
+		e.setXa(b.getDouble());
+		e.setBn(b.getDouble());
+		e.setY(b.getDouble());
+		e.setYv(b.getDouble());
+		e.setYa(b.getDouble());
+		e.setZ(b.getDouble());
+		e.setZv(b.getDouble());
+		e.setZa(b.getDouble());
+		e.setEn(b.getDouble());
+		return e;
+	}
+}
@@ -53,6 +53,7 @@ import org.gogpsproject.producer.parser.IonoGps;
 public class RinexNavigationParser extends EphemerisSystem implements NavigationProducer{
 
 	private File fileNav;
+	private File cacheFile;
 	private FileInputStream streamNav;
 	private InputStreamReader inStreamNav;
 	private BufferedReader buffStreamNav;
@@ -63,6 +64,7 @@ public class RinexNavigationParser extends EphemerisSystem implements Navigation
 	public static String newline = System.getProperty("line.separator");
 
 	private ArrayList<EphGps> eph = new ArrayList<EphGps>(); /* GPS broadcast ephemerides */
+	private volatile EphemerisIndex ephIndex = null; /* eph by satellite, built on first search */
 	//private double[] iono = new double[8]; /* Ionosphere model parameters */
 	private IonoGps iono = null; /* Ionosphere model parameters */
 	//	private double A0; /* Delta-UTC parameters: A0 */
@@ -81,6 +83,7 @@ public class RinexNavigationParser extends EphemerisSystem implements Navigation
 	public RinexNavigationParser(InputStream is, File cache) {
 		this.inStreamNav = new InputStreamReader(is);
 		if(cache!=null){
+			this.cacheFile = cache;
 			File path = cache.getParentFile();
 			if(!path.exists()) path.mkdirs();
 			try {
@@ -98,6 +101,14 @@ public class RinexNavigationParser extends EphemerisSystem implements Navigation
 	 */
 	@Override
 	public void init() {
+		if(fileNav!=null){
+			IonoGps[] cachedIono = new IonoGps[1];
+			if(RinexNavigationCache.load(fileNav, eph, cachedIono)){
+				iono = cachedIono[0];
+				ephIndex = null;
+				return;
+			}
+		}
 		open();
 		int ver = parseHeaderNav();
 		if(ver != 0){
@@ -119,6 +130,10 @@ public class RinexNavigationParser extends EphemerisSystem implements Navigation
 
 			}
 	    close();
+
+			// binary sidecar, loaded instead of the text on the next run
+			File source = fileNav!=null ? fileNav : cacheFile;
+			if(source!=null && source.isFile()) RinexNavigationCache.save(source, eph, iono);
 		}
 		else{
 		  close();
@@ -1107,37 +1122,26 @@ public class RinexNavigationParser extends EphemerisSystem implements Navigation
 	 */
 	public EphGps findEph(long unixTime, int satID, char satType) {
 
-		long dt = 0;
 		long dtMin = 0;
 		long dtMax = 0;
-		long delta = 0;
-		EphGps refEph = null;
-
-		//long gpsTime = (new Time(unixTime)).getGpsTime();
-
-		for (int i = 0; i < eph.size(); i++) {
-			// Find ephemeris sets for given satellite
-			if (eph.get(i).getSatID() == satID && eph.get(i).getSatType() == satType) {
-				// Consider BeiDou time (BDT) for BeiDou satellites (14 sec difference wrt GPS time)
-				if (satType == 'C') {
-					delta = 14000;
-					unixTime = unixTime - delta;
-				}
-				// Compare current time and ephemeris reference time
-				dt = Math.abs(eph.get(i).getRefTime().getMsec() - unixTime /*getGpsTime() - gpsTime*/)/1000;
-				// If it's the first round, set the minimum time difference and
-				// select the first ephemeris set candidate; if the current ephemeris set
-				// is closer in time than the previous candidate, select new candidate
-				if (refEph == null || dt < dtMin) {
-					dtMin = dt;
-					refEph = eph.get(i);
-				}
-			}
+
+		// Consider BeiDou time (BDT) for BeiDou satellites (14 sec difference wrt GPS time)
+		if (satType == 'C') {
+			unixTime = unixTime - 14000;
 		}
 
+		EphemerisIndex index = ephIndex;
+		if (index == null) {
+			index = new EphemerisIndex(eph);
+			ephIndex = index;
+		}
+		EphGps refEph = index.findClosest(unixTime, satID, satType);
+
     if( refEph == null )
       return null;
 
+		dtMin = Math.abs(refEph.getRefTime().getMsec() - unixTime)/1000;
+
 		if( refEph.getSvHealth() != 0) {
 		  return EphGps.UnhealthyEph;
 		}
@@ -1167,6 +1171,7 @@ public class RinexNavigationParser extends EphemerisSystem implements Navigation
 
 	public void addEph(EphGps eph){
 		this.eph.add(eph);
+		ephIndex = null;
 	}
 
 	//	public void setIono(int i, double val){
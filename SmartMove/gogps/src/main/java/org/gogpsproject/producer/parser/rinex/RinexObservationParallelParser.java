@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rinex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.gogpsproject.producer.Observations;
+
+/**
+ * <p>
+ * RINEX observation parser spreading the records of a file over several
+ * threads.
+ * </p>
+ * <p>
+ * The header is parsed once, then the records are cut into chunks of whole
+ * epochs, following the epoch headers (number of satellites, continuation
+ * lines, lines per satellite). Chunks are parsed concurrently on a fork/join
+ * pool, each by its own {@link RinexObservationSpeedParser}, and their epochs
+ * are returned by {@link #getNextObservations()} in file order. At most two
+ * chunks per thread are read ahead, so memory does not grow with the file.
+ * Cutting runs on the calling thread while it consumes epochs, compressed
+ * files are decompressed there.
+ * </p>
+ * <p>
+ * Parsing ends at the first epoch the sequential parser cannot parse either,
+ * the epochs returned are the same.
+ * </p>
+ */
+public class RinexObservationParallelParser extends RinexObservationSpeedParser {
+
+	/* characters of a chunk, about 150 epochs of 40 satellites */
+	private final static int CHUNK_SIZE = 1 << 20;
+
+	private final int threads;
+	private ForkJoinPool pool = null;
+	private final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+	private boolean ended = false;
+
+	private Chunk current = null;
+	private int next = 0;
+
+	/* chunk being cut */
+	private char[] text;
+	private int length;
+
+	private static class Chunk {
+		final List<Observations> epochs = new ArrayList<Observations>();
+		/* all the text of the chunk was parsed */
+		boolean complete;
+	}
+
+	public RinexObservationParallelParser(File fileObs) {
+		this(fileObs, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param threads number of parsing threads
+	 */
+	public RinexObservationParallelParser(File fileObs, int threads) {
+		super(fileObs);
+		this.threads = Math.max(1, threads);
+	}
+
+	public RinexObservationParallelParser(File fileObs, Boolean[] multiConstellation, int threads) {
+		super(fileObs, multiConstellation);
+		this.threads = Math.max(1, threads);
+	}
+
+	@Override
+	public void init() throws Exception {
+		super.init();
+		pool = new ForkJoinPool(threads);
+	}
+
+	@Override
+	public boolean hasMoreObservations() throws IOException {
+		if (current != null && next < current.epochs.size())
+			return true;
+		if (current != null && !current.complete)
+			return false;
+		return !pending.isEmpty() || (!ended && super.hasMoreObservations());
+	}
+
+	/**
+	 * Returns the next epoch of the file, in file order
+	 */
+	@Override
+	public Observations getNextObservations() {
+		while (current == null || next >= current.epochs.size()) {
+			// a chunk parsed only in part stops the file, as for the sequential parser
+			if (current != null && !current.complete) {
+				cancel();
+				return null;
+			}
+			readAhead();
+			Future<Chunk> f = pending.poll();
+			if (f == null)
+				return null;
+			try {
+				current = f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			} catch (ExecutionException e) {
+				cancel();
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+			next = 0;
+			readAhead();
+		}
+		obs = current.epochs.get(next++);
+		return obs;
+	}
+
+	/**
+	 * Keeps two chunks per thread queued or being parsed
+	 */
+	private void readAhead() {
+		while (!ended && pending.size() < threads * 2) {
+			ChunkParser chunk = cut();
+			if (chunk == null)
+				break;
+			pending.add(pool.submit(chunk));
+		}
+	}
+
+	/**
+	 * Parses the text of a chunk with a parser of its own.
+	 */
+	private class ChunkParser implements Callable<Chunk> {
+		private final char[] text;
+		private final int length;
+
+		ChunkParser(char[] text, int length) {
+			this.text = text;
+			this.length = length;
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+			RinexObservationSpeedParser parser = new RinexObservationSpeedParser(RinexObservationParallelParser.this, text, length);
+			Chunk chunk = new Chunk();
+			Observations o;
+			while ((o = parser.getNextObservations()) != null)
+				chunk.epochs.add(o);
+			chunk.complete = !parser.hasMoreObservations() && !parser.truncated;
+			return chunk;
+		}
+	}
+
+	/**
+	 * Copies the next whole epochs of the stream, about CHUNK_SIZE characters,
+	 * returns null at the end of the stream. An epoch header that cannot be
+	 * read ends the stream after it, the chunk parser meets it as well.
+	 */
+	private ChunkParser cut() {
+		text = new char[CHUNK_SIZE + 8192];
+		length = 0;
+		try {
+			while (length < CHUNK_SIZE) {
+				if (!super.hasMoreObservations() || !nextLine()) {
+					ended = true;
+					break;
+				}
+				appendLine();
+				int lines = epochLines();
+				if (lines < 0) {
+					ended = true;
+					break;
+				}
+				for (int i = 0; i < lines && !ended; i++) {
+					if (nextLine())
+						appendLine();
+					else
+						ended = true;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			ended = true;
+		}
+		ChunkParser chunk = length > 0 ? new ChunkParser(text, length) : null;
+		text = null;
+		return chunk;
+	}
+
+	private void appendLine() {
+		int n = le - ls;
+		if (length + n + 1 > text.length)
+			text = Arrays.copyOf(text, (length + n + 1) * 2);
+		System.arraycopy(buf, ls, text, length, n);
+		length += n;
+		text[length++] = '\n';
+	}
+
+	/**
+	 * Number of lines following the current epoch header line, as read by
+	 * the parser, or -1 if the header cannot be read
+	 */
+	private int epochLines() {
+		try {
+			if (ver == 2 || ver == 212) {
+				need(32);
+				int nSat = parseInt(ls + 30, ls + 32);
+				if (nSat < 0)
+					return -1;
+				int lines = 0;
+				if (nSat > 12)
+					lines = ver == 212 ? 1 : (nSat - 12 + 11) / 12;
+				// first line, then one more while more than 5 types remain
+				int linesPerSat = 1;
+				int nLinesToRead = (nTypes + 4) / 5;
+				if (nLinesToRead > 1)
+					for (int l = 0; l < nLinesToRead; l++)
+						if (nTypes - 5 * l > 5)
+							linesPerSat++;
+				return lines + nSat * linesPerSat;
+			} else {
+				need(35);
+				int nSat = parseInt(ls + 33, ls + 35);
+				return nSat < 0 ? -1 : nSat;
+			}
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+
+	private void cancel() {
+		for (Future<Chunk> f : pending)
+			f.cancel(true);
+		pending.clear();
+		ended = true;
+	}
+
+	@Override
+	public void release(boolean waitForThread, long timeoutMs) throws InterruptedException {
+		cancel();
+		if (pool != null)
+			pool.shutdownNow();
+		super.release(waitForThread, timeoutMs);
+	}
+}
@@ -19,11 +19,13 @@
  *
  */
 package org.gogpsproject.producer.parser.rinex;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.text.ParseException;
 
@@ -35,6 +37,8 @@ import org.gogpsproject.producer.ObservationSet;
 import org.gogpsproject.producer.Observations;
 import org.gogpsproject.producer.ObservationsProducer;
 import org.gogpsproject.producer.StreamResource;
+import org.gogpsproject.util.HatanakaInputStream;
+import org.gogpsproject.util.UncompressInputStream;
 
 import java.math.BigDecimal;
 
@@ -50,18 +54,18 @@ public class RinexObservationParser implements ObservationsProducer{
 	private File fileObs;
 	private FileInputStream streamObs;
 	private InputStreamReader inStreamObs;
-	private BufferedReader buffStreamObs;
+	BufferedReader buffStreamObs;
 
-	private int nTypes, nTypesG, nTypesR, nTypesE, nTypesJ, nTypesC; /* Number of observation types */
-	private int[] typeOrder, typeOrderG, typeOrderR, typeOrderE, typeOrderJ, typeOrderC; /* Order of observation data */
-	private boolean hasS1Field = false; /* S1 field (SNR) is present */
-	private boolean hasS2Field = false; /* S2 field (SNR) is present */
+	int nTypes, nTypesG, nTypesR, nTypesE, nTypesJ, nTypesC; /* Number of observation types */
+	int[] typeOrder, typeOrderG, typeOrderR, typeOrderE, typeOrderJ, typeOrderC; /* Order of observation data */
+	boolean hasS1Field = false; /* S1 field (SNR) is present */
+	boolean hasS2Field = false; /* S2 field (SNR) is present */
 	private Time timeFirstObs; /* Time of first observation set */
 
 	private Coordinates approxPos; /* Approximate position (X, Y, Z) [m] */
 	private double[] antDelta; /* Antenna delta (E, N, U) [m] */
 
-	private Observations obs = null; /* Current observation data sets */
+	Observations obs = null; /* Current observation data sets */
 
 	// Private fields useful to keep track of values between epoch parsing and
 	// data parsing
@@ -72,7 +76,7 @@ public class RinexObservationParser implements ObservationsProducer{
 	private int nSat;
 	private char[] sysOrder;
 	private int[] satOrder;
-	private int ver ;
+	int ver ;
 	
 	boolean gpsEnable = true;  // enable GPS data reading
 	boolean qzsEnable = true;  // enable QZSS data reading
@@ -99,14 +103,41 @@ public class RinexObservationParser implements ObservationsProducer{
 	}
 
 	/**
-	 *
+	 * Opens the file, Unix compressed (.Z) and Hatanaka compressed (Compact
+	 * RINEX) files are decompressed while parsing.
 	 */
-	public void open() throws FileNotFoundException{
+	public void open() throws IOException{
 		streamObs = new FileInputStream(fileObs);
-		inStreamObs = new InputStreamReader(streamObs);
+		inStreamObs = new InputStreamReader(decompress(streamObs));
 		buffStreamObs = new BufferedReader(inStreamObs);
 	}
 
+	/**
+	 * Wraps a stream with the decompressors its content needs.
+	 */
+	private static InputStream decompress(InputStream is) throws IOException {
+		InputStream in = new BufferedInputStream(is, 65536);
+		in.mark(2);
+		int b0 = in.read();
+		int b1 = in.read();
+		in.reset();
+		if (b0 == 0x1f && b1 == 0x9d)
+			in = new BufferedInputStream(new UncompressInputStream(in), 65536);
+
+		byte[] first = new byte[80];
+		in.mark(first.length);
+		int n = 0;
+		while (n < first.length) {
+			int r = in.read(first, n, first.length - n);
+			if (r < 0) break;
+			n += r;
+		}
+		in.reset();
+		if (HatanakaInputStream.isCompactRinex(new String(first, 0, n, "US-ASCII")))
+			in = new HatanakaInputStream(in);
+		return in;
+	}
+
 	public void release(boolean waitForThread, long timeoutMs) throws InterruptedException {
 		try {
 			streamObs.close();
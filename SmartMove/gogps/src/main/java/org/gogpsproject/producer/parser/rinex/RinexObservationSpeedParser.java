@@ -0,0 +1,562 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rinex;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+
+/**
+ * <p>
+ * RINEX observation parser decoding the fixed columns of the data records in
+ * place.
+ * </p>
+ * <p>
+ * The header is parsed as in {@link RinexObservationParser}, then the records
+ * are read in blocks into a reusable character window and every field is
+ * decoded from the window: no String is created per line or per field, and
+ * epoch times are computed directly instead of through a date formatter. The
+ * produced {@link Observations} are the same as the ones of
+ * {@link RinexObservationParser}, including its handling of short lines and
+ * malformed fields; uncommon numbers and dates fall back to the JDK parsers.
+ * </p>
+ */
+public class RinexObservationSpeedParser extends RinexObservationParser {
+
+	private final static double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private final static float[] POW10F = {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+	private final static long NO_TIME = Long.MIN_VALUE;
+
+	/* Window on the stream, the current line is buf[ls, le) */
+	char[] buf = new char[65536];
+	private int pos = 0;
+	private int limit = 0;
+	private boolean eof = false;
+	int ls;
+	int le;
+	/* the stream ended inside an epoch */
+	boolean truncated = false;
+
+	private char[] sysOrder = new char[32];
+	private int[] satOrder = new int[32];
+	private int datePos;
+
+	public RinexObservationSpeedParser(File fileObs) {
+		super(fileObs);
+	}
+
+	public RinexObservationSpeedParser(File fileObs, Boolean[] multiConstellation) {
+		super(fileObs, multiConstellation);
+	}
+
+	/**
+	 * Parser of the records in text[0, length), described by the header
+	 * already parsed by parser
+	 */
+	RinexObservationSpeedParser(RinexObservationParser parser, char[] text, int length) {
+		super(null);
+		ver = parser.ver;
+		nTypes = parser.nTypes;
+		nTypesG = parser.nTypesG;
+		nTypesR = parser.nTypesR;
+		nTypesE = parser.nTypesE;
+		nTypesJ = parser.nTypesJ;
+		nTypesC = parser.nTypesC;
+		typeOrder = parser.typeOrder;
+		typeOrderG = parser.typeOrderG;
+		typeOrderR = parser.typeOrderR;
+		typeOrderE = parser.typeOrderE;
+		typeOrderJ = parser.typeOrderJ;
+		typeOrderC = parser.typeOrderC;
+		hasS1Field = parser.hasS1Field;
+		hasS2Field = parser.hasS2Field;
+		gpsEnable = parser.gpsEnable;
+		qzsEnable = parser.qzsEnable;
+		gloEnable = parser.gloEnable;
+		galEnable = parser.galEnable;
+		bdsEnable = parser.bdsEnable;
+		buf = text;
+		limit = length;
+		eof = true;
+	}
+
+	@Override
+	public boolean hasMoreObservations() throws IOException {
+		return pos < limit || (!eof && buffStreamObs.ready());
+	}
+
+	/**
+	 * Parse one observation epoch
+	 */
+	@Override
+	public Observations getNextObservations() {
+		try {
+			if (!hasMoreObservations() || !nextLine()) return null;
+
+			if (ver == 2 || ver == 212)
+				return parseEpochV2();
+			else
+				return parseEpochV3();
+
+		} catch (ParseException e) {
+			// Skip over unexpected observation lines
+			e.printStackTrace();
+		} catch (StringIndexOutOfBoundsException e) {
+			// Skip over blank lines
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private Observations parseEpochV2() throws IOException, ParseException {
+
+		// Date and time, "20" + columns 1-21
+		need(22);
+		long msec = NO_TIME;
+		if (isDigit(buf[ls + 1]) && isDigit(buf[ls + 2]))
+			msec = epochMillis(2000 + (buf[ls + 1] - '0') * 10 + (buf[ls + 2] - '0'), ls + 3, ls + 22);
+		String dateStr = msec == NO_TIME ? "20" + new String(buf, ls + 1, 21) : null;
+
+		need(30);
+		int eventFlag = parseInt(ls + 28, ls + 30);
+		need(32);
+		int nSat = parseInt(ls + 30, ls + 32);
+
+		if (sysOrder.length < nSat) {
+			sysOrder = new char[nSat];
+			satOrder = new int[nSat];
+		} else {
+			Arrays.fill(sysOrder, 0, nSat, '\0');
+			Arrays.fill(satOrder, 0, nSat, 0);
+		}
+
+		// Satellites of the first line
+		int num = nSat < 12 ? nSat : 12;
+		for (int i = 0; i < num; i++)
+			parseSatV2(i, ls + 32 + 3 * i);
+
+		// Continuation lines, RINEX 2.12 has at most one of them
+		int nSatCount = nSat - num;
+		while (nSatCount > 0) {
+			nextLine();
+			trimLine();
+			num = nSatCount < 12 ? nSatCount : 12;
+			if (ver == 212)
+				num = nSatCount;
+			for (int i = 0; i < num; i++)
+				parseSatV2(i + 12, ls + 3 * i);
+			nSatCount -= num;
+		}
+
+		obs = new Observations(msec == NO_TIME ? new Time(dateStr) : new Time(msec), eventFlag);
+
+		parseDataV2(nSat);
+
+		obs.cleanObservations();
+
+		return obs;
+	}
+
+	private void parseSatV2(int i, int j) {
+		if (j + 3 > le) throw new StringIndexOutOfBoundsException(j + 3 - ls);
+		char satType = buf[j];
+		if (satType == 'G' || satType == ' ') {
+			sysOrder[i] = 'G';
+		} else if (satType == 'R' || satType == 'S' || (satType == 'J' && ver == 212)) {
+			sysOrder[i] = satType;
+		} else {
+			return;
+		}
+		satOrder[i] = parseInt(j + 1, j + 3);
+	}
+
+	private void parseDataV2(int nSat) {
+		try {
+			int nLinesToRead = (nTypes + 4) / 5;
+
+			for (int i = 0; i < nSat; i++) {
+
+				nextLine();
+
+				char satType = sysOrder[i];
+				if ((satType == 'G' && gpsEnable) || (satType == 'R' && gloEnable)
+						|| (satType == 'J' && qzsEnable)) {
+
+					ObservationSet os = new ObservationSet();
+					os.setSatType(satType);
+					os.setSatID(satOrder[i]);
+					obs.setGps(i, os);
+
+					if (nLinesToRead == 1) {
+						for (int k = 0; k < nTypes; k++)
+							assignType(os, typeOrder[k], ls + 16 * k);
+					} else {
+						int k = 0;
+						for (int l = 0; l < nLinesToRead; l++) {
+							int remTypes = nTypes - 5 * l;
+							if (remTypes > 5) {
+								for (int m = 0; m < 5; m++, k++)
+									assignType(os, typeOrder[k], ls + 16 * m);
+								nextLine();
+							} else if (remTypes < 5 && remTypes > 0) {
+								for (int m = 0; m < remTypes; m++, k++)
+									assignType(os, typeOrder[k], ls + 16 * m);
+							}
+						}
+					}
+
+				} else if (nLinesToRead > 1) { // skip unselected observations
+					for (int l = 0; l < nLinesToRead; l++)
+						if (nTypes - 5 * l > 5)
+							nextLine();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private Observations parseEpochV3() throws IOException, ParseException {
+
+		// Date and time, columns 2-24
+		need(25);
+		long msec = NO_TIME;
+		if (isDigit(buf[ls + 2]) && isDigit(buf[ls + 3]) && isDigit(buf[ls + 4]) && isDigit(buf[ls + 5]))
+			msec = epochMillis((buf[ls + 2] - '0') * 1000 + (buf[ls + 3] - '0') * 100
+					+ (buf[ls + 4] - '0') * 10 + (buf[ls + 5] - '0'), ls + 6, ls + 25);
+		String dateStr = msec == NO_TIME ? new String(buf, ls + 2, 23) : null;
+
+		need(32);
+		int eventFlag = parseInt(ls + 30, ls + 32);
+		need(35);
+		int nSat = parseInt(ls + 33, ls + 35);
+
+		obs = new Observations(msec == NO_TIME ? new Time(dateStr) : new Time(msec), eventFlag);
+
+		parseDataV3(nSat);
+
+		obs.cleanObservations();
+
+		return obs;
+	}
+
+	private void parseDataV3(int nSat) {
+		try {
+			for (int i = 0; i < nSat; i++) {
+
+				nextLine();
+				need(3);
+				char satType = buf[ls];
+				int satID = parseInt(ls + 1, ls + 3);
+
+				int n;
+				int[] order;
+				if (satType == 'G' && gpsEnable) {
+					n = nTypesG;
+					order = typeOrderG;
+				} else if (satType == 'R' && gloEnable) {
+					n = nTypesR;
+					order = typeOrderR;
+				} else if (satType == 'E' && galEnable) {
+					n = nTypesE;
+					order = typeOrderE;
+				} else if (satType == 'J' && qzsEnable) {
+					n = nTypesJ;
+					order = typeOrderJ;
+				} else if (satType == 'C' && bdsEnable) {
+					n = nTypesC;
+					order = typeOrderC;
+				} else {
+					continue;
+				}
+
+				ObservationSet os = new ObservationSet();
+				os.setSatType(satType);
+				os.setSatID(satID);
+				obs.setGps(i, os);
+
+				for (int k = 0; k < n; k++)
+					assignType(os, order[k], ls + 3 + 16 * k);
+			}
+		} catch (StringIndexOutOfBoundsException e) {
+			e.printStackTrace();
+			// Skip over blank lines
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Assign the 14 columns field starting at j according to its type order,
+	 * fields beyond the end of the line are skipped
+	 */
+	private void assignType(ObservationSet o, int type, int j) {
+		if (type > 9 || j + 14 > le) return;
+
+		int s = j;
+		int e = j + 14;
+		while (s < e && buf[s] <= ' ') s++;
+		while (e > s && buf[e - 1] <= ' ') e--;
+		if (s == e) return;
+
+		int f = type & 1;
+		switch (type) {
+		case 0: case 1: // C1, C2 code
+			o.setCodeC(f, parseDouble(s, e));
+			break;
+		case 2: case 3: // P1, P2 code
+			o.setCodeP(f, parseDouble(s, e));
+			break;
+		case 4: case 5: // L1, L2 phase
+			double phase;
+			try {
+				phase = parseDouble(s, e);
+			} catch (NumberFormatException nfe) {
+				return;
+			}
+			o.setPhaseCycles(f, phase);
+			// Loss of Lock
+			if (j + 15 <= le && isDigit(buf[j + 14]))
+				o.setLossLockInd(f, buf[j + 14] - '0');
+			// Signal Strength
+			if (j + 16 <= le && isDigit(buf[j + 15])) {
+				int ss = buf[j + 15] - '0';
+				o.setSignalStrengthInd(f, ss);
+				if (!(f == 0 ? hasS1Field : hasS2Field))
+					o.setSignalStrength(f, ss * 6);
+			}
+			break;
+		case 6: case 7: // S1, S2 SNR
+			o.setSignalStrength(f, parseFloat(s, e));
+			break;
+		case 8: case 9: // D1, D2 doppler
+			o.setDoppler(f, parseFloat(s, e));
+			break;
+		}
+	}
+
+	/**
+	 * Moves to the next line of the stream, returns false and an empty line at
+	 * the end of the stream
+	 */
+	boolean nextLine() throws IOException {
+		int i = pos;
+		for (;;) {
+			while (i < limit) {
+				if (buf[i] == '\n') {
+					ls = pos;
+					le = i > pos && buf[i - 1] == '\r' ? i - 1 : i;
+					pos = i + 1;
+					return true;
+				}
+				i++;
+			}
+			if (eof) {
+				ls = pos;
+				le = limit;
+				if (le > ls && buf[le - 1] == '\r') le--;
+				pos = limit;
+				if (ls == limit)
+					truncated = true;
+				return ls < limit;
+			}
+			// keep the partial line and read more
+			if (pos > 0) {
+				System.arraycopy(buf, pos, buf, 0, limit - pos);
+				i -= pos;
+				limit -= pos;
+				pos = 0;
+			} else if (limit == buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			int n = buffStreamObs.read(buf, limit, buf.length - limit);
+			if (n < 0)
+				eof = true;
+			else
+				limit += n;
+		}
+	}
+
+	private void trimLine() {
+		while (ls < le && buf[ls] <= ' ') ls++;
+		while (le > ls && buf[le - 1] <= ' ') le--;
+	}
+
+	/**
+	 * Fails as String.substring when the current line ends before column end
+	 */
+	void need(int end) {
+		if (ls + end > le) throw new StringIndexOutOfBoundsException(end);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Same result as Integer.parseInt of the trimmed field
+	 */
+	int parseInt(int s, int e) {
+		int i = s;
+		int end = e;
+		while (i < end && buf[i] <= ' ') i++;
+		while (end > i && buf[end - 1] <= ' ') end--;
+		boolean neg = false;
+		if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+			neg = buf[i] == '-';
+			i++;
+		}
+		if (i == end || end - i > 9)
+			return Integer.parseInt(new String(buf, s, e - s).trim());
+		int v = 0;
+		for (; i < end; i++) {
+			char c = buf[i];
+			if (!isDigit(c))
+				return Integer.parseInt(new String(buf, s, e - s).trim());
+			v = v * 10 + (c - '0');
+		}
+		return neg ? -v : v;
+	}
+
+	/**
+	 * Same result as Double.parseDouble of a trimmed field: mantissas up to 2^53
+	 * with up to 22 decimals are exact, so a single division rounds correctly
+	 */
+	private double parseDouble(int s, int e) {
+		int i = s;
+		boolean neg = false;
+		if (buf[i] == '-' || buf[i] == '+') {
+			neg = buf[i] == '-';
+			i++;
+		}
+		long m = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < e; i++) {
+			char c = buf[i];
+			if (isDigit(c)) {
+				if (++digits > 18) break;
+				m = m * 10 + (c - '0');
+				if (decimals >= 0) decimals++;
+			} else if (c == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+		if (i < e || digits == 0 || m > (1L << 53) || decimals > 22)
+			return Double.parseDouble(new String(buf, s, e - s));
+		double v = decimals > 0 ? m / POW10[decimals] : m;
+		return neg ? -v : v;
+	}
+
+	/**
+	 * Same result as Float.parseFloat of a trimmed field, as parseDouble with
+	 * mantissas up to 2^24 and up to 10 decimals
+	 */
+	private float parseFloat(int s, int e) {
+		int i = s;
+		boolean neg = false;
+		if (buf[i] == '-' || buf[i] == '+') {
+			neg = buf[i] == '-';
+			i++;
+		}
+		int m = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < e; i++) {
+			char c = buf[i];
+			if (isDigit(c)) {
+				if (++digits > 9) break;
+				m = m * 10 + (c - '0');
+				if (decimals >= 0) decimals++;
+			} else if (c == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+		if (i < e || digits == 0 || m > (1 << 24) || decimals > 10)
+			return Float.parseFloat(new String(buf, s, e - s));
+		float v = decimals > 0 ? m / POW10F[decimals] : m;
+		return neg ? -v : v;
+	}
+
+	/**
+	 * Computes the time of "yyyy MM dd HH mm ss.SSS" as the lenient GMT date
+	 * format of {@link Time}, the year is already parsed and buf[from, to)
+	 * holds the rest. Returns NO_TIME if the date needs the date format.
+	 */
+	private long epochMillis(int year, int from, int to) {
+		datePos = from;
+		int month = dateField(to, true);
+		int day = dateField(to, true);
+		int hour = dateField(to, true);
+		int min = dateField(to, true);
+		int sec = dateField(to, true);
+		if (year < 1900 || month < 1 || month > 12 || day < 0 || hour < 0 || min < 0 || sec < 0
+				|| datePos >= to || buf[datePos++] != '.')
+			return NO_TIME;
+		int millis = dateField(to, false);
+		if (millis < 0 || (datePos < to && buf[datePos] != ' '))
+			return NO_TIME;
+
+		// days from 1970-01-01 of the first of the month
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+		long days = era * 146097L + yoe * 365 + yoe / 4 - yoe / 100 + doy - 719468;
+
+		return ((((days + day - 1) * 24 + hour) * 60 + min) * 60 + sec) * 1000 + millis;
+	}
+
+	/**
+	 * Parses an unsigned field of up to 9 digits at datePos, after at least a
+	 * blank if requested. Returns -1 if there is no such field.
+	 */
+	private int dateField(int to, boolean blanks) {
+		int i = datePos;
+		if (blanks) {
+			if (i >= to || buf[i] != ' ') return -1;
+			while (i < to && buf[i] == ' ') i++;
+		}
+		int v = 0;
+		int n = 0;
+		while (i < to && n < 9 && isDigit(buf[i])) {
+			v = v * 10 + (buf[i++] - '0');
+			n++;
+		}
+		if (n == 0) return -1;
+		datePos = i;
+		return v;
+	}
+}
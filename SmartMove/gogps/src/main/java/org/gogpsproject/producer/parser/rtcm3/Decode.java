@@ -20,12 +20,57 @@
 
 package org.gogpsproject.producer.parser.rtcm3;
 
+import org.gogpsproject.util.BitReader;
+
 /**
+ * Decoder of one RTCM3 message type.
+ * <p>
+ * Implementations override {@link #decode(BitReader, int)}. Decoders written
+ * against the former bit array signature keep working: they only override
+ * {@link #decode(boolean[], int)} and the reader is expanded for them.
+ * Callers of the former signature keep working too, the bits are packed into
+ * a reader for the decoders overriding the new one. Implementations must
+ * override one of the two.
+ * </p>
+ *
  * @author Mohamed
  *
  */
 public interface Decode {
 
-	public abstract Object decode(boolean[] bits, int week);
+	/**
+	 * @param bits
+	 *            message payload, positioned on the message type field
+	 * @param week
+	 *            current GPS week
+	 * @throws UnsupportedOperationException if neither signature is overridden
+	 */
+	public default Object decode(BitReader bits, int week) {
+		Decode previous = DecodeDelegation.begin(this);
+		try {
+			return decode(bits.toBits(), week);
+		} finally {
+			DecodeDelegation.end(previous);
+		}
+	}
+
+	/**
+	 * @param bits
+	 *            message payload, one boolean per bit
+	 * @param week
+	 *            current GPS week
+	 * @deprecated call or override {@link #decode(BitReader, int)} instead,
+	 *             this signature allocates one boolean per payload bit
+	 * @throws UnsupportedOperationException if neither signature is overridden
+	 */
+	@Deprecated
+	public default Object decode(boolean[] bits, int week) {
+		Decode previous = DecodeDelegation.begin(this);
+		try {
+			return decode(BitReader.wrap(bits), week);
+		} finally {
+			DecodeDelegation.end(previous);
+		}
+	}
 
-}
\ No newline at end of file
+}
@@ -30,7 +30,7 @@ import org.gogpsproject.producer.ObservationSet;
 import org.gogpsproject.producer.Observations;
 import org.gogpsproject.Constants;
 import org.gogpsproject.positioning.Time;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 public class Decode1004Msg implements Decode {
 
@@ -44,62 +44,44 @@ public class Decode1004Msg implements Decode {
 	/* (non-Javadoc)
 	 * @see com.crysm.gogps.parser.tes#decode()
 	 */
-	public Observations decode(boolean[] bits, int week) {
+	public Observations decode(BitReader bits, int week) {
 		
-		if (bits.length < 64)
+		if (bits.getBitLength() < 64)
 			return null;
 
-		int start = 12;
+		bits.setPosition(12);
 		//header.setStationID(Bits.bitsToUInt(Bits.subset(bits, start, 12)));
-		int DF003 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 12));
-		start += 12;
+		int DF003 = (int)bits.readUInt(12);
 		//header.setEpochTime(Bits.bitsToUInt(Bits.subset(bits, start, 30)));
-		double DF004 = (double)Bits.bitsToUInt(Bits.subset(bits, start, 30));
-		start += 30;
+		double DF004 = (double)bits.readUInt(30);
 		//header.setGNSSFlag(Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		boolean DF005 = (Bits.bitsToUInt(Bits.subset(bits, start, 1))==1);
-		start += 1;
+		boolean DF005 = bits.readBoolean();
 		//header.setNumberGPS(Bits.bitsToUInt(Bits.subset(bits, start, 5)));
-		int DF006 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 5));
-		start += 5;
+		int DF006 = (int)bits.readUInt(5);
 		//header.setDivergenceSmooth(Bits.bitsToUInt(Bits.subset(bits, start, 11)));
-		boolean DF007 = (Bits.bitsToUInt(Bits.subset(bits, start, 1))==1);
-		start += 1;
+		boolean DF007 = bits.readBoolean();
 		//header.setSmouthInterval(Bits.bitsToUInt(Bits.subset(bits, start, 3)));
-		int DF008 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 3));
-		start += 3;
+		int DF008 = (int)bits.readUInt(3);
 		//System.out.println(header);
 
-		if (bits.length < 125*DF006)
+		if (bits.getBitLength() < 125*DF006)
 			return null;
 		
 		Observations o = new Observations(new Time(week,DF004/1000),0);
 
 		for (int i = 0; i < DF006 /*header.getNumberGPS()*/; i++) {
-			int DF009 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 6));
-			start += 6;
-			boolean DF010 = (Bits.bitsToUInt(Bits.subset(bits, start, 1))==1);
-			start += 1;
-			long DF011 = Bits.bitsToUInt(Bits.subset(bits,start, 24));
-			start += 24;
-			long DF012 = Bits.bitsTwoComplement(Bits.subset(bits, start, 20));
-			start += 20;
-			int DF013 = (int)Bits.bitsToUInt(Bits.subset(bits, start,7));
-			start += 7;
-			int DF014 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 8));
-			start += 8;
-			int DF015 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 8));
-			start += 8;
-			int DF016 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 2));
-			start += 2;
-			int DF017 = (int)Bits.bitsTwoComplement(Bits.subset(bits,start, 14));
-			start += 14;
-			long DF018 = Bits.bitsTwoComplement(Bits.subset(bits,start, 20));
-			start += 20;
-			int DF019 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 7));
-			start += 7;
-			int DF020 = (int)Bits.bitsToUInt(Bits.subset(bits, start, 8));
-			start += 8;
+			int DF009 = (int)bits.readUInt(6);
+			boolean DF010 = bits.readBoolean();
+			long DF011 = bits.readUInt(24);
+			long DF012 = bits.readInt(20);
+			int DF013 = (int)bits.readUInt(7);
+			int DF014 = (int)bits.readUInt(8);
+			int DF015 = (int)bits.readUInt(8);
+			int DF016 = (int)bits.readUInt(2);
+			int DF017 = (int)bits.readInt(14);
+			long DF018 = bits.readInt(20);
+			int DF019 = (int)bits.readUInt(7);
+			int DF020 = (int)bits.readUInt(8);
 
 			ObservationSet os = new ObservationSet();
 			os.setSatID(DF009);
@@ -22,7 +22,7 @@ package org.gogpsproject.producer.parser.rtcm3;
 
 import org.gogpsproject.positioning.Coordinates;
 import org.gogpsproject.producer.Observations;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 public class Decode1005Msg implements Decode {
 
@@ -33,35 +33,23 @@ public class Decode1005Msg implements Decode {
 	}
 
 
-	public Coordinates decode(boolean[] bits, int referenceTS) {
-		int start = 12;
+	public Coordinates decode(BitReader bits, int referenceTS) {
+		bits.setPosition(12);
 		//System.out.println("Debug : Decode 1005");
 		StationaryAntenna stationaryantenne = new StationaryAntenna();
 
-		stationaryantenne.setStationID((int)Bits.bitsToUInt(Bits.subset(bits, start,12)));
-		start += 12;
-		stationaryantenne.setItrl((int)Bits.bitsToUInt(Bits.subset(bits, start, 6)));
-		start += 6;
-		stationaryantenne.setGpsIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setGlonassIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setRgalileoIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setRstationIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setAntennaRefPointX(Bits.bitsTwoComplement(Bits.subset(bits, start, 38)) * 0.0001);
-		start += 38;
-		stationaryantenne.setSreceiverOscillator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setReserved1((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setAntennaRefPointY(Bits.bitsTwoComplement(Bits.subset(bits, start, 38)) * 0.0001);
-		start += 38;
-		stationaryantenne.setReserved2((int)Bits.bitsToUInt(Bits.subset(bits, start, 2)));
-		start += 2;
-		stationaryantenne.setAntennaRefPointZ(Bits.bitsTwoComplement(Bits.subset(bits, start, 38)) * 0.0001);
-		start += 38;
+		stationaryantenne.setStationID((int)bits.readUInt(12));
+		stationaryantenne.setItrl((int)bits.readUInt(6));
+		stationaryantenne.setGpsIndicator((int)bits.readUInt(1));
+		stationaryantenne.setGlonassIndicator((int)bits.readUInt(1));
+		stationaryantenne.setRgalileoIndicator((int)bits.readUInt(1));
+		stationaryantenne.setRstationIndicator((int)bits.readUInt(1));
+		stationaryantenne.setAntennaRefPointX(bits.readInt(38) * 0.0001);
+		stationaryantenne.setSreceiverOscillator((int)bits.readUInt(1));
+		stationaryantenne.setReserved1((int)bits.readUInt(1));
+		stationaryantenne.setAntennaRefPointY(bits.readInt(38) * 0.0001);
+		stationaryantenne.setReserved2((int)bits.readUInt(2));
+		stationaryantenne.setAntennaRefPointZ(bits.readInt(38) * 0.0001);
 
 		Coordinates c = Coordinates.globalXYZInstance(stationaryantenne.getAntennaRefPointX(), stationaryantenne.getAntennaRefPointY(), stationaryantenne.getAntennaRefPointZ());
 		client.setMasterPosition(c);
@@ -21,7 +21,7 @@
 package org.gogpsproject.producer.parser.rtcm3;
 
 import org.gogpsproject.positioning.Coordinates;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 public class Decode1006Msg implements Decode {
 
@@ -32,40 +32,27 @@ public class Decode1006Msg implements Decode {
 	}
 
 
-	public Object decode(boolean[] bits, int referenceTS) {
-		int start = 12;
+	public Object decode(BitReader bits, int referenceTS) {
+		bits.setPosition(12);
 		//System.out.println("Debug : Decode 1006");
 		StationaryAntenna stationaryantenne = new StationaryAntenna();
 
-		stationaryantenne.setStationID((int)Bits.bitsToUInt(Bits.subset(bits, start, 12)));
-		start += 12;
-		stationaryantenne.setItrl((int)Bits.bitsToUInt(Bits.subset(bits, start, 6)));
-		start += 6;
-		stationaryantenne.setGpsIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setGlonassIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setRgalileoIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setRstationIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
+		stationaryantenne.setStationID((int)bits.readUInt(12));
+		stationaryantenne.setItrl((int)bits.readUInt(6));
+		stationaryantenne.setGpsIndicator((int)bits.readUInt(1));
+		stationaryantenne.setGlonassIndicator((int)bits.readUInt(1));
+		stationaryantenne.setRgalileoIndicator((int)bits.readUInt(1));
+		stationaryantenne.setRstationIndicator((int)bits.readUInt(1));
 		//System.out.println("x"+Bits.bitsToStr(Bits.subset(bits, start, 38)));
-		stationaryantenne.setAntennaRefPointX(Bits.bitsTwoComplement(Bits.subset(bits, start, 38)) * 0.0001);
-		start += 38;
-		stationaryantenne.setSreceiverOscillator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
-		stationaryantenne.setReserved1((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-		start += 1;
+		stationaryantenne.setAntennaRefPointX(bits.readInt(38) * 0.0001);
+		stationaryantenne.setSreceiverOscillator((int)bits.readUInt(1));
+		stationaryantenne.setReserved1((int)bits.readUInt(1));
 		//System.out.println("y"+Bits.bitsToStr(Bits.subset(bits, start, 38)));
-		stationaryantenne.setAntennaRefPointY(Bits.bitsTwoComplement(Bits.subset(bits, start, 38)) * 0.0001);
-		start += 38;
-		stationaryantenne.setReserved2((int)Bits.bitsToUInt(Bits.subset(bits, start, 2)));
-		start += 2;
+		stationaryantenne.setAntennaRefPointY(bits.readInt(38) * 0.0001);
+		stationaryantenne.setReserved2((int)bits.readUInt(2));
 		//System.out.println("z"+Bits.bitsToStr(Bits.subset(bits, start, 38)));
-		stationaryantenne.setAntennaRefPointZ(Bits.bitsTwoComplement(Bits.subset(bits, start, 38)) * 0.0001);
-		start += 38;
-		stationaryantenne.setAntennaHeight(Bits.bitsToUInt(Bits.subset(bits, start, 16)) * 0.0001);
-		start += 16;
+		stationaryantenne.setAntennaRefPointZ(bits.readInt(38) * 0.0001);
+		stationaryantenne.setAntennaHeight(bits.readUInt(16) * 0.0001);
 
 		Coordinates c = Coordinates.globalXYZInstance(stationaryantenne.getAntennaRefPointX(), stationaryantenne.getAntennaRefPointY(), stationaryantenne.getAntennaRefPointZ());
 		client.setMasterPosition(c);
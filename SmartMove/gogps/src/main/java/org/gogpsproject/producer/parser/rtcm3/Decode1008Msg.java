@@ -20,7 +20,7 @@
 
 package org.gogpsproject.producer.parser.rtcm3;
 
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 public class Decode1008Msg implements Decode {
 
@@ -29,30 +29,24 @@ public class Decode1008Msg implements Decode {
 		this.client = client;
 	}
 
-	public Object decode(boolean[] bits, int referenceTS) {
+	public Object decode(BitReader bits, int referenceTS) {
 		AntennaDescriptor antenna = new AntennaDescriptor();
-		int start = 12;
+		bits.setPosition(12);
 		String desc = "";
 		String serial = "";
-		antenna.setStationID((int)Bits.bitsToUInt(Bits.subset(bits, start, 12)));
-		start += 12;
-		int cnt = (int)Bits.bitsToUInt(Bits.subset(bits, start, 8));
-		start += 8;
+		antenna.setStationID((int)bits.readUInt(12));
+		int cnt = (int)bits.readUInt(8);
 		for (int i = 0; i < cnt; i++) {
-			char value = (char) Bits.bitsToUInt(Bits.subset(bits, start, 8));
+			char value = (char) bits.readUInt(8);
 			desc += Character.toString(value);
-			start += 8;
 		}
 		antenna.setAntennaDescriptor(desc);
-		antenna.setSetupID((int)Bits.bitsToUInt(Bits.subset(bits, start, 8)));
-		start += 8;
+		antenna.setSetupID((int)bits.readUInt(8));
 
-		cnt = (int)Bits.bitsToUInt(Bits.subset(bits, start, 8));
-		start += 8;
+		cnt = (int)bits.readUInt(8);
 		for (int i = 0; i < cnt; i++) {
-			char value = (char) Bits.bitsToUInt(Bits.subset(bits, start, 8));
+			char value = (char) bits.readUInt(8);
 			serial += Character.toString(value);
-			start += 8;
 		}
 		antenna.setAntennaSerial(serial);
 
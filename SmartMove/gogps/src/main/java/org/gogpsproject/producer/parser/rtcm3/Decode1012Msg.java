@@ -21,60 +21,39 @@
 package org.gogpsproject.producer.parser.rtcm3;
 import java.util.Arrays;
 
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 
 public class Decode1012Msg implements Decode {
 	public Decode1012Msg() {
 
 	}
-	public Object decode(boolean[] bits, int referenceTS) {
-		int start = 12;
+	public Object decode(BitReader bits, int referenceTS) {
+		bits.setPosition(12);
 		GlonassHeader glonassh = new GlonassHeader();
 		GlonassSatellite satellite = new GlonassSatellite();
 
-		glonassh.setStationid((int)Bits.bitsToUInt(Bits.subset(bits, start, 12))); // 12
-		start += 12;
-		glonassh.setEpochTime(Bits.bitsToUInt(Bits.subset(bits, start, 27))); // 27
-		start += 27;
-		glonassh.setFlag((int)Bits.bitsToUInt(Bits.subset(bits, start, 1))); // 1
-		start++;
-		glonassh.setNumberOfSatellites((int)Bits.bitsToUInt(Bits.subset(bits, start, 5))); // 5
-		start += 5;
-		glonassh.setSmoothIndicator((int)Bits.bitsToUInt(Bits.subset(bits, start, 1))); // 1
-		start += 1;
-		glonassh.setSmoothInterval((int)Bits.bitsToUInt(Bits.subset(bits, start, 3))); // 3
-		start += 3;
+		glonassh.setStationid((int)bits.readUInt(12)); // 12
+		glonassh.setEpochTime(bits.readUInt(27)); // 27
+		glonassh.setFlag((int)bits.readUInt(1)); // 1
+		glonassh.setNumberOfSatellites((int)bits.readUInt(5)); // 5
+		glonassh.setSmoothIndicator((int)bits.readUInt(1)); // 1
+		glonassh.setSmoothInterval((int)bits.readUInt(3)); // 3
 		//System.out.println(glonassh);
 		for (int i = 0; i < glonassh.getNumberOfSatellites(); i++) {
-			satellite.setSatID((int)Bits.bitsToUInt(Bits.subset(bits, start, 6)));
-			start += 6;
-			satellite.setL1code((int)Bits.bitsToUInt(Bits.subset(bits, start, 1)));
-			start += 1;
-			satellite.setSatFrequency((int)Bits.bitsToUInt(Bits.subset(bits, start, 5)));
-			start += 5;
-			satellite.setL1pseudorange(Bits.bitsTwoComplement(Bits.subset(bits,start, 25)));
-			start += 25;
-			satellite.setL1phaserange(Bits.bitsToUInt(Bits.subset(bits, start, 20)));
-			start += 20;
-			satellite.setL1locktime((int)Bits.bitsTwoComplement(Bits.subset(bits, start, 7)));
-			start += 7;
-			satellite.setL1psedorangemod((int)Bits.bitsToUInt(Bits.subset(bits, start, 7)));
-			start += 7;
-			satellite.setL1CNR((int)Bits.bitsToUInt(Bits.subset(bits, start, 8)));
-			start += 8;
-			satellite.setL2code((int)Bits.bitsToUInt(Bits.subset(bits, start, 2)));
-			start += 2;
-			satellite.setL2l1psedorangeDif(Bits.bitsTwoComplement(Bits.subset(bits,
-					start, 14)));
-			start += 14;
-			satellite.setL2l1phaserangeDif(Bits.bitsTwoComplement(Bits.subset(bits,
-					start, 20)));
-			start += 20;
-			satellite.setL2locktime((int)Bits.bitsToUInt(Bits.subset(bits, start, 7)));
-			start += 7;
-			satellite.setL2CNR((int)Bits.bitsToUInt(Bits.subset(bits, start, 8)));
-			start += 8;
+			satellite.setSatID((int)bits.readUInt(6));
+			satellite.setL1code((int)bits.readUInt(1));
+			satellite.setSatFrequency((int)bits.readUInt(5));
+			satellite.setL1pseudorange(bits.readInt(25));
+			satellite.setL1phaserange(bits.readUInt(20));
+			satellite.setL1locktime((int)bits.readInt(7));
+			satellite.setL1psedorangemod((int)bits.readUInt(7));
+			satellite.setL1CNR((int)bits.readUInt(8));
+			satellite.setL2code((int)bits.readUInt(2));
+			satellite.setL2l1psedorangeDif(bits.readInt(14));
+			satellite.setL2l1phaserangeDif(bits.readInt(20));
+			satellite.setL2locktime((int)bits.readUInt(7));
+			satellite.setL2CNR((int)bits.readUInt(8));
 		}
 		return null;
 	}
@@ -33,7 +33,7 @@ import android.location.GnssStatus;
 import android.util.Log;
 
 import org.gogpsproject.ephemeris.GpsEphemeris;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 import org.gogpsproject.ephemeris.GNSSEphemeris;
 import org.gogpsproject.Constants;
 
@@ -42,69 +42,41 @@ public class Decode1019Msg implements Decode {
 
     }
 
-    public Object decode(boolean[] bits, int referenceTS) {
+    public Object decode(BitReader bits, int referenceTS) {
         GpsEphemeris mEph = new GpsEphemeris();
-        int i = 0;
 
-
-        i += 12; //Bits of message number
+        bits.setPosition(12); //Bits of message number
 
         //Start decoding
         try {
-            mEph.setPrn((int) Bits.bitsToUInt(Bits.subset(bits, i, 6)));
-            i += 6;
-            mEph.setWeek((int) Bits.bitsToUInt(Bits.subset(bits, i, 10)));
-            i += 10;
-            i += 4; //SV ACCURACY word
-            i += 2; //CODE ON L2 word
-            mEph.setIdot((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 14)) * Constants.P2_43 * Constants.PI_ORBIT); //BON
-
-            i += 14;
-            mEph.setIode((int) Bits.bitsToUInt(Bits.subset(bits, i, 8)));
-            i += 8;
-            mEph.setToc((double) Bits.bitsToUInt(Bits.subset(bits, i, 16)) * 16.0);
-            i += 16;
-            mEph.setAf2((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 8)) * Constants.P2_55);
-            i += 8;
-            mEph.setAf1((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_43);
-            i += 16;
-            mEph.setAf0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 22)) * Constants.P2_31);
-            i += 22;
-            mEph.setIodc((int) Bits.bitsToUInt(Bits.subset(bits, i, 10)));
-            i += 10;
-            mEph.setCrs((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_5);
-            i += 16;
-            mEph.setDeltaN((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_43 * Constants.PI_ORBIT);
-            i += 16;
-            mEph.setM0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCuc((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_29);
-            i += 16;
-            mEph.setEc((double) Bits.bitsToUInt(Bits.subset(bits, i, 32)) * Constants.P2_33);
-            i += 32;
-            mEph.setCus((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_29);
-            i += 16;
-            mEph.setSquareA((double) Bits.bitsToUInt(Bits.subset(bits, i, 32)) * Constants.P2_19);
-            i += 32;
-            mEph.setToe((double) Bits.bitsToUInt(Bits.subset(bits, i, 16)) * 16.0);
-            i += 16;
-            mEph.setCic((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_29);
-            i += 16;
-            mEph.setOmega0(((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31) * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCis((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_29);
-            i += 16;
-            mEph.setI0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCrc((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_5);
-            i += 16;
-            mEph.setOmega((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setOmegaDot(((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 24)) * Constants.P2_43)* Constants.PI_ORBIT);
-            i += 24;
-            i += 8;  //tgd word
-            mEph.setSvh((int) Bits.bitsToUInt(Bits.subset(bits, i, 6)));
-            i += 6;
+            mEph.setPrn((int) bits.readUInt(6));
+            mEph.setWeek((int) bits.readUInt(10));
+            bits.skip(4); //SV ACCURACY word
+            bits.skip(2); //CODE ON L2 word
+            mEph.setIdot((double) bits.readInt(14) * Constants.P2_43 * Constants.PI_ORBIT); //BON
+            mEph.setIode((int) bits.readUInt(8));
+            mEph.setToc((double) bits.readUInt(16) * 16.0);
+            mEph.setAf2((double) bits.readInt(8) * Constants.P2_55);
+            mEph.setAf1((double) bits.readInt(16) * Constants.P2_43);
+            mEph.setAf0((double) bits.readInt(22) * Constants.P2_31);
+            mEph.setIodc((int) bits.readUInt(10));
+            mEph.setCrs((double) bits.readInt(16) * Constants.P2_5);
+            mEph.setDeltaN((double) bits.readInt(16) * Constants.P2_43 * Constants.PI_ORBIT);
+            mEph.setM0((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setCuc((double) bits.readInt(16) * Constants.P2_29);
+            mEph.setEc((double) bits.readUInt(32) * Constants.P2_33);
+            mEph.setCus((double) bits.readInt(16) * Constants.P2_29);
+            mEph.setSquareA((double) bits.readUInt(32) * Constants.P2_19);
+            mEph.setToe((double) bits.readUInt(16) * 16.0);
+            mEph.setCic((double) bits.readInt(16) * Constants.P2_29);
+            mEph.setOmega0(((double) bits.readInt(32) * Constants.P2_31) * Constants.PI_ORBIT);
+            mEph.setCis((double) bits.readInt(16) * Constants.P2_29);
+            mEph.setI0((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setCrc((double) bits.readInt(16) * Constants.P2_5);
+            mEph.setOmega((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setOmegaDot(((double) bits.readInt(24) * Constants.P2_43)* Constants.PI_ORBIT);
+            bits.skip(8);  //tgd word
+            mEph.setSvh((int) bits.readUInt(6));
         }
         catch (Exception e)
         {
@@ -34,7 +34,7 @@ import android.util.Log;
 
 import org.gogpsproject.Constants;
 import org.gogpsproject.ephemeris.GlonassEphemeris;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 public class Decode1020Msg implements Decode{
 
@@ -42,47 +42,34 @@ public class Decode1020Msg implements Decode{
 
     }
 
-    public Object decode(boolean[] bits, int referenceTS) {
+    public Object decode(BitReader bits, int referenceTS) {
         GlonassEphemeris mEph = new GlonassEphemeris();
 
-        int i = 0;
-
-        i += 12; //Bits of message number
+        bits.setPosition(12); //Bits of message number
 
         //Start decoding
         try {
-            mEph.setPrn((int) Bits.bitsToUInt(Bits.subset(bits, i, 6)));
-            i += 6;
-            i += 5+2+2; //frequency information
-            mEph.setTk( ( Bits.bitsToUInt(Bits.subset(bits, i, 5)) * 3600
-                    + Bits.bitsToUInt(Bits.subset(bits, i+5, 6)) * 60
-                    + Bits.bitsToUInt(Bits.subset(bits, i+5+6, 1)) * 30) );
-            i += 5+6+1;
-            mEph.setBn((int) Bits.bitsToUInt(Bits.subset(bits, i, 1)));
-            i += 1+1; //Bn
-            mEph.setTb((int) Bits.bitsToUInt(Bits.subset(bits, i, 7)) * 15);
-            i += 7;
-            mEph.setX_dot(getValue(bits, i,24)*Constants.P2_20);
-            i += 24;
-            mEph.setX(getValue(bits, i,27)*Constants.P2_11);
-            i += 27;
-            mEph.setX_ddot(getValue(bits, i,5)*Constants.P2_30);
-            i += 5;
-            mEph.setY_dot(getValue(bits, i,24)*Constants.P2_20);
-            i += 24;
-            mEph.setY(getValue(bits, i,27)*Constants.P2_11);
-            i += 27;
-            mEph.setY_ddot(getValue(bits, i,5)*Constants.P2_30);
-            i += 5;
-            mEph.setZ_dot(getValue(bits, i,24)*Constants.P2_20);
-            i += 24;
-            mEph.setZ(getValue(bits, i,27)*Constants.P2_11);
-            i += 27;
-            mEph.setZ_ddot(getValue(bits, i,5)*Constants.P2_30);
-            i += 5+1;
-            mEph.setGamma_n(getValue(bits, i,11)*Constants.P2_40);
-            i += 11+3;
-            mEph.setTau_n(getValue(bits, i,22)*Constants.P2_30);
+            mEph.setPrn((int) bits.readUInt(6));
+            bits.skip(5+2+2); //frequency information
+            mEph.setTk( ( bits.readUInt(5) * 3600
+                    + bits.readUInt(6) * 60
+                    + bits.readUInt(1) * 30) );
+            mEph.setBn((int) bits.readUInt(1));
+            bits.skip(1); //Bn
+            mEph.setTb((int) bits.readUInt(7) * 15);
+            mEph.setX_dot(bits.readSignMagnitude(24)*Constants.P2_20);
+            mEph.setX(bits.readSignMagnitude(27)*Constants.P2_11);
+            mEph.setX_ddot(bits.readSignMagnitude(5)*Constants.P2_30);
+            mEph.setY_dot(bits.readSignMagnitude(24)*Constants.P2_20);
+            mEph.setY(bits.readSignMagnitude(27)*Constants.P2_11);
+            mEph.setY_ddot(bits.readSignMagnitude(5)*Constants.P2_30);
+            mEph.setZ_dot(bits.readSignMagnitude(24)*Constants.P2_20);
+            mEph.setZ(bits.readSignMagnitude(27)*Constants.P2_11);
+            mEph.setZ_ddot(bits.readSignMagnitude(5)*Constants.P2_30);
+            bits.skip(1);
+            mEph.setGamma_n(bits.readSignMagnitude(11)*Constants.P2_40);
+            bits.skip(3);
+            mEph.setTau_n(bits.readSignMagnitude(22)*Constants.P2_30);
 
             mEph.computeGregorianDate();
             mEph.computeWn();
@@ -95,20 +82,4 @@ public class Decode1020Msg implements Decode{
 
         return mEph;
     }
-
-    /**
-     * gets the value of the word in the rtcm3 message
-     * @param bits full RTCM3 message
-     * @param start first bit of the word
-     * @param length length of the word
-     * @return
-     */
-    private double getValue(boolean[] bits, int start, int length) {
-
-        int sign = 1;
-        if (bits[start]){ // 0 is + and 1 is -
-            sign = -1;
-        }
-        return (double)(Bits.bitsToUInt(Bits.subset(bits, start+1, length-1)) * sign);
-    }
 }
@@ -35,7 +35,7 @@ import android.util.Log;
 import org.gogpsproject.Constants;
 import org.gogpsproject.ephemeris.BeidouEphemeris;
 import org.gogpsproject.ephemeris.GNSSEphemeris;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 
 public class Decode1042Msg implements Decode {
@@ -43,69 +43,43 @@ public class Decode1042Msg implements Decode {
 
     }
 
-    public Object decode(boolean[] bits, int referenceTS) {
+    public Object decode(BitReader bits, int referenceTS) {
         BeidouEphemeris mEph = new BeidouEphemeris();
-        int i = 0;
-        //int i = 24; //Found in RTKLIB, to be verified ...
+        //bits.setPosition(24); //Found in RTKLIB, to be verified ...
 
-        i += 12; //Bits of message number
+        bits.setPosition(12); //Bits of message number
 
 
         try {
             //Start decoding
-            mEph.setPrn((int) Bits.bitsToUInt(Bits.subset(bits, i, 6)));
-            i += 6;
-            mEph.setWeek((int) Bits.bitsToUInt(Bits.subset(bits, i, 13)));
-            i += 13;
-            i += 4; // SV URAI
-            mEph.setIdot((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 14)) * Constants.P2_43 * Constants.PI_ORBIT);
-            i += 14;
-            mEph.setIode((int) Bits.bitsToUInt(Bits.subset(bits, i, 5)));
-            i += 5;
-            mEph.setToc((double) Bits.bitsToUInt(Bits.subset(bits, i, 17)) * 8.0);
-            i += 17;
-            mEph.setAf2((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 11)) * Constants.P2_66);
-            i += 11;
-            mEph.setAf1((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 22)) * Constants.P2_50);
-            i += 22;
-            mEph.setAf0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 24)) * Constants.P2_33);
-            i += 24;
-            mEph.setIodc((int) Bits.bitsToUInt(Bits.subset(bits, i, 5)));
-            i += 5;
-            mEph.setCrs((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 18)) * Constants.P2_6);
-            i += 18;
-            mEph.setDeltaN((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_43 * Constants.PI_ORBIT);
-            i += 16;
-            mEph.setM0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCuc((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 18)) * Constants.P2_31);
-            i += 18;
-            mEph.setEc((double) Bits.bitsToUInt(Bits.subset(bits, i, 32)) * Constants.P2_33);
-            i += 32;
-            mEph.setCus((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 18)) * Constants.P2_31);
-            i += 18;
-            mEph.setSquareA((double) Bits.bitsToUInt(Bits.subset(bits, i, 32)) * Constants.P2_19);
-            i += 32;
-            mEph.setToe((double) Bits.bitsToUInt(Bits.subset(bits, i, 17)) * 8.0);
-            i += 17;
-            mEph.setCic((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 18)) * Constants.P2_31);
-            i += 18;
-            mEph.setOmega0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCis((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 18)) * Constants.P2_31);
-            i += 18;
-            mEph.setI0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCrc((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 18)) * Constants.P2_6);
-            i += 18;
-            mEph.setOmega((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setOmegaDot((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 24)) * Constants.P2_43 * Constants.PI_ORBIT);
-            i += 24;
-            i += 10;  //tgd word
-            i += 10;  //tgd word
-            mEph.setSvh((int) Bits.bitsToUInt(Bits.subset(bits, i, 1)));
-            i += 1;
+            mEph.setPrn((int) bits.readUInt(6));
+            mEph.setWeek((int) bits.readUInt(13));
+            bits.skip(4); // SV URAI
+            mEph.setIdot((double) bits.readInt(14) * Constants.P2_43 * Constants.PI_ORBIT);
+            mEph.setIode((int) bits.readUInt(5));
+            mEph.setToc((double) bits.readUInt(17) * 8.0);
+            mEph.setAf2((double) bits.readInt(11) * Constants.P2_66);
+            mEph.setAf1((double) bits.readInt(22) * Constants.P2_50);
+            mEph.setAf0((double) bits.readInt(24) * Constants.P2_33);
+            mEph.setIodc((int) bits.readUInt(5));
+            mEph.setCrs((double) bits.readInt(18) * Constants.P2_6);
+            mEph.setDeltaN((double) bits.readInt(16) * Constants.P2_43 * Constants.PI_ORBIT);
+            mEph.setM0((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setCuc((double) bits.readInt(18) * Constants.P2_31);
+            mEph.setEc((double) bits.readUInt(32) * Constants.P2_33);
+            mEph.setCus((double) bits.readInt(18) * Constants.P2_31);
+            mEph.setSquareA((double) bits.readUInt(32) * Constants.P2_19);
+            mEph.setToe((double) bits.readUInt(17) * 8.0);
+            mEph.setCic((double) bits.readInt(18) * Constants.P2_31);
+            mEph.setOmega0((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setCis((double) bits.readInt(18) * Constants.P2_31);
+            mEph.setI0((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setCrc((double) bits.readInt(18) * Constants.P2_6);
+            mEph.setOmega((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setOmegaDot((double) bits.readInt(24) * Constants.P2_43 * Constants.PI_ORBIT);
+            bits.skip(10);  //tgd word
+            bits.skip(10);  //tgd word
+            mEph.setSvh((int) bits.readUInt(1));
         }
         catch (Exception e)
         {
@@ -33,7 +33,7 @@ import android.location.GnssStatus;
 import android.util.Log;
 
 import org.gogpsproject.ephemeris.GalileoEphemeris;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 import org.gogpsproject.ephemeris.GNSSEphemeris;
 import org.gogpsproject.Constants;
 
@@ -43,70 +43,43 @@ public class Decode1045Msg implements Decode {
 
     }
 
-    public Object decode(boolean[] bits, int referenceTS) {
+    public Object decode(BitReader bits, int referenceTS) {
         GalileoEphemeris mEph = new GalileoEphemeris();
-        int i = 0;
-        //int i = 24; //Found in RTKLIB, to be verified ...
+        //bits.setPosition(24); //Found in RTKLIB, to be verified ...
 
-        i += 12; //Bits of message number
+        bits.setPosition(12); //Bits of message number
 
         mEph.setGnssSystem(GnssStatus.CONSTELLATION_GALILEO);
 
         try {
             //Start decoding
-            mEph.setPrn((int) Bits.bitsToUInt(Bits.subset(bits, i, 6)));
-            i += 6;
-            mEph.setWeek((int) Bits.bitsToUInt(Bits.subset(bits, i, 12)));
-            i += 12;
-            mEph.setIode((int) Bits.bitsToUInt(Bits.subset(bits, i, 10)));
-            i += 10;
-            mEph.setSisa((int) Bits.bitsToUInt(Bits.subset(bits, i, 8)));
-            i += 8;
-            mEph.setIdot((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 14)) * Constants.P2_43 * Constants.PI_ORBIT);
-            i += 14;
-            mEph.setToc((double) Bits.bitsToUInt(Bits.subset(bits, i, 14)) * 60.0);
-            i += 14;
-            mEph.setAf2((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 6)) * Constants.P2_59);
-            i += 6;
-            mEph.setAf1((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 21)) * Constants.P2_46);
-            i += 21;
-            mEph.setAf0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 31)) * Constants.P2_34);
-            i += 31;
-            mEph.setCrs((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_5);
-            i += 16;
-            mEph.setDeltaN((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_43 * Constants.PI_ORBIT);
-            i += 16;
-            mEph.setM0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCuc((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_29);
-            i += 16;
-            mEph.setEc((double) Bits.bitsToUInt(Bits.subset(bits, i, 32)) * Constants.P2_33);
-            i += 32;
-            mEph.setCus((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_29);
-            i += 16;
-            mEph.setSquareA((double) Bits.bitsToUInt(Bits.subset(bits, i, 32)) * Constants.P2_19);
-            i += 32;
-            mEph.setToe((double) Bits.bitsToUInt(Bits.subset(bits, i, 14)) * 60.0);
-            i += 14;
-            mEph.setCic((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_29);
-            i += 16;
-            mEph.setOmega0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCis((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_29);
-            i += 16;
-            mEph.setI0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setCrc((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 16)) * Constants.P2_5);
-            i += 16;
-            mEph.setOmega((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 32)) * Constants.P2_31 * Constants.PI_ORBIT);
-            i += 32;
-            mEph.setOmegaDot((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 24)) * Constants.P2_43 * Constants.PI_ORBIT);
-            i += 24;
-            i += 10;  //tgd word
-            mEph.setSvh((int) Bits.bitsToUInt(Bits.subset(bits, i, 2)));
-            i += 2;
-            mEph.setSvdv((int) Bits.bitsToUInt(Bits.subset(bits, i, 1)));
-            i += 1;
+            mEph.setPrn((int) bits.readUInt(6));
+            mEph.setWeek((int) bits.readUInt(12));
+            mEph.setIode((int) bits.readUInt(10));
+            mEph.setSisa((int) bits.readUInt(8));
+            mEph.setIdot((double) bits.readInt(14) * Constants.P2_43 * Constants.PI_ORBIT);
+            mEph.setToc((double) bits.readUInt(14) * 60.0);
+            mEph.setAf2((double) bits.readInt(6) * Constants.P2_59);
+            mEph.setAf1((double) bits.readInt(21) * Constants.P2_46);
+            mEph.setAf0((double) bits.readInt(31) * Constants.P2_34);
+            mEph.setCrs((double) bits.readInt(16) * Constants.P2_5);
+            mEph.setDeltaN((double) bits.readInt(16) * Constants.P2_43 * Constants.PI_ORBIT);
+            mEph.setM0((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setCuc((double) bits.readInt(16) * Constants.P2_29);
+            mEph.setEc((double) bits.readUInt(32) * Constants.P2_33);
+            mEph.setCus((double) bits.readInt(16) * Constants.P2_29);
+            mEph.setSquareA((double) bits.readUInt(32) * Constants.P2_19);
+            mEph.setToe((double) bits.readUInt(14) * 60.0);
+            mEph.setCic((double) bits.readInt(16) * Constants.P2_29);
+            mEph.setOmega0((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setCis((double) bits.readInt(16) * Constants.P2_29);
+            mEph.setI0((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setCrc((double) bits.readInt(16) * Constants.P2_5);
+            mEph.setOmega((double) bits.readInt(32) * Constants.P2_31 * Constants.PI_ORBIT);
+            mEph.setOmegaDot((double) bits.readInt(24) * Constants.P2_43 * Constants.PI_ORBIT);
+            bits.skip(10);  //tgd word
+            mEph.setSvh((int) bits.readUInt(2));
+            mEph.setSvdv((int) bits.readUInt(1));
         }
         catch (Exception e)
         {
@@ -114,7 +87,7 @@ public class Decode1045Msg implements Decode {
             return -1;
         }
         //i += 8;  //tgd word
-        //mEph.setSvh((int) Bits.bitsToUInt(Bits.subset(bits, i, 6)));
+        //mEph.setSvh((int) bits.readUInt(6));
         //i += 6;
 
         //Log.d("EPH", "E PRN: " + mEph.getPrn() + ", " + mEph.getOmegaDot());
@@ -5,13 +5,13 @@ import android.location.GnssStatus;
 
 import org.gogpsproject.Constants;
 import org.gogpsproject.ephemeris.SatelliteCodeBiases;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 import java.util.LinkedHashMap;
 
 public class Decode1065Msg implements Decode {
 
-    public Object decode(boolean[] bits, int referenceTS) {
+    public Object decode(BitReader bits, int referenceTS) {
 
         // Specific to the constellation
         int system = GnssStatus.CONSTELLATION_GLONASS;
@@ -19,33 +19,32 @@ public class Decode1065Msg implements Decode {
         int offsetPrn = 0;
         int ncode = 4;
 
-        int i = 0;
         // Decode header
-        i += 12;
+        bits.setPosition(12);
 
-        double tod = (double) Bits.bitsToUInt(Bits.subset(bits, i, 17)); i += 17;
-        i += 4; // Update interval
-        i += 1; // Multiple Message Indicator
-        int iod = (int) Bits.bitsToUInt(Bits.subset(bits, i, 4)); i += 4;
-        i += 16; // SSR Provider ID
-        i += 4; // SSR Solution ID
-        int nsat = (int) Bits.bitsToUInt(Bits.subset(bits, i, 6)); i += 6;
+        double tod = (double) bits.readUInt(17);
+        bits.skip(4); // Update interval
+        bits.skip(1); // Multiple Message Indicator
+        int iod = (int) bits.readUInt(4);
+        bits.skip(16); // SSR Provider ID
+        bits.skip(4); // SSR Solution ID
+        int nsat = (int) bits.readUInt(6);
 
 
 
         SatelliteCodeBiases scb = new SatelliteCodeBiases();
         // Decode body
-        for(int j = 0; j < nsat && (i + 5 + indexPrn <= bits.length*8); j++)
+        for(int j = 0; j < nsat && (bits.getRemaining() >= 5 + indexPrn); j++)
         {
-            int prn = (int) Bits.bitsToUInt(Bits.subset(bits, i, indexPrn)) + offsetPrn; i += indexPrn;
-            int nbias = (int) Bits.bitsToUInt(Bits.subset(bits, i, 5)); i += 5;
+            int prn = (int) bits.readUInt(indexPrn) + offsetPrn;
+            int nbias = (int) bits.readUInt(5);
 
             LinkedHashMap<Integer, Double> biases = new LinkedHashMap<>();
 
-            for(int k = 0; k < nbias && (i + 19 <= bits.length*8) ; k++)
+            for(int k = 0; k < nbias && (bits.getRemaining() >= 19) ; k++)
             {
-                int mode = (int) Bits.bitsToUInt(Bits.subset(bits, i, 5)); i += 5;
-                Double bias = (double) Bits.bitsTwoComplement(Bits.subset(bits, i, 14)) * 0.01; i += 14;
+                int mode = (int) bits.readUInt(5);
+                Double bias = (double) bits.readInt(14) * 0.01;
 
                 if(mode > ncode)
                 {
@@ -35,7 +35,7 @@ import android.util.Log;
 
 import org.gogpsproject.ephemeris.GNSSEphemerisCorrections;
 import org.gogpsproject.ephemeris.PreciseCorrection;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 import java.util.HashMap;
 
@@ -45,13 +45,11 @@ public class Decode1066Msg implements Decode {
 
     }
 
-    public Object decode(boolean[] bits, int referenceTS) {
+    public Object decode(BitReader bits, int referenceTS) {
 
         GNSSEphemerisCorrections mEphCorrections = new GNSSEphemerisCorrections();
         HashMap< Integer, PreciseCorrection> gpsCorrections = new HashMap<>();
 
-        int i =0;
-
         //Message parameters for Glonass constellation
         int indexPrn = 5;
         int indexIode = 8;
@@ -59,49 +57,36 @@ public class Decode1066Msg implements Decode {
         int indexOffPrn = 0;
 
         // Decoding header
-        i += 12;
-        int tod = (int)  Bits.bitsToUInt(Bits.subset(bits, i, 17));
-        i += 17;
-        int updateInterval = (int)  Bits.bitsToUInt(Bits.subset(bits, i, 4));
-        i += 4;
-        i += 1 + 1 + 4 +16 + 4; //other information of the header
-        int nbSat = (int) Bits.bitsToUInt(Bits.subset(bits, i, 6));
+        bits.setPosition(12);
+        int tod = (int)  bits.readUInt(17);
+        int updateInterval = (int)  bits.readUInt(4);
+        bits.skip(1 + 1 + 4 +16 + 4); //other information of the header
+        int nbSat = (int) bits.readUInt(6);
 
         // first bit of message
-        i = 65;
+        bits.setPosition(65);
         //Start decoding
         try {
             for(int j = 0; j < nbSat; j++)
             {
                 PreciseCorrection mEphCorr = new PreciseCorrection();
                 mEphCorr.setGnssSystem(GnssStatus.CONSTELLATION_GLONASS);
-                mEphCorr.setPrn((int) Bits.bitsToUInt(Bits.subset(bits, i, indexPrn)));
-                i += indexPrn;
-                mEphCorr.setIode((int) Bits.bitsToUInt(Bits.subset(bits, i, indexIode)));
-                i += indexIode;
-                i += indexIodc;
+                mEphCorr.setPrn((int) bits.readUInt(indexPrn));
+                mEphCorr.setIode((int) bits.readUInt(indexIode));
+                bits.skip(indexIodc);
 
                 //Orbits
-                mEphCorr.seteRadial((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 22))* 1e-4);
-                i += 22;
-                mEphCorr.seteAlong((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 20)) * 4e-4);
-                i += 20;
-                mEphCorr.seteCross((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 20)) * 4e-4);
-                i += 20;
-                mEphCorr.seteDotRadial((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 21)) * 1e-6);
-                i += 21;
-                mEphCorr.seteDotAlong((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 19)) * 4e-6);
-                i += 19;
-                mEphCorr.seteDotCross((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 19)) * 4e-6);
-                i += 19;
+                mEphCorr.seteRadial((double) bits.readInt(22)* 1e-4);
+                mEphCorr.seteAlong((double) bits.readInt(20) * 4e-4);
+                mEphCorr.seteCross((double) bits.readInt(20) * 4e-4);
+                mEphCorr.seteDotRadial((double) bits.readInt(21) * 1e-6);
+                mEphCorr.seteDotAlong((double) bits.readInt(19) * 4e-6);
+                mEphCorr.seteDotCross((double) bits.readInt(19) * 4e-6);
 
                 //Clocks
-                mEphCorr.setC0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 22))* 1e-4);
-                i += 22;
-                mEphCorr.setC1((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 21))* 1e-6);
-                i += 21;
-                mEphCorr.setC2((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 27))* 2e-8);
-                i += 27;
+                mEphCorr.setC0((double) bits.readInt(22)* 1e-4);
+                mEphCorr.setC1((double) bits.readInt(21)* 1e-6);
+                mEphCorr.setC2((double) bits.readInt(27)* 2e-8);
 
                 mEphCorr.setTod(tod);
                 mEphCorr.setUpdateInterval(updateInterval);
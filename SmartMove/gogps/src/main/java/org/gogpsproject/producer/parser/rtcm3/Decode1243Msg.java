@@ -36,19 +36,17 @@ import android.util.Log;
 
 import org.gogpsproject.ephemeris.PreciseCorrection;
 import org.gogpsproject.ephemeris.GNSSEphemerisCorrections;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 public class Decode1243Msg implements Decode {
     public Decode1243Msg() {
 
     }
 
-    public Object decode(boolean[] bits, int referenceTS) {
+    public Object decode(BitReader bits, int referenceTS) {
         GNSSEphemerisCorrections mEphCorrections = new GNSSEphemerisCorrections();
         HashMap< Integer, PreciseCorrection> galCorrections = new HashMap<>();
 
-        int i = 0;
-
         //Message parameters for GPS constellation
         int indexPrn = 6;
         int indexIode = 10;
@@ -56,12 +54,12 @@ public class Decode1243Msg implements Decode {
         int indexOffPrn = 0;
         //i += 12; //Bits of message number
 
-        int tow = (int)  Bits.bitsToUInt(Bits.subset(bits, 12, 20));
+        int tow = (int)  bits.getUInt(12, 20);
 
-        int updateInterval = (int)  Bits.bitsToUInt(Bits.subset(bits, 32, 4));
+        int updateInterval = (int)  bits.getUInt(32, 4);
 
-        int nbSat = (int) Bits.bitsToUInt(Bits.subset(bits, 62, 6));
-        i += 68;
+        int nbSat = (int) bits.getUInt(62, 6);
+        bits.setPosition(68);
 
         //Start decoding
         try {
@@ -70,33 +68,22 @@ public class Decode1243Msg implements Decode {
                 PreciseCorrection mEphCorr = new PreciseCorrection();
 
                 mEphCorr.setGnssSystem(GnssStatus.CONSTELLATION_GALILEO);
-                mEphCorr.setPrn((int) Bits.bitsToUInt(Bits.subset(bits, i, indexPrn)));
-                i += indexPrn;
-                mEphCorr.setIode((int) Bits.bitsToUInt(Bits.subset(bits, i, indexIode)));
-                i += indexIode;
-                i += indexIodc;
+                mEphCorr.setPrn((int) bits.readUInt(indexPrn));
+                mEphCorr.setIode((int) bits.readUInt(indexIode));
+                bits.skip(indexIodc);
 
                 //Orbits
-                mEphCorr.seteRadial((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 22))* 1e-4);
-                i += 22;
-                mEphCorr.seteAlong((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 20)) * 4e-4);
-                i += 20;
-                mEphCorr.seteCross((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 20)) * 4e-4);
-                i += 20;
-                mEphCorr.seteDotRadial((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 21)) * 1e-6);
-                i += 21;
-                mEphCorr.seteDotAlong((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 19)) * 4e-6);
-                i += 19;
-                mEphCorr.seteDotCross((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 19)) * 4e-6);
-                i += 19;
+                mEphCorr.seteRadial((double) bits.readInt(22)* 1e-4);
+                mEphCorr.seteAlong((double) bits.readInt(20) * 4e-4);
+                mEphCorr.seteCross((double) bits.readInt(20) * 4e-4);
+                mEphCorr.seteDotRadial((double) bits.readInt(21) * 1e-6);
+                mEphCorr.seteDotAlong((double) bits.readInt(19) * 4e-6);
+                mEphCorr.seteDotCross((double) bits.readInt(19) * 4e-6);
 
                 //Clocks
-                mEphCorr.setC0((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 22))* 1e-4);
-                i += 22;
-                mEphCorr.setC1((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 21))* 1e-6);
-                i += 21;
-                mEphCorr.setC2((double) Bits.bitsTwoComplement(Bits.subset(bits, i, 27))* 2e-8);
-                i += 27;
+                mEphCorr.setC0((double) bits.readInt(22)* 1e-4);
+                mEphCorr.setC1((double) bits.readInt(21)* 1e-6);
+                mEphCorr.setC2((double) bits.readInt(27)* 2e-8);
 
                 mEphCorr.setTow(tow);
                 mEphCorr.setUpdateInterval(updateInterval);
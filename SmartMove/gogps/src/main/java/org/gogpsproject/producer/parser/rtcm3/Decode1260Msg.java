@@ -34,7 +34,7 @@ import android.util.Log;
 
 import org.gogpsproject.Constants;
 import org.gogpsproject.ephemeris.SatelliteCodeBiases;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 
 import java.util.LinkedHashMap;
 
@@ -44,9 +44,8 @@ public class Decode1260Msg implements Decode
 
     }
 
-    public Object decode(boolean[] bits, int referenceTS)
+    public Object decode(BitReader bits, int referenceTS)
     {
-        int i = 0;
         double tow = 0;
         int iod = 0;
         int nsat = 0;
@@ -58,30 +57,30 @@ public class Decode1260Msg implements Decode
         int ncode = 9;
 
         // Decode header
-        i += 12;
+        bits.setPosition(12);
 
-        tow = (double) Bits.bitsToUInt(Bits.subset(bits, i, 20)); i += 20;
-        i += 4;  // Update interval
-        i += 1;  // Multiple Message Indicator
-        iod = (int) Bits.bitsToUInt(Bits.subset(bits, i, 4)); i += 4;
-        i += 16; // SSR Provider ID
-        i += 4;  // SSR Solution ID
-        nsat = (int) Bits.bitsToUInt(Bits.subset(bits, i, 6)); i += 6;
+        tow = (double) bits.readUInt(20);
+        bits.skip(4);  // Update interval
+        bits.skip(1);  // Multiple Message Indicator
+        iod = (int) bits.readUInt(4);
+        bits.skip(16); // SSR Provider ID
+        bits.skip(4);  // SSR Solution ID
+        nsat = (int) bits.readUInt(6);
 
         SatelliteCodeBiases scb = new SatelliteCodeBiases();
 
         // Decode body
-        for(int j = 0; j < nsat && (i + 5 + indexPrn <= bits.length*8); j++)
+        for(int j = 0; j < nsat && (bits.getRemaining() >= 5 + indexPrn); j++)
         {
-            int prn = (int) Bits.bitsToUInt(Bits.subset(bits, i, indexPrn)) + offsetPrn; i += indexPrn;
-            int nbias = (int) Bits.bitsToUInt(Bits.subset(bits, i, 5)); i += 5;
+            int prn = (int) bits.readUInt(indexPrn) + offsetPrn;
+            int nbias = (int) bits.readUInt(5);
 
             LinkedHashMap<Integer, Double> biases = new LinkedHashMap<>();
 
-            for(int k = 0; k < nbias && (i + 19 <= bits.length*8) ; k++)
+            for(int k = 0; k < nbias && (bits.getRemaining() >= 19) ; k++)
             {
-                int mode = (int) Bits.bitsToUInt(Bits.subset(bits, i, 5)); i += 5;
-                Double bias = (double) Bits.bitsTwoComplement(Bits.subset(bits, i, 14)) * 0.01; i += 14;
+                int mode = (int) bits.readUInt(5);
+                Double bias = (double) bits.readInt(14) * 0.01;
 
                 if(mode > ncode)
                 {
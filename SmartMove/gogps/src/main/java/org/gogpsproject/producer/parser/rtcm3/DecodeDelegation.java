@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.gogpsproject.producer.parser.rtcm3;
+
+/**
+ * Stops the two default {@link Decode} methods from calling each other
+ * forever when a decoder overrides neither.
+ */
+final class DecodeDelegation {
+
+	/** decoder whose default method is delegating on this thread */
+	private static final ThreadLocal<Decode> DELEGATING = new ThreadLocal<Decode>();
+
+	private DecodeDelegation() {
+	}
+
+	/**
+	 * Marks the start of a delegation from one default method to the other.
+	 *
+	 * @return the decoder delegating before, to pass to {@link #end(Decode)}
+	 * @throws UnsupportedOperationException if the decoder is already
+	 *             delegating, it overrides neither method
+	 */
+	static Decode begin(Decode decoder) {
+		Decode previous = DELEGATING.get();
+		if (previous == decoder)
+			throw new UnsupportedOperationException(decoder.getClass().getName()
+					+ " implements neither decode(BitReader, int) nor decode(boolean[], int)");
+		DELEGATING.set(decoder);
+		return previous;
+	}
+
+	static void end(Decode previous) {
+		if (previous == null)
+			DELEGATING.remove();
+		else
+			DELEGATING.set(previous);
+	}
+}
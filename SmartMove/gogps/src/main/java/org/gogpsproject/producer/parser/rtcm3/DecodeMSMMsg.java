@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rtcm3;
+
+import java.util.Arrays;
+
+import org.gogpsproject.Constants;
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.util.BitReader;
+
+/**
+ * <p>
+ * Decoder of the Multiple Signal Messages MSM4, MSM5, MSM6 and MSM7 for GPS,
+ * GLONASS, Galileo, QZSS and BeiDou (RTCM 10403.3, messages 1074-1077,
+ * 1084-1087, 1094-1097, 1114-1117 and 1124-1127).
+ * </p>
+ * <p>
+ * The signals are stored in the two frequency slots of {@link ObservationSet}:
+ * L1/G1/E1/B1I in {@link ObservationSet#L1}, L2/G2/E5a/B2I in
+ * {@link ObservationSet#L2}. When a satellite has several signals on the same
+ * band, the first one of the signal mask is kept. Other bands are ignored.
+ * The lock time indicator is turned into a loss of lock indicator (bit 0 set
+ * when the lock time decreased, bit 1 set on half cycle ambiguity).
+ * </p>
+ * <p>
+ * The messages of the different constellations of one epoch, chained with
+ * the multiple message bit, are merged into a single {@link Observations}
+ * which is returned with the last message.
+ * </p>
+ */
+public class DecodeMSMMsg implements Decode {
+
+	/** meters in one millisecond of range */
+	private final static double RANGE_MS = Constants.SPEED_OF_LIGHT * 0.001;
+	private final static double P2_10 = 1.0 / (1 << 10);
+	private final static double P2_24 = 1.0 / (1 << 24);
+	private final static double P2_29 = 1.0 / (1 << 29);
+	private final static double P2_31 = 1.0 / (1L << 31);
+
+	private final static int SECONDS_IN_WEEK = 604800;
+	/** BeiDou time is 14 s behind GPS time */
+	private final static int BDT_OFFSET = 14;
+	/** GLONASS time is UTC(SU), 3 hours ahead of UTC */
+	private final static int GLONASS_UTC_OFFSET = 10800;
+
+	/** band slot of each signal ID (index 1 to 32), -1 if not stored */
+	private final static int[] SLOTS_GPS = slots(new int[] { 2, 3, 4, 30, 31, 32 }, new int[] { 8, 9, 10, 15, 16, 17 });
+	private final static int[] SLOTS_GLONASS = slots(new int[] { 2, 3 }, new int[] { 8, 9 });
+	private final static int[] SLOTS_GALILEO = slots(new int[] { 2, 3, 4, 5, 6 }, new int[] { 22, 23, 24 });
+	private final static int[] SLOTS_QZSS = slots(new int[] { 2, 30, 31, 32 }, new int[] { 15, 16, 17 });
+	private final static int[] SLOTS_BEIDOU = slots(new int[] { 2, 3, 4 }, new int[] { 14, 15, 16 });
+
+	/**
+	 * State shared by the MSM decoders of one client: the epoch being merged
+	 * and the GLONASS frequency numbers.
+	 */
+	static class Epoch {
+		Observations observations;
+		int week;
+		double tow;
+		int count;
+		/** frequency channel number by GLONASS slot, from MSM5 and MSM7 */
+		final int[] glonassFrequency = new int[64];
+		final boolean[] glonassFrequencyKnown = new boolean[64];
+		int leapSecondsWeek = -1;
+		int leapSeconds;
+	}
+
+	private final char satType;
+	private final int msmType;
+	private final Epoch epoch;
+	private final int[] slots;
+
+	// work arrays, reused for each message
+	private final int[] satellites = new int[64];
+	private final int[] signals = new int[32];
+	private final boolean[] cells = new boolean[64];
+	private final double[] roughRange = new double[64];
+	private final int[] extendedInfo = new int[64];
+	private final double[] roughRate = new double[64];
+	private final double[] finePseudorange = new double[64];
+	private final double[] finePhase = new double[64];
+	private final long[] lockTime = new long[64];
+	private final boolean[] halfCycle = new boolean[64];
+	private final float[] cnr = new float[64];
+	private final double[] fineRate = new double[64];
+
+	/** previous lock time in ms by satellite and slot, -1 if none */
+	private final long[][] previousLockTime = new long[64][2];
+
+	/**
+	 * @param satType
+	 *            'G', 'R', 'E', 'J' or 'C'
+	 * @param msmType
+	 *            4, 5, 6 or 7
+	 * @param epoch
+	 *            state shared with the other MSM decoders of the client
+	 */
+	public DecodeMSMMsg(char satType, int msmType, Epoch epoch) {
+		this.satType = satType;
+		this.msmType = msmType;
+		this.epoch = epoch;
+		switch (satType) {
+			case 'G': slots = SLOTS_GPS; break;
+			case 'R': slots = SLOTS_GLONASS; break;
+			case 'E': slots = SLOTS_GALILEO; break;
+			case 'J': slots = SLOTS_QZSS; break;
+			case 'C': slots = SLOTS_BEIDOU; break;
+			default: throw new IllegalArgumentException("Unsupported constellation " + satType);
+		}
+		if (msmType < 4 || msmType > 7)
+			throw new IllegalArgumentException("Unsupported MSM type " + msmType);
+		for (long[] l : previousLockTime)
+			Arrays.fill(l, -1);
+	}
+
+	private static int[] slots(int[] l1, int[] l2) {
+		int[] slots = new int[33];
+		Arrays.fill(slots, -1);
+		for (int id : l1) slots[id] = ObservationSet.L1;
+		for (int id : l2) slots[id] = ObservationSet.L2;
+		return slots;
+	}
+
+	public Observations decode(BitReader bits, int week) {
+		boolean extended = msmType == 6 || msmType == 7;
+		boolean rates = msmType == 5 || msmType == 7;
+
+		// header up to the signal mask
+		if (bits.getBitLength() < 169)
+			return null;
+		bits.setPosition(24);
+		long epochTime = bits.readUInt(30);
+		boolean multipleMessage = bits.readBoolean();
+		// IODS, reserved, clock steering, external clock, smoothing
+		bits.skip(3 + 7 + 2 + 2 + 1 + 3);
+
+		int nsat = 0;
+		for (int i = 0; i < 64; i++)
+			if (bits.readBoolean()) satellites[nsat++] = i + 1;
+		int nsig = 0;
+		for (int i = 0; i < 32; i++)
+			if (bits.readBoolean()) signals[nsig++] = i + 1;
+		if (nsat * nsig > 64 || bits.getRemaining() < nsat * nsig)
+			return null;
+		int ncell = 0;
+		for (int i = 0; i < nsat * nsig; i++) {
+			cells[i] = bits.readBoolean();
+			if (cells[i]) ncell++;
+		}
+
+		int satBits = rates ? 36 : 18;
+		int cellBits = extended ? 65 : 48;
+		if (rates) cellBits += 15;
+		if (bits.getRemaining() < nsat * satBits + ncell * cellBits)
+			return null;
+
+		// satellite data
+		for (int i = 0; i < nsat; i++) {
+			long ms = bits.readUInt(8);
+			roughRange[i] = ms == 255 ? Double.NaN : ms;
+		}
+		if (rates)
+			for (int i = 0; i < nsat; i++)
+				extendedInfo[i] = (int) bits.readUInt(4);
+		for (int i = 0; i < nsat; i++)
+			roughRange[i] += bits.readUInt(10) * P2_10;
+		if (rates)
+			for (int i = 0; i < nsat; i++) {
+				long rate = bits.readInt(14);
+				roughRate[i] = rate == -8192 ? Double.NaN : rate;
+			}
+
+		// signal data
+		for (int c = 0; c < ncell; c++) {
+			if (extended) {
+				long pr = bits.readInt(20);
+				finePseudorange[c] = pr == -524288 ? Double.NaN : pr * P2_29;
+			} else {
+				long pr = bits.readInt(15);
+				finePseudorange[c] = pr == -16384 ? Double.NaN : pr * P2_24;
+			}
+		}
+		for (int c = 0; c < ncell; c++) {
+			if (extended) {
+				long ph = bits.readInt(24);
+				finePhase[c] = ph == -8388608 ? Double.NaN : ph * P2_31;
+			} else {
+				long ph = bits.readInt(22);
+				finePhase[c] = ph == -2097152 ? Double.NaN : ph * P2_29;
+			}
+		}
+		for (int c = 0; c < ncell; c++)
+			lockTime[c] = extended ? extendedLockTime((int) bits.readUInt(10)) : lockTime((int) bits.readUInt(4));
+		for (int c = 0; c < ncell; c++)
+			halfCycle[c] = bits.readBoolean();
+		for (int c = 0; c < ncell; c++)
+			cnr[c] = extended ? bits.readUInt(10) * 0.0625f : bits.readUInt(6);
+		if (rates)
+			for (int c = 0; c < ncell; c++) {
+				long rate = bits.readInt(15);
+				fineRate[c] = rate == -16384 ? Double.NaN : rate * 0.0001;
+			}
+
+		// epoch time as GPS week and time of week
+		double tow;
+		switch (satType) {
+			case 'R':
+				tow = glonassTimeOfWeek(epochTime, week);
+				break;
+			case 'C':
+				tow = epochTime * 0.001 + BDT_OFFSET;
+				break;
+			default:
+				tow = epochTime * 0.001;
+		}
+		if (satType == 'R' && tow < 0) {
+			// the GLONASS week starts 3 hours before the GPS week ends, keep
+			// the GPS week unless the previous epoch is already in the next one
+			tow += SECONDS_IN_WEEK;
+			if (epoch.week > 0 && (week - epoch.week) * (double) SECONDS_IN_WEEK + tow - epoch.tow > SECONDS_IN_WEEK / 2)
+				week--;
+		}
+		if (tow >= SECONDS_IN_WEEK) {
+			tow -= SECONDS_IN_WEEK;
+			week++;
+		} else if (tow < 0) {
+			tow += SECONDS_IN_WEEK;
+			week--;
+		}
+
+		Observations complete = null;
+		if (epoch.observations != null && (epoch.week != week || Math.abs(epoch.tow - tow) > 1e-4)) {
+			// the last message of the previous epoch was lost
+			complete = epoch.observations;
+			epoch.observations = null;
+		}
+		if (epoch.observations == null) {
+			epoch.observations = new Observations(new Time(week, tow), 0);
+			epoch.week = week;
+			epoch.tow = tow;
+			epoch.count = 0;
+		}
+
+		int c = 0;
+		for (int i = 0; i < nsat; i++) {
+			int sat = satellites[i];
+			if (satType == 'R' && rates && extendedInfo[i] <= 13) {
+				epoch.glonassFrequency[sat - 1] = extendedInfo[i] - 7;
+				epoch.glonassFrequencyKnown[sat - 1] = true;
+			}
+
+			ObservationSet os = null;
+			for (int j = 0; j < nsig; j++) {
+				if (!cells[i * nsig + j])
+					continue;
+				int slot = slots[signals[j]];
+				int cell = c++;
+				if (slot < 0 || Double.isNaN(roughRange[i]))
+					continue;
+				if (os == null) {
+					os = new ObservationSet();
+					os.setSatID(sat);
+					os.setSatType(satType);
+					if (satType == 'R' && epoch.glonassFrequencyKnown[sat - 1])
+						os.setFreqNum(epoch.glonassFrequency[sat - 1]);
+				} else if (!Double.isNaN(os.getPseudorange(slot)) || !Double.isNaN(os.getPhaseCycles(slot))) {
+					// band already filled by a preferred signal
+					continue;
+				}
+				fillSignal(os, slot, signals[j], i, cell, sat);
+			}
+			if (os != null)
+				epoch.observations.setGps(epoch.count++, os);
+		}
+
+		// if the previous epoch was just returned, this one waits for the next message
+		if (!multipleMessage && complete == null) {
+			complete = epoch.observations;
+			epoch.observations = null;
+		}
+		return complete;
+	}
+
+	private void fillSignal(ObservationSet os, int slot, int signal, int sat, int cell, int prn) {
+		double wavelength = wavelength(slot, prn);
+
+		if (!Double.isNaN(finePseudorange[cell])) {
+			double pseudorange = (roughRange[sat] + finePseudorange[cell]) * RANGE_MS;
+			if (slot == ObservationSet.L2 || isPrecise(signal))
+				os.setCodeP(slot, pseudorange);
+			else
+				os.setCodeC(slot, pseudorange);
+		}
+		if (!Double.isNaN(finePhase[cell]) && !Double.isNaN(wavelength)) {
+			os.setPhaseCycles(slot, (roughRange[sat] + finePhase[cell]) * RANGE_MS / wavelength);
+
+			long previous = previousLockTime[prn - 1][slot];
+			int lli = (previous >= 0 && lockTime[cell] < previous) || lockTime[cell] == 0 ? 0x1 : 0;
+			if (halfCycle[cell]) lli |= 0x2;
+			os.setLossLockInd(slot, lli);
+			previousLockTime[prn - 1][slot] = lockTime[cell];
+		}
+		if (msmType == 5 || msmType == 7) {
+			if (!Double.isNaN(roughRate[sat]) && !Double.isNaN(fineRate[cell]) && !Double.isNaN(wavelength))
+				os.setDoppler(slot, (float) (-(roughRate[sat] + fineRate[cell]) / wavelength));
+		}
+		os.setSignalStrength(slot, cnr[cell]);
+	}
+
+	/**
+	 * @return true for the P(Y) and semi-codeless GPS signals
+	 */
+	private boolean isPrecise(int signal) {
+		return (satType == 'G' && (signal == 3 || signal == 4)) || (satType == 'R' && signal == 3);
+	}
+
+	/**
+	 * @return the carrier wavelength of a slot, NaN for a GLONASS satellite
+	 *         whose frequency channel is not known yet
+	 */
+	private double wavelength(int slot, int prn) {
+		double frequency;
+		switch (satType) {
+			case 'R':
+				if (!epoch.glonassFrequencyKnown[prn - 1])
+					return Double.NaN;
+				int k = epoch.glonassFrequency[prn - 1];
+				frequency = slot == ObservationSet.L1 ? Constants.FR1_base + k * 0.5625e6 : Constants.FR2_base + k * 0.4375e6;
+				break;
+			case 'E':
+				frequency = slot == ObservationSet.L1 ? Constants.FE1 : Constants.FE5a;
+				break;
+			case 'C':
+				frequency = slot == ObservationSet.L1 ? Constants.FC2 : Constants.FC5b;
+				break;
+			default:
+				frequency = slot == ObservationSet.L1 ? Constants.FL1 : Constants.FL2;
+		}
+		return Constants.SPEED_OF_LIGHT / frequency;
+	}
+
+	/**
+	 * Converts the GLONASS epoch time (day of week and time of day in Moscow
+	 * time) to a GPS time of week, possibly outside [0, 1 week[.
+	 */
+	private double glonassTimeOfWeek(long epochTime, int week) {
+		int day = (int) (epochTime >>> 27);
+		double tod = (epochTime & 0x7FFFFFF) * 0.001;
+
+		if (epoch.leapSecondsWeek != week) {
+			epoch.leapSeconds = new Time(week, 0).getLeapSeconds();
+			epoch.leapSecondsWeek = week;
+		}
+		double tow = tod - GLONASS_UTC_OFFSET + epoch.leapSeconds;
+		if (day < 7)
+			return day * Constants.SEC_IN_DAY + tow;
+
+		// day unknown, take the one closest to the current time of week
+		double reference = epoch.observations != null ? epoch.tow
+				: new Time(System.currentTimeMillis()).getGpsTime();
+		double best = tow;
+		for (int d = 0; d <= 7; d++) {
+			double candidate = d * Constants.SEC_IN_DAY + tow;
+			if (Math.abs(candidate - reference) < Math.abs(best - reference))
+				best = candidate;
+		}
+		return best;
+	}
+
+	/**
+	 * @return the minimum lock time in ms of the 4 bits indicator (DF402)
+	 */
+	private static long lockTime(int indicator) {
+		return indicator == 0 ? 0 : 1L << (indicator + 4);
+	}
+
+	/**
+	 * @return the minimum lock time in ms of the 10 bits indicator (DF407),
+	 * the step doubles every 32 indicators from 64: 2^k*i - k*2^(k+5)
+	 */
+	static long extendedLockTime(int indicator) {
+		if (indicator < 64) return indicator;
+		if (indicator < 704) {
+			int k = indicator / 32 - 1;
+			return ((long) indicator << k) - ((long) k << (k + 5));
+		}
+		return 67108864L;
+	}
+}
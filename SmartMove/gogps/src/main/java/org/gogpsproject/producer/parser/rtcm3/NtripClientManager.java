@@ -0,0 +1,564 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rtcm3;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.gogpsproject.producer.StreamEventListener;
+
+/**
+ * <p>
+ * Receives many NTRIP mountpoints on a single thread.
+ * </p>
+ * <p>
+ * Each mountpoint is described by an {@link RTCM3Client} configured as usual
+ * (connection settings with the mountpoint as source, virtual reference
+ * station position, reconnection policy, listeners) but registered here
+ * instead of being started on its own thread. The manager connects with non
+ * blocking channels, sends the NTRIP request and the GGA sentence, frames the
+ * RTCM3 stream and feeds the decoded messages to the client listeners.
+ * </p>
+ * <p>
+ * Host names are resolved on a separate thread, a slow DNS server does not
+ * hold the other mountpoints. Failed connections are retried according to
+ * the client reconnection policy,
+ * waiting twice longer after each consecutive failure, up to
+ * {@link #setMaxReconnectionWaitingTime(long)}. Several managers can be used
+ * to spread the mountpoints over a few threads. The raw stream is not logged
+ * to file.
+ * </p>
+ */
+public class NtripClientManager implements Runnable {
+
+	private final static Charset ASCII = Charset.forName("US-ASCII");
+
+	private final static int STATE_WAITING = 0;
+	private final static int STATE_RESOLVING = 1;
+	private final static int STATE_CONNECTING = 2;
+	private final static int STATE_HANDSHAKE = 3;
+	private final static int STATE_STREAMING = 4;
+	private final static int STATE_CLOSED = 5;
+
+	/** longest NTRIP response header accepted */
+	private final static int MAX_HEADER_LENGTH = 4096;
+	/** longest time spent in select, so stop requests are noticed */
+	private final static long MAX_SELECT_TIMEOUT = 1000;
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<RTCM3Client> registrations = new ConcurrentLinkedQueue<RTCM3Client>();
+	private final ConcurrentLinkedQueue<Resolution> resolutions = new ConcurrentLinkedQueue<Resolution>();
+	/** resolves the host names off the event loop */
+	private final ExecutorService resolver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "NtripClientManager resolver");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final ArrayList<Session> sessions = new ArrayList<Session>();
+	/** shared by all sessions, the event loop reads one channel at a time */
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+
+	private Thread loopThread;
+	private volatile boolean running = false;
+	private volatile boolean stopped = false;
+	/** set once the pending registrations have been closed, guarded by registrations */
+	private boolean closed = false;
+
+	private long dataTimeout = 30 * 1000;
+	private long maxReconnectionWaitingTime = 10 * 60 * 1000;
+	private boolean debug = false;
+
+	/**
+	 * State of one mountpoint.
+	 */
+	private static class Session {
+		final RTCM3Client client;
+		int state = STATE_WAITING;
+		SocketChannel channel;
+		SelectionKey key;
+		ByteBuffer writeBuffer;
+		final ByteBuffer header = ByteBuffer.allocate(MAX_HEADER_LENGTH);
+		RTCM3Framer framer;
+		/** connection attempts, to ignore the resolution of an abandoned one */
+		int attempts = 0;
+		/** consecutive failed connections */
+		int failures = 0;
+		long nextAttempt = 0;
+		long lastData;
+		long lastNtripGGAsent;
+
+		Session(RTCM3Client client) {
+			this.client = client;
+		}
+	}
+
+	/**
+	 * Address of a host, or why it could not be resolved.
+	 */
+	private static class Resolution {
+		final Session session;
+		final int attempt;
+		InetSocketAddress address;
+		String error;
+
+		Resolution(Session session, int attempt) {
+			this.session = session;
+			this.attempt = attempt;
+		}
+	}
+
+	public NtripClientManager() throws IOException {
+		selector = Selector.open();
+	}
+
+	/**
+	 * Adds a mountpoint, the connection is opened by the event loop.
+	 *
+	 * @param client client holding the connection settings and the listeners
+	 * @return false if the manager has been stopped or its event loop has
+	 * ended, the client stopped or its settings lack the host or the port. A
+	 * registered client either gets connected or has its listeners told the
+	 * stream is closed.
+	 */
+	public boolean register(RTCM3Client client) {
+		ConnectionSettings settings = client.getSettings();
+		if (client.isStopRequested() || settings == null
+				|| settings.getHost() == null || settings.getHost().isEmpty()
+				|| settings.getPort() <= 0 || settings.getPort() > 0xffff)
+			return false;
+		client.renewAsyncListeners();
+		// the event loop closes the pending registrations under the same lock
+		synchronized (registrations) {
+			if (stopped || closed)
+				return false;
+			registrations.add(client);
+		}
+		selector.wakeup();
+		return true;
+	}
+
+	/**
+	 * Closes a mountpoint, same as stopping its client.
+	 *
+	 * @param client a registered client
+	 * @return
+	 */
+	public NtripClientManager unregister(RTCM3Client client) {
+		try {
+			client.stop(false, 0);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		selector.wakeup();
+		return this;
+	}
+
+	public void start() {
+		running = true;
+		loopThread = new Thread(this);
+		loopThread.setName("NtripClientManager");
+		loopThread.start();
+	}
+
+	/**
+	 * Stops the event loop and closes all the mountpoints.
+	 */
+	public void stop(boolean waitForThread, long timeoutMs) throws InterruptedException {
+		stopped = true;
+		running = false;
+		selector.wakeup();
+		if (loopThread == null) {
+			// never started, nothing else releases them
+			closeRegistrations();
+			resolver.shutdownNow();
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else if (waitForThread) {
+			loopThread.join(timeoutMs);
+			if (loopThread.isAlive()) {
+				if (debug) System.out.println("Killing thread " + loopThread.getName());
+				loopThread.interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				Session s;
+				RTCM3Client client;
+				while ((client = registrations.poll()) != null) {
+					s = new Session(client);
+					sessions.add(s);
+					connect(s);
+				}
+				Resolution r;
+				while ((r = resolutions.poll()) != null)
+					resolved(r);
+
+				selector.select(nextTimeout(System.currentTimeMillis()));
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					s = (Session) key.attachment();
+					try {
+						if (key.isValid() && key.isConnectable())
+							finishConnect(s);
+						if (key.isValid() && key.isWritable())
+							write(s);
+						if (key.isValid() && key.isReadable())
+							read(s);
+					} catch (Exception e) {
+						fail(s, e.toString());
+					}
+				}
+
+				checkTimers(System.currentTimeMillis());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (ClosedSelectorException e) {
+			e.printStackTrace();
+		} finally {
+			running = false;
+			for (Session s : sessions) {
+				if (s.state == STATE_CLOSED)
+					continue;
+				close(s);
+				notifyClosed(s);
+			}
+			sessions.clear();
+			closeRegistrations();
+			resolver.shutdownNow();
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Refuses further registrations and tells the listeners of the pending
+	 * ones that their stream is closed.
+	 */
+	private void closeRegistrations() {
+		ArrayList<RTCM3Client> pending = new ArrayList<RTCM3Client>();
+		synchronized (registrations) {
+			closed = true;
+			RTCM3Client client;
+			while ((client = registrations.poll()) != null)
+				pending.add(client);
+		}
+		for (RTCM3Client client : pending)
+			notifyClosed(new Session(client));
+	}
+
+	/**
+	 * @return the time to wait in select for the next timer
+	 */
+	private long nextTimeout(long now) {
+		long next = now + MAX_SELECT_TIMEOUT;
+		for (Session s : sessions) {
+			if (s.state == STATE_WAITING) {
+				next = Math.min(next, s.nextAttempt);
+			} else if (s.state == STATE_STREAMING && s.client.getVirtualReferenceStationPosition() != null) {
+				next = Math.min(next, s.lastNtripGGAsent + s.client.getNtripGGAsendDelay());
+			}
+		}
+		return Math.max(1, next - now);
+	}
+
+	private void checkTimers(long now) {
+		for (int i = sessions.size() - 1; i >= 0; i--) {
+			Session s = sessions.get(i);
+			if (s.state == STATE_CLOSED) {
+				sessions.remove(i);
+			} else if (s.client.isStopRequested()) {
+				if (debug) System.out.println(s.client.getSettings().getSource() + " connection closed by client");
+				close(s);
+				sessions.remove(i);
+				notifyClosed(s);
+			} else if (s.state == STATE_WAITING) {
+				if (now >= s.nextAttempt)
+					connect(s);
+			} else if (dataTimeout > 0
+					&& s.client.getReconnectionPolicy() != RTCM3Client.CONNECTION_POLICY_WAIT
+					&& now - s.lastData > dataTimeout) {
+				fail(s, "no data for " + dataTimeout / 1000 + " s");
+			} else if (s.state == STATE_STREAMING
+					&& s.client.getVirtualReferenceStationPosition() != null
+					&& now - s.lastNtripGGAsent >= s.client.getNtripGGAsendDelay()
+					&& (s.writeBuffer == null || !s.writeBuffer.hasRemaining())) {
+				// refresh the position sent to the caster
+				s.writeBuffer = ByteBuffer.wrap((RTCM3Client.buildNtripGGA(
+						s.client.getVirtualReferenceStationPosition()) + "\r\n").getBytes(ASCII));
+				s.lastNtripGGAsent = now;
+				s.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * Starts a connection attempt by resolving the host on the resolver thread.
+	 */
+	private void connect(Session s) {
+		final ConnectionSettings settings = s.client.getSettings();
+		final Resolution r = new Resolution(s, ++s.attempts);
+		s.lastData = System.currentTimeMillis();
+		s.state = STATE_RESOLVING;
+		try {
+			resolver.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						r.address = new InetSocketAddress(settings.getHost(), settings.getPort());
+						if (r.address.isUnresolved())
+							r.error = "unknown host";
+					} catch (Exception e) {
+						r.error = e.toString();
+					}
+					resolutions.add(r);
+					selector.wakeup();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			fail(s, "the manager is stopping");
+		}
+	}
+
+	/**
+	 * Opens the connection once the host is resolved, unless the attempt has
+	 * been abandoned meanwhile.
+	 */
+	private void resolved(Resolution r) {
+		Session s = r.session;
+		if (s.state != STATE_RESOLVING || r.attempt != s.attempts)
+			return;
+		ConnectionSettings settings = s.client.getSettings();
+		if (r.error != null) {
+			fail(s, "connection to " + settings.getHost() + ":" + settings.getPort() + " failed: " + r.error);
+			return;
+		}
+		try {
+			s.channel = SocketChannel.open();
+			s.channel.configureBlocking(false);
+			s.state = STATE_CONNECTING;
+			if (s.channel.connect(r.address)) {
+				s.key = s.channel.register(selector, 0, s);
+				connected(s);
+			} else {
+				s.key = s.channel.register(selector, SelectionKey.OP_CONNECT, s);
+			}
+		} catch (Exception e) {
+			fail(s, "connection to " + settings.getHost() + ":" + settings.getPort() + " failed: " + e);
+		}
+	}
+
+	private void finishConnect(Session s) throws IOException {
+		if (s.channel.finishConnect())
+			connected(s);
+	}
+
+	/**
+	 * Sends the NTRIP request once the TCP connection is established.
+	 */
+	private void connected(Session s) {
+		if (debug) System.out.println("Connected to " + s.client.getSettings().getHost() + ":" + s.client.getSettings().getPort());
+		s.state = STATE_HANDSHAKE;
+		s.header.clear();
+		s.writeBuffer = ByteBuffer.wrap(s.client.buildNtripRequest().getBytes(ASCII));
+		s.lastNtripGGAsent = System.currentTimeMillis();
+		s.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	private void write(Session s) throws IOException {
+		s.channel.write(s.writeBuffer);
+		if (!s.writeBuffer.hasRemaining())
+			s.key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void read(Session s) throws IOException {
+		readBuffer.clear();
+		int n = s.channel.read(readBuffer);
+		if (n < 0) {
+			fail(s, "the data stream stopped");
+			return;
+		}
+		s.lastData = System.currentTimeMillis();
+		readBuffer.flip();
+		if (s.state == STATE_HANDSHAKE)
+			readHeader(s);
+		if (s.state == STATE_STREAMING)
+			readFrames(s);
+	}
+
+	/**
+	 * Accumulates the caster response until the end of the header. NTRIP 1
+	 * casters answer "ICY 200 OK", the empty line that may follow is skipped by
+	 * the framer as any byte before a preamble.
+	 */
+	private void readHeader(Session s) throws IOException {
+		while (readBuffer.hasRemaining()) {
+			if (!s.header.hasRemaining())
+				throw new IOException("response header too long");
+			s.header.put(readBuffer.get());
+			int length = s.header.position();
+			if (length < 2 || s.header.get(length - 2) != '\r' || s.header.get(length - 1) != '\n')
+				continue;
+
+			String header = new String(s.header.array(), 0, length, ASCII);
+			String status = header.substring(0, header.indexOf("\r\n"));
+			boolean http = status.startsWith("HTTP/1.") && status.startsWith(" 200", 8);
+			if (!status.startsWith("ICY 200") && !http)
+				throw new IOException(s.client.getSettings().getSource() + " invalid header: " + status);
+			if (http && !header.endsWith("\r\n\r\n"))
+				continue;
+			if (http && header.toLowerCase().contains("transfer-encoding: chunked"))
+				throw new IOException("chunked transfer encoding is not supported");
+
+			if (debug) System.out.println(s.client.getSettings().getSource() + " connected successfully");
+			s.state = STATE_STREAMING;
+			s.client.streamStarted();
+			s.framer = new RTCM3Framer(s.client.getStatistics());
+			return;
+		}
+	}
+
+	private void readFrames(Session s) throws IOException {
+		int length;
+		while (readBuffer.hasRemaining()) {
+			s.framer.feed(readBuffer);
+			while ((length = s.framer.nextFrame()) >= 0) {
+				s.client.dispatch(s.client.decodeFrame(s.framer.getBuffer(), s.framer.getPayloadOffset(), length));
+				s.failures = 0;
+			}
+		}
+		if (s.client.isTooCorrupted())
+			fail(s, "too many CRC failures: " + s.client.getStatistics());
+	}
+
+	/**
+	 * Closes the connection and applies the reconnection policy of the client.
+	 */
+	private void fail(Session s, String reason) {
+		if (debug) System.out.println(s.client.getSettings().getSource() + " connection error: " + reason);
+		close(s);
+		if (!s.client.isStopRequested()
+				&& s.client.getReconnectionPolicy() == RTCM3Client.CONNECTION_POLICY_RECONNECT) {
+			long wait = s.client.getReconnectionWaitingTime();
+			for (int i = 0; i < s.failures && wait < maxReconnectionWaitingTime; i++)
+				wait *= 2;
+			wait = Math.min(wait, maxReconnectionWaitingTime);
+			s.failures++;
+			s.nextAttempt = System.currentTimeMillis() + wait;
+			s.state = STATE_WAITING;
+			if (debug) System.out.println("Sleep " + wait / 1000 + " s before retry");
+		} else {
+			s.state = STATE_CLOSED;
+			notifyClosed(s);
+		}
+	}
+
+	private void close(Session s) {
+		if (s.key != null) s.key.cancel();
+		if (s.channel != null) try { s.channel.close(); } catch (Exception ex) {}
+		s.key = null;
+		s.channel = null;
+		s.writeBuffer = null;
+		s.framer = null;
+	}
+
+	private void notifyClosed(Session s) {
+		for (StreamEventListener sel : s.client.getStreamEventListeners()) {
+			sel.streamClosed();
+		}
+	}
+
+	/**
+	 * @return the number of registered mountpoints
+	 */
+	public int getSessionCount() {
+		return sessions.size() + registrations.size();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @param dataTimeout time without data after which a connection is
+	 * considered lost in ms, 0 to wait forever
+	 * @return
+	 */
+	public NtripClientManager setDataTimeout(long dataTimeout) {
+		this.dataTimeout = dataTimeout;
+		return this;
+	}
+
+	public long getDataTimeout() {
+		return dataTimeout;
+	}
+
+	/**
+	 * @param maxReconnectionWaitingTime longest wait between two connection
+	 * attempts in ms, whatever the number of consecutive failures
+	 * @return
+	 */
+	public NtripClientManager setMaxReconnectionWaitingTime(long maxReconnectionWaitingTime) {
+		this.maxReconnectionWaitingTime = maxReconnectionWaitingTime;
+		return this;
+	}
+
+	public long getMaxReconnectionWaitingTime() {
+		return maxReconnectionWaitingTime;
+	}
+
+	public NtripClientManager setDebug(boolean debug) {
+		this.debug = debug;
+		return this;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+}
@@ -41,7 +41,9 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
 import java.util.Vector;
@@ -51,11 +53,12 @@ import org.gogpsproject.ephemeris.GNSSEphemerisCorrections;
 import org.gogpsproject.ephemeris.SatelliteCodeBiases;
 import org.gogpsproject.positioning.Coordinates;
 import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.AsyncStreamEventListener;
 import org.gogpsproject.producer.Observations;
 import org.gogpsproject.producer.StreamEventListener;
 import org.gogpsproject.producer.StreamEventProducer;
 import org.gogpsproject.producer.StreamResource;
-import org.gogpsproject.util.Bits;
+import org.gogpsproject.util.BitReader;
 import org.gogpsproject.util.InputStreamCounter;
 
 public class RTCM3Client implements Runnable, StreamResource, StreamEventProducer {
@@ -78,9 +81,15 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 
 	/** Optional message handler for showing error messages. */
 	private int messagelength = 0;
-	private int[] buffer;
-	private boolean[] bits;
-	private boolean[] rollbits;
+	/** Largest RTCM3 frame: preamble, header, payload and CRC */
+	private final byte[] frame = new byte[RTCM3Framer.HEADER_LENGTH + RTCM3Framer.MAX_PAYLOAD_LENGTH + RTCM3Framer.CRC_LENGTH];
+	private final BitReader bits = new BitReader();
+
+	private final RTCM3Statistics statistics = new RTCM3Statistics();
+	/** CRC failure ratio above which the stream is dropped, 0 to keep any stream */
+	private double maxCrcFailureRatio = 0;
+	/** checked frames needed before the CRC failure ratio is trusted */
+	private final static int MIN_FRAMES_FOR_CRC_RATIO = 100;
 
 	private InputStream in = null;
 	private Socket sck = null;
@@ -93,6 +102,11 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 	private AntennaDescriptor antennaDescriptor = null;
 
 	private Vector<StreamEventListener> streamEventListeners = new Vector<StreamEventListener>();
+	/** wrappers created by addStreamEventListener() */
+	private final Set<AsyncStreamEventListener> asyncWrappers = new HashSet<AsyncStreamEventListener>();
+	/** queue of each listener, 0 to call the listeners from the thread reading the stream */
+	private int listenerQueueCapacity = 0;
+	private int listenerOverflowPolicy = AsyncStreamEventListener.OVERFLOW_BLOCK;
 
 	//private Vector<Observations> observationsBuffer = new Vector<Observations>();
 	//private int obsCursor = 0;
@@ -211,11 +225,6 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 		decodeMap.put(new Integer(1007), new Decode1007Msg(this));
 		decodeMap.put(new Integer(1008), new Decode1008Msg(this));
 		decodeMap.put(new Integer(1033), new Decode1005Msg(this));
-		decodeMap.put(new Integer(1077), new Decode1006Msg(this));
-		decodeMap.put(new Integer(1087), new Decode1007Msg(this));
-		decodeMap.put(new Integer(1097), new Decode1008Msg(this));
-		decodeMap.put(new Integer(1117), new Decode1007Msg(this));
-		decodeMap.put(new Integer(1127), new Decode1007Msg(this));
 		decodeMap.put(new Integer(1012), new Decode1012Msg());
 		decodeMap.put(new Integer(1019), new Decode1019Msg());
 		decodeMap.put(new Integer(1020), new Decode1020Msg());
@@ -229,6 +238,7 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 		decodeMap.put(new Integer(1243), new Decode1243Msg());
 		decodeMap.put(new Integer(1260), new Decode1260Msg());
 		decodeMap.put(new Integer(1261), new Decode1261Msg());
+		putMSMDecoders();
 	}
 	
 	public RTCM3Client(int startWeek) {
@@ -243,11 +253,6 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 		decodeMap.put(new Integer(1007), new Decode1007Msg(this));
 		decodeMap.put(new Integer(1008), new Decode1008Msg(this));
 		decodeMap.put(new Integer(1033), new Decode1005Msg(this));
-		decodeMap.put(new Integer(1077), new Decode1006Msg(this));
-		decodeMap.put(new Integer(1087), new Decode1007Msg(this));
-		decodeMap.put(new Integer(1097), new Decode1008Msg(this));
-		decodeMap.put(new Integer(1117), new Decode1007Msg(this));
-		decodeMap.put(new Integer(1127), new Decode1007Msg(this));
 		decodeMap.put(1012, new Decode1012Msg());
 		decodeMap.put(Integer.valueOf(1019), new Decode1019Msg());
 		decodeMap.put(Integer.valueOf(1020), new Decode1020Msg());
@@ -261,6 +266,22 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 		decodeMap.put(Integer.valueOf(1243), new Decode1243Msg());
 		decodeMap.put(Integer.valueOf(1260), new Decode1260Msg());
 		decodeMap.put(Integer.valueOf(1261), new Decode1261Msg());
+		putMSMDecoders();
+	}
+
+	/**
+	 * Registers the MSM4 to MSM7 decoders of the supported constellations,
+	 * sharing the epoch being merged.
+	 */
+	private void putMSMDecoders() {
+		DecodeMSMMsg.Epoch epoch = new DecodeMSMMsg.Epoch();
+		for (int msm = 4; msm <= 7; msm++) {
+			decodeMap.put(1070 + msm, new DecodeMSMMsg('G', msm, epoch));
+			decodeMap.put(1080 + msm, new DecodeMSMMsg('R', msm, epoch));
+			decodeMap.put(1090 + msm, new DecodeMSMMsg('E', msm, epoch));
+			decodeMap.put(1110 + msm, new DecodeMSMMsg('J', msm, epoch));
+			decodeMap.put(1120 + msm, new DecodeMSMMsg('C', msm, epoch));
+		}
 	}
 
 	public ArrayList<String> getSources() throws IOException {
@@ -447,54 +468,8 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 			out = new PrintWriter(sck.getOutputStream(), true);
 			in = sck.getInputStream();
 			// The data request containing the logon and password is sent
-			out.print("GET /" + settings.getSource() + " HTTP/1.1\r\n");
-			out.print("Host: " + settings.getHost() + "\r\n");
-			// out.print("Ntrip-Version: Ntrip/2.0\r\n");
-			out.print("Accept: rtk/rtcm, dgps/rtcm\r\n");
-			out.print("User-Agent: NTRIP goGPSprojectJava\r\n");
-			if (virtualReferenceStationPosition != null) {
-				virtualReferenceStationPosition.computeGeodetic();
-				String hhmmss = (new SimpleDateFormat("HHmmss"))
-						.format(new Date());
-
-				int h = (int) virtualReferenceStationPosition.getGeodeticHeight();
-				double lon = virtualReferenceStationPosition.getGeodeticLongitude();
-				double lat = virtualReferenceStationPosition.getGeodeticLatitude();
-
-				int lon_deg = (int) lon;
-				double lon_min = (lon - lon_deg) * 60;
-				double lon_nmea = lon_deg * 100 + lon_min;
-				String lonn = (new DecimalFormat("00000.000")).format(lon_nmea);
-				int lat_deg = (int) lat;
-				double lat_min = (lat - lat_deg) * 60;
-				double lat_nmea = lat_deg * 100 + lat_min;
-				String latn = (new DecimalFormat("0000.000")).format(lat_nmea);
-				NtripGGA = "$GPGGA," + hhmmss + "," + latn + ","
-						+ (lat < 0 ? "S" : "N") + "," + lonn + ","
-						+ (lon < 0 ? "W" : "E") + ",1,10,1.00," + (h < 0 ? 0 : h)
-						+ ",M,1,M,,";
-				// String NtripGGA =
-				// "$GPGGA,"+hhmmss+".00,"+latn+","+(lat<0?"S":"N")+","+lonn+","+(lon<0?"W":"E")+",1,10,1.00,"+(h<0?0:h)+",M,37.3,M,,";
-				// NtripGGA =
-				// "$GPGGA,214833.00,3500.40000000,N,13900.10000000,E,1,10,1,-17.3,M,,M,,";
-
-				NtripGGA = /* "Ntrip-GAA: "+ */NtripGGA + "*"
-						+ computeNMEACheckSum(NtripGGA);
-				if (debug) System.out.println(NtripGGA);
-
-				// out.print(NtripGGA+"\r\n");
-			}
-			out.print("Connection: close\r\n");
-			out.print("Authorization: Basic " + settings.getAuthbase64()
-					+ "\r\n");
-
-			// out.println("User-Agent: NTRIP goGps");
-			// out.println("Ntrip-GAA: $GPGGA,200530,4600,N,00857,E,4,10,1,200,M,1,M,3,0*65");
-			// out.println("User-Agent: NTRIP GoGps");
-			// out.println("Accept: */*\r\nConnection: close");
-			out.print("\r\n");
+			out.print(buildNtripRequest());
 			if (NtripGGA != null) {
-				out.print(NtripGGA + "\r\n");
 				lastNtripGGAsent = System.currentTimeMillis();
 			}
 			out.flush();
@@ -676,6 +651,66 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 		}
 	}
 
+	/**
+	 * Builds the NTRIP request for the mountpoint, followed by the GGA sentence
+	 * of the virtual reference station if any.
+	 */
+	String buildNtripRequest() {
+		StringBuilder request = new StringBuilder();
+		request.append("GET /" + settings.getSource() + " HTTP/1.1\r\n");
+		request.append("Host: " + settings.getHost() + "\r\n");
+		// request.append("Ntrip-Version: Ntrip/2.0\r\n");
+		request.append("Accept: rtk/rtcm, dgps/rtcm\r\n");
+		request.append("User-Agent: NTRIP goGPSprojectJava\r\n");
+		if (virtualReferenceStationPosition != null) {
+			NtripGGA = buildNtripGGA(virtualReferenceStationPosition);
+			if (debug) System.out.println(NtripGGA);
+		}
+		request.append("Connection: close\r\n");
+		request.append("Authorization: Basic " + settings.getAuthbase64() + "\r\n");
+
+		// out.println("User-Agent: NTRIP goGps");
+		// out.println("Ntrip-GAA: $GPGGA,200530,4600,N,00857,E,4,10,1,200,M,1,M,3,0*65");
+		// out.println("Accept: */*\r\nConnection: close");
+		request.append("\r\n");
+		if (NtripGGA != null) {
+			request.append(NtripGGA + "\r\n");
+		}
+		return request.toString();
+	}
+
+	/**
+	 * Builds a GGA sentence for the given position at the current time.
+	 */
+	static String buildNtripGGA(Coordinates position) {
+		position.computeGeodetic();
+		String hhmmss = (new SimpleDateFormat("HHmmss"))
+				.format(new Date());
+
+		int h = (int) position.getGeodeticHeight();
+		double lon = position.getGeodeticLongitude();
+		double lat = position.getGeodeticLatitude();
+
+		int lon_deg = (int) lon;
+		double lon_min = (lon - lon_deg) * 60;
+		double lon_nmea = lon_deg * 100 + lon_min;
+		String lonn = (new DecimalFormat("00000.000")).format(lon_nmea);
+		int lat_deg = (int) lat;
+		double lat_min = (lat - lat_deg) * 60;
+		double lat_nmea = lat_deg * 100 + lat_min;
+		String latn = (new DecimalFormat("0000.000")).format(lat_nmea);
+		String gga = "$GPGGA," + hhmmss + "," + latn + ","
+				+ (lat < 0 ? "S" : "N") + "," + lonn + ","
+				+ (lon < 0 ? "W" : "E") + ",1,10,1.00," + (h < 0 ? 0 : h)
+				+ ",M,1,M,,";
+		// String NtripGGA =
+		// "$GPGGA,"+hhmmss+".00,"+latn+","+(lat<0?"S":"N")+","+lonn+","+(lon<0?"W":"E")+",1,10,1.00,"+(h<0?0:h)+",M,37.3,M,,";
+		// NtripGGA =
+		// "$GPGGA,214833.00,3500.40000000,N,13900.10000000,E,1,10,1,-17.3,M,,M,,";
+
+		return /* "Ntrip-GAA: "+ */gga + "*" + computeNMEACheckSum(gga);
+	}
+
 	private static String computeNMEACheckSum(String msg){
 		// perform NMEA checksum calculation
 		int chk = 0;
@@ -693,6 +728,7 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 	}
 	public void start() {
 		askForStop = false;
+		renewAsyncListeners();
 
 		dataThread = new Thread(this);
 		dataThread.setName("RTCM3Client " + settings.getHost() + " " + settings.getSource());
@@ -791,18 +827,17 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 	 */
 	
 	protected void readLoop(InputStream in, PrintWriter out) throws IOException {
-		int c;
+		int length;
 		long start = System.currentTimeMillis();
 		if(debug) System.out.print("Waiting for header");
-		online = true;
+		streamStarted();
+		RTCM3Framer framer = new RTCM3Framer(in, statistics);
 
 		while(running) {
-			c = in.read();
-
-			//System.out.println(c);
+			length = framer.nextFrame();
 
 			//This test if the connection work
-			if (c < 0){
+			if (length < 0){
 				if(reconnectionPolicy != CONNECTION_POLICY_WAIT && System.currentTimeMillis()-start >10*1000) break;
 				try {
 					Thread.sleep(1000);
@@ -810,29 +845,16 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 					e.printStackTrace();
 				}
 				if(debug) System.out.print(".");
+				continue;
 			}
 
-			Object o = null;
+			//The framer only returns frames starting with the 211 preamble
+			// ('11010011') whose CRC-24Q matches, junk in between is skipped
+			dispatch(decodeFrame(framer.getBuffer(), framer.getPayloadOffset(), length));
 
-			//This check where the information layer of the streams begin,
-			// 211 correspond to '11010011' in decimal
-			// We are only interested in what come after that tag not before
-			if (c == 211) { // header
-				//This where the message is parsed
-				o = readMessage(in);
-
-				if (o instanceof GNSSEphemeris)
-				{
-					addEphemeris((GNSSEphemeris) o);
-				}
-				else if(o instanceof GNSSEphemerisCorrections)
-				{
-					addEphemerisCorr((GNSSEphemerisCorrections) o);
-				}
-				else if(o instanceof SatelliteCodeBiases)
-				{
-					addSatelliteCodeBiases((SatelliteCodeBiases) o);
-				}
+			if (isTooCorrupted()) {
+				if(debug) System.out.println(settings.getSource() + " dropped, too many CRC failures: " + statistics);
+				break;
 			}
 
 			//Store the observations
@@ -889,32 +911,86 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 		}
 	}
 	
-	public Object readMessage(InputStream in) throws IOException {
-		int index;
-		Object o = null;
-		index = 0;
-		buffer = new int[2];
-		buffer[0] = in.read();
-		buffer[1] = in.read();
-		bits = new boolean[buffer.length * 8];
-		rollbits = new boolean[8];
-		for (int i = 0; i < buffer.length; i++) {
-			rollbits = Bits.rollByteToBits(buffer[i]);
-			for (int j = 0; j < rollbits.length; j++) {
-				bits[index] = rollbits[j];
-				index++;
-			}
+	/**
+	 * Resets the per connection state when the data starts flowing.
+	 */
+	void streamStarted() {
+		online = true;
+		statistics.reset();
+	}
+
+	/**
+	 * @return true if the CRC failure ratio exceeds the configured maximum
+	 */
+	boolean isTooCorrupted() {
+		return maxCrcFailureRatio > 0
+				&& statistics.getGoodFrames() + statistics.getCrcFailures() >= MIN_FRAMES_FOR_CRC_RATIO
+				&& statistics.getCrcFailureRatio() > maxCrcFailureRatio;
+	}
+
+	/**
+	 * Forwards a decoded navigation message to the listeners, observations are
+	 * already forwarded by {@link #decodeFrame(byte[], int, int)}.
+	 */
+	void dispatch(Object o) {
+		if (o instanceof GNSSEphemeris)
+		{
+			addEphemeris((GNSSEphemeris) o);
+		}
+		else if(o instanceof GNSSEphemerisCorrections)
+		{
+			addEphemerisCorr((GNSSEphemerisCorrections) o);
 		}
+		else if(o instanceof SatelliteCodeBiases)
+		{
+			addSatelliteCodeBiases((SatelliteCodeBiases) o);
+		}
+	}
 
-		messagelength = (int)Bits.bitsToUInt(Bits.subset(bits, 6, 10));
+	/**
+	 * Reads and decodes one frame, the 211 preamble having already been consumed.
+	 *
+	 * @return the decoded message, null if the frame is incomplete, fails the
+	 *         CRC check or has no decoder
+	 */
+	public Object readMessage(InputStream in) throws IOException {
+		// 6 reserved bits followed by the 10 bits payload length
+		frame[0] = (byte) RTCM3Framer.PREAMBLE;
+		if (!readFully(in, frame, 1, 2))
+			return null;
+		messagelength = ((frame[1] & 0x03) << 8) | (frame[2] & 0xFF);
 		if(debug){
 			System.out.println();
 			System.out.println("Debug message length : " + messagelength);
 		}
+		// payload and CRC
+		if (!readFully(in, frame, RTCM3Framer.HEADER_LENGTH, messagelength + RTCM3Framer.CRC_LENGTH))
+			return null;
+		statistics.bytesRead(RTCM3Framer.HEADER_LENGTH + messagelength + RTCM3Framer.CRC_LENGTH);
+		if (!RTCM3Framer.checkCrc(frame, 0, messagelength)) {
+			statistics.crcFailed();
+			if(debug) System.out.println("CRC check failed");
+			return null;
+		}
+		statistics.frameReceived();
+		return decodeFrame(frame, RTCM3Framer.HEADER_LENGTH, messagelength);
+	}
+
+	/**
+	 * Decodes the payload of a frame whose CRC has been checked.
+	 *
+	 * @param buffer buffer holding the frame
+	 * @param offset index of the first payload byte
+	 * @param length payload length in bytes
+	 * @return the decoded message, null if there is no decoder for it
+	 */
+	public Object decodeFrame(byte[] buffer, int offset, int length) {
+		Object o = null;
+		messagelength = length;
 
 		if (messagelength >= 12) {
-			setBits(in, messagelength);
-			int msgtype = (int)Bits.bitsToUInt(Bits.subset(bits, 0, 12));
+			bits.reset(buffer, offset, messagelength);
+			int msgtype = (int)bits.getUInt(0, 12);
 
 			if(debug) System.out.println("message type : " + msgtype);
 
@@ -933,12 +1009,8 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 //			}
 
 			messagelength = 0;
-			
-			Date date = new Date();
-			SimpleDateFormat sdf1 = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-			String date1 = sdf1.format(date);
 
-			Decode dec = decodeMap.get(new Integer(msgtype));
+			Decode dec = decodeMap.get(msgtype);
 			if(dec!=null){
 				if (online) {
 					Time currentTime = new Time(System.currentTimeMillis());
@@ -947,10 +1019,6 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 				} else {
 					o = dec.decode(bits, week);
 					if(o instanceof Observations){
-						if (((Observations) o).getRefTime().getDayOfYear() == 11) {
-							week++;
-							week--;
-						}
 						currentTime = ((Observations) o).getRefTime().getGpsTime();
 						if (currentTime < previousTime) {
 							week++;
@@ -967,37 +1035,54 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 				// missing message parser
 			}
 
-			// CRC
-			setBits(in, 3);
-
-			// setBits(in,1);
-			//if(debug) System.out.println(" dati :" + Bits.bitsToStr(bits));
+			//if(debug) System.out.println(" dati :" + Bits.bitsToStr(bits.toBits()));
 		}
 		return o;
 	}
 
-	private void setBits(InputStream in, int bufferlength) throws IOException {
-		int index = 0;
-		buffer = new int[bufferlength];
-		bits = new boolean[buffer.length * 8];
-		for (int i = 0; i < buffer.length; i++) {
-			buffer[i] = in.read();
-		}
-		// index = 0;
-		for (int i = 0; i < buffer.length; i++) {
-			rollbits = Bits.rollByteToBits(buffer[i]);
-			for (int j = 0; j < 8; j++) {
-				bits[index] = rollbits[j];
-				index++;
-			}
+	/**
+	 * Fills part of the buffer, blocking until enough bytes are available
+	 *
+	 * @return false if the stream ended before
+	 */
+	private static boolean readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int n = in.read(buffer, offset + read, length - read);
+			if (n < 0)
+				return false;
+			read += n;
 		}
+		return true;
+	}
+
+	/**
+	 * Registers the decoder used for a message type, replacing the built-in one if any.
+	 * Decoders implementing only the legacy {@link Decode#decode(boolean[], int)}
+	 * are supported.
+	 *
+	 * @param msgtype RTCM3 message number
+	 * @param decoder decoder for this message, null to ignore the message
+	 * @return
+	 */
+	public RTCM3Client setDecoder(int msgtype, Decode decoder) {
+		if (decoder == null)
+			decodeMap.remove(msgtype);
+		else
+			decodeMap.put(msgtype, decoder);
+		return this;
 	}
 
+	/**
+	 * Hands the epoch to all the listeners. The same frozen instance is shared,
+	 * listeners that modify it work on a copy. Listeners run on this thread
+	 * unless they have been queued, see {@link #setAsyncListeners(int, int)}.
+	 */
 	public void addObservation(Observations o){
 		if(streamEventListeners!=null && o!=null){
+			o.freeze();
 			for(StreamEventListener sel:streamEventListeners){
-				Observations oc = (Observations)o.clone();
-				sel.addObservations(oc);
+				sel.addObservations(o);
 			}
 		}
 //		if(debug){
@@ -1018,12 +1103,17 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 //		observationsBuffer.add(o);
 	}
 
+	/**
+	 * Hands the decoded ephemeris to the listeners. Decoders build a new instance
+	 * for each message, so the first listener keeps it and the others get a copy.
+	 */
 	public void addEphemeris(GNSSEphemeris o)
 	{
 		if(streamEventListeners!=null && o!=null){
+			boolean first = true;
 			for(StreamEventListener sel:streamEventListeners){
-				GNSSEphemeris oc = o.copy();
-				sel.addEphemeris(oc);
+				sel.addEphemeris(first ? o : o.copy());
+				first = false;
 			}
 		}
 	}
@@ -1031,10 +1121,10 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 	public void addEphemerisCorr(GNSSEphemerisCorrections o)
 	{
 		if(streamEventListeners!=null && o!=null){
+			boolean first = true;
 			for(StreamEventListener sel:streamEventListeners){
-				GNSSEphemerisCorrections oc = (GNSSEphemerisCorrections) o.copy();
-				sel.addEphemerisCorr(oc);
-				//Log.i("EPH", "" + oc.getGpsCorrections().get(25).getPrn());
+				sel.addEphemerisCorr(first ? o : (GNSSEphemerisCorrections) o.copy());
+				first = false;
 			}
 		}
 	}
@@ -1042,10 +1132,10 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 	public void addSatelliteCodeBiases(SatelliteCodeBiases o)
 	{
 		if(streamEventListeners!=null && o!=null){
+			boolean first = true;
 			for(StreamEventListener sel:streamEventListeners){
-				SatelliteCodeBiases oc = (SatelliteCodeBiases) o.copy();
-				sel.addSatelliteCodeBiases(oc);
-				//Log.i("EPH", "" + oc.getGpsCorrections().get(25).getPrn());
+				sel.addSatelliteCodeBiases(first ? o : (SatelliteCodeBiases) o.copy());
+				first = false;
 			}
 		}
 	}
@@ -1180,17 +1270,78 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 		return reconnectionPolicy;
 	}
 
+	/**
+	 * Listeners added from now on are called on their own thread, through an
+	 * {@link AsyncStreamEventListener}, so a slow listener does not stall the
+	 * reading of the stream. Only observations can be dropped when a queue
+	 * is full.
+	 *
+	 * @param capacity events queued for each listener, 0 to call the listeners
+	 * from the thread reading the stream (default)
+	 * @param overflowPolicy one of the AsyncStreamEventListener.OVERFLOW_ constants
+	 * @return
+	 */
+	public RTCM3Client setAsyncListeners(int capacity, int overflowPolicy) {
+		this.listenerQueueCapacity = capacity;
+		this.listenerOverflowPolicy = overflowPolicy;
+		return this;
+	}
+
+	/**
+	 * @return the registered listener, or its asynchronous wrapper
+	 */
+	private StreamEventListener findStreamEventListener(StreamEventListener streamEventListener) {
+		for (StreamEventListener sel : streamEventListeners) {
+			if (sel == streamEventListener || (sel instanceof AsyncStreamEventListener
+					&& ((AsyncStreamEventListener) sel).getListener() == streamEventListener))
+				return sel;
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces the asynchronous wrappers released when a previous stream was
+	 * closed, so the listeners receive the events of the next one. Wrappers
+	 * added by the caller are left as they are.
+	 */
+	void renewAsyncListeners() {
+		synchronized (streamEventListeners) {
+			for (int i = 0; i < streamEventListeners.size(); i++) {
+				StreamEventListener sel = streamEventListeners.get(i);
+				if (!asyncWrappers.contains(sel) || !((AsyncStreamEventListener) sel).isReleased())
+					continue;
+				AsyncStreamEventListener async = (AsyncStreamEventListener) sel;
+				asyncWrappers.remove(async);
+				async = new AsyncStreamEventListener(async.getListener(), async.getCapacity(), async.getOverflowPolicy());
+				streamEventListeners.set(i, async);
+				asyncWrappers.add(async);
+			}
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.StreamEventProducer#addStreamEventListener(org.gogpsproject.StreamEventListener)
 	 */
 	@Override
 	public void addStreamEventListener(StreamEventListener streamEventListener) {
 		if(streamEventListener==null) return;
-		if(!streamEventListeners.contains(streamEventListener))
-			this.streamEventListeners.add(streamEventListener);
+		StreamEventListener sel;
+		synchronized (streamEventListeners) {
+			sel = findStreamEventListener(streamEventListener);
+			if(sel==null){
+				if(listenerQueueCapacity>0 && !(streamEventListener instanceof AsyncStreamEventListener)){
+					AsyncStreamEventListener async = new AsyncStreamEventListener(streamEventListener, listenerQueueCapacity, listenerOverflowPolicy);
+					asyncWrappers.add(async);
+					sel = async;
+				}else{
+					sel = streamEventListener;
+				}
+				this.streamEventListeners.add(sel);
+			}
+		}
 		// feed defined position
 		if(masterPosition!=null)
-			streamEventListener.setDefinedPosition(masterPosition);
+			sel.setDefinedPosition(masterPosition);
 	}
 
 	/* (non-Javadoc)
@@ -1209,8 +1360,14 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 	public void removeStreamEventListener(
 			StreamEventListener streamEventListener) {
 		if(streamEventListener==null) return;
-		if(streamEventListeners.contains(streamEventListener))
-			this.streamEventListeners.remove(streamEventListener);
+		synchronized (streamEventListeners) {
+			StreamEventListener sel = findStreamEventListener(streamEventListener);
+			if(sel!=null){
+				this.streamEventListeners.remove(sel);
+				if(asyncWrappers.remove(sel))
+					((AsyncStreamEventListener) sel).release();
+			}
+		}
 
 		if(exitPolicy == EXIT_ON_LAST_LISTENER_LEAVE && streamEventListeners.size()==0){
 			try {
@@ -1265,8 +1422,50 @@ public class RTCM3Client implements Runnable, StreamResource, StreamEventProduce
 		return this;
 	}
 
+	/**
+	 * @return the framing counters of the current connection
+	 */
+	public RTCM3Statistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @param maxCrcFailureRatio CRC failure ratio above which the connection is
+	 * closed (and reopened according to the reconnection policy), 0 to disable
+	 * @return
+	 */
+	public RTCM3Client setMaxCrcFailureRatio(double maxCrcFailureRatio) {
+		this.maxCrcFailureRatio = maxCrcFailureRatio;
+		return this;
+	}
+
 	public RTCM3Client setReconnectionWaitingTime(Integer waitingTime) {
 		this.reconnectionWaitingTime = waitingTime * 1000;
     return this;
 	}
+
+	/**
+	 * @return the reconnection waiting time in ms
+	 */
+	public long getReconnectionWaitingTime() {
+		return reconnectionWaitingTime;
+	}
+
+	/**
+	 * @return the connection settings, the mountpoint being the source
+	 */
+	public ConnectionSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return true once {@link #stop(boolean, long)} has been called
+	 */
+	boolean isStopRequested() {
+		return askForStop;
+	}
+
+	long getNtripGGAsendDelay() {
+		return NtripGGAsendDelay;
+	}
 }
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rtcm3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.gogpsproject.Constants;
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.util.BitReader;
+
+/**
+ * <p>
+ * Index of the CRC checked frames of an RTCM3 capture: offset, payload
+ * length, message type and, for observation messages, the epoch time.
+ * </p>
+ * <p>
+ * Epoch times are GPS milliseconds since the GPS time origin, read from the
+ * message header without decoding the observations. A new epoch starts at
+ * each observation message whose time differs from the previous one; epoch
+ * starts are the positions used to seek in the capture and to split it into
+ * independently decodable chunks.
+ * </p>
+ * <p>
+ * The index can be saved next to the capture, it is only reloaded if the
+ * capture length, modification time and starting week still match.
+ * </p>
+ */
+public class RTCM3FileIndex {
+
+	public final static long MILLISEC_IN_WEEK = Constants.DAYS_IN_WEEK * Constants.SEC_IN_DAY * Constants.MILLISEC_IN_SEC;
+
+	private final static String MAGIC = "RTCM3IDX";
+	private final static int VERSION = 1;
+
+	private final static long MILLISEC_IN_DAY = Constants.SEC_IN_DAY * Constants.MILLISEC_IN_SEC;
+	private final static long GLONASS_UTC_OFFSET_MS = 10800000L;
+	private final static long BDT_OFFSET_MS = 14000L;
+
+	private final long captureLength;
+	private final long captureModified;
+	private final int startWeek;
+
+	private int count = 0;
+	private int[] offsets = new int[1024];
+	private short[] lengths = new short[1024];
+	private short[] types = new short[1024];
+	private long[] times = new long[1024];
+
+	private int epochCount = 0;
+	private int[] epochFrames = new int[256];
+
+	private RTCM3FileIndex(long captureLength, long captureModified, int startWeek) {
+		this.captureLength = captureLength;
+		this.captureModified = captureModified;
+		this.startWeek = startWeek;
+	}
+
+	/**
+	 * Scans a capture held in memory.
+	 *
+	 * @param capture
+	 *            the whole capture, read from position 0 to its limit
+	 * @param startWeek
+	 *            GPS week of the first epoch, following weeks are detected on
+	 *            time of week roll over
+	 * @param statistics
+	 *            framing counters to update
+	 */
+	public static RTCM3FileIndex build(ByteBuffer capture, long captureModified, int startWeek, RTCM3Statistics statistics)
+			throws IOException {
+		ByteBuffer src = capture.duplicate();
+		src.position(0);
+		RTCM3FileIndex index = new RTCM3FileIndex(src.limit(), captureModified, startWeek);
+		RTCM3Framer framer = new RTCM3Framer(statistics);
+		BitReader bits = new BitReader();
+
+		int leapSeconds = new Time(startWeek, 0).getLeapSeconds();
+		int week = startWeek;
+		long lastTow = -1;
+		long lastTime = -1;
+
+		while (true) {
+			int length;
+			while ((length = framer.nextFrame()) >= 0) {
+				int offset = (int) framer.getFrameStreamOffset();
+				int type = length >= 2 ? (int) bits.reset(framer.getBuffer(), framer.getPayloadOffset(), length).getUInt(0, 12) : 0;
+
+				long time = -1;
+				long tow = length >= 7 ? epochTimeOfWeek(bits, type, leapSeconds, lastTow) : -1;
+				if (tow >= 0) {
+					if (lastTow >= 0 && tow < lastTow - MILLISEC_IN_WEEK / 2) {
+						week++;
+					} else if (lastTow >= 0 && tow > lastTow + MILLISEC_IN_WEEK / 2) {
+						// GLONASS or BeiDou epoch of the previous week, just before a roll over
+						tow -= MILLISEC_IN_WEEK;
+					}
+					time = week * MILLISEC_IN_WEEK + tow;
+					if (tow >= 0)
+						lastTow = tow;
+				}
+				index.add(offset, length, type, time);
+				if (time >= 0 && time != lastTime) {
+					index.addEpoch(index.count - 1);
+					lastTime = time;
+				}
+			}
+			if (!src.hasRemaining()) {
+				if (framer.getBufferedBytes() == 0)
+					break;
+				// frames after a truncated candidate at the end of the capture
+				framer.endOfStream();
+				continue;
+			}
+			framer.feed(src);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the epoch time of an observation message as milliseconds in the
+	 *         GPS week, -1 for other messages
+	 */
+	private static long epochTimeOfWeek(BitReader bits, int type, int leapSeconds, long lastTow) {
+		if (type >= 1001 && type <= 1004)
+			return bits.getUInt(24, 30);
+		if (type >= 1009 && type <= 1012)
+			return glonassTimeOfWeek(7, bits.getUInt(24, 27), leapSeconds, lastTow);
+		if (type % 10 < 4 || type % 10 > 7)
+			return -1;
+		switch (type / 10) {
+			case 107: // GPS
+			case 109: // Galileo
+			case 111: // QZSS
+				return bits.getUInt(24, 30);
+			case 108:
+				return glonassTimeOfWeek((int) bits.getUInt(24, 3), bits.getUInt(27, 27), leapSeconds, lastTow);
+			case 112:
+				return (bits.getUInt(24, 30) + BDT_OFFSET_MS) % MILLISEC_IN_WEEK;
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * Converts the GLONASS time of day to a GPS time of week, taking the day
+	 * closest to the previous epoch when the day of week is unknown.
+	 */
+	private static long glonassTimeOfWeek(int day, long tod, int leapSeconds, long lastTow) {
+		long tow = tod - GLONASS_UTC_OFFSET_MS + leapSeconds * 1000L;
+		if (day < 7)
+			return (day * MILLISEC_IN_DAY + tow + MILLISEC_IN_WEEK) % MILLISEC_IN_WEEK;
+		if (lastTow < 0)
+			return -1;
+		long best = -1;
+		for (int d = 0; d <= 7; d++) {
+			long candidate = (d * MILLISEC_IN_DAY + tow + MILLISEC_IN_WEEK) % MILLISEC_IN_WEEK;
+			if (best < 0 || distance(candidate, lastTow) < distance(best, lastTow))
+				best = candidate;
+		}
+		return best;
+	}
+
+	private static long distance(long tow1, long tow2) {
+		long d = Math.abs(tow1 - tow2);
+		return Math.min(d, MILLISEC_IN_WEEK - d);
+	}
+
+	private void add(int offset, int length, int type, long time) {
+		if (count == offsets.length) {
+			int capacity = count * 2;
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			types = Arrays.copyOf(types, capacity);
+			times = Arrays.copyOf(times, capacity);
+		}
+		offsets[count] = offset;
+		lengths[count] = (short) length;
+		types[count] = (short) type;
+		times[count] = time;
+		count++;
+	}
+
+	private void addEpoch(int frame) {
+		if (epochCount == epochFrames.length)
+			epochFrames = Arrays.copyOf(epochFrames, epochCount * 2);
+		epochFrames[epochCount++] = frame;
+	}
+
+	/**
+	 * Loads an index saved by {@link #write(File)}.
+	 *
+	 * @return the index, null if the file is missing, unreadable or was built
+	 *         for another version of the capture
+	 */
+	public static RTCM3FileIndex read(File indexFile, File capture, int startWeek) {
+		if (!indexFile.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 65536));
+			if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION)
+				return null;
+			long length = in.readLong();
+			long modified = in.readLong();
+			int week = in.readInt();
+			if (length != capture.length() || modified != capture.lastModified() || week != startWeek)
+				return null;
+			RTCM3FileIndex index = new RTCM3FileIndex(length, modified, week);
+			int n = in.readInt();
+			index.offsets = new int[Math.max(n, 1)];
+			index.lengths = new short[Math.max(n, 1)];
+			index.types = new short[Math.max(n, 1)];
+			index.times = new long[Math.max(n, 1)];
+			long lastTime = -1;
+			for (int i = 0; i < n; i++) {
+				index.offsets[i] = in.readInt();
+				index.lengths[i] = in.readShort();
+				index.types[i] = in.readShort();
+				index.times[i] = in.readLong();
+				index.count++;
+				if (index.times[i] >= 0 && index.times[i] != lastTime) {
+					index.addEpoch(i);
+					lastTime = index.times[i];
+				}
+			}
+			return index;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	/**
+	 * Saves the index, to be reloaded with {@link #read(File, File, int)}.
+	 */
+	public void write(File indexFile) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 65536));
+		try {
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(captureLength);
+			out.writeLong(captureModified);
+			out.writeInt(startWeek);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeInt(offsets[i]);
+				out.writeShort(lengths[i]);
+				out.writeShort(types[i]);
+				out.writeLong(times[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the index of the first frame of the first epoch at or after the
+	 *         given time, the number of frames if there is none
+	 */
+	public int findFrame(long gpsMillis) {
+		int low = 0;
+		int high = epochCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[epochFrames[mid]] < gpsMillis)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low < epochCount ? epochFrames[low] : count;
+	}
+
+	/**
+	 * @return the index of the first epoch start at or after the given frame,
+	 *         the number of frames if there is none
+	 */
+	public int nextEpochFrame(int frame) {
+		int i = Arrays.binarySearch(epochFrames, 0, epochCount, frame);
+		if (i < 0)
+			i = -i - 1;
+		return i < epochCount ? epochFrames[i] : count;
+	}
+
+	/**
+	 * @return GPS milliseconds since the GPS time origin, from a GPS week and time of week
+	 */
+	public static long toGpsMillis(int week, double tow) {
+		return week * MILLISEC_IN_WEEK + Math.round(tow * 1000);
+	}
+
+	/**
+	 * @return the number of frames
+	 */
+	public int getFrameCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of epochs
+	 */
+	public int getEpochCount() {
+		return epochCount;
+	}
+
+	/**
+	 * @return the offset of the preamble of a frame in the capture
+	 */
+	public int getOffset(int frame) {
+		return offsets[frame];
+	}
+
+	public int getPayloadLength(int frame) {
+		return lengths[frame];
+	}
+
+	public int getMessageType(int frame) {
+		return types[frame];
+	}
+
+	/**
+	 * @return the epoch time of an observation frame in GPS milliseconds since
+	 *         the GPS time origin, -1 for other frames
+	 */
+	public long getTime(int frame) {
+		return times[frame];
+	}
+
+	/**
+	 * @return the GPS week of an observation frame, -1 for other frames
+	 */
+	public int getWeek(int frame) {
+		return times[frame] < 0 ? -1 : (int) (times[frame] / MILLISEC_IN_WEEK);
+	}
+
+	public int getStartWeek() {
+		return startWeek;
+	}
+
+	@Override
+	public String toString() {
+		return count + " frames, " + epochCount + " epochs"
+				+ (epochCount > 0 ? ", GPS time " + times[epochFrames[0]] + " to " + times[epochFrames[epochCount - 1]] + " ms" : "");
+	}
+}
@@ -20,16 +20,28 @@
 package org.gogpsproject.producer.parser.rtcm3;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.gogpsproject.ephemeris.EphGps;
 import org.gogpsproject.ephemeris.EphemerisSystem;
 import org.gogpsproject.positioning.Coordinates;
 import org.gogpsproject.positioning.SatellitePosition;
+import org.gogpsproject.positioning.Time;
 import org.gogpsproject.producer.NavigationProducer;
 import org.gogpsproject.producer.Observations;
 import org.gogpsproject.producer.ObservationsProducer;
@@ -42,13 +54,28 @@ import org.gogpsproject.producer.parser.IonoGps;
  * <p>
  * Read an RTCM3 file and implement Observation and Navigation producer
  * </p>
+ * <p>
+ * The file is memory mapped and indexed on {@link #init()}, the index is
+ * cached in a sidecar file (see {@link #getIndexFile()}). The index allows to
+ * {@link #seek(Time)} to an epoch and to {@link #replay(int)} the file with
+ * several decoding threads.
+ * </p>
  *
  * @author Eugenio Realini GReD srl
  */
 
 public class RTCM3FileReader extends EphemerisSystem implements ObservationsProducer, NavigationProducer, StreamResource, StreamEventProducer {
 
-	private InputStream in;
+	/** number of frames decoded as a unit by {@link #replay(int)}, rounded up to the next epoch */
+	private final static int CHUNK_FRAMES = 2048;
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer capture;
+	private ByteBuffer view;
+	private RTCM3FileIndex index;
+	private int cursor = 0;
+	private final byte[] frame = new byte[RTCM3Framer.HEADER_LENGTH + RTCM3Framer.MAX_PAYLOAD_LENGTH + RTCM3Framer.CRC_LENGTH];
+
 	private RTCM3Client reader;
 	private File file;
 	private Observations obs = null;
@@ -88,12 +115,7 @@ public class RTCM3FileReader extends EphemerisSystem implements ObservationsProd
 	 * @see org.gogpsproject.ObservationsProducer#hasMoreObservations()
 	 */
 	public boolean hasMoreObservations() {
-		boolean moreObs = false;
-		try {
-			moreObs = in.available()>0;
-		} catch (IOException e) {
-		}
-		return moreObs;
+		return index != null && cursor < index.getFrameCount();
 	}
 
 	/* (non-Javadoc)
@@ -101,9 +123,61 @@ public class RTCM3FileReader extends EphemerisSystem implements ObservationsProd
 	 */
 	@Override
 	public void init() throws Exception {
-		this.in = new FileInputStream(file);
+		if (file.length() > Integer.MAX_VALUE)
+			throw new IOException("RTCM3 file larger than 2 GB: " + file);
+		this.raf = new RandomAccessFile(file, "r");
+		this.capture = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		this.view = capture.duplicate();
 
 		this.reader = new RTCM3Client(week);
+		for (StreamEventListener sel : streamEventListeners)
+			reader.addStreamEventListener(sel);
+
+		File indexFile = getIndexFile();
+		index = RTCM3FileIndex.read(indexFile, file, week);
+		if (index == null) {
+			index = RTCM3FileIndex.build(capture, file.lastModified(), week, reader.getStatistics());
+			try {
+				index.write(indexFile);
+			} catch (IOException e) {
+				// read-only location, the index is rebuilt next time
+				indexFile.delete();
+			}
+		}
+		cursor = 0;
+	}
+
+	/**
+	 * @return the sidecar file caching the frame index of the RTCM3 file
+	 */
+	public File getIndexFile() {
+		return new File(file.getPath() + ".idx");
+	}
+
+	/**
+	 * @return the frame index, available after {@link #init()}
+	 */
+	public RTCM3FileIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Moves to the first epoch at or after the given time. Decoding restarts
+	 * from there, with a clean decoder state.
+	 *
+	 * @return false if the file ends before
+	 */
+	public boolean seek(Time time) {
+		cursor = index.findFrame(RTCM3FileIndex.toGpsMillis(time.getGpsWeek(), time.getGpsTime()));
+		if (cursor < index.getFrameCount()) {
+			RTCM3Client previous = reader;
+			reader = new RTCM3Client(index.getWeek(cursor));
+			if (previous.getMasterPosition() != null)
+				reader.setMasterPosition(previous.getMasterPosition());
+			for (StreamEventListener sel : streamEventListeners)
+				reader.addStreamEventListener(sel);
+		}
+		return cursor < index.getFrameCount();
 	}
 
 	/* (non-Javadoc)
@@ -111,21 +185,133 @@ public class RTCM3FileReader extends EphemerisSystem implements ObservationsProd
 	 */
 	@Override
 	public Observations getNextObservations() {
-		try{
-			while(in.available()>0){
-				int c;
-				c = in.read();
-				if (c == 211) {
-					Object o = reader.readMessage(in);
-					if(o instanceof Observations){
-						return (Observations)o;
+		while (hasMoreObservations()) {
+			Object o = decode(reader, view, cursor++);
+			if(o instanceof Observations){
+				// the epoch is frozen when shared with listeners, callers may modify theirs
+				obs = ((Observations)o).isFrozen() ? ((Observations)o).copy() : (Observations)o;
+				return obs;
+			}
+			// the reference station position was already forwarded by its decoder
+			if(!(o instanceof Coordinates))
+				reader.dispatch(o);
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes the rest of the file and forwards everything to the listeners,
+	 * in file order.
+	 * <p>
+	 * The remaining frames are split into chunks starting at an epoch. Chunks
+	 * are decoded concurrently, each by its own decoder, and their messages are
+	 * forwarded from the calling thread in file order once the chunk is
+	 * complete. Decoder state is not carried from one chunk to the next, which
+	 * is fine as long as each epoch is self-contained (MSM, 1004, 1012 ...).
+	 * </p>
+	 *
+	 * @param threads
+	 *            number of decoding threads, 1 decodes on the calling thread
+	 * @return the number of epochs forwarded
+	 */
+	public int replay(int threads) throws InterruptedException {
+		int epochs = 0;
+		if (threads <= 1) {
+			while (getNextObservations() != null)
+				epochs++;
+			return epochs;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "RTCM3FileReader " + file.getName());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ArrayDeque<Future<List<Object>>> pending = new ArrayDeque<Future<List<Object>>>();
+		int next = cursor;
+		int count = index.getFrameCount();
+		try {
+			while (next < count || !pending.isEmpty()) {
+				// keep every thread busy, and a chunk ahead of each
+				while (next < count && pending.size() < threads * 2) {
+					int end = index.nextEpochFrame(Math.min(next + CHUNK_FRAMES, count));
+					pending.add(pool.submit(new ChunkDecoder(next, end)));
+					next = end;
+				}
+				List<Object> messages;
+				try {
+					messages = pending.poll().get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+				for (Object o : messages) {
+					if (o instanceof Observations) {
+						obs = (Observations) o;
+						reader.addObservation(obs);
+						epochs++;
+					} else if (o instanceof Coordinates) {
+						reader.setMasterPosition((Coordinates) o);
+					} else {
+						reader.dispatch(o);
 					}
 				}
 			}
-		}catch(IOException e){
-			e.printStackTrace();
+		} finally {
+			pool.shutdownNow();
 		}
-		return null;
+		cursor = count;
+		return epochs;
+	}
+
+	/**
+	 * Decodes the frames of a chunk with a decoder of its own.
+	 */
+	private class ChunkDecoder implements Callable<List<Object>> {
+		private final int first;
+		private final int end;
+
+		ChunkDecoder(int first, int end) {
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		public List<Object> call() {
+			int chunkWeek = week;
+			for (int i = first; i < end; i++) {
+				if (index.getWeek(i) >= 0) {
+					chunkWeek = index.getWeek(i);
+					break;
+				}
+			}
+			RTCM3Client client = new RTCM3Client(chunkWeek);
+			ByteBuffer chunkView = capture.duplicate();
+			byte[] chunkFrame = new byte[frame.length];
+			List<Object> messages = new ArrayList<Object>();
+			for (int i = first; i < end; i++) {
+				Object o = decode(client, chunkView, chunkFrame, i);
+				if (o != null)
+					messages.add(o);
+			}
+			return messages;
+		}
+	}
+
+	private Object decode(RTCM3Client client, ByteBuffer source, int i) {
+		return decode(client, source, frame, i);
+	}
+
+	/**
+	 * Decodes an indexed frame, its CRC was checked while indexing.
+	 */
+	private Object decode(RTCM3Client client, ByteBuffer source, byte[] buffer, int i) {
+		int length = index.getPayloadLength(i);
+		source.position(index.getOffset(i));
+		source.get(buffer, 0, RTCM3Framer.HEADER_LENGTH + length);
+		return client.decodeFrame(buffer, RTCM3Framer.HEADER_LENGTH, length);
 	}
 
 	/* (non-Javadoc)
@@ -134,7 +320,8 @@ public class RTCM3FileReader extends EphemerisSystem implements ObservationsProd
 	@Override
 	public void release(boolean waitForThread, long timeoutMs) throws InterruptedException {
 		try {
-			in.close();
+			if (raf != null)
+				raf.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
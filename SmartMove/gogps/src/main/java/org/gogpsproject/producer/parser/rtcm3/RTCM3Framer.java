@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rtcm3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.gogpsproject.util.Crc24q;
+
+/**
+ * <p>
+ * Splits a byte stream into CRC-24Q checked RTCM3 frames.
+ * </p>
+ * <p>
+ * The stream is read in blocks into an internal buffer and the next preamble
+ * is searched in memory. When a candidate frame fails the CRC check, the scan
+ * restarts from the byte following its preamble, so a corrupted byte costs a
+ * single frame.
+ * </p>
+ * <p>
+ * Without input stream the framer works in push mode: bytes received from a
+ * non-blocking channel are appended with {@link #feed(ByteBuffer)} and
+ * {@link #nextFrame()} returns -1 as soon as it needs more of them.
+ * </p>
+ */
+public class RTCM3Framer {
+
+	public final static int PREAMBLE = 0xD3;
+	/** preamble, 6 reserved bits and 10 bits of payload length */
+	public final static int HEADER_LENGTH = 3;
+	public final static int CRC_LENGTH = 3;
+	public final static int MAX_PAYLOAD_LENGTH = 1023;
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	/** stream offset of the first byte of the buffer */
+	private long bufferOffset = 0;
+
+	private int frameOffset = -1;
+	private int payloadLength = 0;
+	/** no more bytes will be read or fed */
+	private boolean ended = false;
+
+	private final RTCM3Statistics statistics;
+
+	/**
+	 * Creates a framer in push mode.
+	 */
+	public RTCM3Framer(RTCM3Statistics statistics) {
+		this(null, statistics);
+	}
+
+	public RTCM3Framer(InputStream in) {
+		this(in, new RTCM3Statistics());
+	}
+
+	public RTCM3Framer(InputStream in, RTCM3Statistics statistics) {
+		this(in, statistics, 8192);
+	}
+
+	public RTCM3Framer(InputStream in, RTCM3Statistics statistics, int bufferSize) {
+		this.in = in;
+		this.statistics = statistics;
+		this.buffer = new byte[Math.max(bufferSize, HEADER_LENGTH + MAX_PAYLOAD_LENGTH + CRC_LENGTH)];
+	}
+
+	/**
+	 * Advances to the next frame with a valid CRC.
+	 *
+	 * @return the payload length of the frame, -1 if the stream ended first
+	 */
+	public int nextFrame() throws IOException {
+		frameOffset = -1;
+		while (true) {
+			int start = position;
+			while (position < limit && (buffer[position] & 0xFF) != PREAMBLE) {
+				position++;
+			}
+			if (position > start) {
+				statistics.bytesSkipped(position - start);
+			}
+			if (limit - position < HEADER_LENGTH) {
+				if (!ended) {
+					if (in == null)
+						return -1;
+					if (fill())
+						continue;
+					ended = true;
+				}
+				if (position == limit)
+					return -1;
+				// truncated candidate at the end of the stream
+				skipCandidate();
+				continue;
+			}
+			if ((buffer[position + 1] & 0xFC) != 0) {
+				// reserved bits are always 0 in a real header
+				skipCandidate();
+				continue;
+			}
+			int length = ((buffer[position + 1] & 0x03) << 8) | (buffer[position + 2] & 0xFF);
+			int frameLength = HEADER_LENGTH + length + CRC_LENGTH;
+			if (limit - position < frameLength) {
+				if (!ended) {
+					if (in == null)
+						return -1;
+					if (fill())
+						continue;
+					ended = true;
+				}
+				skipCandidate();
+				continue;
+			}
+			if (checkCrc(buffer, position, length)) {
+				frameOffset = position;
+				payloadLength = length;
+				position += frameLength;
+				statistics.frameReceived();
+				return length;
+			}
+			// not a frame, resume the search right after this preamble
+			statistics.crcFailed();
+			skipCandidate();
+		}
+	}
+
+	/**
+	 * Drops the preamble at the current position so the search resumes on the
+	 * next byte.
+	 */
+	private void skipCandidate() {
+		statistics.bytesSkipped(1);
+		position++;
+	}
+
+	/**
+	 * Moves the unread bytes to the beginning of the buffer and appends what
+	 * the stream has available, blocking until at least one byte is read.
+	 *
+	 * @return false if the stream ended
+	 */
+	private boolean fill() throws IOException {
+		compact();
+		int n = in.read(buffer, limit, buffer.length - limit);
+		if (n < 0)
+			return false;
+		limit += n;
+		statistics.bytesRead(n);
+		return true;
+	}
+
+	/**
+	 * Appends received bytes, in push mode. Frames should be drained with
+	 * {@link #nextFrame()} between calls, the source is only partially consumed
+	 * when the buffer is full.
+	 *
+	 * @param src
+	 *            bytes to append, its position is advanced by the copied length
+	 * @return the number of bytes copied
+	 */
+	public int feed(ByteBuffer src) {
+		compact();
+		int n = Math.min(src.remaining(), buffer.length - limit);
+		src.get(buffer, limit, n);
+		limit += n;
+		statistics.bytesRead(n);
+		return n;
+	}
+
+	/**
+	 * Signals the end of the data, in push mode. The frames left in the
+	 * buffer are then returned by {@link #nextFrame()} even if they follow an
+	 * incomplete candidate frame.
+	 */
+	public void endOfStream() {
+		ended = true;
+	}
+
+	private void compact() {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			bufferOffset += position;
+			limit -= position;
+			position = 0;
+		}
+	}
+
+	/**
+	 * @return the number of bytes already read from the stream and not yet framed
+	 */
+	public int getBufferedBytes() {
+		return limit - position;
+	}
+
+	/**
+	 * @return the buffer holding the current frame, only valid until the next call to
+	 *         {@link #nextFrame()} or {@link #feed(ByteBuffer)}
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return the index of the first payload byte of the current frame in {@link #getBuffer()}
+	 */
+	public int getPayloadOffset() {
+		return frameOffset + HEADER_LENGTH;
+	}
+
+	/**
+	 * @return the offset of the preamble of the current frame from the start of the stream
+	 */
+	public long getFrameStreamOffset() {
+		return bufferOffset + frameOffset;
+	}
+
+	/**
+	 * @return the payload length of the current frame
+	 */
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+	/**
+	 * @return the counters updated by this framer
+	 */
+	public RTCM3Statistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Checks the CRC of a complete frame held in a buffer.
+	 *
+	 * @param frame
+	 *            buffer holding preamble, header, payload and CRC
+	 * @param offset
+	 *            index of the preamble
+	 * @param payloadLength
+	 *            payload length read from the header
+	 */
+	public static boolean checkCrc(byte[] frame, int offset, int payloadLength) {
+		int crcOffset = offset + HEADER_LENGTH + payloadLength;
+		int crc = ((frame[crcOffset] & 0xFF) << 16) | ((frame[crcOffset + 1] & 0xFF) << 8)
+				| (frame[crcOffset + 2] & 0xFF);
+		return Crc24q.compute(frame, offset, HEADER_LENGTH + payloadLength) == crc;
+	}
+}
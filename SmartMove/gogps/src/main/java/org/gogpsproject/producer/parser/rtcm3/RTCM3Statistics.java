@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.rtcm3;
+
+/**
+ * <p>
+ * Framing counters of one RTCM3 stream. Updated by the thread reading the
+ * stream, readable from any thread.
+ * </p>
+ */
+public class RTCM3Statistics {
+
+	/** interval over which the byte rate is measured */
+	private static final long RATE_INTERVAL_MS = 1000;
+
+	private volatile long goodFrames = 0;
+	private volatile long crcFailures = 0;
+	private volatile long resyncBytes = 0;
+	private volatile long totalBytes = 0;
+	private volatile double bytesPerSecond = 0;
+
+	private long rateStartTime = -1;
+	private long rateStartBytes = 0;
+
+	void frameReceived() {
+		goodFrames++;
+	}
+
+	void crcFailed() {
+		crcFailures++;
+	}
+
+	void bytesSkipped(int count) {
+		resyncBytes += count;
+	}
+
+	void bytesRead(int count) {
+		totalBytes += count;
+		long now = System.currentTimeMillis();
+		if (rateStartTime < 0) {
+			rateStartTime = now;
+			rateStartBytes = totalBytes - count;
+		} else if (now - rateStartTime >= RATE_INTERVAL_MS) {
+			bytesPerSecond = (totalBytes - rateStartBytes) * 1000.0 / (now - rateStartTime);
+			rateStartTime = now;
+			rateStartBytes = totalBytes;
+		}
+	}
+
+	/**
+	 * @return the number of frames with a valid CRC
+	 */
+	public long getGoodFrames() {
+		return goodFrames;
+	}
+
+	/**
+	 * @return the number of candidate frames rejected by the CRC check
+	 */
+	public long getCrcFailures() {
+		return crcFailures;
+	}
+
+	/**
+	 * @return the number of bytes discarded while looking for a frame preamble
+	 */
+	public long getResyncBytes() {
+		return resyncBytes;
+	}
+
+	/**
+	 * @return the number of bytes read from the stream
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return the byte rate measured over the last second of data
+	 */
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return CRC failures over all checked frames, 0 if none was checked yet
+	 */
+	public double getCrcFailureRatio() {
+		long checked = goodFrames + crcFailures;
+		return checked == 0 ? 0 : (double) crcFailures / checked;
+	}
+
+	public void reset() {
+		goodFrames = 0;
+		crcFailures = 0;
+		resyncBytes = 0;
+		totalBytes = 0;
+		bytesPerSecond = 0;
+		rateStartTime = -1;
+		rateStartBytes = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "frames " + goodFrames + ", CRC failures " + crcFailures + ", resync bytes "
+				+ resyncBytes + ", " + Math.round(bytesPerSecond) + " B/s";
+	}
+}
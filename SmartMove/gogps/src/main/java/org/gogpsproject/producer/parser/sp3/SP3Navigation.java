@@ -23,11 +23,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
 
@@ -41,6 +39,7 @@ import org.gogpsproject.producer.NavigationProducer;
 import org.gogpsproject.producer.Observations;
 import org.gogpsproject.producer.StreamResource;
 import org.gogpsproject.producer.parser.IonoGps;
+import org.gogpsproject.producer.parser.NavigationProductManager;
 import org.gogpsproject.util.UncompressInputStream;
 
 /**
@@ -54,15 +53,41 @@ public class SP3Navigation implements NavigationProducer {
 	public final static String IGN_FR_RAPID = "ftp://igs.ensg.ign.fr/pub/igs/products/${wwww}/igr${wwww}${d}.sp3.Z";
 	public final static String IGN_FR_FINAL = "ftp://igs.ensg.ign.fr/pub/igs/products/${wwww}/igs${wwww}${d}.sp3.Z";
 
+	/** Folder containing downloaded files, changed with setCacheDir */
 	public String SP3_CACHE = "./sp3-cache";
 
-	private boolean waitForData = true;
 	protected String urltemplate;
-	protected HashMap<String,SP3Parser> pool = new HashMap<String,SP3Parser>();
+	/** memory pool, prefetch and caches of the files */
+	protected final NavigationProductManager<SP3Parser> products;
 
 	public SP3Navigation(String urltemplate){
 		this.urltemplate = urltemplate;
+		this.products = new NavigationProductManager<SP3Parser>(urltemplate, SP3_CACHE,
+				new NavigationProductManager.ProductLoader<SP3Parser>() {
+			@Override
+			public SP3Parser read(File file) throws IOException {
+				SP3Parser sp3p = new SP3Parser(file);
+				sp3p.init();
+				return sp3p;
+			}
+			@Override
+			public SP3Parser parse(InputStream is, File cache) throws IOException {
+				SP3Parser sp3p = new SP3Parser(is, cache);
+				sp3p.init();
+				return sp3p;
+			}
+			@Override
+			public SP3Parser download(String url, File cache) throws IOException {
+				return url.startsWith("ftp://") ? getFromFTP(url, cache) : null;
+			}
+		});
+	}
 
+	/**
+	 * @return the manager of the files, to configure pool size, prefetch and caches
+	 */
+	public NavigationProductManager<SP3Parser> getProductManager() {
+		return products;
 	}
 
 	/* (non-Javadoc)
@@ -73,136 +98,95 @@ public class SP3Navigation implements NavigationProducer {
 		
 		long unixTime = obs.getRefTime().getMsec();
 
-		SP3Parser sp3p = null;
-		long reqTime = unixTime;
-
-		boolean retrievable = true;
-
-		do{
-			// found none, retrieve from urltemplate
-			Time t = new Time(reqTime);
-			//System.out.print("request: "+unixTime+" "+(new Date(t.getMsec()))+" week:"+t.getGpsWeek()+" "+t.getGpsWeekDay());
-
-			String url = urltemplate.replaceAll("\\$\\{wwww\\}", (new DecimalFormat("0000")).format(t.getGpsWeek()));
-			url = url.replaceAll("\\$\\{d\\}", (new DecimalFormat("0")).format(t.getGpsWeekDay()));
-			int hh4 = t.getGpsHourInDay();
-			if(0<=hh4&&hh4<6) hh4=0;
-			if(6<=hh4&&hh4<12) hh4=6;
-			if(12<=hh4&&hh4<18) hh4=12;
-			if(18<=hh4&&hh4<24) hh4=18;
-			url = url.replaceAll("\\$\\{hh4\\}", (new DecimalFormat("00")).format(hh4));
-
-
-
-			if(url.startsWith("ftp://")){
-				try {
-					if(pool.containsKey(url)){
-						//System.out.println(url+" from memory cache.");
-						sp3p = pool.get(url);
-					}else{
-
-						sp3p = getFromFTP(url);
-					}
-					if(sp3p != null){
-						pool.put(url, sp3p);
-						// file exist, look for epoch
-						if(sp3p.isTimestampInEpocsRange(unixTime)){
-							return sp3p.getGpsSatPosition(obs, satID, satType, receiverClockError);
-						}else{
-							return null;
-						}
-					}
-				}  catch (IOException e) {
-          System.out.println( e.getClass().getName() + " url: " + url);
-          return null;
-				}
-
+		SP3Parser sp3p = getSP3ByTimestamp(unixTime);
+		if(sp3p != null){
+			return sp3p.getGpsSatPosition(obs, satID, satType, receiverClockError);
+		}
+		return null;
+	}
 
-			}else{
-				retrievable = false;
+	/**
+	 * @return the file covering unixTime, null if not available
+	 */
+	protected SP3Parser getSP3ByTimestamp(long unixTime) {
+		try {
+			SP3Parser sp3p = products.get(unixTime);
+			// file exist, look for epoch
+			if(sp3p != null && sp3p.isTimestampInEpocsRange(unixTime)){
+				return sp3p;
 			}
-		}while(retrievable && waitForData && sp3p==null);
-
+		} catch (IOException e) {
+			System.out.println( e.getClass().getName() + " url: " + products.resolve(unixTime));
+		}
 		return null;
 	}
 
-	protected SP3Parser getFromFTP(String url) throws IOException{
+	protected SP3Parser getFromFTP(String url, File sp3f) throws IOException{
 		SP3Parser sp3p = null;
 
-		String filename = url.replaceAll("[ ,/:]", "_");
-		if(filename.endsWith(".Z")) filename = filename.substring(0, filename.length()-2);
-		File sp3f = new File(SP3_CACHE,filename);
-
-		if(sp3f.exists()){
-      System.out.println(url+" from cache file "+ sp3f );
-      sp3p = new SP3Parser(sp3f);
-      sp3p.init();
-    }
-    else{
-			System.out.println(url+" from the net.");
-			FTPClient ftp = new FTPClient();
+		System.out.println(url+" from the net.");
+		FTPClient ftp = new FTPClient();
 
-			try {
-				int reply;
-				System.out.println("URL: "+url);
-				url = url.substring("ftp://".length());
-				String server = url.substring(0, url.indexOf('/'));
-				String remoteFile = url.substring(url.indexOf('/'));
-				String remotePath = remoteFile.substring(0,remoteFile.lastIndexOf('/'));
-				remoteFile = remoteFile.substring(remoteFile.lastIndexOf('/')+1);
+		try {
+			int reply;
+			System.out.println("URL: "+url);
+			url = url.substring("ftp://".length());
+			String server = url.substring(0, url.indexOf('/'));
+			String remoteFile = url.substring(url.indexOf('/'));
+			String remotePath = remoteFile.substring(0,remoteFile.lastIndexOf('/'));
+			remoteFile = remoteFile.substring(remoteFile.lastIndexOf('/')+1);
 
 
-				ftp.connect(server);
-				ftp.login("anonymous", "info@eriadne.org");
+			ftp.connect(server);
+			ftp.login("anonymous", "info@eriadne.org");
 
-				System.out.print(ftp.getReplyString());
+			System.out.print(ftp.getReplyString());
 
-				// After connection attempt, you should check the reply code to
-				// verify
-				// success.
-				reply = ftp.getReplyCode();
+			// After connection attempt, you should check the reply code to
+			// verify
+			// success.
+			reply = ftp.getReplyCode();
 
-				if (!FTPReply.isPositiveCompletion(reply)) {
-					ftp.disconnect();
-					System.err.println("FTP server refused connection.");
-					return null;
-				}
+			if (!FTPReply.isPositiveCompletion(reply)) {
+				ftp.disconnect();
+				System.err.println("FTP server refused connection.");
+				return null;
+			}
 
         ftp.enterLocalPassiveMode();
         ftp.setRemoteVerificationEnabled(false);
 
-				System.out.println("cwd to "+remotePath+" "+ftp.changeWorkingDirectory(remotePath));
-				System.out.println(ftp.getReplyString());
-				ftp.setFileType(FTP.BINARY_FILE_TYPE);
-				System.out.println(ftp.getReplyString());
-
-				System.out.println("open "+remoteFile);
-				InputStream is = ftp.retrieveFileStream(remoteFile);
-				InputStream uis = is;
-				System.out.println(ftp.getReplyString());
-				if(ftp.getReplyString().startsWith("550")){
-					throw new FileNotFoundException();
-				}
+			System.out.println("cwd to "+remotePath+" "+ftp.changeWorkingDirectory(remotePath));
+			System.out.println(ftp.getReplyString());
+			ftp.setFileType(FTP.BINARY_FILE_TYPE);
+			System.out.println(ftp.getReplyString());
+
+			System.out.println("open "+remoteFile);
+			InputStream is = ftp.retrieveFileStream(remoteFile);
+			InputStream uis = is;
+			System.out.println(ftp.getReplyString());
+			if(ftp.getReplyString().startsWith("550")){
+				throw new FileNotFoundException();
+			}
 
-				if(remoteFile.endsWith(".Z")){
-					uis = new UncompressInputStream(is);
-				}
+			if(remoteFile.endsWith(".Z")){
+				uis = new UncompressInputStream(is);
+			}
 
-				sp3p = new SP3Parser(uis,sp3f);
-				sp3p.init();
-				is.close();
+			sp3p = new SP3Parser(uis,sp3f);
+			sp3p.init();
+			is.close();
 
 
-				ftp.completePendingCommand();
+			ftp.completePendingCommand();
 
-				ftp.logout();
-			} finally {
-				if (ftp.isConnected()) {
-					try {
-						ftp.disconnect();
-					} catch (IOException ioe) {
-						// do nothing
-					}
+			ftp.logout();
+		} finally {
+			if (ftp.isConnected()) {
+				try {
+					ftp.disconnect();
+				} catch (IOException ioe) {
+					// do nothing
 				}
 			}
 		}
@@ -225,12 +209,20 @@ public class SP3Navigation implements NavigationProducer {
 
 	}
 
+	/**
+	 * @param cacheDir the folder containing downloaded files
+	 */
+	public void setCacheDir(String cacheDir) {
+		SP3_CACHE = cacheDir;
+		products.setCacheDir(cacheDir);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.NavigationProducer#release()
 	 */
 	@Override
 	public void release(boolean waitForThread, long timeoutMs) throws InterruptedException {
-		waitForData = false;
+		products.release();
 	}
 
 }
@@ -23,11 +23,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
 
@@ -54,55 +52,6 @@ public class SP3NavigationSpeed extends SP3Navigation {
 		super( urltemplate );
 	}
 
-  protected SP3Parser getSP3ByTimestamp( long unixTime ) {
-    SP3Parser sp3p = null;
-    long reqTime = unixTime;
-
-    do{
-      // found none, retrieve from urltemplate
-      Time t = new Time(reqTime);
-      //System.out.print("request: "+unixTime+" "+(new Date(t.getMsec()))+" week:"+t.getGpsWeek()+" "+t.getGpsWeekDay());
-
-      String url = urltemplate.replaceAll("\\$\\{wwww\\}", (new DecimalFormat("0000")).format(t.getGpsWeek()));
-      url = url.replaceAll("\\$\\{d\\}", (new DecimalFormat("0")).format(t.getGpsWeekDay()));
-      int hh4 = t.getGpsHourInDay();
-      if(0<=hh4&&hh4<6) hh4=0;
-      if(6<=hh4&&hh4<12) hh4=6;
-      if(12<=hh4&&hh4<18) hh4=12;
-      if(18<=hh4&&hh4<24) hh4=18;
-      url = url.replaceAll("\\$\\{hh4\\}", (new DecimalFormat("00")).format(hh4));
-
-      if( !url.startsWith("ftp://") )
-          throw new RuntimeException("Invalid url template " + url);
-        
-      try {
-        if(pool.containsKey(url)){
-          //System.out.println(url+" from memory cache.");
-          sp3p = pool.get(url);
-        }else{
-
-          sp3p = getFromFTP(url);
-        }
-        
-        if(sp3p != null){
-          pool.put(url, sp3p);
-          // file exist, look for epoch
-          if(sp3p.isTimestampInEpocsRange(unixTime)){
-            return sp3p;
-          }else{
-            return null;
-          }
-        }
-     } catch( Exception e) {
-          e.printStackTrace();
-          return null;
-     }
-   } while( sp3p==null );
-
-   return null;
- }
-  
-	
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.NavigationProducer#getGpsSatPosition(long, int, double)
 	 */
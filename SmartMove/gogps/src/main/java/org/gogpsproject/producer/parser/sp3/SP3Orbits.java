@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2011 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.parser.sp3;
+
+import java.util.Arrays;
+
+import org.gogpsproject.producer.ObservationsColumns;
+
+/**
+ * <p>
+ * Precise orbits and clocks of an SP3 file, stored per satellite in primitive
+ * arrays indexed by epoch.
+ * </p>
+ * <p>
+ * Positions are interpolated with a Lagrange polynomial over the epochs around
+ * the requested time, clocks linearly between the two enclosing epochs. The
+ * denominators of the Lagrange weights only depend on the epochs of the window:
+ * they are computed once for a regular grid, and cached for the last window
+ * otherwise. Missing values (zero position, 999999 clock) are stored as NaN and
+ * make the interpolation over their window unavailable.
+ * </p>
+ */
+public class SP3Orbits {
+
+	/** default number of tabulated epochs in the interpolation window */
+	public final static int DEFAULT_POINTS = 10;
+
+	private final static byte FLAG_PREDICTED = 1;
+	private final static byte FLAG_MANEUVER = 2;
+
+	/** denominators of the Lagrange weights of a window */
+	private static class Window {
+		final int first;
+		final double[] invDen;
+
+		Window(int first, double[] invDen) {
+			this.first = first;
+			this.invDen = invDen;
+		}
+	}
+
+	private int points = DEFAULT_POINTS;
+
+	private long[] times;
+	private int epochs = 0;
+	/** interval of a regular grid in ms, 0 if the epochs are not evenly spaced */
+	private long interval = 0;
+
+	private final double[][] x = new double[ObservationsColumns.SLOTS][];
+	private final double[][] y = new double[ObservationsColumns.SLOTS][];
+	private final double[][] z = new double[ObservationsColumns.SLOTS][];
+	private final double[][] clock = new double[ObservationsColumns.SLOTS][];
+	private final byte[][] flags = new byte[ObservationsColumns.SLOTS][];
+	/* velocities, only for satellites with V records */
+	private final double[][] vx = new double[ObservationsColumns.SLOTS][];
+	private final double[][] vy = new double[ObservationsColumns.SLOTS][];
+	private final double[][] vz = new double[ObservationsColumns.SLOTS][];
+
+	private volatile Window window = null;
+
+	/**
+	 * @param expectedEpochs number of epochs announced in the header, used as
+	 *        initial capacity
+	 */
+	SP3Orbits(int expectedEpochs) {
+		times = new long[Math.max(expectedEpochs, 16)];
+	}
+
+	/**
+	 * Starts a new epoch, the following records belong to it.
+	 * @param unixTime epoch time in ms
+	 */
+	void addEpoch(long unixTime) {
+		if (epochs == times.length) {
+			int capacity = times.length * 2;
+			times = Arrays.copyOf(times, capacity);
+			for (int slot = 0; slot < ObservationsColumns.SLOTS; slot++) {
+				x[slot] = grow(x[slot], capacity);
+				y[slot] = grow(y[slot], capacity);
+				z[slot] = grow(z[slot], capacity);
+				clock[slot] = grow(clock[slot], capacity);
+				vx[slot] = grow(vx[slot], capacity);
+				vy[slot] = grow(vy[slot], capacity);
+				vz[slot] = grow(vz[slot], capacity);
+				if (flags[slot] != null)
+					flags[slot] = Arrays.copyOf(flags[slot], capacity);
+			}
+		}
+		times[epochs++] = unixTime;
+	}
+
+	private static double[] grow(double[] values, int capacity) {
+		if (values == null)
+			return null;
+		int length = values.length;
+		values = Arrays.copyOf(values, capacity);
+		Arrays.fill(values, length, capacity, Double.NaN);
+		return values;
+	}
+
+	private static double[] column(int capacity) {
+		double[] values = new double[capacity];
+		Arrays.fill(values, Double.NaN);
+		return values;
+	}
+
+	/**
+	 * Stores a position record of the current epoch.
+	 * @param x,y,z position in m, all 0 when unknown
+	 * @param clk clock error in s, NaN when unknown
+	 */
+	void setPosition(char satType, int satID, double x, double y, double z, double clk,
+			boolean predicted, boolean maneuver) {
+		int slot = ObservationsColumns.slot(satType, satID);
+		if (slot < 0 || epochs == 0)
+			return;
+		if (this.x[slot] == null) {
+			this.x[slot] = column(times.length);
+			this.y[slot] = column(times.length);
+			this.z[slot] = column(times.length);
+			this.clock[slot] = column(times.length);
+			this.flags[slot] = new byte[times.length];
+		}
+		int e = epochs - 1;
+		boolean known = x != 0 || y != 0 || z != 0;
+		this.x[slot][e] = known ? x : Double.NaN;
+		this.y[slot][e] = known ? y : Double.NaN;
+		this.z[slot][e] = known ? z : Double.NaN;
+		this.clock[slot][e] = clk;
+		this.flags[slot][e] = (byte) ((predicted ? FLAG_PREDICTED : 0) | (maneuver ? FLAG_MANEUVER : 0));
+	}
+
+	/**
+	 * Stores a velocity record of the current epoch.
+	 * @param xdot,ydot,zdot velocity in m/s
+	 */
+	void setVelocity(char satType, int satID, double xdot, double ydot, double zdot) {
+		int slot = ObservationsColumns.slot(satType, satID);
+		if (slot < 0 || epochs == 0 || x[slot] == null)
+			return;
+		if (vx[slot] == null) {
+			vx[slot] = column(times.length);
+			vy[slot] = column(times.length);
+			vz[slot] = column(times.length);
+		}
+		int e = epochs - 1;
+		vx[slot][e] = xdot;
+		vy[slot][e] = ydot;
+		vz[slot][e] = zdot;
+	}
+
+	/**
+	 * Called once the file is parsed, detects a regular grid.
+	 */
+	void complete() {
+		window = null;
+		interval = 0;
+		if (epochs < 2)
+			return;
+		long step = times[1] - times[0];
+		for (int i = 2; i < epochs; i++) {
+			if (times[i] - times[i - 1] != step)
+				return;
+		}
+		interval = step;
+	}
+
+	/**
+	 * @param points number of tabulated epochs in the interpolation window
+	 */
+	public void setPoints(int points) {
+		this.points = Math.max(2, points);
+		window = null;
+	}
+
+	public int getPoints() {
+		return points;
+	}
+
+	public int getNumEpochs() {
+		return epochs;
+	}
+
+	/**
+	 * @return the time of an epoch in ms
+	 */
+	public long getEpochTime(int epoch) {
+		return times[epoch];
+	}
+
+	/**
+	 * @return the interval of the grid in ms, 0 if not regular
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return true if the file has a record for the satellite
+	 */
+	public boolean contains(char satType, int satID) {
+		int slot = ObservationsColumns.slot(satType, satID);
+		return slot >= 0 && x[slot] != null;
+	}
+
+	/**
+	 * @return the last epoch at or before unixTime, -1 if before the first one
+	 */
+	public int floorEpoch(double unixTime) {
+		if (epochs == 0 || unixTime < times[0])
+			return -1;
+		if (interval > 0)
+			return (int) Math.min((long) ((unixTime - times[0]) / interval), epochs - 1);
+		int lo = 0, hi = epochs - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (times[mid] <= unixTime)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the denominators of the Lagrange weights of the window starting
+	 *         at first
+	 */
+	private Window getWindow(int first, int n) {
+		Window w = window;
+		if (w != null && w.invDen.length == n && (interval > 0 || w.first == first))
+			return w;
+		double[] invDen = new double[n];
+		for (int j = 0; j < n; j++) {
+			double den = 1;
+			for (int k = 0; k < n; k++) {
+				if (k != j)
+					den *= (double) (times[first + j] - times[first + k]);
+			}
+			invDen[j] = 1 / den;
+		}
+		w = new Window(first, invDen);
+		window = w;
+		return w;
+	}
+
+	/**
+	 * Interpolates the position, and the velocity when tabulated.
+	 * @param unixTime time in ms, between the first epoch and one interval
+	 *        after the last one
+	 * @param out receives x, y, z in m, then vx, vy, vz in m/s when out has
+	 *        room for them (NaN if not tabulated)
+	 * @return false if the satellite is unknown or a value of the window is missing
+	 */
+	public boolean interpolatePosition(char satType, int satID, double unixTime, double[] out) {
+		int slot = ObservationsColumns.slot(satType, satID);
+		if (slot < 0 || x[slot] == null)
+			return false;
+		int i = floorEpoch(unixTime);
+		if (i < 0)
+			return false;
+
+		int n = Math.min(points, epochs);
+		int first = Math.max(0, Math.min(i - n / 2 + 1, epochs - n));
+		double[] px = x[slot], py = y[slot], pz = z[slot];
+
+		// tabulated epoch, no interpolation
+		if (unixTime == times[i]) {
+			if (Double.isNaN(px[i]))
+				return false;
+			out[0] = px[i];
+			out[1] = py[i];
+			out[2] = pz[i];
+			if (out.length >= 6)
+				velocity(slot, i, out);
+			return true;
+		}
+
+		Window w = getWindow(first, n);
+		// l(t) = prod(t - tk), weight j = l(t) / (t - tj) / prod(tj - tk)
+		double l = 1;
+		for (int k = 0; k < n; k++)
+			l *= unixTime - times[first + k];
+
+		double sx = 0, sy = 0, sz = 0;
+		double[] pvx = out.length >= 6 ? vx[slot] : null;
+		double svx = 0, svy = 0, svz = 0;
+		for (int j = 0; j < n; j++) {
+			int e = first + j;
+			double wj = l / (unixTime - times[e]) * w.invDen[j];
+			sx += wj * px[e];
+			sy += wj * py[e];
+			sz += wj * pz[e];
+			if (pvx != null) {
+				svx += wj * pvx[e];
+				svy += wj * vy[slot][e];
+				svz += wj * vz[slot][e];
+			}
+		}
+		if (Double.isNaN(sx))
+			return false;
+		out[0] = sx;
+		out[1] = sy;
+		out[2] = sz;
+		if (out.length >= 6) {
+			out[3] = pvx != null ? svx : Double.NaN;
+			out[4] = pvx != null ? svy : Double.NaN;
+			out[5] = pvx != null ? svz : Double.NaN;
+		}
+		return true;
+	}
+
+	private void velocity(int slot, int e, double[] out) {
+		boolean known = vx[slot] != null;
+		out[3] = known ? vx[slot][e] : Double.NaN;
+		out[4] = known ? vy[slot][e] : Double.NaN;
+		out[5] = known ? vz[slot][e] : Double.NaN;
+	}
+
+	/**
+	 * @param unixTime time in ms
+	 * @return the clock error in s, linearly interpolated, NaN if not available
+	 */
+	public double interpolateClock(char satType, int satID, double unixTime) {
+		int slot = ObservationsColumns.slot(satType, satID);
+		if (slot < 0 || clock[slot] == null)
+			return Double.NaN;
+		int i = floorEpoch(unixTime);
+		if (i < 0)
+			return Double.NaN;
+		double[] c = clock[slot];
+		if (unixTime == times[i] || i == epochs - 1)
+			return c[i];
+		double a = (unixTime - times[i]) / (times[i + 1] - times[i]);
+		return c[i] + a * (c[i + 1] - c[i]);
+	}
+
+	/**
+	 * @return true if the epoch at or before unixTime is flagged as predicted
+	 */
+	public boolean isPredicted(char satType, int satID, double unixTime) {
+		return hasFlag(satType, satID, unixTime, FLAG_PREDICTED);
+	}
+
+	/**
+	 * @return true if the epoch at or before unixTime is flagged as maneuver
+	 */
+	public boolean isManeuver(char satType, int satID, double unixTime) {
+		return hasFlag(satType, satID, unixTime, FLAG_MANEUVER);
+	}
+
+	private boolean hasFlag(char satType, int satID, double unixTime, byte flag) {
+		int slot = ObservationsColumns.slot(satType, satID);
+		int i = floorEpoch(unixTime);
+		return slot >= 0 && i >= 0 && flags[slot] != null && (flags[slot][i] & flag) != 0;
+	}
+}
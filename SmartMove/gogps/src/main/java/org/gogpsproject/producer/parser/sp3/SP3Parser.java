@@ -47,7 +47,6 @@ import org.gogpsproject.Constants;
 import org.gogpsproject.ephemeris.EphGps;
 import org.gogpsproject.positioning.Coordinates;
 import org.gogpsproject.positioning.SatellitePosition;
-import org.gogpsproject.positioning.Time;
 import org.gogpsproject.producer.NavigationProducer;
 import org.gogpsproject.producer.Observations;
 import org.gogpsproject.producer.parser.IonoGps;
@@ -78,8 +77,7 @@ public class SP3Parser implements NavigationProducer{
 	private String orbitType=null;
 	private String agency=null;
 
-	private ArrayList<HashMap<String,SatellitePosition>> epocs;
-	private ArrayList<Time> epocTimestamps;
+	private SP3Orbits orbits;
 	private ArrayList<String> satIDs;
 	private HashMap<String,Long> accuracy;
 
@@ -273,11 +271,8 @@ public class SP3Parser implements NavigationProducer{
 			Calendar c = Calendar.getInstance();
 			c.setTimeZone(TimeZone.getTimeZone("GMT"));
 
-			epocs = new ArrayList<HashMap<String,SatellitePosition>>();
-			epocTimestamps = new ArrayList<Time>();
-
-			HashMap<String,SatellitePosition> epoc = null;
-			Time ts = null;
+			orbits = new SP3Orbits(nepocs);
+			boolean epoc = false;
 
 			while (bufferedReader.ready()) {
 
@@ -289,7 +284,7 @@ public class SP3Parser implements NavigationProducer{
 					}
 					//System.out.println(line);
 					if(line == null || line.toUpperCase().startsWith("EOF")){
-						return;
+						break;
 					}
 					if(line.charAt(0) == '*'){
 						int year = Integer.parseInt(line.substring(3,7).trim());
@@ -309,63 +304,39 @@ public class SP3Parser implements NavigationProducer{
 						int ms = (int)((ss-((int)ss))*1000.0);
 						c.set(Calendar.MILLISECOND, ms);
 
-						epoc = new HashMap<String, SatellitePosition>(numSats);
-						ts = new Time(c.getTimeInMillis());
-
-						epocs.add(epoc);
-						epocTimestamps.add(ts);
+						orbits.addEpoch(c.getTimeInMillis());
+						epoc = true;
 
 					}else
-					if(epoc != null && line.charAt(0) == 'P'){
-						String satid = line.substring(1,4).trim();
-						satid = satid.replace(' ', '0');
+					if(epoc && line.charAt(0) == 'P'){
+						char satType = satType(line);
+						int satID = Integer.parseInt(line.substring(2,4).trim());
 						double x = Double.parseDouble(line.substring(4, 18).trim())*1000.0;  // transform to meter
 						double y = Double.parseDouble(line.substring(18, 32).trim())*1000.0; // transform to meter
 						double z = Double.parseDouble(line.substring(32, 46).trim())*1000.0; // transform to meter
-						double clock = Double.parseDouble(line.substring(46, 60).trim())/1000000.0; // transform to seconds
-
-						int xStDev = -1;
-						int yStDev = -1;
-						int zStDev = -1;
-						int clkStDev = -1;
-						try{
-							xStDev = (int)Math.pow(posStDevBase, (double)Integer.parseInt(line.substring(61, 63).trim()));
-						}catch(NumberFormatException nfe){}
-						try{
-							yStDev = (int)Math.pow(posStDevBase, (double)Integer.parseInt(line.substring(64, 66).trim()));
-						}catch(NumberFormatException nfe){}
-						try{
-							zStDev = (int)Math.pow(posStDevBase, (double)Integer.parseInt(line.substring(67, 69).trim()));
-						}catch(NumberFormatException nfe){}
-						try{
-							clkStDev = (int)Math.pow(clockStDevBase, (double)Integer.parseInt(line.substring(70, 73).trim()));
-						}catch(NumberFormatException nfe){}
+						double clock = Double.parseDouble(line.substring(46, 60).trim());
+						clock = clock >= 999999.0 ? Double.NaN : clock/1000000.0; // transform to seconds
+
 						boolean clockEventFlag = line.length()>74 && line.charAt(74) == 'E';
 						boolean clockPredFlag = line.length()>75 && line.charAt(75) == 'P';
 						boolean maneuverFlag = line.length()>78 && line.charAt(78) == 'M';
 						boolean orbitPredFlag = line.length()>79 && line.charAt(79) == 'P';
 
-
-						SatellitePosition sp = new SatellitePosition(ts.getMsec(), Integer.parseInt(satid.substring(1).trim()),'G', x, y, z);
-						sp.setSatelliteClockError(clock);
-						sp.setPredicted(orbitPredFlag||clockPredFlag);
-						sp.setManeuver(maneuverFlag);
 						// TODO map all the values
-						epoc.put(satid, sp);
+						orbits.setPosition(satType, satID, x, y, z, clock, orbitPredFlag||clockPredFlag, maneuverFlag);
 
 						//System.out.println(""+satid+" "+(new Date(sp.getTime())));
 					}
-	         else if(epoc != null && line.charAt(0) == 'V'){
-	            String satid = line.substring(1,4).trim();
-	            satid = satid.replace(' ', '0');
-	            SatellitePosition sp = epoc.get(satid);
+	         else if(epoc && line.charAt(0) == 'V'){
+	            char satType = satType(line);
+	            int satID = Integer.parseInt(line.substring(2,4).trim());
 	            double xdot = Double.parseDouble(line.substring(4, 18).trim())*1000.0;  // transform to meter
 	            double ydot = Double.parseDouble(line.substring(18, 32).trim())*1000.0; // transform to meter
 	            double zdot = Double.parseDouble(line.substring(32, 46).trim())*1000.0; // transform to meter
 	            
 	            // The clock rate-of-change units are 10**-4 microseconds/second.
 	            double clockRate = Double.parseDouble(line.substring(46, 60).trim())/1000000.0; // transform to seconds
-	            sp.setSpeed(xdot, ydot, zdot);
+	            orbits.setVelocity(satType, satID, xdot, ydot, zdot);
 	          }
 
 
@@ -376,7 +347,15 @@ public class SP3Parser implements NavigationProducer{
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		orbits.complete();
+	}
 
+	/**
+	 * @return the system of a P or V record, G for the numeric identifiers of SP3a
+	 */
+	private static char satType(String line) {
+		char satType = line.charAt(1);
+		return satType == ' ' || Character.isDigit(satType) ? 'G' : satType;
 	}
 
 
@@ -388,33 +367,36 @@ public class SP3Parser implements NavigationProducer{
 	public SatellitePosition getGpsSatPosition(Observations obs, int satID, char satType, double receiverClockError) {
 		long unixTime = obs.getRefTime().getMsec();
 		double obsPseudorange = obs.getSatByIDType(satID, satType).getPseudorange(0);
-		if(isTimestampInEpocsRange(unixTime)){
-			for(int i=0;i<epocTimestamps.size();i++){
-				if(epocTimestamps.get(i).getMsec()<=unixTime && unixTime < epocTimestamps.get(i).getMsec()+epochInterval){
-					SatellitePosition sp = (SatellitePosition) epocs.get(i).get("G"+(satID<10?"0":"")+satID).clone();
-					double tGPS = getClockCorrection(unixTime, sp.getSatelliteClockError(), obsPseudorange);
-
-					return sp;
-				}
-			}
+		if(!isTimestampInEpocsRange(unixTime) || !orbits.contains(satType, satID)){
+			return null;
 		}
-		return null;
-	}
 
-	/**
-	 * @param eph
-	 * @return Clock-corrected GPS time
-	 */
-	private double getClockCorrection(long unixTime, double timeCorrection, double obsPseudorange) {
-
-		double gpsTime = (new Time(unixTime)).getGpsTime();
-		// Remove signal travel time from observation time
-		double tRaw = (gpsTime - obsPseudorange /*this.range*/ / Constants.SPEED_OF_LIGHT);
-
-		double tGPS = tRaw - timeCorrection;
+		// Remove signal travel time from observation time, then the satellite clock error
+		double travelTime = obsPseudorange / Constants.SPEED_OF_LIGHT;
+		double satelliteClockError = orbits.interpolateClock(satType, satID, unixTime - travelTime*1000.0);
+		if(Double.isNaN(satelliteClockError)){
+			return null;
+		}
+		double transmissionTime = unixTime - (travelTime + satelliteClockError)*1000.0;
 
-		return tGPS;
+		double[] pv = new double[6];
+		if(!orbits.interpolatePosition(satType, satID, transmissionTime, pv)){
+			return null;
+		}
 
+		// Apply the correction due to the Earth rotation during signal travel time
+		double omegatau = Constants.EARTH_ANGULAR_VELOCITY * (travelTime + satelliteClockError + receiverClockError);
+		double cos = Math.cos(omegatau);
+		double sin = Math.sin(omegatau);
+		SatellitePosition sp = new SatellitePosition(unixTime, satID, satType,
+				cos*pv[0] + sin*pv[1], -sin*pv[0] + cos*pv[1], pv[2]);
+		sp.setSatelliteClockError(satelliteClockError);
+		sp.setPredicted(orbits.isPredicted(satType, satID, transmissionTime));
+		sp.setManeuver(orbits.isManeuver(satType, satID, transmissionTime));
+		if(!Double.isNaN(pv[3])){
+			sp.setSpeed(pv[3], pv[4], pv[5]);
+		}
+		return sp;
 	}
 
 	/**
@@ -453,9 +435,9 @@ public class SP3Parser implements NavigationProducer{
 	}
 
 	public boolean isTimestampInEpocsRange(long time){
-		return epocTimestamps.size()>0 &&
-				epocTimestamps.get(0).getMsec() <= time &&
-				time < epocTimestamps.get(epocTimestamps.size()-1).getMsec()+epochInterval;
+		return orbits!=null && orbits.getNumEpochs()>0 &&
+				orbits.getEpochTime(0) <= time &&
+				time < orbits.getEpochTime(orbits.getNumEpochs()-1)+epochInterval;
 	}
 
 	/* (non-Javadoc)
@@ -468,6 +450,14 @@ public class SP3Parser implements NavigationProducer{
 
 
 
+	/**
+	 * @return the orbits and clocks, null before parsing
+	 */
+	public SP3Orbits getOrbits() {
+		return orbits;
+	}
+
+
 	/**
 	 * @return the gpsWeek
 	 */
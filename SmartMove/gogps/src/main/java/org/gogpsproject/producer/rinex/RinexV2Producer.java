@@ -20,19 +20,17 @@
 package org.gogpsproject.producer.rinex;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.TimeZone;
 import java.util.Vector;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.gogpsproject.ephemeris.EphGps;
 import org.gogpsproject.ephemeris.GNSSEphemeris;
@@ -46,6 +44,12 @@ import org.gogpsproject.producer.StreamEventListener;
 import org.gogpsproject.producer.parser.IonoGps;
 
 /**
+ * <p>
+ * Produces Rinex 2 as StreamEventListener, through a {@link RinexWriter}:
+ * compression happens while writing and a new file is started every day or
+ * every hour, the previous one being completed in the background.
+ * </p>
+ *
  * @author Lorenzo
  *
  */
@@ -62,22 +66,22 @@ public class RinexV2Producer implements StreamEventListener {
 	private boolean singleFreq=false;
 	private boolean standardFilename=true;
 
-	private FileOutputStream fos = null;
-	private PrintStream ps = null;
+	private RinexWriter writer = null;
+	/** completes the rotated files, created at the first rotation */
+	private ExecutorService closer = null;
 
 	private ArrayList<Type> typeConfig = new ArrayList<Type>();
 
 	private SimpleDateFormat sdfHeader = new SimpleDateFormat("dd-MMM-yy HH:mm:ss");
-	private DecimalFormat dfX3 = new DecimalFormat("0.000");
-	private DecimalFormat dfX7 = new DecimalFormat("0.0000000");
-	private DecimalFormat dfX = new DecimalFormat("0");
-	private DecimalFormat dfXX = new DecimalFormat("00");
-	private DecimalFormat dfX4 = new DecimalFormat("0.0000");
+	private final Calendar c = Calendar.getInstance(TZ);
 	private String marker;
 	private int minDOY = 0;
-	private int DOYold = -1;
+	private int periodOld = -1;
 	private String outputDir = "./test";
-	private boolean enableZip = false;
+	private int compression = RinexWriter.COMPRESSION_NONE;
+	private boolean hatanaka = false;
+	private int rotation = RinexWriter.ROTATE_DAY;
+	private boolean debug=false;
 
 	private final static TimeZone TZ = TimeZone.getTimeZone("GMT");
 
@@ -139,44 +143,10 @@ public class RinexV2Producer implements StreamEventListener {
 			Time epoch = o.getRefTime();
 			int DOY = epoch.getDayOfYear();
 			if (DOY >= this.minDOY) {
-				if (this.standardFilename && (this.outFilename == null || this.DOYold != DOY)) {
-					streamClosed();
-
-					if (this.enableZip && this.outFilename != null) {
-						byte[] buffer = new byte[1024];
-
-						try{
-
-							String zn = this.outFilename + ".zip";
-							FileOutputStream fos = new FileOutputStream(zn);
-							ZipOutputStream zos = new ZipOutputStream(fos);
-							String [] tokens = this.outFilename.split("/|\\\\");
-							String fn = "";
-							if (tokens.length > 0) {
-								fn = tokens[tokens.length-1].trim();
-							}
-							ZipEntry ze= new ZipEntry(fn);
-							zos.putNextEntry(ze);
-							FileInputStream in = new FileInputStream(this.outFilename);
-
-							int len;
-							while ((len = in.read(buffer)) > 0) {
-								zos.write(buffer, 0, len);
-							}
-
-							in.close();
-							zos.closeEntry();
-							zos.close();
-
-							File file = new File(this.outFilename);
-							file.delete();
-
-							System.out.println("--RINEX file compressed as "+zn);
-
-						}catch(IOException ex){
-							ex.printStackTrace();
-						}
-					}
+				c.setTimeInMillis(epoch.getMsec());
+				int period = rotation == RinexWriter.ROTATE_HOUR ? DOY * 24 + c.get(Calendar.HOUR_OF_DAY) : DOY;
+				if (this.standardFilename && (this.outFilename == null || this.periodOld != period)) {
+					closeInBackground();
 
 					File file = new File(outputDir);
 					if(!file.exists() || !file.isDirectory()){
@@ -185,21 +155,35 @@ public class RinexV2Producer implements StreamEventListener {
 						else System.out.println("Could not create directory "+outputDir);
 					}
 
-					char session = '0';
 					int year = epoch.getYear2c();
-					String outFile = outputDir + "/" + marker + String.format("%03d", DOY) + session + "." + year + "o";
-					File f = new File(outFile);
-
-					while (f.exists()){
-						session++;
-						outFile = outputDir + "/" +  marker + String.format("%03d", DOY) + session + "." + year + "o";
-						f = new File(outFile);
+					char type = hatanaka ? 'd' : 'o';
+					String outFile;
+					if (rotation == RinexWriter.ROTATE_HOUR) {
+						// ssssdddhmm.yyt, the minutes changed if the file exists
+						String name = outputDir + "/" + marker + String.format("%03d", DOY) + (char) ('a' + c.get(Calendar.HOUR_OF_DAY));
+						int minute = c.get(Calendar.MINUTE);
+						outFile = name + String.format("%02d", minute) + "." + year + type;
+						while (exists(outFile) && minute < 59){
+							minute++;
+							outFile = name + String.format("%02d", minute) + "." + year + type;
+						}
+						// all the minutes left are taken: ssssdddh59_n.yyt, never an existing file
+						for (int sequence = 1; exists(outFile); sequence++){
+							outFile = name + "59_" + sequence + "." + year + type;
+						}
+					} else {
+						char session = '0';
+						outFile = outputDir + "/" + marker + String.format("%03d", DOY) + session + "." + year + type;
+						while (exists(outFile)){
+							session++;
+							outFile = outputDir + "/" +  marker + String.format("%03d", DOY) + session + "." + year + type;
+						}
 					}
 
-					System.out.println("Started writing RINEX file "+outFile);
 					setFilename(outFile);
+					System.out.println("Started writing RINEX file "+writer.getFileName());
 
-					DOYold = DOY;
+					periodOld = period;
 
 					headerWritten = false;
 				}
@@ -237,6 +221,13 @@ public class RinexV2Producer implements StreamEventListener {
 
 	}
 
+	/**
+	 * @return true if the file or its compressed version exists
+	 */
+	private boolean exists(String outFile) {
+		return new File(outFile).exists() || new File(outFile + ".zip").exists() || new File(outFile + ".gz").exists();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.StreamEventListener#setDefinedPosition(org.gogpsproject.Coordinates)
 	 */
@@ -252,16 +243,60 @@ public class RinexV2Producer implements StreamEventListener {
 	 */
 	@Override
 	public void streamClosed() {
-		try {
-			ps.close();
-		} catch (Exception e) {
-
+		synchronized (this) {
+			if (writer != null) {
+				try {
+					writer.close();
+					if(debug) System.out.println("Completed RINEX file "+writer.getFileName());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				writer = null;
+			}
+			// wait for the files still being completed after a rotation
+			if (closer != null) {
+				closer.shutdown();
+				try {
+					closer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				closer = null;
+			}
 		}
-		try {
-			fos.close();
-		} catch (Exception e) {
+	}
 
+	/**
+	 * Completes the current file on the closer thread, so that the producer
+	 * does not wait for it at rotation. Files are completed one at a time,
+	 * in order, streamClosed() waits for them.
+	 */
+	private void closeInBackground() {
+		final RinexWriter w = writer;
+		writer = null;
+		if (w == null)
+			return;
+		if (closer == null) {
+			closer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "RinexV2Producer closer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 		}
+		closer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					w.close();
+					if(debug) System.out.println("Completed RINEX file "+w.getFileName());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
 	}
 
 	private void writeHeader(Coordinates approxPosition,Observations firstObservation) throws IOException{
@@ -284,19 +319,20 @@ public class RinexV2Producer implements StreamEventListener {
 //	          1                                                      INTERVAL
 //	       2008     4    28    12     0    0.000000                  TIME OF FIRST OBS
 //	                                                                 END OF HEADER
-		writeLine (sf("",5)+sf("2",15)+sf("OBSERVATION DATA",20)+sf("G (GPS)",20)+se("RINEX VERSION / TYPE",20), false);
-		appendLine(sf("goGPS-java",20)+sf("",20)+sf(sdfHeader.format(Calendar.getInstance(TZ).getTime()).toUpperCase(),20)+se("PGM / RUN BY / DATE",20));
-		appendLine(sf("",20*3)+se("MARKER NAME",20));
-		appendLine(sf("",20*3)+se("MARKER NUMBER",20));
-		appendLine(sf("",20*3)+se("OBSERVER / AGENCY",20));
-		appendLine(sf("",20*3)+se("REC # / TYPE / VERS",20));
-		appendLine(sf("",20*3)+se("ANT # / TYPE",20));
+		RinexWriter w = writer;
+		w.blanks(5).left("2",15).left("OBSERVATION DATA",20).left("G (GPS)",20).label("RINEX VERSION / TYPE").endLine();
+		w.left("goGPS-java",20).blanks(20).left(sdfHeader.format(new Date()).toUpperCase(),20).label("PGM / RUN BY / DATE").endLine();
+		w.blanks(60).label("MARKER NAME").endLine();
+		w.blanks(60).label("MARKER NUMBER").endLine();
+		w.blanks(60).label("OBSERVER / AGENCY").endLine();
+		w.blanks(60).label("REC # / TYPE / VERS").endLine();
+		w.blanks(60).label("ANT # / TYPE").endLine();
 		if(approxPosition != null){
-			appendLine(sp(dfX4.format(approxPosition.getX()),14,1)+sp(dfX4.format(approxPosition.getY()),14,1)+sp(dfX4.format(approxPosition.getZ()),14,1)+sf("",18)+se("APPROX POSITION XYZ",20));
+			w.fixed(approxPosition.getX(),4,14).fixed(approxPosition.getY(),4,14).fixed(approxPosition.getZ(),4,14).blanks(18).label("APPROX POSITION XYZ").endLine();
 		}else{
-			appendLine(sp(dfX4.format(0.0),14,1)+sp(dfX4.format(0.0),14,1)+sp(dfX4.format(0.0),14,1)+sf("",18)+se("APPROX POSITION XYZ",20));
+			w.fixed(0.0,4,14).fixed(0.0,4,14).fixed(0.0,4,14).blanks(18).label("APPROX POSITION XYZ").endLine();
 		}
-		appendLine(sp(dfX4.format(0.0),14,1)+sp(dfX4.format(0.0),14,1)+sp(dfX4.format(0.0),14,1)+sf("",18)+se("ANTENNA: DELTA H/E/N",20));
+		w.fixed(0.0,4,14).fixed(0.0,4,14).fixed(0.0,4,14).blanks(18).label("ANTENNA: DELTA H/E/N").endLine();
 		boolean found = false;
 		for (Type t:typeConfig) {
 		    if (t.toString().equals("L2")) {
@@ -308,33 +344,34 @@ public class RinexV2Producer implements StreamEventListener {
 		if(found) {
 			wf1 = 1; wf2 = 1; //dual frequency (hypothesizing full cycle ambiguities)
 		}
-		appendLine(sp(dfX.format(wf1),6,1)+sp(dfX.format(wf2),6,1)+sf("",6)+sf("",6)+sf("",6)+sf("",6)+sf("",6)+sf("",6)+sf("",12)+se("WAVELENGTH FACT L1/2",20));
+		w.integer(wf1,6).integer(wf2,6).blanks(48).label("WAVELENGTH FACT L1/2").endLine();
 
-		String line = "";
-		int cols=60;
-		line += sp(dfX.format(typeConfig.size()),6,1); cols -= 6;
+		// 9 types per line, then continuation lines
+		w.integer(typeConfig.size(),6);
+		int cnt = 0;
 		for(Type t:typeConfig){
-			line += sp(t.toString(),6,1);cols -= 6;
+			if(cnt > 0 && cnt%9 == 0){
+				w.label("# / TYPES OF OBSERV").endLine();
+				w.blanks(6);
+			}
+			w.right(t.toString(),6);
+			cnt++;
 		}
-		line += se("",cols);
-		line += se("# / TYPES OF OBSERV",20);
-
-		appendLine(line);
-		//appendLine(sp(dfX.format(1),6,1)+sf("",60-1*6)+se("INTERVAL",20));
+		w.blanks(54 - 6*(cnt == 0 ? 0 : (cnt-1)%9+1)).label("# / TYPES OF OBSERV").endLine();
+		//w.integer(1,6).blanks(54).label("INTERVAL").endLine();
 
 		if(firstObservation!=null){
-			Calendar c = Calendar.getInstance(TZ);
 			c.setTimeInMillis(firstObservation.getRefTime().getMsec());
-			appendLine(sp(dfX.format(c.get(Calendar.YEAR)),6,1)
-					+sp(dfX.format(c.get(Calendar.MONTH)+1),6,1)
-					+sp(dfX.format(c.get(Calendar.DATE)),6,1)
-					+sp(dfX.format(c.get(Calendar.HOUR_OF_DAY)),6,1)
-					+sp(dfX.format(c.get(Calendar.MINUTE)),6,1)
-					+sp(dfX7.format(c.get(Calendar.SECOND)+c.get(Calendar.MILLISECOND)/1000.0),13,1)
-					+sp("GPS",8,1)+sf("",9)+se("TIME OF FIRST OBS",20));
+			w.integer(c.get(Calendar.YEAR),6)
+					.integer(c.get(Calendar.MONTH)+1,6)
+					.integer(c.get(Calendar.DATE),6)
+					.integer(c.get(Calendar.HOUR_OF_DAY),6)
+					.integer(c.get(Calendar.MINUTE),6)
+					.fixed(c.get(Calendar.SECOND)+c.get(Calendar.MILLISECOND)/1000.0,7,13)
+					.right("GPS",8).blanks(9).label("TIME OF FIRST OBS").endLine();
 		}
 
-		appendLine(sf("",60)+se("END OF HEADER",20));
+		w.blanks(60).label("END OF HEADER").endLine();
 	}
 
 
@@ -382,138 +419,83 @@ public class RinexV2Producer implements StreamEventListener {
 //	        40.000          37.000
 	private void writeObservation(Observations o) throws IOException{
 		//System.out.println(o);
-		Calendar c = Calendar.getInstance(TZ);
+		RinexWriter w = writer;
 		c.setTimeInMillis(o.getRefTime().getMsec());
 
-		String line = "";
-		line += sp(dfX.format(c.get(Calendar.YEAR)-2000),3,1);
-		line += sp(dfX.format(c.get(Calendar.MONTH)+1),3,1);
-		line += sp(dfX.format(c.get(Calendar.DATE)),3,1);
-		line += sp(dfX.format(c.get(Calendar.HOUR_OF_DAY)),3,1);
-		line += sp(dfX.format(c.get(Calendar.MINUTE)),3,1);
-		line += sp(dfX7.format(c.get(Calendar.SECOND)+c.get(Calendar.MILLISECOND)/1000.0+o.getRefTime().getFraction()/1000),11,1);
-		line += sp(dfX.format(o.getEventFlag()),3,1);
+		w.integer(c.get(Calendar.YEAR)-2000,3);
+		w.integer(c.get(Calendar.MONTH)+1,3);
+		w.integer(c.get(Calendar.DATE),3);
+		w.integer(c.get(Calendar.HOUR_OF_DAY),3);
+		w.integer(c.get(Calendar.MINUTE),3);
+		w.fixed(c.get(Calendar.SECOND)+c.get(Calendar.MILLISECOND)/1000.0+o.getRefTime().getFraction()/1000,7,11);
+		w.integer(o.getEventFlag(),3);
 		int gpsSize = 0;
 		for(int i=0;i<o.getNumSat();i++){
-			if(o.getSatByIdx(i).getSatID()<=32){
+			if(isGps(o.getSatByIdx(i))){
 				gpsSize++;
 			}
 		}
-		line += sp(dfX.format(gpsSize),3,1);
+		w.integer(gpsSize,3);
 		int cnt=0;
 		for(int i=0;i<o.getNumSat();i++){
-			if(cnt >= 12 && cnt%12 == 0){
-				writeLine(line, true);
-				line = "                                ";
+			ObservationSet os = o.getSatByIdx(i);
+			if(isGps(os)){ // skip non GPS IDs
+				if(cnt >= 12 && cnt%12 == 0){
+					w.endLine();
+					w.blanks(32);
+				}
+				w.append(os.getSatType()).twoDigits(os.getSatID());
+				cnt++;
 			}
-			line += o.getSatByIdx(i).getSatType()+dfXX.format(o.getSatID(i));
-			cnt++;
 		}
-		writeLine(line, true);
+		w.endLine();
 
 		for(int i=0;i<o.getNumSat();i++){
-			if(o.getSatByIdx(i).getSatID()<=32){ // skip non GPS IDs
-				ObservationSet os = o.getSatByIdx(i);
-				line = "";
+			ObservationSet os = o.getSatByIdx(i);
+			if(isGps(os)){ // skip non GPS IDs
 				cnt=0;
 				for(Type t:typeConfig){
+					int f = t.getFrequency()-1;
 					switch(t.getType()){
 					case Type.C:
-						if (os.getCodeC(t.getFrequency()-1) == 0) os.setCodeC(t.getFrequency()-1, Double.NaN);
-						line += Double.isNaN(os.getCodeC(t.getFrequency()-1))?sf("",16):sp(dfX3.format(os.getCodeC(t.getFrequency()-1)),14,1)+"  ";
+						observation(w, os.getCodeC(f));
 						break;
 					case Type.P:
-						if (os.getCodeP(t.getFrequency()-1) == 0) os.setCodeP(t.getFrequency()-1, Double.NaN);
-						line += Double.isNaN(os.getCodeP(t.getFrequency()-1))?sf("",16):sp(dfX3.format(os.getCodeP(t.getFrequency()-1)),14,1)+"  ";
+						observation(w, os.getCodeP(f));
 						break;
 					case Type.L:
-						if (os.getPhaseCycles(t.getFrequency()-1) == 0 || Math.abs(os.getPhaseCycles(t.getFrequency()-1)) < 1e-15) os.setPhaseCycles(t.getFrequency()-1, Double.NaN);
-						line += Double.isNaN(os.getPhaseCycles(t.getFrequency()-1))?sf("",14):sp(dfX3.format(os.getPhaseCycles(t.getFrequency()-1)),14,1); // L
-						line += os.getLossLockInd(t.getFrequency()-1)<0?" ":dfX.format(os.getLossLockInd(t.getFrequency()-1)); // L1 Loss of Lock Indicator
-						line += Float.isNaN(os.getSignalStrength(t.getFrequency()-1))?" ":dfX.format(Math.floor(os.getSignalStrength(t.getFrequency()-1)/6)); // L1 Signal Strength Indicator
+						double l = os.getPhaseCycles(f);
+						if (Double.isNaN(l) || l == 0 || Math.abs(l) < 1e-15) w.blanks(14); else w.fixed(l,3,14); // L
+						w.append(os.getLossLockInd(f)<0?' ':(char)('0'+Math.min(os.getLossLockInd(f),9))); // L1 Loss of Lock Indicator
+						float s = os.getSignalStrength(f);
+						w.append(Float.isNaN(s)?' ':(char)('0'+Math.max(0,Math.min((int)Math.floor(s/6),9)))); // L1 Signal Strength Indicator
 						break;
 					case Type.D:
-						if (os.getDoppler(t.getFrequency()-1) == 0) os.setDoppler(t.getFrequency()-1, Float.NaN);
-						line += Float.isNaN(os.getDoppler(t.getFrequency()-1))?sf("",16):sp(dfX3.format(os.getDoppler(t.getFrequency()-1)),14,1)+"  ";
+						observation(w, os.getDoppler(f));
 						break;
 					case Type.S:
-						if (os.getSignalStrength(t.getFrequency()-1) == 0) os.setSignalStrength(t.getFrequency()-1, Float.NaN);
-						line += Float.isNaN(os.getSignalStrength(t.getFrequency()-1))?sf("",16):sp(dfX3.format(os.getSignalStrength(t.getFrequency()-1)),14,1)+"  ";
+						observation(w, os.getSignalStrength(f));
 						break;
 					}
 					cnt++;
-					if(cnt==typeConfig.size() || cnt==5){
-						writeLine(line, true);
-						line = "";
-						cnt = 0;
+					if(cnt==typeConfig.size() || cnt%5==0){
+						w.endLine();
 					}
 				}
-				if (typeConfig.size() > 5) {
-					writeLine(line, true);
-				}
 			}
 		}
-
+		w.endEpoch();
 	}
 
-	// space end
-	private String se(String in, int max){
-		return sf(in,max,0);
-	}
-	// space fill with 1 space margin
-	private String sf(String in, int max){
-		return sf(in,max,1);
+	private static boolean isGps(ObservationSet os){
+		return os != null && os.getSatID()<=32;
 	}
-	// space fill with margin
-	private String sf(String in, int max,int margin){
-		if(in.length()==max-margin){
-			while(in.length()<max) in +=" ";
-			return in;
-		}
-		if(in.length()>max-margin){
-			return in.substring(0, max-margin)+" ";
-		}
-		while(in.length()<max) in +=" ";
-
-		return in;
-	}
-	// space prepend with margin
-	private String sp(String in, int max,int margin){
-		if(in.length()==max-margin){
-			while(in.length()<max) in =" "+in;
-			return in;
-		}
-		if(in.length()>max-margin){
-			return in.substring(0, max);
-			//return in.substring(0, max-margin)+" ";
-		}
-		while(in.length()<max) in =" "+in;
-
-		return in;
-	}
-
-	private void appendLine(String line) throws IOException{
-		writeLine(line, true);
-	}
-	private void writeLine(String line, boolean append) throws IOException{
-
-		FileOutputStream fos = this.fos;
-		PrintStream ps = this.ps;
-		if(this.fos == null){
-			fos = new FileOutputStream(outFilename, append);
-			ps = new PrintStream(fos);
-		}
-
-		ps.println(line);
-		//System.out.println(line);
-
-		ps.flush();
-		if(this.fos == null){
-			ps.close();
-			fos.close();
-		}
-
 
+	/**
+	 * Appends a F14.3 observation without flags, blank if missing (zero)
+	 */
+	private static void observation(RinexWriter w, double v){
+		if (Double.isNaN(v) || v == 0) w.blanks(16); else w.fixed(v,3,14).blanks(2);
 	}
 
 	@Override
@@ -531,9 +513,8 @@ public class RinexV2Producer implements StreamEventListener {
 	public void setFilename(String outFilename) {
 		this.outFilename = outFilename;
 		try {
-			fos = new FileOutputStream(outFilename, false);
-			ps = new PrintStream(fos);
-		} catch (FileNotFoundException e) {
+			writer = new RinexWriter(outFilename, compression, hatanaka);
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
@@ -543,7 +524,33 @@ public class RinexV2Producer implements StreamEventListener {
 	}
 	
 	public void enableCompression(boolean enableZip) {
-		this.enableZip = enableZip;
+		setCompression(enableZip ? RinexWriter.COMPRESSION_ZIP : RinexWriter.COMPRESSION_NONE);
+	}
+
+	/**
+	 * @param compression one of the RinexWriter.COMPRESSION_ constants,
+	 *            applied from the next file
+	 */
+	public void setCompression(int compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * @param hatanaka write Compact RINEX (.yyd), from the next file
+	 */
+	public void setHatanaka(boolean hatanaka) {
+		this.hatanaka = hatanaka;
+	}
+
+	/**
+	 * @param rotation RinexWriter.ROTATE_DAY or RinexWriter.ROTATE_HOUR
+	 */
+	public void setRotation(int rotation) {
+		this.rotation = rotation;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
 	}
 
 	@Override
@@ -22,12 +22,7 @@ package org.gogpsproject.producer.rinex;
 import android.os.Environment;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -35,8 +30,10 @@ import java.util.Date;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.Vector;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.gogpsproject.ephemeris.EphGps;
 import org.gogpsproject.ephemeris.GNSSEphemeris;
@@ -52,6 +49,11 @@ import org.gogpsproject.producer.parser.IonoGps;
  * <p>
  * Produces Rinex 3 as StreamEventListener
  * </p>
+ * <p>
+ * Lines are written through a {@link RinexWriter}: compression (zip, gzip,
+ * Hatanaka) happens while writing and a new file is started every day or
+ * every hour, the previous one being completed in the background.
+ * </p>
  *
  * @author Daisuke YOSHIDA (OCU)
  */
@@ -70,22 +72,22 @@ public class RinexV3Producer implements StreamEventListener {
 	private boolean singleFreq=false;
 	private boolean standardFilename=true;
 
-	private FileOutputStream fos = null;
-	private PrintStream ps = null;
+	private RinexWriter writer = null;
+	/** completes the rotated files, created at the first rotation */
+	private ExecutorService closer = null;
 
 	private ArrayList<Type> typeConfig = new ArrayList<Type>();
 
 	private SimpleDateFormat sdfHeader = new SimpleDateFormat("dd-MMM-yy HH:mm:ss");
-	private DecimalFormat dfX3 = new DecimalFormat("0.000");
-	private DecimalFormat dfX7 = new DecimalFormat("0.0000000");
-	private DecimalFormat dfX = new DecimalFormat("0");
-	private DecimalFormat dfXX = new DecimalFormat("00");
-	private DecimalFormat dfX4 = new DecimalFormat("0.0000");
+	private final Calendar c = Calendar.getInstance(TZ);
 	private String marker;
 	private int minDOY = 0;
-	private int DOYold = -1;
+	private int periodOld = -1;
 	private String outputDir =  Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS) + "/test";
-	private boolean enableZip = false;
+	private int compression = RinexWriter.COMPRESSION_NONE;
+	private boolean hatanaka = false;
+	private int rotation = RinexWriter.ROTATE_DAY;
+	private boolean debug=false;
 	
 	boolean gpsEnable = true;  // enable GPS data writing
 	boolean qzsEnable = false;  // enable QZSS data writing
@@ -102,11 +104,13 @@ public class RinexV3Producer implements StreamEventListener {
 		this.marker = marker;
 		this.minDOY = minDOY;
 
-		gpsEnable = multiConstellation[0];
-		qzsEnable = multiConstellation[1];
-		gloEnable = multiConstellation[2];
-		galEnable = multiConstellation[3];
-		bdsEnable = multiConstellation[4];
+		if (multiConstellation != null) {
+			gpsEnable = multiConstellation[0];
+			qzsEnable = multiConstellation[1];
+			gloEnable = multiConstellation[2];
+			galEnable = multiConstellation[3];
+			bdsEnable = multiConstellation[4];
+		}
 
 		// set observation type config - Been modified by Antoine to make it work with GPP
 		typeConfig.add(new Type(Type.C,1));
@@ -177,44 +181,10 @@ public class RinexV3Producer implements StreamEventListener {
 			Time epoch = o.getRefTime();
 			int DOY = epoch.getDayOfYear();
 			if (DOY >= this.minDOY) {
-				if (this.standardFilename && (this.outFilename == null || this.DOYold != DOY)) {
-					streamClosed();
-
-					if (this.enableZip && this.outFilename != null) {
-						byte[] buffer = new byte[1024];
-
-						try{
-
-							String zn = this.outFilename + ".zip";
-							FileOutputStream fos = new FileOutputStream(zn);
-							ZipOutputStream zos = new ZipOutputStream(fos);
-							String [] tokens = this.outFilename.split("/|\\\\");
-							String fn = "";
-							if (tokens.length > 0) {
-								fn = tokens[tokens.length-1].trim();
-							}
-							ZipEntry ze= new ZipEntry(fn);
-							zos.putNextEntry(ze);
-							FileInputStream in = new FileInputStream(this.outFilename);
-
-							int len;
-							while ((len = in.read(buffer)) > 0) {
-								zos.write(buffer, 0, len);
-							}
-
-							in.close();
-							zos.closeEntry();
-							zos.close();
-
-							File file = new File(this.outFilename);
-							file.delete();
-
-							System.out.println("--RINEX file compressed as "+zn);
-
-						}catch(IOException ex){
-							ex.printStackTrace();
-						}
-					}
+				c.setTimeInMillis(epoch.getMsec());
+				int period = rotation == RinexWriter.ROTATE_HOUR ? DOY * 24 + c.get(Calendar.HOUR_OF_DAY) : DOY;
+				if (this.standardFilename && (this.outFilename == null || this.periodOld != period)) {
+					closeInBackground();
 
 					File file = new File(outputDir);
 					if(!file.exists() || !file.isDirectory()){
@@ -223,31 +193,27 @@ public class RinexV3Producer implements StreamEventListener {
 						else System.out.println("Could not create directory "+outputDir);
 					}
 
-					char session = '0';
+					int session = 0;
 					int year = epoch.getYear();
 
-					SimpleDateFormat dateFormat = new SimpleDateFormat("HHmm");
-					dateFormat.setTimeZone(TimeZone.getTimeZone("gmt"));
-					Date date = Calendar.getInstance().getTime();
-
-					String timeStamp = dateFormat.format(date);
+					// start of the file from its first epoch
+					String timeStamp = String.format("%02d%02d", c.get(Calendar.HOUR_OF_DAY), c.get(Calendar.MINUTE));
 
 					String filename = marker + "00FRA" + "_R_" + String.format("%d", year)
-							+ String.format("%03d", DOY) + timeStamp + "_01D_01S_MO";
-
-					String outFile = outputDir + "/" + filename + ".rnx";
-					File f = new File(outFile);
+							+ String.format("%03d", DOY) + timeStamp
+							+ (rotation == RinexWriter.ROTATE_HOUR ? "_01H_01S_MO" : "_01D_01S_MO");
+					String ext = hatanaka ? ".crx" : ".rnx";
 
-					while (f.exists()){
+					String outFile = outputDir + "/" + filename + ext;
+					while (exists(outFile)){
 						session++;
-						outFile = outputDir + "/" + filename + ".rnx";
-						f = new File(outFile);
+						outFile = outputDir + "/" + filename + "_" + session + ext;
 					}
 
-					System.out.println("Started writing RINEX file "+outFile);
 					setFilename(outFile);
+					System.out.println("Started writing RINEX file "+writer.getFileName());
 
-					DOYold = DOY;
+					periodOld = period;
 
 					headerWritten = false;
 				}
@@ -285,6 +251,13 @@ public class RinexV3Producer implements StreamEventListener {
 
 	}
 
+	/**
+	 * @return true if the file or its compressed version exists
+	 */
+	private boolean exists(String outFile) {
+		return new File(outFile).exists() || new File(outFile + ".zip").exists() || new File(outFile + ".gz").exists();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.gogpsproject.StreamEventListener#setDefinedPosition(org.gogpsproject.Coordinates)
 	 */
@@ -300,16 +273,60 @@ public class RinexV3Producer implements StreamEventListener {
 	 */
 	@Override
 	public void streamClosed() {
-		try {
-			ps.close();
-		} catch (Exception e) {
-
+		synchronized (this) {
+			if (writer != null) {
+				try {
+					writer.close();
+					if(debug) System.out.println("Completed RINEX file "+writer.getFileName());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				writer = null;
+			}
+			// wait for the files still being completed after a rotation
+			if (closer != null) {
+				closer.shutdown();
+				try {
+					closer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				closer = null;
+			}
 		}
-		try {
-			fos.close();
-		} catch (Exception e) {
+	}
 
+	/**
+	 * Completes the current file on the closer thread, so that the producer
+	 * does not wait for it at rotation. Files are completed one at a time,
+	 * in order, streamClosed() waits for them.
+	 */
+	private void closeInBackground() {
+		final RinexWriter w = writer;
+		writer = null;
+		if (w == null)
+			return;
+		if (closer == null) {
+			closer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "RinexV3Producer closer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 		}
+		closer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					w.close();
+					if(debug) System.out.println("Completed RINEX file "+w.getFileName());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
 	}
 
 	private void writeHeader(Coordinates approxPosition,Observations firstObservation) throws IOException{
@@ -347,21 +364,22 @@ public class RinexV3Producer implements StreamEventListener {
 		String antenna1 = "Xiaomi Mi8";
 		String antenna2 = "INTEGRATED";
 		
-		writeLine (sf("",5)+sf("3.01",15)+sf("OBSERVATION DATA",20)+sf("M: Mixed",20)+se("RINEX VERSION / TYPE",20), false);
-		appendLine(sf(prgm,20)+sf(operator,20)+sf(sdfHeader.format(Calendar.getInstance(TZ).getTime()).toUpperCase(),20)+se("PGM / RUN BY / DATE",20));
-		appendLine(sf(markerName,20*3)+se("MARKER NAME",20));
-		appendLine(sf(markerNumber,20*3)+se("MARKER NUMBER",20));
-		appendLine(sf("NON_GEODETIC",20*3)+se("MARKER TYPE",20));
-		appendLine(sf(operator,20*3)+se("OBSERVER / AGENCY",20));
-		appendLine(sf(receiver1,20) + sf(receiver2,20) + se("",20) + se("REC # / TYPE / VERS",20));
-		appendLine(sf(antenna1,20) + sf(antenna2,20) + se("",20) +se("ANT # / TYPE",20));
+		RinexWriter w = writer;
+		w.blanks(5).left("3.01",15).left("OBSERVATION DATA",20).left("M: Mixed",20).label("RINEX VERSION / TYPE").endLine();
+		w.left(prgm,20).left(operator,20).left(sdfHeader.format(new Date()).toUpperCase(),20).label("PGM / RUN BY / DATE").endLine();
+		w.left(markerName == null ? "" : markerName,60).label("MARKER NAME").endLine();
+		w.left(markerNumber,60).label("MARKER NUMBER").endLine();
+		w.left("NON_GEODETIC",60).label("MARKER TYPE").endLine();
+		w.left(operator,60).label("OBSERVER / AGENCY").endLine();
+		w.left(receiver1,20).left(receiver2,20).blanks(20).label("REC # / TYPE / VERS").endLine();
+		w.left(antenna1,20).left(antenna2,20).blanks(20).label("ANT # / TYPE").endLine();
 		
 		if(approxPosition != null){
-			appendLine(sp(dfX4.format(approxPosition.getX()),14,1)+sp(dfX4.format(approxPosition.getY()),14,1)+sp(dfX4.format(approxPosition.getZ()),14,1)+sf("",18)+se("APPROX POSITION XYZ",20));
+			w.fixed(approxPosition.getX(),4,14).fixed(approxPosition.getY(),4,14).fixed(approxPosition.getZ(),4,14).blanks(18).label("APPROX POSITION XYZ").endLine();
 		}else{
-			appendLine(sp(dfX4.format(0.0),14,1)+sp(dfX4.format(0.0),14,1)+sp(dfX4.format(0.0),14,1)+sf("",18)+se("APPROX POSITION XYZ",20));
+			w.fixed(0.0,4,14).fixed(0.0,4,14).fixed(0.0,4,14).blanks(18).label("APPROX POSITION XYZ").endLine();
 		}
-		appendLine(sp(dfX4.format(0.0),14,1)+sp(dfX4.format(0.0),14,1)+sp(dfX4.format(0.0),14,1)+sf("",18)+se("ANTENNA: DELTA H/E/N",20));
+		w.fixed(0.0,4,14).fixed(0.0,4,14).fixed(0.0,4,14).blanks(18).label("ANTENNA: DELTA H/E/N").endLine();
 		boolean found = false;
 		for (Type t:typeConfig) {
 		    if (t.toString().equals("L2")) {
@@ -373,123 +391,60 @@ public class RinexV3Producer implements StreamEventListener {
 		if(found) {
 			wf1 = 1; wf2 = 1; //dual frequency (hypothesizing full cycle ambiguities)
 		}
-		appendLine(sp(dfX.format(wf1),6,1)+sp(dfX.format(wf2),6,1)+sf("",6)+sf("",6)+sf("",6)+sf("",6)+sf("",6)+sf("",6)+sf("",12)+se("WAVELENGTH FACT L1/2",20));
-
-		if (gpsEnable) {
-			String line = "G";
-			int cols=52;
-			line += sp(dfX.format(typeConfig.size()),5,3); cols -= 6;
-			for(Type t:typeConfig)
-			{
-				// ADDED for XIAOMI (only L5)
-				String str = t.toString();
-				if(str.charAt(str.length() - 1) == '2')
-				{
-					str = str.substring(0,str.length() - 1) + "5X";
-				}
-				else
-				{
-					str =t.toString() + 'C';
-				}
-
-				line += sp(str,4,1);cols -= 3;
-			}
-			line += se("",cols);
-			line += se("SYS / # / OBS TYPES ",20);
-			appendLine(line);
-		}
-		
-		if (gloEnable) {
-			String line = "R";
-			int cols=56;
-			line += sp(dfX.format(typeConfig.size()),5,3); cols -= 6;
-			for(Type t:typeConfig){
-				line += sp(t.toString()+'C',4,1);cols -= 3;
-			}
-			line += se("",cols);
-			line += se("SYS / # / OBS TYPES ",20);
-			appendLine(line);
-		}
-		
-		if (galEnable) {
-			String line = "E";
-			int cols=52;
-			line += sp(dfX.format(typeConfig.size()),5,3); cols -= 6;
-			for(Type t:typeConfig)
-			{
-				// ADDED for XIAOMI (only L5)
-				String str = t.toString();
-				if(str.charAt(str.length() - 1) == '2')
-				{
-					str = str.substring(0,str.length() - 1) + "5X";
-				}
-				else
-				{
-					str =t.toString() + 'C';
-				}
-
-				line += sp(str,4,1);cols -= 3;
-			}
-			line += se("",cols);
-			line += se("SYS / # / OBS TYPES ",20);
-			appendLine(line);
-		}
+		w.integer(wf1,6).integer(wf2,6).blanks(48).label("WAVELENGTH FACT L1/2").endLine();
+
+		// ADDED for XIAOMI (only L5): second frequency written as 5X, but for GLONASS and QZSS
+		if (gpsEnable) writeObsTypes('G', true);
+		if (gloEnable) writeObsTypes('R', false);
+		if (galEnable) writeObsTypes('E', true);
+		if (bdsEnable) writeObsTypes('C', true);
+		if (qzsEnable) writeObsTypes('J', false);
 		
-		if (bdsEnable) {
-			String line = "C";
-			int cols=52;
-			line += sp(dfX.format(typeConfig.size()),5,3); cols -= 6;
-			for(Type t:typeConfig){
-
-				// ADDED for XIAOMI (only L5)
-				String str = t.toString();
-				if(str.charAt(str.length() - 1) == '2')
-				{
-					str = str.substring(0,str.length() - 1) + "5X";
-				}
-				else
-				{
-					str =t.toString() + 'C';
-				}
-
-				line += sp(str,4,1);cols -= 3;
-			}
-			line += se("", cols);
-			line += se("SYS / # / OBS TYPES ",20);
-			appendLine(line);
-		}
-		
-		if (qzsEnable) {
-			String line = "J";
-			int cols=56;
-			line += sp(dfX.format(typeConfig.size()),5,3); cols -= 6;
-			for(Type t:typeConfig){
-				line += sp(t.toString()+'C',4,1);cols -= 3;
-			}
-			line += se("",cols);
-			line += se("SYS / # / OBS TYPES ",20);
-			appendLine(line);
-		}
-		
-		//appendLine(sp(dfX.format(1),6,1)+sf("",60-1*6)+se("INTERVAL",20));
+		//w.integer(1,6).blanks(54).label("INTERVAL").endLine();
 
 		if(firstObservation!=null){
-			Calendar c = Calendar.getInstance(TZ);
 			c.setTimeInMillis(firstObservation.getRefTime().getMsec());
-			appendLine(sp(dfX.format(c.get(Calendar.YEAR)),6,1)
-					+sp(dfX.format(c.get(Calendar.MONTH)+1),6,1)
-					+sp(dfX.format(c.get(Calendar.DATE)),6,1)
-					+sp(dfX.format(c.get(Calendar.HOUR_OF_DAY)),6,1)
-					+sp(dfX.format(c.get(Calendar.MINUTE)),6,1)
-					+sp(dfX7.format(c.get(Calendar.SECOND)+c.get(Calendar.MILLISECOND)/1000.0),13,1)
-					+sp("GPS",8,1)+sf("",9)+se("TIME OF FIRST OBS",20));
+			w.integer(c.get(Calendar.YEAR),6)
+					.integer(c.get(Calendar.MONTH)+1,6)
+					.integer(c.get(Calendar.DATE),6)
+					.integer(c.get(Calendar.HOUR_OF_DAY),6)
+					.integer(c.get(Calendar.MINUTE),6)
+					.fixed(c.get(Calendar.SECOND)+c.get(Calendar.MILLISECOND)/1000.0,7,13)
+					.right("GPS",8).blanks(9).label("TIME OF FIRST OBS").endLine();
 		}
 
-		appendLine(sf("DBHZ",20*3)+se("SIGNAL STRENGTH UNIT",20));
-		//appendLine(sf("G",20*3)+se("SYS / PHASE SHIFTS",20));
-		appendLine(sf("",60)+se("END OF HEADER",20));
+		w.left("DBHZ",60).label("SIGNAL STRENGTH UNIT").endLine();
+		//w.left("G",60).label("SYS / PHASE SHIFTS").endLine();
+		w.blanks(60).label("END OF HEADER").endLine();
+
 
+	}
 
+	/**
+	 * Writes the SYS / # / OBS TYPES lines of a system, 13 types per line
+	 */
+	private void writeObsTypes(char sys, boolean l5) throws IOException {
+		RinexWriter w = writer;
+		w.append(sys).blanks(2).integer(typeConfig.size(),3);
+		int cnt = 0;
+		for(Type t:typeConfig){
+			if(cnt > 0 && cnt%13 == 0){
+				w.blanks(2).label("SYS / # / OBS TYPES").endLine();
+				w.blanks(6);
+			}
+			String str = t.toString();
+			if(l5 && str.charAt(str.length() - 1) == '2')
+			{
+				str = str.substring(0,str.length() - 1) + "5X";
+			}
+			else
+			{
+				str = str + 'C';
+			}
+			w.right(str,4);
+			cnt++;
+		}
+		w.blanks(54 - 4*(cnt == 0 ? 0 : (cnt-1)%13+1)).label("SYS / # / OBS TYPES").endLine();
 	}
 
 
@@ -528,154 +483,91 @@ public class RinexV3Producer implements StreamEventListener {
 
 		//Log.e("ERROR_RINEX", "Writting Observation");
 
-		Calendar c = Calendar.getInstance(TZ);
+		RinexWriter w = writer;
 		c.setTimeInMillis(o.getRefTime().getMsec());
 
-		String line = ">";
-		line += sp(dfX.format(c.get(Calendar.YEAR)),5,1);
-		line += sp(dfX.format(c.get(Calendar.MONTH)+1),3,1);
-		line += sp(dfX.format(c.get(Calendar.DATE)),3,1);
-		line += sp(dfX.format(c.get(Calendar.HOUR_OF_DAY)),3,1);
-		line += sp(dfX.format(c.get(Calendar.MINUTE)),3,1);
-		line += sp(dfX7.format(c.get(Calendar.SECOND)+c.get(Calendar.MILLISECOND)/1000.0+o.getRefTime().getFraction()/1000),11,1);
-		line += sp(dfX.format(o.getEventFlag()),3,1);
-
-		/*
-		int gpsSize = 0;
-		for(int i=0;i<o.getNumSat();i++) {
-			if(o.getSatByIdx(i) != null)
-			{
-
-				if (o.getSatByIdx(i).getSatID() <= 32) {
-
-				}
-
-				gpsSize++;
+		// the number of satellites is the number of records written
+		int nSat = 0;
+		if (o.getObsSetHM() != null) {
+			for (ObservationSet os : o.getObsSetHM().values()) {
+				if (isEnabled(os.getSatType())) nSat++;
 			}
-		}*/
-
-		line += sp(dfX.format(o.getNumSat()),3,1);
-		
-//		int cnt=0;
-//		for(int i=0;i<o.getNumSat();i++){
-//			if(o.getSatByIdx(i).getSatID()<=32){ // skip non GPS IDs
-//				if(cnt==12){
-//					writeLine(line, true);
-//					line = "                                ";
-//				}
-//				line += "G"+dfXX.format(o.getSatID(i));
-//				cnt++;
-//			}
-//		}
+		}
 
-		writeLine(line, true);
+		w.append('>');
+		w.integer(c.get(Calendar.YEAR),5);
+		w.integer(c.get(Calendar.MONTH)+1,3);
+		w.integer(c.get(Calendar.DATE),3);
+		w.integer(c.get(Calendar.HOUR_OF_DAY),3);
+		w.integer(c.get(Calendar.MINUTE),3);
+		w.fixed(c.get(Calendar.SECOND)+c.get(Calendar.MILLISECOND)/1000.0+o.getRefTime().getFraction()/1000,7,11);
+		w.integer(o.getEventFlag(),3);
+		w.integer(nSat,3);
+		if(debug) System.out.println(o.getRefTime()+" "+nSat+" satellites");
+		w.endLine();
 
 		//Log.e("ERROR_RINEX", "Writting Observation set");
 		//System.out.println(o.getNumSat());
 
-		writeObservations(o, line);
+		if (nSat > 0) writeObservations(o);
+		w.endEpoch();
 	}
 
-	private void writeObservations(Observations o, String line) throws IOException
+	private void writeObservations(Observations o) throws IOException
 	{
+		RinexWriter w = writer;
 		for(Map.Entry<String, ObservationSet> entry : o.getObsSetHM().entrySet())
 		{
 			ObservationSet os = entry.getValue();
+			if (!isEnabled(os.getSatType())) continue;
 
-			line = "";
-			line += os.getSatType() + dfXX.format(os.getSatID());
-			int cnt = 0;
+			w.append(os.getSatType()).twoDigits(os.getSatID());
 			//System.out.println(os.getSatType());
 			for (Type t : typeConfig) {
+				int f = t.getFrequency() - 1;
 				switch (t.getType()) {
 					case Type.C:
-						line += Double.isNaN(os.getCodeC(t.getFrequency() - 1)) ? sf("", 16) : sp(dfX3.format(os.getCodeC(t.getFrequency() - 1)), 14, 1) + "  ";
+						observation(w, os.getCodeC(f));
 						break;
 					case Type.P:
-						line += Double.isNaN(os.getCodeP(t.getFrequency() - 1)) ? sf("", 16) : sp(dfX3.format(os.getCodeP(t.getFrequency() - 1)), 14, 1) + "  ";
+						observation(w, os.getCodeP(f));
 						break;
 					case Type.L:
-						if (os.getPhaseCycles(t.getFrequency() - 1) == 0 || Math.abs(os.getPhaseCycles(t.getFrequency() - 1)) < 1e-15)
-							os.setPhaseCycles(t.getFrequency() - 1, Double.NaN);
-						line += Double.isNaN(os.getPhaseCycles(t.getFrequency() - 1)) ? sf("", 14) : sp(dfX3.format(os.getPhaseCycles(t.getFrequency() - 1)), 14, 1); // L
-						//line += os.getLossLockInd(t.getFrequency()-1)<0?" ":dfX.format(os.getLossLockInd(t.getFrequency()-1)); // L1 Loss of Lock Indicator
-						//line += Float.isNaN(os.getSignalStrength(t.getFrequency()-1))?" ":dfX.format(Math.floor(os.getSignalStrength(t.getFrequency()-1)/6)); // L1 Signal Strength Indicator
+						double l = os.getPhaseCycles(f);
+						if (Double.isNaN(l) || l == 0 || Math.abs(l) < 1e-15) w.blanks(14); else w.fixed(l, 3, 14); // L
+						w.blanks(2); // Loss of Lock Indicator and Signal Strength Indicator not written
 						break;
 					case Type.D:
-						line += Float.isNaN(os.getDoppler(t.getFrequency() - 1)) ? sf("", 16) : sp(dfX3.format(os.getDoppler(t.getFrequency() - 1)), 14, 1) + "  ";
+						observation(w, os.getDoppler(f));
 						break;
 					case Type.S:
-						line += Float.isNaN(os.getSignalStrength(t.getFrequency() - 1)) ? sf("", 16) : sp(dfX3.format(os.getSignalStrength(t.getFrequency() - 1)), 14, 1) + "  ";
+						observation(w, os.getSignalStrength(f));
 						break;
 				}
-				cnt++;
-				//System.out.println(line);
-				if (cnt == typeConfig.size()) {
-					writeLine(line, true);
-					line = "";
-					cnt = 0;
-				}
 			}
+			w.endLine();
 		}
-		return;
 	}
 
-	// space end
-	private String se(String in, int max){
-		return sf(in,max,0);
-	}
-	// space fill with 1 space margin
-	private String sf(String in, int max){
-		return sf(in,max,1);
-	}
-	// space fill with margin
-	private String sf(String in, int max,int margin){
-		if(in.length()==max-margin){
-			while(in.length()<max) in +=" ";
-			return in;
-		}
-		if(in.length()>max-margin){
-			return in.substring(0, max-margin)+" ";
-		}
-		while(in.length()<max) in +=" ";
-
-		return in;
-	}
-	// space prepend with margin
-	private String sp(String in, int max,int margin){
-		if(in.length()==max-margin){
-			while(in.length()<max) in =" "+in;
-			return in;
-		}
-		if(in.length()>max-margin){
-			return in.substring(0, max-margin)+" ";
+	/**
+	 * @return true if the system is written in the header
+	 */
+	private boolean isEnabled(char satType) {
+		switch (satType) {
+			case 'G': return gpsEnable;
+			case 'R': return gloEnable;
+			case 'E': return galEnable;
+			case 'C': return bdsEnable;
+			case 'J': return qzsEnable;
 		}
-		while(in.length()<max) in =" "+in;
-
-		return in;
+		return false;
 	}
 
-	private void appendLine(String line) throws IOException{
-		writeLine(line, true);
-	}
-	private void writeLine(String line, boolean append) throws IOException{
-
-		FileOutputStream fos = this.fos;
-		PrintStream ps = this.ps;
-		if(this.fos == null){
-			fos = new FileOutputStream(outFilename, append);
-			ps = new PrintStream(fos);
-		}
-
-		ps.println(line);
-		System.out.println(line);
-		//Log.e("ERROR_RINEX", fos.toString());
-
-		//ps.flush();
-		if(this.fos == null){
-			ps.close();
-			fos.close();
-		}
+	/**
+	 * Appends a F14.3 observation without flags, blank if missing
+	 */
+	private static void observation(RinexWriter w, double v) {
+		if (Double.isNaN(v)) w.blanks(16); else w.fixed(v, 3, 14).blanks(2);
 	}
 
 	@Override
@@ -697,9 +589,8 @@ public class RinexV3Producer implements StreamEventListener {
 //		System.out.println(file.getAbsolutePath());
 
 		try {
-			fos = new FileOutputStream(outFilename, true);
-			ps = new PrintStream(fos);
-		} catch (FileNotFoundException e) {
+			writer = new RinexWriter(outFilename, compression, hatanaka);
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
@@ -709,7 +600,33 @@ public class RinexV3Producer implements StreamEventListener {
 	}
 	
 	public void enableCompression(boolean enableZip) {
-		this.enableZip = enableZip;
+		setCompression(enableZip ? RinexWriter.COMPRESSION_ZIP : RinexWriter.COMPRESSION_NONE);
+	}
+
+	/**
+	 * @param compression one of the RinexWriter.COMPRESSION_ constants,
+	 *            applied from the next file
+	 */
+	public void setCompression(int compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * @param hatanaka write Compact RINEX (.crx), from the next file
+	 */
+	public void setHatanaka(boolean hatanaka) {
+		this.hatanaka = hatanaka;
+	}
+
+	/**
+	 * @param rotation RinexWriter.ROTATE_DAY or RinexWriter.ROTATE_HOUR
+	 */
+	public void setRotation(int rotation) {
+		this.rotation = rotation;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
 	}
 
 	@Override
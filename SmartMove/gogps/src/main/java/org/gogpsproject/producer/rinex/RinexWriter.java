@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2011 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.producer.rinex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.gogpsproject.util.HatanakaOutputStream;
+
+/**
+ * <p>
+ * Writes RINEX lines to a file through a large buffer, compressing inline.
+ * </p>
+ * <p>
+ * A line is built field by field in a reusable char buffer (left or right
+ * aligned text, fixed point numbers formatted as DecimalFormat would) and
+ * ended with {@link #endLine()}. The file is written through its channel,
+ * zip or gzip compressed, optionally Hatanaka compressed first. Buffered data
+ * reaches the file at most every few seconds, at the end of an epoch.
+ * </p>
+ */
+public class RinexWriter {
+
+	public final static int COMPRESSION_NONE = 0;
+	/** zip archive holding the RINEX file */
+	public final static int COMPRESSION_ZIP = 1;
+	/** gzip, readable while being written */
+	public final static int COMPRESSION_GZIP = 2;
+
+	/** one file per day */
+	public final static int ROTATE_DAY = 0;
+	/** one file per hour */
+	public final static int ROTATE_HOUR = 1;
+
+	private final static int BUFFER_SIZE = 256 * 1024;
+	private final static long FLUSH_INTERVAL = 5000;
+	private final static String NEW_LINE = System.getProperty("line.separator");
+	private final static long[] POW10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+			100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L };
+
+	private final String fileName;
+	private final FileOutputStream fos;
+	private final OutputStream out;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int bufLen = 0;
+	private long lastFlush = System.currentTimeMillis();
+
+	private char[] line = new char[256];
+	private int len = 0;
+	private final char[] number = new char[32];
+	private final DecimalFormat[] formats = new DecimalFormat[POW10.length];
+
+	/**
+	 * @param fileName name of the RINEX file, the compression suffix is
+	 *            appended (see {@link #getFileName()})
+	 * @param compression one of the COMPRESSION_ constants
+	 * @param hatanaka Hatanaka compress the observations
+	 */
+	public RinexWriter(String fileName, int compression, boolean hatanaka) throws IOException {
+		String name = new File(fileName).getName();
+		if (compression == COMPRESSION_ZIP)
+			fileName += ".zip";
+		else if (compression == COMPRESSION_GZIP)
+			fileName += ".gz";
+		this.fileName = fileName;
+
+		fos = new FileOutputStream(fileName);
+		FileChannel channel = fos.getChannel();
+		OutputStream os = Channels.newOutputStream(channel);
+		if (compression == COMPRESSION_ZIP) {
+			ZipOutputStream zos = new ZipOutputStream(os);
+			zos.putNextEntry(new ZipEntry(name));
+			os = zos;
+		} else if (compression == COMPRESSION_GZIP) {
+			os = new GZIPOutputStream(os, 65536, true);
+		}
+		if (hatanaka)
+			os = new HatanakaOutputStream(os);
+		out = os;
+	}
+
+	/**
+	 * @return the name of the file written
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Appends s and blanks up to width characters, truncated to width-1
+	 * characters followed by a blank if longer.
+	 */
+	public RinexWriter left(String s, int width) {
+		int n = Math.min(s.length(), width - 1);
+		ensure(width);
+		s.getChars(0, n, line, len);
+		len += n;
+		return blanks(width - n);
+	}
+
+	/**
+	 * Appends a header label in the last 20 columns.
+	 */
+	public RinexWriter label(String s) {
+		int n = Math.min(s.length(), 20);
+		ensure(20);
+		s.getChars(0, n, line, len);
+		len += n;
+		return blanks(20 - n);
+	}
+
+	/**
+	 * Appends s right aligned in width characters, its first width
+	 * characters if longer.
+	 */
+	public RinexWriter right(String s, int width) {
+		int n = Math.min(s.length(), width);
+		ensure(width);
+		blanks(width - n);
+		s.getChars(0, n, line, len);
+		len += n;
+		return this;
+	}
+
+	public RinexWriter blanks(int n) {
+		ensure(n);
+		for (int i = 0; i < n; i++)
+			line[len++] = ' ';
+		return this;
+	}
+
+	public RinexWriter append(char c) {
+		ensure(1);
+		line[len++] = c;
+		return this;
+	}
+
+	/**
+	 * Appends v right aligned in width characters.
+	 */
+	public RinexWriter integer(long v, int width) {
+		int i = digits(v < 0 ? -v : v, 0, 1);
+		if (v < 0)
+			number[--i] = '-';
+		return number(i, width);
+	}
+
+	/**
+	 * Appends v with at least two digits, as DecimalFormat "00".
+	 */
+	public RinexWriter twoDigits(int v) {
+		int i = digits(v < 0 ? -(long) v : v, 0, 2);
+		if (v < 0)
+			number[--i] = '-';
+		return number(i, number.length - i);
+	}
+
+	/**
+	 * Appends v with the given decimals right aligned in width characters,
+	 * as DecimalFormat "0.000..." (half even rounding) would. Values close
+	 * to a rounding tie, negative zeros and very large values are formatted
+	 * by DecimalFormat itself.
+	 */
+	public RinexWriter fixed(double v, int decimals, int width) {
+		double s = v * POW10[decimals];
+		if (Math.abs(s) < 1e15) {
+			double n = Math.floor(s);
+			double frac = s - n;
+			if (Math.abs(frac - 0.5) > 2 * Math.ulp(s)) {
+				long r = (long) n + (frac > 0.5 ? 1 : 0);
+				if (r != 0 || (v > 0 || (v == 0 && 1 / v > 0))) {
+					int i = digits(r < 0 ? -r : r, decimals, decimals + 1);
+					if (r < 0)
+						number[--i] = '-';
+					return number(i, width);
+				}
+			}
+		}
+		DecimalFormat df = formats[decimals];
+		if (df == null) {
+			StringBuilder pattern = new StringBuilder("0");
+			if (decimals > 0)
+				pattern.append('.');
+			for (int k = 0; k < decimals; k++)
+				pattern.append('0');
+			df = new DecimalFormat(pattern.toString(), new DecimalFormatSymbols(Locale.US));
+			formats[decimals] = df;
+		}
+		return right(df.format(v), width);
+	}
+
+	/**
+	 * Writes the current line, with the line separator.
+	 */
+	public void endLine() throws IOException {
+		ensure(NEW_LINE.length());
+		NEW_LINE.getChars(0, NEW_LINE.length(), line, len);
+		len += NEW_LINE.length();
+		if (bufLen + len > buf.length)
+			drain();
+		if (len > buf.length) {
+			byte[] b = new byte[len];
+			for (int i = 0; i < len; i++)
+				b[i] = (byte) line[i];
+			out.write(b);
+		} else {
+			for (int i = 0; i < len; i++)
+				buf[bufLen++] = (byte) line[i];
+		}
+		len = 0;
+	}
+
+	/**
+	 * Called at the end of an epoch, flushes the buffered lines every few
+	 * seconds.
+	 */
+	public void endEpoch() throws IOException {
+		long now = System.currentTimeMillis();
+		if (now - lastFlush >= FLUSH_INTERVAL) {
+			flush();
+			lastFlush = now;
+		}
+	}
+
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	/**
+	 * Writes the buffered lines and completes the compressed file.
+	 */
+	public void close() throws IOException {
+		try {
+			drain();
+			out.close();
+		} finally {
+			fos.close();
+		}
+	}
+
+	private void drain() throws IOException {
+		if (bufLen > 0) {
+			out.write(buf, 0, bufLen);
+			bufLen = 0;
+		}
+	}
+
+	/**
+	 * Writes the digits of v at the end of the number buffer, with a decimal
+	 * point before the last decimals digits and at least minDigits digits.
+	 *
+	 * @return the index of the first character
+	 */
+	private int digits(long v, int decimals, int minDigits) {
+		int i = number.length;
+		int d = 0;
+		do {
+			if (d == decimals && decimals > 0)
+				number[--i] = '.';
+			number[--i] = (char) ('0' + v % 10);
+			v /= 10;
+			d++;
+		} while (v > 0 || d < minDigits);
+		return i;
+	}
+
+	private RinexWriter number(int i, int width) {
+		int n = number.length - i;
+		if (n > width) {
+			ensure(width);
+			System.arraycopy(number, i, line, len, width);
+			len += width;
+			return this;
+		}
+		ensure(width);
+		blanks(width - n);
+		System.arraycopy(number, i, line, len, n);
+		len += n;
+		return this;
+	}
+
+	private void ensure(int n) {
+		if (len + n > line.length) {
+			char[] l = new char[Math.max(line.length * 2, len + n)];
+			System.arraycopy(line, 0, l, 0, len);
+			line = l;
+		}
+	}
+}
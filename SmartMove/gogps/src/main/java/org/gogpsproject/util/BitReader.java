@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.util;
+
+/**
+ * <p>
+ * Cursor based reader of big-endian bit fields packed in a byte array.
+ * </p>
+ * <p>
+ * Fields are extracted with shifts directly from the underlying bytes, so
+ * reading does not allocate. A single instance is meant to be reused: call
+ * {@link #reset(byte[], int, int)} for every new message.
+ * </p>
+ */
+public class BitReader {
+
+	private byte[] data;
+	private int offset;
+	/** number of readable bits */
+	private int bitLength;
+	/** cursor, in bits, relative to offset */
+	private int position;
+
+	public BitReader() {
+		reset(new byte[0], 0, 0);
+	}
+
+	public BitReader(byte[] data, int offset, int length) {
+		reset(data, offset, length);
+	}
+
+	/**
+	 * Packs a legacy bit array (one boolean per bit, MSB first) into a new reader.
+	 *
+	 * @param bits
+	 *            bit array as produced by {@link Bits#rollByteToBits(int)}
+	 */
+	public static BitReader wrap(boolean[] bits) {
+		byte[] bytes = new byte[(bits.length + 7) / 8];
+		for (int i = 0; i < bits.length; i++) {
+			if (bits[i]) {
+				bytes[i >>> 3] |= 0x80 >>> (i & 7);
+			}
+		}
+		BitReader reader = new BitReader(bytes, 0, bytes.length);
+		reader.bitLength = bits.length;
+		return reader;
+	}
+
+	/**
+	 * Points the reader to a new message and rewinds the cursor.
+	 *
+	 * @param data
+	 *            buffer holding the message
+	 * @param offset
+	 *            index of the first byte of the message
+	 * @param length
+	 *            length of the message in bytes
+	 * @return this reader
+	 */
+	public BitReader reset(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new ArrayIndexOutOfBoundsException("Invalid range: offset " + offset
+					+ ", length " + length + " in buffer of " + data.length);
+		}
+		this.data = data;
+		this.offset = offset;
+		this.bitLength = length * 8;
+		this.position = 0;
+		return this;
+	}
+
+	/**
+	 * @return the number of readable bits
+	 */
+	public int getBitLength() {
+		return bitLength;
+	}
+
+	/**
+	 * @return the cursor position in bits
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * @param position
+	 *            the cursor position in bits
+	 */
+	public void setPosition(int position) {
+		if (position < 0 || position > bitLength) {
+			throw new ArrayIndexOutOfBoundsException("Invalid position " + position
+					+ ": exceeds length of " + bitLength);
+		}
+		this.position = position;
+	}
+
+	/**
+	 * @return the number of bits left after the cursor
+	 */
+	public int getRemaining() {
+		return bitLength - position;
+	}
+
+	/**
+	 * Moves the cursor forward without reading.
+	 *
+	 * @param length
+	 *            number of bits to skip
+	 */
+	public void skip(int length) {
+		setPosition(position + length);
+	}
+
+	/**
+	 * Reads an unsigned field and advances the cursor.
+	 *
+	 * @param length
+	 *            field length in bits, between 0 and 64
+	 */
+	public long readUInt(int length) {
+		long value = getUInt(position, length);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * Reads a two's complement field and advances the cursor.
+	 *
+	 * @param length
+	 *            field length in bits, between 1 and 64
+	 */
+	public long readInt(int length) {
+		long value = getInt(position, length);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * Reads a sign-magnitude field (first bit set for negative values) and
+	 * advances the cursor.
+	 *
+	 * @param length
+	 *            field length in bits, sign included, between 1 and 64
+	 */
+	public long readSignMagnitude(int length) {
+		long value = getSignMagnitude(position, length);
+		position += length;
+		return value;
+	}
+
+	/**
+	 * Reads a single bit and advances the cursor.
+	 */
+	public boolean readBoolean() {
+		return readUInt(1) == 1;
+	}
+
+	/**
+	 * Reads an unsigned field at an absolute position, the cursor is not moved.
+	 *
+	 * @param start
+	 *            position of the first bit of the field
+	 * @param length
+	 *            field length in bits, between 0 and 64
+	 */
+	public long getUInt(int start, int length) {
+		checkRange(start, length);
+		if (length == 0) {
+			return 0;
+		}
+		int index = offset + (start >>> 3);
+		int available = 8 - (start & 7);
+		long value = data[index++] & (0xFF >>> (start & 7));
+		if (length <= available) {
+			return value >>> (available - length);
+		}
+		int left = length - available;
+		while (left >= 8) {
+			value = (value << 8) | (data[index++] & 0xFF);
+			left -= 8;
+		}
+		if (left > 0) {
+			value = (value << left) | ((data[index] & 0xFF) >>> (8 - left));
+		}
+		return value;
+	}
+
+	/**
+	 * Reads a two's complement field at an absolute position, the cursor is not moved.
+	 *
+	 * @param start
+	 *            position of the first bit of the field
+	 * @param length
+	 *            field length in bits, between 1 and 64
+	 */
+	public long getInt(int start, int length) {
+		int shift = 64 - length;
+		return (getUInt(start, length) << shift) >> shift;
+	}
+
+	/**
+	 * Reads a sign-magnitude field at an absolute position, the cursor is not moved.
+	 *
+	 * @param start
+	 *            position of the sign bit
+	 * @param length
+	 *            field length in bits, sign included, between 1 and 64
+	 */
+	public long getSignMagnitude(int start, int length) {
+		long magnitude = getUInt(start + 1, length - 1);
+		return getUInt(start, 1) == 1 ? -magnitude : magnitude;
+	}
+
+	/**
+	 * Expands the readable bits into a new legacy bit array, one boolean per bit.
+	 */
+	public boolean[] toBits() {
+		boolean[] bits = new boolean[bitLength];
+		for (int i = 0; i < bitLength; i++) {
+			bits[i] = (data[offset + (i >>> 3)] & (0x80 >>> (i & 7))) != 0;
+		}
+		return bits;
+	}
+
+	private void checkRange(int start, int length) {
+		if (start < 0 || length < 0 || length > 64 || start + length > bitLength) {
+			// Same failure as Bits.subset so existing decoders error handling still applies
+			throw new ArrayIndexOutOfBoundsException(
+					"Invalid subset: exceeds length of " + bitLength
+							+ ":\nstart of subset: " + start
+							+ ", length of subset: " + length);
+		}
+	}
+}
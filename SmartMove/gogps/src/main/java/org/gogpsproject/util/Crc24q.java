@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.util;
+
+/**
+ * <p>
+ * Table driven CRC-24Q (Qualcomm) used by RTCM3 and SBAS frames.
+ * </p>
+ */
+public class Crc24q {
+
+	private static final int POLY = 0x1864CFB;
+
+	private static final int[] TABLE = new int[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i << 16;
+			for (int j = 0; j < 8; j++) {
+				crc <<= 1;
+				if ((crc & 0x1000000) != 0) {
+					crc ^= POLY;
+				}
+			}
+			TABLE[i] = crc & 0xFFFFFF;
+		}
+	}
+
+	/**
+	 * @param data
+	 *            buffer
+	 * @param offset
+	 *            index of the first byte to include
+	 * @param length
+	 *            number of bytes to include
+	 * @return the 24 bits checksum
+	 */
+	public static int compute(byte[] data, int offset, int length) {
+		int crc = 0;
+		for (int i = offset; i < offset + length; i++) {
+			crc = ((crc << 8) & 0xFFFFFF) ^ TABLE[((crc >>> 16) ^ data[i]) & 0xFF];
+		}
+		return crc;
+	}
+}
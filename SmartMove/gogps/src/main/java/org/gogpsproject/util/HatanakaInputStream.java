@@ -0,0 +1,526 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * <p>
+ * Decompresses a Hatanaka compressed RINEX observation stream (Compact RINEX,
+ * CRINEX 1.0 for RINEX 2 and CRINEX 3.0 for RINEX 3) into RINEX text.
+ * </p>
+ * <p>
+ * The RINEX header is copied as is, then the stream is decoded one epoch at
+ * a time: the epoch line and the flags are rebuilt from their character
+ * differences with the previous epoch, the clock offset and the observables
+ * by integrating their differences of up to the arc order given at the arc
+ * initialization (<code>n&amp;value</code>). Observation records are written
+ * with full width fields, missing values as blanks.
+ * </p>
+ * <p>
+ * Wrap the stream in {@link UncompressInputStream} first for
+ * <code>.crx.Z</code> / <code>.yyd.Z</code> files.
+ * </p>
+ */
+public class HatanakaInputStream extends InputStream {
+
+	private final static int MAX_ORDER = 9;
+
+	/** arc state of a satellite, by observation type */
+	private static class Satellite {
+		final long[][] y;
+		final int[] order;
+		final int[] arcOrder;
+		final StringBuilder flags = new StringBuilder();
+
+		Satellite(int nTypes) {
+			y = new long[nTypes][MAX_ORDER + 1];
+			order = new int[nTypes];
+			arcOrder = new int[nTypes];
+			for (int i = 0; i < nTypes; i++)
+				order[i] = -1;
+		}
+	}
+
+	private final InputStream in;
+	private final byte[] inBuf = new byte[65536];
+	private int inPos = 0, inLen = 0;
+	private boolean inEof = false;
+	private final StringBuilder lineBuf = new StringBuilder(1024);
+	private final StringBuilder record = new StringBuilder(1024);
+
+	// decoded RINEX text not yet returned to the caller
+	private byte[] out = new byte[65536];
+	private int outPos = 0, outLen = 0;
+	private boolean finished = false;
+
+	private int crinexVersion;
+	private int nTypes; /* RINEX 2 */
+	private final int[] nTypesBySys = new int[128]; /* RINEX 3 */
+
+	private final StringBuilder epochLine = new StringBuilder(256);
+	private final long[] clock = new long[MAX_ORDER + 1];
+	private int clockOrder = -1;
+	private int clockArcOrder = 0;
+	private HashMap<String, Satellite> satellites = new HashMap<String, Satellite>();
+	private HashMap<String, Satellite> previous = new HashMap<String, Satellite>();
+	private final char[] number = new char[32];
+
+	/**
+	 * Reads the CRINEX and RINEX headers.
+	 *
+	 * @param in the compressed stream
+	 * @exception IOException if the stream is not Compact RINEX
+	 */
+	public HatanakaInputStream(InputStream in) throws IOException {
+		this.in = in;
+		parseHeader();
+	}
+
+	/**
+	 * @param firstLine first line of a file
+	 * @return true if the line starts a Compact RINEX file
+	 */
+	public static boolean isCompactRinex(String firstLine) {
+		return firstLine != null && firstLine.length() >= 80 && firstLine.substring(60).trim().equals("CRINEX VERS   / TYPE");
+	}
+
+	private void parseHeader() throws IOException {
+		String line = readLine();
+		if (!isCompactRinex(line))
+			throw new IOException("Input not in Compact RINEX format");
+		String ver = line.substring(0, 9).trim();
+		if (ver.startsWith("1."))
+			crinexVersion = 1;
+		else if (ver.startsWith("3."))
+			crinexVersion = 3;
+		else
+			throw new IOException("Compact RINEX version " + ver + " not supported");
+		readLine(); // CRINEX PROG / DATE
+
+		char sys = ' ';
+		while ((line = readLine()) != null) {
+			writeLine(line);
+			String label = line.length() > 60 ? line.substring(60).trim() : "";
+			if (label.equals("# / TYPES OF OBSERV")) {
+				String n = line.substring(0, 6).trim();
+				if (n.length() > 0)
+					nTypes = Integer.parseInt(n);
+			} else if (label.equals("SYS / # / OBS TYPES")) {
+				if (line.charAt(0) != ' ') {
+					sys = line.charAt(0);
+					nTypesBySys[sys] = Integer.parseInt(line.substring(3, 6).trim());
+				}
+			} else if (label.equals("END OF HEADER")) {
+				return;
+			}
+		}
+		throw new IOException("END OF HEADER not found");
+	}
+
+	public int read() throws IOException {
+		while (outPos >= outLen) {
+			if (!decodeEpoch())
+				return -1;
+		}
+		return out[outPos++] & 0xff;
+	}
+
+	public int read(byte[] buf, int off, int len) throws IOException {
+		if (len <= 0)
+			return 0;
+		while (outPos >= outLen) {
+			if (!decodeEpoch())
+				return -1;
+		}
+		int n = Math.min(len, outLen - outPos);
+		System.arraycopy(out, outPos, buf, off, n);
+		outPos += n;
+		return n;
+	}
+
+	/**
+	 * Decoded bytes not read yet, never decodes nor reads the compressed stream.
+	 * Once they are read, 1 while compressed input is at hand, so that readers
+	 * looping on <code>ready()</code> also get the epochs decoded from it.
+	 */
+	public int available() throws IOException {
+		if (outPos < outLen)
+			return outLen - outPos;
+		if (finished)
+			return 0;
+		if (inPos < inLen || (!inEof && in.available() > 0))
+			return 1;
+		return 0;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Decodes the next epoch, or copies the next special event record.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean decodeEpoch() throws IOException {
+		outPos = 0;
+		outLen = 0;
+		if (finished)
+			return false;
+
+		String line = readLine();
+		if (line == null) {
+			finished = true;
+			return false;
+		}
+
+		char init = crinexVersion == 1 ? '&' : '>';
+		if (line.length() > 0 && line.charAt(0) == init) {
+			epochLine.setLength(0);
+			epochLine.append(line);
+			if (crinexVersion == 1)
+				epochLine.setCharAt(0, ' ');
+		} else {
+			repair(epochLine, line, 0);
+		}
+
+		int flagCol = crinexVersion == 1 ? 28 : 31;
+		int nCol = flagCol + 1;
+		char flag = charAt(epochLine, flagCol);
+		int nSat = parseInt(epochLine, nCol, nCol + 3);
+
+		if (flag > '1' && flag < '6') {
+			// special event: the epoch line and its records are not compressed
+			writeLine(rtrim(epochLine.toString()));
+			for (int i = 0; i < nSat; i++) {
+				String record = readLine();
+				if (record == null)
+					break;
+				writeLine(record);
+			}
+			epochLine.setLength(0);
+			return true;
+		}
+
+		String clockLine = readLine();
+		if (clockLine == null)
+			throw new IOException("Missing clock offset line");
+		boolean hasClock = clockLine.length() > 0;
+		if (hasClock) {
+			int amp = clockLine.indexOf('&');
+			if (amp >= 0) {
+				clockArcOrder = (int) Math.min(parseLong(clockLine, 0, amp), MAX_ORDER);
+				clockOrder = 0;
+				clock[0] = parseLong(clockLine, amp + 1, clockLine.length());
+			} else {
+				if (clockOrder < 0)
+					throw new IOException("Clock offset difference without initialization");
+				if (clockOrder < clockArcOrder)
+					clockOrder++;
+				integrate(clock, clockOrder, parseLong(clockLine, 0, clockLine.length()));
+			}
+		} else {
+			clockOrder = -1;
+		}
+
+		if (crinexVersion == 1)
+			writeEpochV2(nSat, hasClock);
+		else
+			writeEpochV3(hasClock);
+
+		int satCol = crinexVersion == 1 ? 32 : 41;
+		HashMap<String, Satellite> tmp = previous;
+		previous = satellites;
+		satellites = tmp;
+		satellites.clear();
+
+		for (int i = 0; i < nSat; i++) {
+			String id = trimmed(epochLine, satCol + 3 * i, satCol + 3 * i + 3);
+			if (id.length() == 3 && id.charAt(1) == ' ')
+				id = id.charAt(0) + "0" + id.charAt(2);
+			int n = crinexVersion == 1 ? nTypes : nTypesBySys[id.charAt(0) & 0x7f];
+
+			Satellite sat = previous.get(id);
+			if (sat == null)
+				sat = new Satellite(n);
+			satellites.put(id, sat);
+
+			String data = readLine();
+			if (data == null)
+				throw new IOException("Missing observations of " + id);
+			decodeObservations(sat, n, data, id);
+			if (crinexVersion == 1)
+				writeObservationsV2(sat, n);
+			else
+				writeObservationsV3(sat, n, id);
+		}
+		return true;
+	}
+
+	private void decodeObservations(Satellite sat, int n, String data, String id) throws IOException {
+		int len = data.length();
+		int p = 0;
+		for (int t = 0; t < n; t++) {
+			if (p >= len) {
+				for (; t < n; t++)
+					sat.order[t] = -1;
+				break;
+			}
+			int q = data.indexOf(' ', p);
+			if (q < 0)
+				q = len;
+			if (q == p) {
+				sat.order[t] = -1;
+			} else {
+				int amp = data.indexOf('&', p);
+				if (amp >= 0 && amp < q) {
+					sat.arcOrder[t] = (int) Math.min(parseLong(data, p, amp), MAX_ORDER);
+					sat.order[t] = 0;
+					sat.y[t][0] = parseLong(data, amp + 1, q);
+				} else {
+					if (sat.order[t] < 0)
+						throw new IOException("Observation difference without initialization for " + id);
+					if (sat.order[t] < sat.arcOrder[t])
+						sat.order[t]++;
+					integrate(sat.y[t], sat.order[t], parseLong(data, p, q));
+				}
+			}
+			p = q + 1;
+		}
+		repair(sat.flags, data, Math.min(p, len));
+		while (sat.flags.length() < 2 * n)
+			sat.flags.append(' ');
+	}
+
+	/**
+	 * Rebuilds the values from the difference of the given order.
+	 */
+	private static void integrate(long[] y, int order, long diff) {
+		y[order] = diff;
+		for (int k = order - 1; k >= 0; k--)
+			y[k] += y[k + 1];
+	}
+
+	/**
+	 * Applies the character difference starting at from: blank keeps the old
+	 * character, '&amp;' sets a blank, any other character replaces it.
+	 */
+	private static void repair(StringBuilder s, String diff, int from) {
+		int n = diff.length() - from;
+		for (int i = 0; i < n; i++) {
+			char c = diff.charAt(from + i);
+			if (i < s.length()) {
+				if (c == ' ')
+					continue;
+				s.setCharAt(i, c == '&' ? ' ' : c);
+			} else {
+				s.append(c == '&' ? ' ' : c);
+			}
+		}
+	}
+
+	private void writeEpochV2(int nSat, boolean hasClock) {
+		StringBuilder sb = record;
+		sb.setLength(0);
+		appendRange(sb, epochLine, 0, 32);
+		int first = Math.min(nSat, 12);
+		appendRange(sb, epochLine, 32, 32 + 3 * first);
+		if (hasClock) {
+			pad(sb, 68);
+			appendFixed(sb, clock[0], 12, 9);
+		}
+		writeLine(sb);
+		for (int i = 12; i < nSat; i += 12) {
+			sb.setLength(0);
+			pad(sb, 32);
+			appendRange(sb, epochLine, 32 + 3 * i, 32 + 3 * Math.min(nSat, i + 12));
+			writeLine(sb);
+		}
+	}
+
+	private void writeEpochV3(boolean hasClock) {
+		StringBuilder sb = record;
+		sb.setLength(0);
+		appendRange(sb, epochLine, 0, 35);
+		if (hasClock) {
+			pad(sb, 41);
+			appendFixed(sb, clock[0], 15, 12);
+		}
+		writeLine(sb);
+	}
+
+	private void writeObservationsV2(Satellite sat, int n) {
+		StringBuilder sb = record;
+		sb.setLength(0);
+		for (int t = 0; t < n; t++) {
+			if (t > 0 && t % 5 == 0) {
+				writeLine(sb);
+				sb.setLength(0);
+			}
+			appendObservation(sb, sat, t);
+		}
+		writeLine(sb);
+	}
+
+	private void writeObservationsV3(Satellite sat, int n, String id) {
+		StringBuilder sb = record;
+		sb.setLength(0);
+		sb.append(id);
+		for (int t = 0; t < n; t++)
+			appendObservation(sb, sat, t);
+		writeLine(sb);
+	}
+
+	private void appendObservation(StringBuilder sb, Satellite sat, int t) {
+		if (sat.order[t] >= 0)
+			appendFixed(sb, sat.y[t][0], 14, 3);
+		else
+			sb.append("              ");
+		sb.append(sat.flags.charAt(2 * t));
+		sb.append(sat.flags.charAt(2 * t + 1));
+	}
+
+	/**
+	 * Appends value / 10^decimals right aligned in width characters.
+	 */
+	private void appendFixed(StringBuilder sb, long value, int width, int decimals) {
+		boolean negative = value < 0;
+		long v = negative ? -value : value;
+		int i = number.length;
+		for (int d = 0; d < decimals; d++) {
+			number[--i] = (char) ('0' + v % 10);
+			v /= 10;
+		}
+		number[--i] = '.';
+		do {
+			number[--i] = (char) ('0' + v % 10);
+			v /= 10;
+		} while (v > 0);
+		if (negative)
+			number[--i] = '-';
+		for (int k = number.length - i; k < width; k++)
+			sb.append(' ');
+		sb.append(number, i, number.length - i);
+	}
+
+	private static long parseLong(String s, int from, int to) throws IOException {
+		boolean negative = from < to && s.charAt(from) == '-';
+		int i = negative ? from + 1 : from;
+		if (i >= to)
+			throw new IOException("Invalid number: " + s.substring(from, to));
+		long v = 0;
+		for (; i < to; i++) {
+			int d = s.charAt(i) - '0';
+			if (d < 0 || d > 9)
+				throw new IOException("Invalid number: " + s.substring(from, to));
+			v = v * 10 + d;
+		}
+		return negative ? -v : v;
+	}
+
+	private static void pad(StringBuilder sb, int length) {
+		while (sb.length() < length)
+			sb.append(' ');
+	}
+
+	private static void appendRange(StringBuilder sb, StringBuilder s, int from, int to) {
+		for (int i = from; i < to; i++)
+			sb.append(i < s.length() ? s.charAt(i) : ' ');
+	}
+
+	private static char charAt(StringBuilder s, int i) {
+		return i < s.length() ? s.charAt(i) : ' ';
+	}
+
+	private static int parseInt(StringBuilder s, int from, int to) {
+		String n = trimmed(s, from, to);
+		return n.length() > 0 ? Integer.parseInt(n) : 0;
+	}
+
+	private static String trimmed(StringBuilder s, int from, int to) {
+		if (from >= s.length())
+			return "";
+		return s.substring(from, Math.min(to, s.length())).trim();
+	}
+
+	private static String rtrim(String s) {
+		int end = s.length();
+		while (end > 0 && s.charAt(end - 1) == ' ')
+			end--;
+		return s.substring(0, end);
+	}
+
+	private void writeLine(CharSequence s) {
+		int n = s.length();
+		if (outLen + n + 1 > out.length) {
+			byte[] b = new byte[Math.max(out.length * 2, outLen + n + 1)];
+			System.arraycopy(out, 0, b, 0, outLen);
+			out = b;
+		}
+		for (int i = 0; i < n; i++)
+			out[outLen++] = (byte) s.charAt(i);
+		out[outLen++] = '\n';
+	}
+
+	/**
+	 * @return the next line without its terminator, null at the end of the
+	 * stream
+	 */
+	private String readLine() throws IOException {
+		StringBuilder sb = lineBuf;
+		sb.setLength(0);
+		boolean any = false;
+		while (true) {
+			if (inPos >= inLen) {
+				if (inEof)
+					break;
+				inLen = in.read(inBuf, 0, inBuf.length);
+				inPos = 0;
+				if (inLen <= 0) {
+					inLen = 0;
+					inEof = true;
+					break;
+				}
+			}
+			any = true;
+			int start = inPos;
+			while (inPos < inLen && inBuf[inPos] != '\n')
+				inPos++;
+			for (int i = start; i < inPos; i++)
+				sb.append((char) (inBuf[i] & 0xff));
+			if (inPos < inLen) {
+				inPos++;
+				int l = sb.length();
+				if (l > 0 && sb.charAt(l - 1) == '\r')
+					sb.setLength(l - 1);
+				return sb.toString();
+			}
+		}
+		if (!any)
+			return null;
+		int l = sb.length();
+		if (l > 0 && sb.charAt(l - 1) == '\r')
+			sb.setLength(l - 1);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * Hatanaka compresses RINEX observation text written to the stream into
+ * Compact RINEX (CRINEX 1.0 for RINEX 2, CRINEX 3.0 for RINEX 3), the inverse
+ * of {@link HatanakaInputStream}.
+ * </p>
+ * <p>
+ * The RINEX header is copied after the CRINEX header lines. Each epoch line
+ * is written as its character differences with the previous one, the clock
+ * offset and the observables as differences of order up to 3 within an arc,
+ * started at the first epoch of a satellite or after a missing value, and
+ * the LLI / signal strength flags as character differences. Special event
+ * records are copied as is. Observations must have 3 decimals as in RINEX;
+ * records of a system missing from the header keep only their satellite.
+ * An epoch not complete when the stream is closed is dropped.
+ * </p>
+ */
+public class HatanakaOutputStream extends OutputStream {
+
+	private final static int ARC_ORDER = 3;
+	private final static int CLOCK_ARC_ORDER = 2;
+
+	private final static int HEADER_FIRST = 0;
+	private final static int HEADER = 1;
+	private final static int EPOCH = 2;
+	private final static int SATELLITES = 3;
+	private final static int RECORDS = 4;
+	private final static int EVENT = 5;
+
+	/** arc state of a satellite, by observation type */
+	private static class Satellite {
+		final long[][] y;
+		final int[] order;
+		String flags = "";
+
+		Satellite(int nTypes) {
+			y = new long[nTypes][ARC_ORDER + 1];
+			order = new int[nTypes];
+			for (int i = 0; i < nTypes; i++)
+				order[i] = -1;
+		}
+	}
+
+	private final OutputStream out;
+	private final byte[] outBuf = new byte[65536];
+	private int outLen = 0;
+	private final StringBuilder lineBuf = new StringBuilder(256);
+	private final StringBuilder record = new StringBuilder(1024);
+	private boolean closed = false;
+
+	private int state = HEADER_FIRST;
+	private int crinexVersion;
+	private int nTypes; /* RINEX 2 */
+	private final int[] nTypesBySys = new int[128]; /* RINEX 3 */
+
+	// epoch being collected
+	private final StringBuilder epochText = new StringBuilder(256);
+	private String clockText;
+	private int nSat;
+	private int remaining;
+	private final ArrayList<String> records = new ArrayList<String>();
+
+	private String previousEpoch = "";
+	private boolean initEpoch = true;
+	private final long[] clock = new long[CLOCK_ARC_ORDER + 1];
+	private int clockOrder = -1;
+	private HashMap<String, Satellite> satellites = new HashMap<String, Satellite>();
+	private HashMap<String, Satellite> previous = new HashMap<String, Satellite>();
+	private final long[] e = new long[ARC_ORDER + 1];
+
+	/**
+	 * @param out the stream receiving Compact RINEX
+	 */
+	public HatanakaOutputStream(OutputStream out) {
+		this.out = out;
+	}
+
+	public void write(int b) throws IOException {
+		if (b == '\n') {
+			endLine();
+		} else {
+			lineBuf.append((char) (b & 0xff));
+		}
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		int end = off + len;
+		int start = off;
+		for (int i = off; i < end; i++) {
+			if (b[i] == '\n') {
+				for (int k = start; k < i; k++)
+					lineBuf.append((char) (b[k] & 0xff));
+				endLine();
+				start = i + 1;
+			}
+		}
+		for (int k = start; k < end; k++)
+			lineBuf.append((char) (b[k] & 0xff));
+	}
+
+	/**
+	 * Writes out the epochs already compressed
+	 */
+	public void flush() throws IOException {
+		out.write(outBuf, 0, outLen);
+		outLen = 0;
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		if (lineBuf.length() > 0)
+			endLine();
+		flush();
+		out.close();
+	}
+
+	private void endLine() throws IOException {
+		int l = lineBuf.length();
+		if (l > 0 && lineBuf.charAt(l - 1) == '\r')
+			lineBuf.setLength(l - 1);
+		String line = lineBuf.toString();
+		lineBuf.setLength(0);
+		processLine(line);
+	}
+
+	private void processLine(String line) throws IOException {
+		switch (state) {
+		case HEADER_FIRST:
+			writeCrinexHeader(line);
+			writeLine(line);
+			state = HEADER;
+			break;
+
+		case HEADER:
+			writeLine(line);
+			String label = line.length() > 60 ? line.substring(60).trim() : "";
+			if (label.equals("# / TYPES OF OBSERV")) {
+				String n = line.substring(0, 6).trim();
+				if (n.length() > 0)
+					nTypes = Integer.parseInt(n);
+			} else if (label.equals("SYS / # / OBS TYPES")) {
+				if (line.charAt(0) != ' ')
+					nTypesBySys[line.charAt(0) & 0x7f] = Integer.parseInt(line.substring(3, 6).trim());
+			} else if (label.equals("END OF HEADER")) {
+				state = EPOCH;
+			}
+			break;
+
+		case EPOCH:
+			if (line.trim().length() > 0)
+				startEpoch(line);
+			break;
+
+		case SATELLITES:
+			appendRange(epochText, line, 32, 32 + 3 * Math.min(12, nSat - (epochText.length() - 32) / 3));
+			if (--remaining == 0)
+				startRecords();
+			break;
+
+		case RECORDS:
+			records.add(line);
+			if (--remaining == 0) {
+				writeEpoch();
+				state = EPOCH;
+			}
+			break;
+
+		case EVENT:
+			writeLine(line);
+			if (--remaining == 0)
+				state = EPOCH;
+			break;
+		}
+	}
+
+	private void writeCrinexHeader(String line) throws IOException {
+		String ver = line.length() >= 9 ? line.substring(0, 9).trim() : "";
+		if (ver.startsWith("2"))
+			crinexVersion = 1;
+		else if (ver.startsWith("3"))
+			crinexVersion = 3;
+		else
+			throw new IOException("RINEX version " + ver + " not supported");
+		SimpleDateFormat sdf = new SimpleDateFormat("dd-MMM-yy HH:mm", Locale.US);
+		sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+		record.setLength(0);
+		fill(record, crinexVersion == 1 ? "1.0" : "3.0", 20);
+		fill(record, "COMPACT RINEX FORMAT", 40);
+		fill(record, "CRINEX VERS   / TYPE", 20);
+		writeLine(record);
+		record.setLength(0);
+		fill(record, "goGPS-java", 40);
+		fill(record, sdf.format(new Date()).toUpperCase(), 20);
+		fill(record, "CRINEX PROG / DATE", 20);
+		writeLine(record);
+	}
+
+	private void startEpoch(String line) throws IOException {
+		int flagCol = crinexVersion == 1 ? 28 : 31;
+		char flag = line.length() > flagCol ? line.charAt(flagCol) : ' ';
+		nSat = parseInt(line, flagCol + 1, flagCol + 4);
+
+		if (flag > '1' && flag < '6') {
+			// special event: the epoch line and its records are copied
+			writeLine(crinexVersion == 1 ? "&" + line.substring(1) : line);
+			previousEpoch = "";
+			initEpoch = true;
+			remaining = nSat;
+			state = remaining > 0 ? EVENT : EPOCH;
+			return;
+		}
+
+		epochText.setLength(0);
+		records.clear();
+		if (crinexVersion == 1) {
+			appendRange(epochText, line, 0, 32 + 3 * Math.min(12, nSat));
+			clockText = range(line, 68, 80);
+			remaining = nSat > 12 ? (nSat - 12 + 11) / 12 : 0;
+			if (remaining > 0)
+				state = SATELLITES;
+			else
+				startRecords();
+		} else {
+			appendRange(epochText, line, 0, 41);
+			clockText = range(line, 41, 56);
+			startRecords();
+		}
+	}
+
+	private void startRecords() throws IOException {
+		remaining = crinexVersion == 1 ? nSat * ((nTypes + 4) / 5) : nSat;
+		if (remaining > 0) {
+			state = RECORDS;
+		} else {
+			writeEpoch();
+			state = EPOCH;
+		}
+	}
+
+	private void writeEpoch() throws IOException {
+		if (crinexVersion == 3)
+			for (String r : records)
+				appendRange(epochText, r, 0, 3);
+
+		// epoch line
+		String text = epochText.toString();
+		if (initEpoch) {
+			writeLine(crinexVersion == 1 ? "&" + text.substring(1) : text);
+			initEpoch = false;
+		} else {
+			record.setLength(0);
+			difference(record, previousEpoch, text);
+			writeLine(record);
+		}
+		previousEpoch = text;
+
+		// clock offset
+		record.setLength(0);
+		if (clockText.length() > 0) {
+			long c = parseFixed(clockText, crinexVersion == 1 ? 9 : 12);
+			if (clockOrder < 0) {
+				clockOrder = 0;
+				clock[0] = c;
+				record.append(CLOCK_ARC_ORDER).append('&').append(c);
+			} else {
+				if (clockOrder < CLOCK_ARC_ORDER)
+					clockOrder++;
+				record.append(difference(clock, clockOrder, c));
+			}
+		} else {
+			clockOrder = -1;
+		}
+		writeLine(record);
+
+		// observations
+		HashMap<String, Satellite> tmp = previous;
+		previous = satellites;
+		satellites = tmp;
+		satellites.clear();
+
+		int linesPerSat = crinexVersion == 1 ? (nTypes + 4) / 5 : 1;
+		for (int i = 0; i < nSat; i++) {
+			String id = range(text, (crinexVersion == 1 ? 32 : 41) + 3 * i, (crinexVersion == 1 ? 35 : 44) + 3 * i);
+			if (id.length() == 3 && id.charAt(1) == ' ')
+				id = id.charAt(0) + "0" + id.charAt(2);
+			int n = crinexVersion == 1 ? nTypes : nTypesBySys[id.length() > 0 ? id.charAt(0) & 0x7f : 0];
+
+			Satellite sat = previous.get(id);
+			if (sat == null)
+				sat = new Satellite(n);
+			satellites.put(id, sat);
+
+			encodeObservations(sat, n, i * linesPerSat);
+		}
+	}
+
+	private void encodeObservations(Satellite sat, int n, int first) throws IOException {
+		StringBuilder sb = record;
+		sb.setLength(0);
+		StringBuilder flags = new StringBuilder(2 * n);
+		for (int t = 0; t < n; t++) {
+			String r;
+			int col;
+			if (crinexVersion == 1) {
+				r = records.get(first + t / 5);
+				col = 16 * (t % 5);
+			} else {
+				r = records.get(first);
+				col = 3 + 16 * t;
+			}
+			String value = range(r, col, col + 14);
+			if (value.length() == 0) {
+				sat.order[t] = -1;
+			} else {
+				long v = parseFixed(value, 3);
+				if (sat.order[t] < 0) {
+					sat.order[t] = 0;
+					sat.y[t][0] = v;
+					sb.append(ARC_ORDER).append('&').append(v);
+				} else {
+					if (sat.order[t] < ARC_ORDER)
+						sat.order[t]++;
+					sb.append(difference(sat.y[t], sat.order[t], v));
+				}
+			}
+			sb.append(' ');
+			flags.append(col + 14 < r.length() ? r.charAt(col + 14) : ' ');
+			flags.append(col + 15 < r.length() ? r.charAt(col + 15) : ' ');
+		}
+		String f = flags.toString();
+		difference(sb, sat.flags, f);
+		sat.flags = f;
+		int l = sb.length();
+		while (l > 0 && sb.charAt(l - 1) == ' ')
+			l--;
+		sb.setLength(l);
+		writeLine(sb);
+	}
+
+	/**
+	 * Differences of order up to the given one of the new value v, updates y
+	 * and returns the difference of that order, as integrated back by the
+	 * decoder.
+	 */
+	private long difference(long[] y, int order, long v) {
+		e[0] = v;
+		for (int k = 1; k <= order; k++)
+			e[k] = e[k - 1] - y[k - 1];
+		for (int k = 0; k <= order; k++)
+			y[k] = e[k];
+		return e[order];
+	}
+
+	/**
+	 * Appends the character difference of s from old: blank where unchanged,
+	 * '&amp;' where a character became blank, trailing blanks removed.
+	 */
+	private static void difference(StringBuilder sb, String old, String s) {
+		int start = sb.length();
+		int n = Math.max(old.length(), s.length());
+		for (int i = 0; i < n; i++) {
+			char c = i < s.length() ? s.charAt(i) : ' ';
+			if (i >= old.length()) {
+				sb.append(c);
+			} else {
+				char o = old.charAt(i);
+				if (c == o)
+					sb.append(' ');
+				else
+					sb.append(c == ' ' ? '&' : c);
+			}
+		}
+		int l = sb.length();
+		while (l > start && sb.charAt(l - 1) == ' ')
+			l--;
+		sb.setLength(l);
+	}
+
+	/**
+	 * Parses a fixed point number as an integer number of 10^-decimals units
+	 */
+	private static long parseFixed(String s, int decimals) throws IOException {
+		boolean negative = s.charAt(0) == '-';
+		int i = negative || s.charAt(0) == '+' ? 1 : 0;
+		long v = 0;
+		int d = -1;
+		int digits = 0;
+		for (; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				v = v * 10 + (c - '0');
+				digits++;
+				if (d >= 0 && ++d > decimals)
+					throw new IOException("Too many decimals: " + s);
+			} else if (c == '.' && d < 0) {
+				d = 0;
+			} else {
+				throw new IOException("Invalid number: " + s);
+			}
+		}
+		if (digits == 0)
+			throw new IOException("Invalid number: " + s);
+		for (int k = Math.max(d, 0); k < decimals; k++)
+			v *= 10;
+		return negative ? -v : v;
+	}
+
+	private static int parseInt(String s, int from, int to) {
+		String n = range(s, from, to);
+		return n.length() > 0 ? Integer.parseInt(n) : 0;
+	}
+
+	/**
+	 * @return the trimmed characters of s in [from, to), empty if beyond s
+	 */
+	private static String range(String s, int from, int to) {
+		if (from >= s.length())
+			return "";
+		return s.substring(from, Math.min(to, s.length())).trim();
+	}
+
+	private static void appendRange(StringBuilder sb, String s, int from, int to) {
+		for (int i = from; i < to; i++)
+			sb.append(i < s.length() ? s.charAt(i) : ' ');
+	}
+
+	private static void fill(StringBuilder sb, String s, int width) {
+		sb.append(s);
+		for (int i = s.length(); i < width; i++)
+			sb.append(' ');
+	}
+
+	private void writeLine(CharSequence s) throws IOException {
+		int n = s.length();
+		if (outLen + n + 1 > outBuf.length) {
+			out.write(outBuf, 0, outLen);
+			outLen = 0;
+		}
+		if (n + 1 > outBuf.length) {
+			byte[] b = new byte[n + 1];
+			for (int i = 0; i < n; i++)
+				b[i] = (byte) s.charAt(i);
+			b[n] = '\n';
+			out.write(b);
+			return;
+		}
+		for (int i = 0; i < n; i++)
+			outBuf[outLen++] = (byte) s.charAt(i);
+		outBuf[outLen++] = '\n';
+	}
+}
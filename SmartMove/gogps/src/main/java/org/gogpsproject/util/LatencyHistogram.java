@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.util;
+
+/**
+ * <p>
+ * Latency distribution in buckets of powers of two nanoseconds, written by a
+ * single thread. Percentiles are the upper bound of the bucket, so within a
+ * factor of two of the true value.
+ * </p>
+ */
+public class LatencyHistogram {
+
+	private final long[] buckets = new long[64];
+	private long sum;
+	private long max;
+	private volatile long count;
+
+	/**
+	 * @param nanos
+	 *            latency of one event
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets[64 - Long.numberOfLeadingZeros(nanos)]++;
+		sum += nanos;
+		if (nanos > max)
+			max = nanos;
+		count++;
+	}
+
+	public void reset() {
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = 0;
+		sum = 0;
+		max = 0;
+		count = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return mean latency (ns)
+	 */
+	public double getMean() {
+		long n = count;
+		return n == 0 ? 0 : (double) sum / n;
+	}
+
+	/**
+	 * @return max latency (ns)
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return latency (ns) not exceeded by this percentage of the events
+	 */
+	public long getPercentile(double percentile) {
+		long n = count;
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(n * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank && seen > 0)
+				return Math.min(i == 0 ? 0 : (1L << i) - 1, max);
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1fus p50<=%.1fus p99<=%.1fus max=%.1fus",
+				getCount(), getMean() / 1e3, getPercentile(50) / 1e3, getPercentile(99) / 1e3, getMax() / 1e3);
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2010 Eugenio Realini, Mirko Reguzzoni, Cryms sagl - Switzerland. All Rights Reserved.
+ *
+ * This file is part of goGPS Project (goGPS).
+ *
+ * goGPS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * goGPS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with goGPS.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.gogpsproject.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Bounded queue between two pipeline stages, one producer thread and one
+ * consumer thread. Items are exchanged through a ring without locks; a
+ * thread only parks when the ring is full (backpressure on the producer) or
+ * empty, and is unparked by the other side.
+ * </p>
+ */
+public class StageQueue<T> {
+
+	private final AtomicReferenceArray<T> ring;
+	private final int mask;
+
+	/** next slot to take, written by the consumer */
+	private final AtomicLong head = new AtomicLong();
+	/** next slot to put, written by the producer */
+	private final AtomicLong tail = new AtomicLong();
+
+	private volatile boolean closed = false;
+	private volatile Thread parkedProducer;
+	private volatile Thread parkedConsumer;
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of two
+	 */
+	public StageQueue(int capacity) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		ring = new AtomicReferenceArray<T>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * @return false if the queue is full
+	 */
+	public boolean offer(T item) {
+		long t = tail.get();
+		if (t - head.get() > mask)
+			return false;
+		ring.lazySet((int) t & mask, item);
+		tail.set(t + 1);
+		Thread consumer = parkedConsumer;
+		if (consumer != null)
+			LockSupport.unpark(consumer);
+		return true;
+	}
+
+	/**
+	 * Waits while the queue is full.
+	 */
+	public void put(T item) throws InterruptedException {
+		while (!offer(item)) {
+			parkedProducer = Thread.currentThread();
+			// the consumer may have taken an item before seeing the parked thread
+			if (tail.get() - head.get() > mask)
+				LockSupport.park(this);
+			parkedProducer = null;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * @return the oldest item, null if the queue is empty
+	 */
+	public T poll() {
+		long h = head.get();
+		if (h == tail.get())
+			return null;
+		int slot = (int) h & mask;
+		T item = ring.get(slot);
+		ring.lazySet(slot, null);
+		head.set(h + 1);
+		Thread producer = parkedProducer;
+		if (producer != null)
+			LockSupport.unpark(producer);
+		return item;
+	}
+
+	/**
+	 * Waits while the queue is empty and open.
+	 *
+	 * @return the oldest item, null once the queue is closed and empty
+	 */
+	public T take() throws InterruptedException {
+		T item;
+		while ((item = poll()) == null) {
+			if (closed && head.get() == tail.get())
+				return null;
+			parkedConsumer = Thread.currentThread();
+			if (head.get() == tail.get() && !closed)
+				LockSupport.park(this);
+			parkedConsumer = null;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+		return item;
+	}
+
+	/**
+	 * No more items will be put, take returns null once the queue is empty.
+	 */
+	public void close() {
+		closed = true;
+		Thread consumer = parkedConsumer;
+		if (consumer != null)
+			LockSupport.unpark(consumer);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+}
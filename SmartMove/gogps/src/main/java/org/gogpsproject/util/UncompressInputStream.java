@@ -44,6 +44,10 @@ import java.io.FilterInputStream;
  * unix "compress" utility (LZC, a LZW variant). This code is based heavily on
  * the <var>unlzw.c</var> code in <var>gzip-1.2.4</var> (written by Peter
  * Jannesen) and the original compress code.
+ * <p>
+ * Data is decoded a block at a time into the caller's buffer, or into an
+ * internal block for small reads and {@link #read()}. A stream has a single
+ * reader, so no method is synchronized.
  *
  * @version 0.3-3 06/05/2001
  * @author Ronald Tschal�r
@@ -60,14 +64,52 @@ public class UncompressInputStream extends FilterInputStream {
     parse_header();
   }
 
-  byte[] one = new byte[1];
+  private static final int BLOCK_SIZE = 65536;
 
-  public synchronized int read() throws IOException {
-    int b = in.read(one, 0, 1);
-    if (b == 1)
-      return (one[0] & 0xff);
-    else
-      return -1;
+  // decoded data not yet returned to the caller
+  private final byte[] block = new byte[BLOCK_SIZE];
+  private int blockPos = 0, blockLen = 0;
+
+  public int read() throws IOException {
+    while (blockPos >= blockLen) {
+      if (!fillBlock())
+        return -1;
+    }
+    return block[blockPos++] & 0xff;
+  }
+
+  public int read(byte[] buf, int off, int len) throws IOException {
+    if (len <= 0)
+      return 0;
+
+    int n = 0;
+    while (n == 0) {
+      if (blockPos < blockLen) {
+        n = Math.min(len, blockLen - blockPos);
+        System.arraycopy(block, blockPos, buf, off, n);
+        blockPos += n;
+      } else if (len >= BLOCK_SIZE) {
+        // large reads are decoded straight into the caller's buffer
+        n = decode(buf, off, len);
+        if (n < 0)
+          return -1;
+      } else if (!fillBlock()) {
+        return -1;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Decodes the next block.
+   *
+   * @return false at the end of the stream
+   */
+  private boolean fillBlock() throws IOException {
+    int got = decode(block, 0, BLOCK_SIZE);
+    blockPos = 0;
+    blockLen = got > 0 ? got : 0;
+    return got >= 0;
   }
 
   // string table stuff
@@ -76,6 +118,7 @@ public class UncompressInputStream extends FilterInputStream {
 
   private int[] tab_prefix;
   private byte[] tab_suffix;
+  private int[] tab_len;
   private int[] zeros = new int[256];
   private byte[] stack;
 
@@ -92,12 +135,18 @@ public class UncompressInputStream extends FilterInputStream {
   private int free_ent;
 
   // input buffer
-  private byte[] data = new byte[10000];
+  private byte[] data = new byte[BLOCK_SIZE];
   private int bit_pos = 0, end = 0, got = 0;
   private boolean eof = false;
   private static final int EXTRA = 64;
 
-  public synchronized int read(byte[] buf, int off, int len) throws IOException {
+  /**
+   * Decodes up to len bytes, len is at least 2 (a first code followed by
+   * another one must fit).
+   *
+   * @return the number of decoded bytes, -1 at the end of the stream
+   */
+  private int decode(byte[] buf, int off, int len) throws IOException {
     if (eof)
       return -1;
     int start = off;
@@ -108,6 +157,7 @@ public class UncompressInputStream extends FilterInputStream {
      */
     int[] l_tab_prefix = tab_prefix;
     byte[] l_tab_suffix = tab_suffix;
+    int[] l_tab_len = tab_len;
     byte[] l_stack = stack;
     int l_n_bits = n_bits;
     int l_maxcode = maxcode;
@@ -201,42 +251,62 @@ public class UncompressInputStream extends FilterInputStream {
         // setup
 
         int incode = code;
-        l_stackp = l_stack.length;
 
         // Handle KwK case
 
-        if (code >= l_free_ent) {
-          if (code > l_free_ent)
-            throw new IOException("corrupt input: code=" + code + ", free_ent=" + l_free_ent);
-
-          l_stack[--l_stackp] = l_finchar;
-          code = l_oldcode;
-        }
+        boolean kwk = code >= l_free_ent;
+        if (kwk && code > l_free_ent)
+          throw new IOException("corrupt input: code=" + code + ", free_ent=" + l_free_ent);
+        int s_len = kwk ? l_tab_len[l_oldcode] + 1 : l_tab_len[code];
+
+        if (s_len <= len) {
+          // Generate output characters in reverse order, in place
+
+          int p = off + s_len - 1;
+          if (kwk) {
+            buf[p--] = l_finchar;
+            code = l_oldcode;
+          }
+          while (code >= 256) {
+            buf[p--] = l_tab_suffix[code];
+            code = l_tab_prefix[code];
+          }
+          l_finchar = l_tab_suffix[code];
+          buf[p] = l_finchar;
+          off += s_len;
+          len -= s_len;
+        } else {
+          // Generate output characters in reverse order on the stack
+
+          l_stackp = l_stack.length;
+          if (kwk) {
+            l_stack[--l_stackp] = l_finchar;
+            code = l_oldcode;
+          }
+          while (code >= 256) {
+            l_stack[--l_stackp] = l_tab_suffix[code];
+            code = l_tab_prefix[code];
+          }
+          l_finchar = l_tab_suffix[code];
+          buf[off++] = l_finchar;
+          len--;
 
-        // Generate output characters in reverse order
+          // And put them out in forward order
 
-        while (code >= 256) {
-          l_stack[--l_stackp] = l_tab_suffix[code];
-          code = l_tab_prefix[code];
+          s_size = l_stack.length - l_stackp;
+          int num = (s_size >= len) ? len : s_size;
+          System.arraycopy(l_stack, l_stackp, buf, off, num);
+          off += num;
+          len -= num;
+          l_stackp += num;
         }
-        l_finchar = l_tab_suffix[code];
-        buf[off++] = l_finchar;
-        len--;
-
-        // And put them out in forward order
-
-        s_size = l_stack.length - l_stackp;
-        int num = (s_size >= len) ? len : s_size;
-        System.arraycopy(l_stack, l_stackp, buf, off, num);
-        off += num;
-        len -= num;
-        l_stackp += num;
 
         // generate new entry in table
 
         if (l_free_ent < l_maxmaxcode) {
           l_tab_prefix[l_free_ent] = l_oldcode;
           l_tab_suffix[l_free_ent] = l_finchar;
+          l_tab_len[l_free_ent] = l_tab_len[l_oldcode] + 1;
           l_free_ent++;
         }
 
@@ -293,21 +363,36 @@ public class UncompressInputStream extends FilterInputStream {
       end += got;
   }
 
-  public synchronized long skip(long num) throws IOException {
-    byte[] tmp = new byte[(int) num];
-    int got = read(tmp, 0, (int) num);
-
-    if (got > 0)
-      return (long) got;
-    else
-      return 0L;
+  public long skip(long num) throws IOException {
+    long skipped = 0;
+    while (skipped < num) {
+      if (blockPos >= blockLen && !fillBlock())
+        break;
+      int n = (int) Math.min(num - skipped, blockLen - blockPos);
+      blockPos += n;
+      skipped += n;
+    }
+    return skipped;
   }
 
-  public synchronized int available() throws IOException {
+  /**
+   * Decoded bytes not read yet, never decodes nor reads the compressed stream.
+   * Once they are read, 1 while compressed input is at hand, so that readers
+   * looping on <code>ready()</code> also get the data decoded from the last
+   * compressed bytes, as <code>InflaterInputStream</code> does.
+   */
+  public int available() throws IOException {
+    if (blockPos < blockLen)
+      return blockLen - blockPos;
     if (eof)
       return 0;
+    if (stackp < stack.length || bit_pos + n_bits <= end << 3 || in.available() > 0)
+      return 1;
+    return 0;
+  }
 
-    return in.available();
+  public boolean markSupported() {
+    return false;
   }
 
   private static final int LZW_MAGIC = 0x1f9d;
@@ -367,11 +452,14 @@ public class UncompressInputStream extends FilterInputStream {
 
     tab_prefix = new int[1 << maxbits];
     tab_suffix = new byte[1 << maxbits];
+    tab_len = new int[1 << maxbits];
     stack = new byte[1 << maxbits];
     stackp = stack.length;
 
-    for (int idx = 255; idx >= 0; idx--)
+    for (int idx = 255; idx >= 0; idx--) {
       tab_suffix[idx] = (byte) idx;
+      tab_len[idx] = 1;
+    }
   }
 
   private static final boolean debug = false;
@@ -0,0 +1,157 @@
+package org.gogpsproject.producer;
+
+import org.gogpsproject.ephemeris.EphGps;
+import org.gogpsproject.ephemeris.GNSSEphemeris;
+import org.gogpsproject.ephemeris.GNSSEphemerisCorrections;
+import org.gogpsproject.ephemeris.SatelliteCodeBiases;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.parser.IonoGps;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Release of the delivery thread: explicitly, with the producer waiting for
+ * room, and after the stream closure.
+ */
+public class AsyncStreamEventListenerTest {
+
+    @Test
+    public void release_unblocksProducerWaitingForRoom() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        CountingListener listener = new CountingListener() {
+            @Override
+            public void addObservations(Observations o) {
+                super.addObservations(o);
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    // released
+                }
+            }
+        };
+        final AsyncStreamEventListener async = new AsyncStreamEventListener(listener, 1,
+                AsyncStreamEventListener.OVERFLOW_BLOCK);
+
+        // the first event is being delivered, the second fills the queue, the third waits
+        final CountDownLatch produced = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++)
+                    async.addObservations(new Observations(new Time(i * 1000L), 0));
+                produced.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(produced.await(200, TimeUnit.MILLISECONDS));
+
+        async.release();
+        assertTrue("producer still blocked", produced.await(5, TimeUnit.SECONDS));
+        assertTrue(async.isReleased());
+        assertEquals(0, async.getLag());
+
+        // nothing is queued any more
+        async.addObservations(new Observations(new Time(0), 0));
+        async.streamClosed();
+        assertEquals(0, async.getLag());
+        gate.countDown();
+        assertEquals(1, listener.observations.get());
+        assertEquals(0, listener.closed.get());
+    }
+
+    @Test
+    public void streamClosed_releasesAfterDelivery() throws Exception {
+        CountingListener listener = new CountingListener();
+        AsyncStreamEventListener async = new AsyncStreamEventListener(listener, 4,
+                AsyncStreamEventListener.OVERFLOW_BLOCK);
+
+        async.addObservations(new Observations(new Time(0), 0));
+        async.streamClosed();
+        long end = System.currentTimeMillis() + 5000;
+        while (!async.isReleased()) {
+            assertTrue("not released", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        assertEquals(1, listener.observations.get());
+        assertEquals(1, listener.closed.get());
+
+        async.addObservations(new Observations(new Time(1000), 0));
+        assertEquals(0, async.getLag());
+        for (Thread t : threads()) {
+            assertFalse(t.getName(), t.getName().equals("AsyncStreamEventListener " + listener.getClass().getName()));
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /** live threads, once the delivery thread had time to end */
+    private static Thread[] threads() throws InterruptedException {
+        Thread.sleep(100);
+        Thread[] threads = new Thread[Thread.activeCount() + 8];
+        int n = Thread.enumerate(threads);
+        Thread[] live = new Thread[n];
+        System.arraycopy(threads, 0, live, 0, n);
+        return live;
+    }
+
+    /**
+     * Counts the observations and closures delivered.
+     */
+    private static class CountingListener implements StreamEventListener {
+        final AtomicInteger observations = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+
+        @Override
+        public void streamClosed() {
+            closed.incrementAndGet();
+        }
+
+        @Override
+        public void addObservations(Observations o) {
+            observations.incrementAndGet();
+        }
+
+        @Override
+        public void addIonospheric(IonoGps iono) {
+        }
+
+        @Override
+        public void addEphemeris(EphGps eph) {
+        }
+
+        @Override
+        public void addEphemeris(GNSSEphemeris eph) {
+        }
+
+        @Override
+        public void addEphemerisCorr(GNSSEphemerisCorrections ephCorr) {
+        }
+
+        @Override
+        public void addSatelliteCodeBiases(SatelliteCodeBiases _scb) {
+        }
+
+        @Override
+        public void setDefinedPosition(Coordinates definedPosition) {
+        }
+
+        @Override
+        public Observations getCurrentObservations() {
+            return null;
+        }
+
+        @Override
+        public void pointToNextObservations() {
+        }
+
+        @Override
+        public void onStreamReceived(String msg) {
+        }
+    }
+}
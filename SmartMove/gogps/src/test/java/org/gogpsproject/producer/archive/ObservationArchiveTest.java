@@ -0,0 +1,264 @@
+package org.gogpsproject.producer.archive;
+
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Archives written in blocks of 10 epochs, one epoch a second: round-trip
+ * of both encodings, time range queries across blocks, and an archive whose
+ * last block was cut off by a crash.
+ */
+public class ObservationArchiveTest {
+
+    /** 2020/06/01 10:00 UTC */
+    private static final long T0 = 1591005600000L;
+    private static final int BLOCK_EPOCHS = 10;
+    private static final int SATELLITES = 5;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("archive", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void writeThenRead_doubleEncodingIsExact() throws Exception {
+        File file = write("double.obs", ObservationArchiveWriter.ENCODING_DOUBLE, 0, 25);
+
+        ObservationArchiveReader reader = open(file);
+        try {
+            assertTrue(reader.isComplete());
+            assertEquals(25, reader.getEpochCount());
+            for (int e = 0; e < 25; e++)
+                assertEpoch(e, reader.getNextObservations(), 0);
+            assertNull(reader.getNextObservations());
+
+            Coordinates p = reader.getDefinedPosition();
+            assertEquals(4201575.8487, p.getX(), 0);
+            assertEquals(-189856.2349, p.getY(), 0);
+            assertEquals(4779066.0126, p.getZ(), 0);
+        } finally {
+            reader.release(false, 0);
+        }
+    }
+
+    @Test
+    public void writeThenRead_compactEncodingToTheThousandth() throws Exception {
+        File file = write("compact.obs", ObservationArchiveWriter.ENCODING_COMPACT, 0, 25);
+
+        ObservationArchiveReader reader = open(file);
+        try {
+            assertEquals(25, reader.getEpochCount());
+            for (int e = 0; e < 25; e++)
+                assertEpoch(e, reader.getNextObservations(), 0.0005);
+            assertNull(reader.getNextObservations());
+        } finally {
+            reader.release(false, 0);
+        }
+    }
+
+    @Test
+    public void timeRange_acrossBlockBoundaries() throws Exception {
+        File file = write("range.obs", ObservationArchiveWriter.ENCODING_DOUBLE, 0, 45);
+
+        ObservationArchiveReader reader = open(file);
+        try {
+            // from the middle of the first block to the start of the fourth one
+            List<Observations> range = reader.getObservations(new Time(T0 + 7000), new Time(T0 + 30000));
+            assertEquals(24, range.size());
+            for (int i = 0; i < range.size(); i++)
+                assertEpoch(7 + i, range.get(i), 0);
+
+            // exactly one block, bounds included
+            range = reader.getObservations(new Time(T0 + 10000), new Time(T0 + 19000));
+            assertEquals(10, range.size());
+            assertEpoch(10, range.get(0), 0);
+            assertEpoch(19, range.get(9), 0);
+
+            assertTrue(reader.getObservations(new Time(T0 + 45000), new Time(T0 + 60000)).isEmpty());
+
+            // the range query does not move the current epoch
+            assertTrue(reader.seek(new Time(T0 + 19500)));
+            assertEpoch(20, reader.getNextObservations(), 0);
+            assertEpoch(21, reader.getNextObservations(), 0);
+            assertEquals(3, reader.getObservations(new Time(T0), new Time(T0 + 2000)).size());
+            assertEpoch(22, reader.getNextObservations(), 0);
+
+            assertFalse(reader.seek(new Time(T0 + 45000)));
+            assertNull(reader.getNextObservations());
+        } finally {
+            reader.release(false, 0);
+        }
+    }
+
+    @Test
+    public void truncatedLastBlock_readUpToItThenAppended() throws Exception {
+        File file = new File(dir, "crash.obs");
+        File cut = new File(dir, "cut.obs");
+        ObservationArchiveWriter writer = new ObservationArchiveWriter(file.getAbsolutePath());
+        writer.setBlockEpochs(BLOCK_EPOCHS);
+        for (int e = 0; e < 25; e++)
+            writer.write(epoch(e));
+        writer.flush();
+        assertEquals(3, writer.getBlockCount());
+        // the process died while the third block was written, before the index
+        copy(file, cut, file.length() - 7);
+        writer.close();
+
+        ObservationArchiveReader reader = open(cut);
+        try {
+            assertFalse(reader.isComplete());
+            assertEquals(20, reader.getEpochCount());
+            for (int e = 0; e < 20; e++)
+                assertEpoch(e, reader.getNextObservations(), 0);
+            assertNull(reader.getNextObservations());
+        } finally {
+            reader.release(false, 0);
+        }
+
+        // reopened, the cut block is dropped and the archive goes on after the last complete one
+        writer = new ObservationArchiveWriter(cut.getAbsolutePath());
+        writer.setBlockEpochs(BLOCK_EPOCHS);
+        assertEquals(2, writer.getBlockCount());
+        for (int e = 20; e < 30; e++)
+            writer.write(epoch(e));
+        writer.close();
+
+        reader = open(cut);
+        try {
+            assertTrue(reader.isComplete());
+            assertEquals(30, reader.getEpochCount());
+            for (int e = 0; e < 30; e++)
+                assertEpoch(e, reader.getNextObservations(), 0);
+            assertNull(reader.getNextObservations());
+        } finally {
+            reader.release(false, 0);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the epochs from first to end, excluded, and a position, then closes the archive.
+     */
+    private File write(String name, int encoding, int first, int end) throws IOException {
+        File file = new File(dir, name);
+        ObservationArchiveWriter writer = new ObservationArchiveWriter(file.getAbsolutePath(), encoding);
+        writer.setBlockEpochs(BLOCK_EPOCHS);
+        writer.write(Coordinates.globalXYZInstance(4201575.8487, -189856.2349, 4779066.0126));
+        for (int e = first; e < end; e++)
+            writer.write(epoch(e));
+        writer.close();
+        assertEquals((end - first + BLOCK_EPOCHS - 1) / BLOCK_EPOCHS + 1, writer.getBlockCount());
+        return file;
+    }
+
+    private static ObservationArchiveReader open(File file) throws Exception {
+        ObservationArchiveReader reader = new ObservationArchiveReader(file);
+        reader.init();
+        return reader;
+    }
+
+    /**
+     * @return epoch e, its values depend on the epoch and satellite, some are missing
+     */
+    private static Observations epoch(int e) {
+        Observations o = new Observations(new Time(T0 + e * 1000L), 0);
+        for (int i = 0; i < SATELLITES; i++) {
+            ObservationSet os = new ObservationSet();
+            os.setSatType(i == 4 ? 'R' : 'G');
+            os.setSatID(3 * i + 1);
+            os.setFreqNum(i == 4 ? -7 : 0);
+            os.setCodeC(0, code(e, i));
+            os.setPhaseCycles(0, phase(e, i));
+            os.setSignalStrength(0, 40 + i + e % 3);
+            os.setDoppler(0, -1234.5f + 10 * i + e);
+            os.setLossLockInd(0, e % 7 == 0 ? 1 : 0);
+            os.setSignalStrengthInd(0, 6 + i % 3);
+            if ((e + i) % 4 != 0) {
+                os.setCodeP(1, code(e, i) + 1.234);
+                os.setPhaseCycles(1, phase(e, i) * 60 / 77);
+            }
+            o.setGps(i, os);
+        }
+        return o;
+    }
+
+    private static double code(int e, int i) {
+        return 20000000.0 + 1000000.0 * i + 123.4567891 * e + 0.001 * (e * e % 17);
+    }
+
+    private static double phase(int e, int i) {
+        return 105000000.0 + 5000000.0 * i + 648.9876543 * e;
+    }
+
+    private static void assertEpoch(int e, Observations o, double delta) {
+        Observations expected = epoch(e);
+        assertNotNull("epoch " + e, o);
+        assertEquals(expected.getRefTime().getMsec(), o.getRefTime().getMsec());
+        assertEquals(expected.getEventFlag(), o.getEventFlag());
+        assertEquals(SATELLITES, o.getNumSat());
+        for (int i = 0; i < SATELLITES; i++) {
+            ObservationSet x = expected.getSatByIdx(i);
+            ObservationSet a = o.getSatByIdx(i);
+            assertEquals(x.getSatType(), a.getSatType());
+            assertEquals(x.getSatID(), a.getSatID());
+            assertEquals(x.getFreqNum(0), a.getFreqNum(0));
+            for (int b = 0; b < 2; b++) {
+                assertEquals(x.getCodeC(b), a.getCodeC(b), delta);
+                assertEquals(x.getCodeP(b), a.getCodeP(b), delta);
+                assertEquals(x.getPhaseCycles(b), a.getPhaseCycles(b), delta);
+                assertEquals(x.getSignalStrength(b), a.getSignalStrength(b), 0);
+                assertEquals(x.getDoppler(b), a.getDoppler(b), 0);
+                assertEquals(x.getLossLockInd(b), a.getLossLockInd(b));
+                assertEquals(x.getSignalStrengthInd(b), a.getSignalStrengthInd(b));
+                assertEquals(x.getQualityInd(b), a.getQualityInd(b));
+            }
+        }
+    }
+
+    /** Copies the first length bytes of a file */
+    private static void copy(File from, File to, long length) throws IOException {
+        InputStream is = new FileInputStream(from);
+        OutputStream os = new FileOutputStream(to);
+        try {
+            byte[] buf = new byte[8192];
+            while (length > 0) {
+                int n = is.read(buf, 0, (int) Math.min(buf.length, length));
+                if (n < 0) break;
+                os.write(buf, 0, n);
+                length -= n;
+            }
+        } finally {
+            os.close();
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.gogpsproject.producer.parser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pool, shared retrievals, negative cache and prefetch of the product manager,
+ * served from local files through a file:// template.
+ */
+public class NavigationProductManagerTest {
+
+    /** 2020/06/01 10:40 UTC */
+    private static final long T0 = 1591008000000L + (10 * 60 + 40) * 60 * 1000L;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private File dir;
+    private NavigationProductManager<String> manager;
+
+    private final AtomicInteger parses = new AtomicInteger();
+    private final AtomicInteger reads = new AtomicInteger();
+    /** when set, parse() waits for it */
+    private volatile CountDownLatch parseGate;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("products", "");
+        dir.delete();
+        dir.mkdirs();
+
+        String template = "file://" + dir.getAbsolutePath() + "/server/nav${yyyy}${ddd}${hh}.txt";
+        manager = new NavigationProductManager<String>(template,
+                new File(dir, "cache").getAbsolutePath(),
+                new NavigationProductManager.ProductLoader<String>() {
+                    @Override
+                    public String read(File file) throws IOException {
+                        reads.incrementAndGet();
+                        return readLine(new FileReader(file));
+                    }
+
+                    @Override
+                    public String parse(InputStream is, File cache) throws IOException {
+                        CountDownLatch gate = parseGate;
+                        if (gate != null) {
+                            try {
+                                gate.await();
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                        parses.incrementAndGet();
+                        String product = readLine(new InputStreamReader(is, "US-ASCII"));
+                        write(cache, product);
+                        return product;
+                    }
+
+                    @Override
+                    public String download(String url, File cache) throws IOException {
+                        throw new IOException("no net in tests: " + url);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        manager.release();
+        delete(dir);
+    }
+
+    @Test
+    public void poolEviction_leastRecentlyUsedReloadedFromDiskCache() throws IOException {
+        manager.setPoolSize(2);
+        manager.setPrefetchLead(0);
+        for (int h = 0; h < 3; h++) publish(T0 + h * HOUR);
+
+        assertEquals("product 0", manager.get(T0));
+        assertEquals("product 1", manager.get(T0 + HOUR));
+        assertEquals("product 0", manager.get(T0));
+        assertEquals("product 2", manager.get(T0 + 2 * HOUR));
+
+        assertTrue(manager.contains(manager.resolve(T0)));
+        assertFalse(manager.contains(manager.resolve(T0 + HOUR)));
+        assertTrue(manager.contains(manager.resolve(T0 + 2 * HOUR)));
+        assertEquals(3, parses.get());
+
+        assertEquals("product 1", manager.get(T0 + HOUR));
+        assertEquals(3, parses.get());
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void sharedRetrieval_concurrentRequestsParseOnce() throws Exception {
+        manager.setPrefetchLead(0);
+        publish(T0);
+        final String url = manager.resolve(T0);
+
+        parseGate = new CountDownLatch(1);
+        manager.prefetch(url);
+
+        final List<String> results = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String product = manager.get(url);
+                        synchronized (results) {
+                            results.add(product);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        Thread.sleep(100);
+        assertTrue(manager.isInProgress(url));
+        parseGate.countDown();
+        for (Thread t : threads) t.join(5000);
+
+        assertEquals(4, results.size());
+        for (String product : results) assertSame(results.get(0), product);
+        assertEquals(1, parses.get());
+        awaitRetrieval(url);
+        assertTrue(manager.contains(url));
+    }
+
+    @Test
+    public void negativeCache_expiresAfterTtl() throws Exception {
+        manager.setPrefetchLead(0);
+        manager.setNegativeTtl(200);
+        String url = manager.resolve(T0);
+
+        try {
+            manager.get(url);
+            fail("product not published yet");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+
+        publish(T0);
+        try {
+            manager.get(url);
+            fail("missing product should be cached");
+        } catch (FileNotFoundException e) {
+            assertEquals("cached answer", e.getMessage());
+        }
+        assertEquals(0, parses.get());
+
+        Thread.sleep(300);
+        assertEquals("product 0", manager.get(url));
+        assertEquals(1, parses.get());
+    }
+
+    @Test
+    public void prefetch_notFoundIsRetriedWithoutPoisoningGet() throws Exception {
+        // a lead of one hour always reaches the next hourly product
+        manager.setPrefetchLead(HOUR);
+        manager.setPrefetchRetryDelay(0);
+        publish(T0);
+        String next = manager.resolve(T0 + HOUR);
+
+        // ahead of the boundary the next product is not published yet
+        assertEquals("product 0", manager.get(T0));
+        awaitRetrieval(next);
+        assertFalse(manager.contains(next));
+
+        // it is published later, the prefetch finds it on its next attempt
+        publish(T0 + HOUR);
+        assertEquals("product 0", manager.get(T0));
+        awaitRetrieval(next);
+        assertTrue(manager.contains(next));
+        assertEquals("product 1", manager.get(T0 + HOUR));
+        assertEquals(2, parses.get());
+    }
+
+    @Test
+    public void prefetch_notFoundDoesNotFailGetAtBoundary() throws Exception {
+        manager.setPrefetchLead(HOUR);
+        publish(T0);
+        String next = manager.resolve(T0 + HOUR);
+
+        assertEquals("product 0", manager.get(T0));
+        awaitRetrieval(next);
+        assertFalse(manager.contains(next));
+
+        // published at the boundary, well within the negative TTL of the failed prefetch
+        publish(T0 + HOUR);
+        assertEquals("product 1", manager.get(T0 + HOUR));
+    }
+
+    @Test
+    public void release_getStillWorksWithoutPrefetch() throws Exception {
+        manager.setPrefetchLead(HOUR);
+        publish(T0);
+        publish(T0 + HOUR);
+        String next = manager.resolve(T0 + HOUR);
+
+        manager.release();
+        assertEquals("product 0", manager.get(T0));
+        manager.prefetch(next);
+        assertFalse(manager.isInProgress(next));
+        assertFalse(manager.contains(next));
+        assertEquals(1, parses.get());
+
+        assertEquals("product 1", manager.get(T0 + HOUR));
+        assertEquals(2, parses.get());
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private void awaitRetrieval(String url) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (manager.isInProgress(url)) {
+            assertTrue("retrieval of " + url + " did not complete", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    /** Writes the product covering unixTime on the file server */
+    private void publish(long unixTime) throws IOException {
+        String url = manager.resolve(unixTime);
+        File file = new File(url.substring("file://".length()));
+        file.getParentFile().mkdirs();
+        write(file, "product " + (unixTime - T0) / HOUR);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+        try {
+            w.write(content);
+            w.write('\n');
+        } finally {
+            w.close();
+        }
+    }
+
+    private static String readLine(java.io.Reader reader) throws IOException {
+        BufferedReader br = new BufferedReader(reader);
+        try {
+            return br.readLine();
+        } finally {
+            br.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,38 @@
+package org.gogpsproject.producer.parser.rtcm3;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Extended lock time indicator (DF407) at the boundaries of its segments.
+ */
+public class DecodeMSMMsgTest {
+    @Test
+    public void extendedLockTime_segmentBoundaries() {
+        assertEquals(0, DecodeMSMMsg.extendedLockTime(0));
+        assertEquals(63, DecodeMSMMsg.extendedLockTime(63));
+        assertEquals(64, DecodeMSMMsg.extendedLockTime(64));
+        assertEquals(126, DecodeMSMMsg.extendedLockTime(95));
+        assertEquals(16384, DecodeMSMMsg.extendedLockTime(320));
+        assertEquals(32256, DecodeMSMMsg.extendedLockTime(351));
+        assertEquals(32768, DecodeMSMMsg.extendedLockTime(352));
+        assertEquals(65536, DecodeMSMMsg.extendedLockTime(384));
+        assertEquals(129024, DecodeMSMMsg.extendedLockTime(415));
+        assertEquals(131072, DecodeMSMMsg.extendedLockTime(416));
+        assertEquals(33554432, DecodeMSMMsg.extendedLockTime(672));
+        assertEquals(66060288, DecodeMSMMsg.extendedLockTime(703));
+        assertEquals(67108864, DecodeMSMMsg.extendedLockTime(704));
+        assertEquals(67108864, DecodeMSMMsg.extendedLockTime(1023));
+    }
+
+    @Test
+    public void extendedLockTime_continuous() {
+        // each segment ends one step before the next one starts
+        for (int i = 64; i < 704; i++) {
+            long step = 1L << (i / 32 - 1);
+            assertEquals("indicator " + i, step,
+                    DecodeMSMMsg.extendedLockTime(i + 1) - DecodeMSMMsg.extendedLockTime(i));
+        }
+    }
+}
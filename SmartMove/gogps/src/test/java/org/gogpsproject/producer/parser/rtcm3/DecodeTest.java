@@ -0,0 +1,106 @@
+package org.gogpsproject.producer.parser.rtcm3;
+
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.util.BitReader;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Both decode signatures, whichever one the decoder overrides.
+ */
+public class DecodeTest {
+
+    private static final double X = 4201575.8487;
+    private static final double Y = -189856.2349;
+    private static final double Z = 4779066.0126;
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void builtInDecoder_deprecatedSignature() {
+        Decode decoder = new Decode1005Msg(new RTCM3Client(new ConnectionSettings("127.0.0.1", 2101, "user", "password")));
+
+        Coordinates c = (Coordinates) decoder.decode(message1005(), 0);
+        assertEquals(X, c.getX(), 1e-4);
+        assertEquals(Y, c.getY(), 1e-4);
+        assertEquals(Z, c.getZ(), 1e-4);
+
+        Coordinates r = (Coordinates) decoder.decode(BitReader.wrap(message1005()), 0);
+        assertEquals(c.getX(), r.getX(), 0);
+        assertEquals(c.getY(), r.getY(), 0);
+        assertEquals(c.getZ(), r.getZ(), 0);
+    }
+
+    @Test
+    public void legacyDecoder_readerSignature() {
+        Decode legacy = new Decode() {
+            @Override
+            public Object decode(boolean[] bits, int week) {
+                return bits.length + "/" + week;
+            }
+        };
+        assertEquals("152/2100", legacy.decode(BitReader.wrap(message1005()), 2100));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void neitherSignature_unsupported() {
+        Decode none = new Decode() {
+        };
+        try {
+            none.decode(BitReader.wrap(message1005()), 0);
+            fail("no decode method");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            none.decode(message1005(), 0);
+            fail("no decode method");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // a decoder may still delegate to another one from its own decode
+        final Decode legacy = new Decode() {
+            @Override
+            public Object decode(boolean[] bits, int week) {
+                return "legacy";
+            }
+        };
+        Decode outer = new Decode() {
+            @Override
+            public Object decode(boolean[] bits, int week) {
+                return legacy.decode(BitReader.wrap(bits), week);
+            }
+        };
+        assertEquals("legacy", outer.decode(BitReader.wrap(message1005()), 0));
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @return a 1005 message, station 7, reference point X, Y, Z
+     */
+    private static boolean[] message1005() {
+        boolean[] bits = new boolean[152];
+        int i = 0;
+        i = put(bits, i, 1005, 12);
+        i = put(bits, i, 7, 12);
+        i = put(bits, i, 0, 6);
+        i = put(bits, i, 0xF, 4);
+        i = put(bits, i, Math.round(X * 10000), 38);
+        i = put(bits, i, 0, 2);
+        i = put(bits, i, Math.round(Y * 10000), 38);
+        i = put(bits, i, 0, 2);
+        i = put(bits, i, Math.round(Z * 10000), 38);
+        assertEquals(bits.length, i);
+        return bits;
+    }
+
+    /** Writes the n low bits of v, most significant first */
+    private static int put(boolean[] bits, int i, long v, int n) {
+        for (int k = n - 1; k >= 0; k--)
+            bits[i++] = ((v >>> k) & 1) != 0;
+        return i;
+    }
+}
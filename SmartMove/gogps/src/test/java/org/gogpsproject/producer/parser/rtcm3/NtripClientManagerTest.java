@@ -0,0 +1,313 @@
+package org.gogpsproject.producer.parser.rtcm3;
+
+import org.gogpsproject.ephemeris.EphGps;
+import org.gogpsproject.ephemeris.GNSSEphemeris;
+import org.gogpsproject.ephemeris.GNSSEphemerisCorrections;
+import org.gogpsproject.ephemeris.SatelliteCodeBiases;
+import org.gogpsproject.positioning.Coordinates;
+import org.gogpsproject.producer.Observations;
+import org.gogpsproject.producer.StreamEventListener;
+import org.gogpsproject.producer.parser.IonoGps;
+import org.gogpsproject.util.Crc24q;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Handshake, data timeout, reconnection and stop of the manager against an
+ * in-process caster.
+ */
+public class NtripClientManagerTest {
+
+    private FakeCaster caster;
+    private NtripClientManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        manager = new NtripClientManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.stop(true, 5000);
+        if (caster != null) caster.close();
+    }
+
+    @Test
+    public void handshake_framesAreDecodedUntilStop() throws Exception {
+        caster = new FakeCaster(3);
+        RTCM3Client client = client(caster);
+        ClosedListener listener = new ClosedListener();
+        client.addStreamEventListener(listener);
+
+        manager.start();
+        assertTrue(manager.register(client));
+
+        long end = System.currentTimeMillis() + 5000;
+        while (client.getStatistics().getGoodFrames() < 3) {
+            assertTrue("frames not received: " + client.getStatistics(), System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        String request = caster.requests.get(0);
+        assertTrue(request, request.startsWith("GET /MOUNT HTTP/1.1\r\n"));
+        assertTrue(request, request.contains("Authorization: Basic "));
+        assertEquals(0, listener.closed.get());
+
+        manager.stop(true, 5000);
+        assertFalse(manager.isRunning());
+        assertEquals(1, listener.closed.get());
+        assertEquals(1, caster.accepts.size());
+    }
+
+    @Test
+    public void dataTimeout_reconnectsWithBackoff() throws Exception {
+        caster = new FakeCaster(0);
+        RTCM3Client client = client(caster);
+        client.setReconnectionWaitingTime(1);
+        manager.setDataTimeout(300).setMaxReconnectionWaitingTime(1500);
+
+        manager.start();
+        assertTrue(manager.register(client));
+        caster.awaitAccepts(3, 15000);
+
+        // the caster is silent after its answer, the client leaves after the data timeout
+        long firstStream = caster.closes.get(0) - caster.accepts.get(0);
+        assertTrue("closed after " + firstStream + " ms", firstStream >= 300);
+
+        // waits the reconnection time, then twice longer up to the maximum
+        long firstWait = caster.accepts.get(1) - caster.closes.get(0);
+        long secondWait = caster.accepts.get(2) - caster.closes.get(1);
+        assertTrue("first wait " + firstWait + " ms", firstWait >= 900 && firstWait < 1450);
+        assertTrue("second wait " + secondWait + " ms", secondWait >= 1400 && secondWait < 1950);
+    }
+
+    @Test
+    public void stop_closesPendingRegistrations() throws Exception {
+        caster = new FakeCaster(0);
+
+        // never started: the registration is closed by stop
+        RTCM3Client pending = client(caster);
+        ClosedListener pendingListener = new ClosedListener();
+        pending.addStreamEventListener(pendingListener);
+        assertTrue(manager.register(pending));
+        manager.stop(true, 5000);
+        assertEquals(1, pendingListener.closed.get());
+        assertFalse(manager.register(client(caster)));
+
+        // registrations racing with stop are either refused or closed
+        manager = new NtripClientManager();
+        manager.start();
+        final List<RTCM3Client> accepted = new ArrayList<RTCM3Client>();
+        final List<ClosedListener> listeners = new ArrayList<ClosedListener>();
+        final CountDownLatch registering = new CountDownLatch(1);
+        Thread registrar = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 500; i++) {
+                    RTCM3Client client = client(caster);
+                    ClosedListener listener = new ClosedListener();
+                    client.addStreamEventListener(listener);
+                    if (manager.register(client)) {
+                        accepted.add(client);
+                        listeners.add(listener);
+                    }
+                    if (i == 10) registering.countDown();
+                }
+            }
+        });
+        registrar.start();
+        assertTrue(registering.await(5, TimeUnit.SECONDS));
+        manager.stop(true, 5000);
+        registrar.join(5000);
+
+        assertFalse(manager.isRunning());
+        assertFalse(manager.register(client(caster)));
+        assertTrue(accepted.size() > 0);
+        for (int i = 0; i < listeners.size(); i++)
+            assertEquals("client " + i + " of " + accepted.size(), 1, listeners.get(i).closed.get());
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static RTCM3Client client(FakeCaster caster) {
+        ConnectionSettings settings = new ConnectionSettings("127.0.0.1", caster.getPort(), "user", "password");
+        settings.setSource("MOUNT");
+        RTCM3Client client = new RTCM3Client(settings);
+        client.setReconnectionPolicy(RTCM3Client.CONNECTION_POLICY_RECONNECT);
+        client.setExitPolicy(RTCM3Client.EXIT_NEVER);
+        return client;
+    }
+
+    /**
+     * @return a frame whose 12 byte payload starts with an undecoded message type
+     */
+    private static byte[] frame() {
+        byte[] frame = new byte[RTCM3Framer.HEADER_LENGTH + 12 + RTCM3Framer.CRC_LENGTH];
+        frame[0] = (byte) RTCM3Framer.PREAMBLE;
+        frame[2] = 12;
+        frame[3] = (byte) 0xFF;
+        frame[4] = (byte) 0xE0;
+        int crc = Crc24q.compute(frame, 0, RTCM3Framer.HEADER_LENGTH + 12);
+        frame[frame.length - 3] = (byte) (crc >> 16);
+        frame[frame.length - 2] = (byte) (crc >> 8);
+        frame[frame.length - 1] = (byte) crc;
+        return frame;
+    }
+
+    /**
+     * Caster answering "ICY 200 OK" to every request, then sending a few
+     * frames and keeping the connection open until the client leaves.
+     */
+    private static class FakeCaster implements Runnable {
+        final ServerSocket server;
+        final int frames;
+        final List<String> requests = new java.util.concurrent.CopyOnWriteArrayList<String>();
+        final List<Long> accepts = new java.util.concurrent.CopyOnWriteArrayList<Long>();
+        final List<Long> closes = new java.util.concurrent.CopyOnWriteArrayList<Long>();
+        final List<Socket> sockets = new java.util.concurrent.CopyOnWriteArrayList<Socket>();
+
+        FakeCaster(int frames) throws IOException {
+            this.frames = frames;
+            server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread t = new Thread(this, "FakeCaster");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    final Socket socket = server.accept();
+                    accepts.add(System.currentTimeMillis());
+                    sockets.add(socket);
+                    Thread t = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }, "FakeCaster connection");
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                while (!request.toString("US-ASCII").endsWith("\r\n\r\n")) {
+                    int b = in.read();
+                    if (b < 0) return;
+                    request.write(b);
+                }
+                requests.add(request.toString("US-ASCII"));
+                out.write("ICY 200 OK\r\n".getBytes("US-ASCII"));
+                for (int i = 0; i < frames; i++)
+                    out.write(frame());
+                out.flush();
+                while (in.read() >= 0) {
+                    // the client may send GGA sentences
+                }
+            } catch (IOException e) {
+                // the client left
+            } finally {
+                closes.add(System.currentTimeMillis());
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }
+        }
+
+        void awaitAccepts(int n, long timeoutMs) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMs;
+            while (accepts.size() < n) {
+                assertTrue(accepts.size() + " connections of " + n, System.currentTimeMillis() < end);
+                Thread.sleep(10);
+            }
+        }
+
+        void close() throws IOException {
+            server.close();
+            for (Socket s : sockets) s.close();
+        }
+    }
+
+    /**
+     * Counts the closures of the stream.
+     */
+    private static class ClosedListener implements StreamEventListener {
+        final AtomicInteger closed = new AtomicInteger();
+
+        @Override
+        public void streamClosed() {
+            closed.incrementAndGet();
+        }
+
+        @Override
+        public void addObservations(Observations o) {
+        }
+
+        @Override
+        public void addIonospheric(IonoGps iono) {
+        }
+
+        @Override
+        public void addEphemeris(EphGps eph) {
+        }
+
+        @Override
+        public void addEphemeris(GNSSEphemeris eph) {
+        }
+
+        @Override
+        public void addEphemerisCorr(GNSSEphemerisCorrections ephCorr) {
+        }
+
+        @Override
+        public void addSatelliteCodeBiases(SatelliteCodeBiases _scb) {
+        }
+
+        @Override
+        public void setDefinedPosition(Coordinates definedPosition) {
+        }
+
+        @Override
+        public Observations getCurrentObservations() {
+            return null;
+        }
+
+        @Override
+        public void pointToNextObservations() {
+        }
+
+        @Override
+        public void onStreamReceived(String msg) {
+        }
+    }
+}
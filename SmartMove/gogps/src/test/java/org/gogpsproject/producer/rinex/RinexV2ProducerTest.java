@@ -0,0 +1,138 @@
+package org.gogpsproject.producer.rinex;
+
+import org.gogpsproject.positioning.Time;
+import org.gogpsproject.producer.ObservationSet;
+import org.gogpsproject.producer.Observations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hourly rotation of compressed files: every file is complete once the
+ * stream is closed.
+ */
+public class RinexV2ProducerTest {
+
+    /** 2020/06/01 10:00 UTC */
+    private static final long T0 = 1591005600000L;
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final int EPOCHS = 3600;
+    private static final int SATELLITES = 12;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("rinex", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void hourlyRotation_streamClosedWaitsForRotatedFiles() throws IOException {
+        RinexV2Producer producer = new RinexV2Producer(false, true, "TEST");
+        producer.setOutputDir(dir.getAbsolutePath());
+        producer.setCompression(RinexWriter.COMPRESSION_ZIP);
+        producer.setRotation(RinexWriter.ROTATE_HOUR);
+
+        for (int h = 0; h < 2; h++) {
+            for (int i = 0; i < EPOCHS; i++)
+                producer.addObservations(epoch(T0 + h * HOUR + i * 1000L));
+        }
+        // closed just after a rotation, while the previous file is being completed
+        producer.addObservations(epoch(T0 + 2 * HOUR));
+        producer.streamClosed();
+
+        String[] names = dir.list();
+        Arrays.sort(names);
+        assertEquals(Arrays.asList("TEST153k00.20o.zip", "TEST153l00.20o.zip", "TEST153m00.20o.zip"),
+                Arrays.asList(names));
+        assertEquals(EPOCHS, countEpochs(new File(dir, names[0])));
+        assertEquals(EPOCHS, countEpochs(new File(dir, names[1])));
+        assertEquals(1, countEpochs(new File(dir, names[2])));
+    }
+
+    @Test
+    public void hourlyRotation_allMinutesTakenNeverOverwrites() throws IOException {
+        // files of earlier runs from 10:30 to the end of the hour, and a first sequence
+        for (int minute = 30; minute < 60; minute++)
+            assertTrue(new File(dir, String.format("TEST153k%02d.20o", minute)).createNewFile());
+        assertTrue(new File(dir, "TEST153k59_1.20o.zip").createNewFile());
+
+        RinexV2Producer producer = new RinexV2Producer(false, true, "TEST");
+        producer.setOutputDir(dir.getAbsolutePath());
+        producer.setRotation(RinexWriter.ROTATE_HOUR);
+        producer.addObservations(epoch(T0 + 30 * 60 * 1000L));
+        producer.streamClosed();
+
+        File written = new File(dir, "TEST153k59_2.20o");
+        assertTrue(written.exists());
+        assertTrue(written.length() > 0);
+        for (File f : dir.listFiles()) {
+            if (!f.equals(written))
+                assertEquals(f.getName(), 0, f.length());
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static Observations epoch(long msec) {
+        Observations o = new Observations(new Time(msec), 0);
+        for (int i = 0; i < SATELLITES; i++) {
+            ObservationSet os = new ObservationSet();
+            os.setSatType('G');
+            os.setSatID(i + 1);
+            os.setCodeC(0, 21000000.123 + msec % 1000000 + i);
+            os.setPhaseCycles(0, 110000000.456 + msec % 1000000 + i);
+            o.setGps(i, os);
+        }
+        return o;
+    }
+
+    /**
+     * @return the number of epochs of the zipped file, which must be complete
+     */
+    private static int countEpochs(File zip) throws IOException {
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(zip));
+        try {
+            ZipEntry entry = zis.getNextEntry();
+            assertNotNull(zip.getName(), entry);
+            assertEquals(zip.getName(), entry.getName() + ".zip");
+            BufferedReader br = new BufferedReader(new InputStreamReader(zis, "US-ASCII"));
+            boolean header = true;
+            int epochs = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (header) {
+                    header = !line.startsWith("END OF HEADER", 60);
+                } else if (line.startsWith("G01", 32)) {
+                    epochs++;
+                }
+            }
+            assertFalse(zip.getName() + " has no header", header);
+            return epochs;
+        } finally {
+            zis.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.gogpsproject.util;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decompression of a Compact RINEX 1.0 file checked against its RINEX 2
+ * text, blanks at the end of the lines aside. hatanaka.20d has satellites
+ * rising and setting, an observable missing for a few epochs, an arc restarted
+ * after a cycle slip, a special event, epochs without clock offset followed
+ * by a new clock arc, and changing LLI / signal strength flags.
+ */
+public class HatanakaInputStreamTest {
+
+    @Test
+    public void crinex1_matchesPlainText() throws IOException {
+        InputStream is = new HatanakaInputStream(resource("hatanaka.20d"));
+        assertEquals(lines(resource("hatanaka.20o")), lines(is));
+    }
+
+    @Test
+    public void compressedCrinex1_matchesPlainText() throws IOException {
+        InputStream is = new HatanakaInputStream(new UncompressInputStream(resource("hatanaka.20d.Z")));
+        assertEquals(lines(resource("hatanaka.20o")), lines(is));
+    }
+
+    @Test
+    public void clockOffset_integratedUpToArcOrder() throws IOException {
+        List<String> rinex = lines(new HatanakaInputStream(crinex(
+                "&20  6  1 10  0  0.0000000  0  1G01",
+                "2&123456",
+                "1&1000000",
+                "                 1",
+                "7",
+                "1000",
+                "                 2",
+                "4",
+                "1000",
+                "                 3",
+                "",
+                "1000",
+                "                 4",
+                "2&5",
+                "1000")));
+        // the three lines of the RINEX header first
+        int e = 3;
+        assertTrue(rinex.get(e - 1).endsWith("END OF HEADER"));
+        assertEquals(clock(" 20  6  1 10  0  0.0000000  0  1G01", "0.000123456"), rinex.get(e));
+        assertEquals("      1000.000", rinex.get(e + 1));
+        assertEquals(clock(" 20  6  1 10  0  1.0000000  0  1G01", "0.000123463"), rinex.get(e + 2));
+        assertEquals(clock(" 20  6  1 10  0  2.0000000  0  1G01", "0.000123474"), rinex.get(e + 4));
+        assertEquals(" 20  6  1 10  0  3.0000000  0  1G01", rinex.get(e + 6));
+        assertEquals("      1003.000", rinex.get(e + 7));
+        assertEquals(clock(" 20  6  1 10  0  4.0000000  0  1G01", "0.000000005"), rinex.get(e + 8));
+        assertEquals("      1004.000", rinex.get(e + 9));
+        assertEquals(e + 10, rinex.size());
+    }
+
+    @Test
+    public void clockDifferenceWithoutInitialization_fails() throws IOException {
+        InputStream is = new HatanakaInputStream(crinex(
+                "&20  6  1 10  0  0.0000000  0  1G01",
+                "7",
+                "1&1000"));
+        try {
+            lines(is);
+            fail("clock difference without arc initialization");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @return a CRINEX 1.0 file with one observable, made of the given epochs
+     */
+    private static InputStream crinex(String... epochs) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(header("1.0                 COMPACT RINEX FORMAT", "CRINEX VERS   / TYPE"));
+        sb.append(header("RNX2CRX ver.4.0.7                       01-Jun-20 10:00", "CRINEX PROG / DATE"));
+        sb.append(header("     2.11           OBSERVATION DATA    G (GPS)", "RINEX VERSION / TYPE"));
+        sb.append(header("     1    C1", "# / TYPES OF OBSERV"));
+        sb.append(header("", "END OF HEADER"));
+        for (String line : epochs)
+            sb.append(line).append('\n');
+        return new ByteArrayInputStream(sb.toString().getBytes("US-ASCII"));
+    }
+
+    /**
+     * @return the RINEX 2 epoch line with its clock offset in columns 69-80
+     */
+    private static String clock(String epoch, String offset) {
+        StringBuilder sb = new StringBuilder(epoch);
+        while (sb.length() + offset.length() < 80)
+            sb.append(' ');
+        return sb.append(offset).toString();
+    }
+
+    private static String header(String content, String label) {
+        StringBuilder sb = new StringBuilder(content);
+        while (sb.length() < 60)
+            sb.append(' ');
+        return sb.append(label).append('\n').toString();
+    }
+
+    /**
+     * @return the lines, without their trailing blanks
+     */
+    private static List<String> lines(InputStream is) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(is, "US-ASCII"));
+        try {
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = br.readLine()) != null) {
+                int end = line.length();
+                while (end > 0 && line.charAt(end - 1) == ' ')
+                    end--;
+                lines.add(line.substring(0, end));
+            }
+            return lines;
+        } finally {
+            br.close();
+        }
+    }
+
+    private static InputStream resource(String name) {
+        InputStream is = HatanakaInputStreamTest.class.getResourceAsStream(name);
+        assertNotNull(name, is);
+        return is;
+    }
+}
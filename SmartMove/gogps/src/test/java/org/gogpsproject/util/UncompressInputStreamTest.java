@@ -0,0 +1,91 @@
+package org.gogpsproject.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decompression of a Unix compress file checked against its plain text.
+ * hatanaka.20d.Z was compressed with 10 bit codes at most, the table is
+ * cleared as soon as it is full: its codes grow from 9 to 10 bits, are reset
+ * by two CLEAR codes, and the runs of blanks produce KwKwK codes.
+ */
+public class UncompressInputStreamTest {
+
+    @Test
+    public void blockReads_matchPlainText() throws IOException {
+        byte[] expected = resource("hatanaka.20d");
+        InputStream is = new UncompressInputStream(new ByteArrayInputStream(resource("hatanaka.20d.Z")));
+        try {
+            assertArrayEquals(expected, readAll(is, 100000));
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void smallReads_matchPlainText() throws IOException {
+        byte[] expected = resource("hatanaka.20d");
+        InputStream is = new UncompressInputStream(new ByteArrayInputStream(resource("hatanaka.20d.Z")));
+        try {
+            assertArrayEquals(expected, readAll(is, 7));
+        } finally {
+            is.close();
+        }
+
+        is = new UncompressInputStream(new ByteArrayInputStream(resource("hatanaka.20d.Z")));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int b;
+            while ((b = is.read()) >= 0)
+                out.write(b);
+            assertArrayEquals(expected, out.toByteArray());
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void kwkwk_codeOfTheEntryBeingBuilt() throws IOException {
+        // 16 bit block mode, 9 bit codes 'a' and 257, the entry "aa" not yet in the table
+        byte[] z = {0x1f, (byte) 0x9d, (byte) 0x90, 0x61, 0x02, 0x02};
+        InputStream is = new UncompressInputStream(new ByteArrayInputStream(z));
+        assertEquals("aaa", new String(readAll(is, 100), "US-ASCII"));
+    }
+
+    @Test
+    public void notCompressed_fails() {
+        try {
+            new UncompressInputStream(new ByteArrayInputStream("plain text".getBytes()));
+            fail("no magic number");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static byte[] readAll(InputStream is, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[bufferSize];
+        int n;
+        while ((n = is.read(buf, 0, buf.length)) >= 0)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    static byte[] resource(String name) throws IOException {
+        InputStream is = UncompressInputStreamTest.class.getResourceAsStream(name);
+        assertNotNull(name, is);
+        try {
+            return readAll(is, 8192);
+        } finally {
+            is.close();
+        }
+    }
+}